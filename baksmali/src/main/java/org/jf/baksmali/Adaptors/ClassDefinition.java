@@ -32,9 +32,7 @@ import org.jf.dexlib.Util.Utf8Utils;
 import org.jf.util.IndentingWriter;
 import org.jf.dexlib.*;
 import org.jf.dexlib.Code.Analysis.ValidationException;
-import org.jf.dexlib.Code.Format.Instruction21c;
-import org.jf.dexlib.Code.Format.Instruction41c;
-import org.jf.dexlib.Code.Instruction;
+import org.jf.dexlib.Code.InstructionCursor;
 import org.jf.dexlib.EncodedValue.EncodedValue;
 import org.jf.dexlib.Util.AccessFlags;
 import org.jf.dexlib.Util.SparseArray;
@@ -108,20 +106,16 @@ public class ClassDefinition {
         for (ClassDataItem.EncodedMethod directMethod: classDataItem.getDirectMethods()) {
             if (directMethod.method.getMethodName().getStringValue().equals("<clinit>") &&
                     directMethod.codeItem != null) {
-                for (Instruction instruction: directMethod.codeItem.getInstructions()) {
-                    switch (instruction.opcode) {
+                InstructionCursor cursor = directMethod.codeItem.getInstructionCursor();
+                while (cursor.next()) {
+                    switch (cursor.getOpcode()) {
                         case SPUT:
                         case SPUT_BOOLEAN:
                         case SPUT_BYTE:
                         case SPUT_CHAR:
                         case SPUT_OBJECT:
                         case SPUT_SHORT:
-                        case SPUT_WIDE: {
-                            Instruction21c ins = (Instruction21c)instruction;
-                            FieldIdItem fieldIdItem = (FieldIdItem)ins.getReferencedItem();
-                            fieldsSetInStaticConstructor.put(fieldIdItem.getIndex(), fieldIdItem);
-                            break;
-                        }
+                        case SPUT_WIDE:
                         case SPUT_JUMBO:
                         case SPUT_BOOLEAN_JUMBO:
                         case SPUT_BYTE_JUMBO:
@@ -129,8 +123,7 @@ public class ClassDefinition {
                         case SPUT_OBJECT_JUMBO:
                         case SPUT_SHORT_JUMBO:
                         case SPUT_WIDE_JUMBO: {
-                            Instruction41c ins = (Instruction41c)instruction;
-                            FieldIdItem fieldIdItem = (FieldIdItem)ins.getReferencedItem();
+                            FieldIdItem fieldIdItem = (FieldIdItem)cursor.getReferencedItem();
                             fieldsSetInStaticConstructor.put(fieldIdItem.getIndex(), fieldIdItem);
                             break;
                         }
@@ -33,8 +33,10 @@ import org.jf.dexlib.Code.Analysis.SyntheticAccessorResolver;
 import org.jf.dexlib.Code.InstructionWithReference;
 import org.jf.util.IndentingWriter;
 import org.jf.baksmali.baksmali;
+import org.jf.baksmali.main;
 import org.jf.dexlib.*;
 import org.jf.dexlib.Code.Analysis.AnalyzedInstruction;
+import org.jf.dexlib.Code.Analysis.DeodexUtil;
 import org.jf.dexlib.Code.Analysis.MethodAnalyzer;
 import org.jf.dexlib.Code.Analysis.ValidationException;
 import org.jf.dexlib.Code.Format.Format;
@@ -44,6 +46,7 @@ import org.jf.dexlib.Code.Opcode;
 import org.jf.dexlib.Debug.DebugInstructionIterator;
 import org.jf.dexlib.Util.AccessFlags;
 import org.jf.dexlib.Util.ExceptionWithContext;
+import org.jf.dexlib.Util.Metrics;
 import org.jf.dexlib.Util.SparseIntArray;
 
 import java.io.IOException;
@@ -52,6 +55,7 @@ import java.util.*;
 public class MethodDefinition {
     private final ClassDataItem.EncodedMethod encodedMethod;
     private MethodAnalyzer methodAnalyzer;
+    private ValidationException validationException;
 
     private final LabelCache labelCache = new LabelCache();
 
@@ -95,7 +99,6 @@ public class MethodDefinition {
                 packedSwitchMap = null;
                 sparseSwitchMap = null;
                 instructionMap = null;
-                methodAnalyzer = null;
             }
         }catch (Exception ex) {
             throw ExceptionWithContext.withContext(ex, String.format("Error while processing method %s",
@@ -107,6 +110,8 @@ public class MethodDefinition {
                         AnnotationSetRefList parameterAnnotations) throws IOException {
         final CodeItem codeItem = encodedMethod.codeItem;
 
+        Metrics.count(Metrics.Counter.METHODS);
+
         writer.write(".method ");
         writeAccessFlags(writer, encodedMethod);
         writer.write(encodedMethod.method.getMethodName().getStringValue());
@@ -129,11 +134,7 @@ public class MethodDefinition {
 
             writer.write('\n');
 
-            for (MethodItem methodItem: getMethodItems()) {
-                if (methodItem.writeTo(writer)) {
-                    writer.write('\n');
-                }
-            }
+            writeMethodItems(writer);
         } else {
             writeParameters(writer, codeItem, parameterAnnotations);
             if (annotationSet != null) {
@@ -229,11 +230,7 @@ public class MethodDefinition {
     }
 
     public ValidationException getValidationException() {
-        if (methodAnalyzer == null) {
-            return null;
-        }
-
-        return methodAnalyzer.getValidationException();
+        return validationException;
     }
 
     public int getPackedSwitchBaseAddress(int packedSwitchDataAddress) {
@@ -290,97 +287,164 @@ public class MethodDefinition {
         return false;
     }
 
-    private List<MethodItem> getMethodItems() {
-        ArrayList<MethodItem> methodItems = new ArrayList<MethodItem>();
+    /**
+     * Writes the instructions of this method, along with the labels, try/catch directives, debug directives and
+     * comments that go with them.
+     *
+     * Everything other than the instructions is collected into lists that are already in address order, and is then
+     * merged with the instruction stream as the instructions are written. This produces the same ordering as sorting
+     * all of the method items by code address and sort order, but without creating an item for every blank line,
+     * code offset comment and register info comment, or sorting the whole method.
+     */
+    private void writeMethodItems(IndentingWriter writer) throws IOException {
+        CodeItem codeItem = encodedMethod.codeItem;
 
-        if (encodedMethod.codeItem == null) {
-            return methodItems;
-        }
+        List<MethodItem> commentItems = new ArrayList<MethodItem>(1);
+        List<AnalyzedInstruction> analyzedInstructions = null;
+        Instruction[] instructions;
 
-        if (baksmali.registerInfo != 0 || baksmali.deodex || baksmali.verify) {
-            addAnalyzedInstructionMethodItems(methodItems);
+        DeodexUtil deodexUtil = baksmali.getDeodexUtil(encodedMethod.method.getDexFile());
+        if (baksmali.registerInfo != 0 || deodexUtil != null || baksmali.verify) {
+            analyzedInstructions = analyzeInstructions(deodexUtil, commentItems);
+
+            instructions = new Instruction[analyzedInstructions.size()];
+            for (int i=0; i<instructions.length; i++) {
+                instructions[i] = analyzedInstructions.get(i).getInstruction();
+            }
         } else {
-            addInstructionMethodItems(methodItems);
+            instructions = codeItem.getInstructions();
+        }
+
+        Metrics.count(Metrics.Counter.INSTRUCTIONS, instructions.length);
+
+        //the instruction items have to be created before anything is written, because they register the labels that
+        //they refer to
+        MethodItem[] instructionItems = new MethodItem[instructions.length];
+        int[] codeAddresses = new int[instructions.length];
+
+        int currentCodeAddress = 0;
+        for (int i=0; i<instructions.length; i++) {
+            codeAddresses[i] = currentCodeAddress;
+            instructionItems[i] = InstructionMethodItemFactory.makeInstructionFormatMethodItem(this, codeItem,
+                    currentCodeAddress, instructions[i]);
+            currentCodeAddress += instructions[i].getSize(currentCodeAddress);
         }
 
-        addTries(methodItems);
+        List<MethodItem> catchItems = getTries();
+
+        List<MethodItem> debugItems;
         if (baksmali.outputDebugInfo) {
-            addDebugInfo(methodItems);
+            debugItems = getDebugInfo();
+        } else {
+            debugItems = Collections.emptyList();
         }
 
+        List<LabelMethodItem> labels = new ArrayList<LabelMethodItem>(labelCache.getLabels());
+        Collections.sort(labels);
+
         if (baksmali.useSequentialLabels) {
-            setLabelSequentialNumbers();
+            setLabelSequentialNumbers(labels);
         }
 
-        for (LabelMethodItem labelMethodItem: labelCache.getLabels()) {
-            methodItems.add(labelMethodItem);
+        MethodItemMerger merger = new MethodItemMerger(commentItems, catchItems, debugItems, labels);
+
+        RegisterTypeReleaser registerTypeReleaser = null;
+        if (analyzedInstructions != null) {
+            registerTypeReleaser = new RegisterTypeReleaser(analyzedInstructions);
         }
 
-        Collections.sort(methodItems);
+        for (int i=0; i<instructions.length; i++) {
+            Instruction instruction = instructions[i];
+            int codeAddress = codeAddresses[i];
 
-        return methodItems;
-    }
+            merger.writeItemsBefore(writer, codeAddress, -1000);
 
-    private void addInstructionMethodItems(List<MethodItem> methodItems) {
-        Instruction[] instructions = encodedMethod.codeItem.getInstructions();
+            if (baksmali.addCodeOffsets) {
+                writer.write("#@");
+                writer.printUnsignedLongAsHex(codeAddress & 0xFFFFFFFF);
+                writer.write('\n');
+            }
 
-        int currentCodeAddress = 0;
-        for (int i=0; i<instructions.length; i++) {
-            Instruction instruction = instructions[i];
+            merger.writeItemsBefore(writer, codeAddress, 99.8);
 
-            MethodItem methodItem = InstructionMethodItemFactory.makeInstructionFormatMethodItem(this,
-                    encodedMethod.codeItem, currentCodeAddress, instruction);
+            AnalyzedInstruction analyzedInstruction = null;
+            if (analyzedInstructions != null) {
+                analyzedInstruction = analyzedInstructions.get(i);
+            } else if (!baksmali.noAccessorComments) {
+                writeSyntheticAccessComment(writer, instruction, codeAddress);
+            }
 
-            methodItems.add(methodItem);
+            boolean writeRegisterInfo = analyzedInstruction != null && baksmali.registerInfo != 0 &&
+                    !instruction.getFormat().variableSizeFormat;
 
-            if (i != instructions.length - 1) {
-                methodItems.add(new BlankMethodItem(currentCodeAddress));
+            if (writeRegisterInfo) {
+                writeMethodItem(writer,
+                        new PreInstructionRegisterInfoMethodItem(analyzedInstruction, methodAnalyzer, codeAddress));
             }
 
-            if (baksmali.addCodeOffsets) {
-                methodItems.add(new MethodItem(currentCodeAddress) {
+            writeMethodItem(writer, instructionItems[i]);
+            //the instruction items aren't needed once they have been written
+            instructionItems[i] = null;
 
-                    @Override
-                    public double getSortOrder() {
-                        return -1000;
-                    }
+            if (analyzedInstruction != null && instruction.getFormat() == Format.UnresolvedOdexInstruction) {
+                writeMethodItem(writer, new CommentedOutMethodItem(
+                        InstructionMethodItemFactory.makeInstructionFormatMethodItem(this, codeItem, codeAddress,
+                                analyzedInstruction.getOriginalInstruction())));
+            }
 
-                    @Override
-                    public boolean writeTo(IndentingWriter writer) throws IOException {
-                        writer.write("#@");
-                        writer.printUnsignedLongAsHex(codeAddress & 0xFFFFFFFF);
-                        return true;
-                    }
-                });
+            if (writeRegisterInfo) {
+                writeMethodItem(writer,
+                        new PostInstructionRegisterInfoMethodItem(analyzedInstruction, methodAnalyzer, codeAddress));
             }
 
-            if (!baksmali.noAccessorComments && (instruction instanceof InstructionWithReference)) {
-                if (instruction.opcode == Opcode.INVOKE_STATIC || instruction.opcode == Opcode.INVOKE_STATIC_RANGE) {
-                    MethodIdItem methodIdItem =
-                            (MethodIdItem)((InstructionWithReference) instruction).getReferencedItem();
+            if (registerTypeReleaser != null) {
+                registerTypeReleaser.instructionWritten(analyzedInstruction);
+            }
 
-                    if (SyntheticAccessorResolver.looksLikeSyntheticAccessor(methodIdItem)) {
-                        SyntheticAccessorResolver.AccessedMember accessedMember =
-                                baksmali.syntheticAccessorResolver.getAccessedMember(methodIdItem);
-                        if (accessedMember != null) {
-                            methodItems.add(new SyntheticAccessCommentMethodItem(accessedMember, currentCodeAddress));
-                        }
-                    }
-                }
+            merger.writeItemsBefore(writer, codeAddress, Integer.MAX_VALUE);
+
+            if (i != instructions.length - 1) {
+                //a blank line between instructions
+                writer.write('\n');
             }
+        }
+
+        merger.writeRemainingItems(writer);
 
-            currentCodeAddress += instruction.getSize(currentCodeAddress);
+        //the analyzer isn't needed once the method has been written, other than for the validation exception
+        methodAnalyzer = null;
+    }
+
+    private static void writeMethodItem(IndentingWriter writer, MethodItem methodItem) throws IOException {
+        if (methodItem.writeTo(writer)) {
+            writer.write('\n');
+        }
+    }
+
+    private void writeSyntheticAccessComment(IndentingWriter writer, Instruction instruction, int codeAddress)
+            throws IOException {
+        if ((instruction.opcode == Opcode.INVOKE_STATIC || instruction.opcode == Opcode.INVOKE_STATIC_RANGE) &&
+                instruction instanceof InstructionWithReference) {
+            MethodIdItem methodIdItem = (MethodIdItem)((InstructionWithReference) instruction).getReferencedItem();
+
+            if (SyntheticAccessorResolver.looksLikeSyntheticAccessor(methodIdItem)) {
+                SyntheticAccessorResolver.AccessedMember accessedMember =
+                        baksmali.getSyntheticAccessorResolver().getAccessedMember(methodIdItem);
+                if (accessedMember != null) {
+                    writeMethodItem(writer, new SyntheticAccessCommentMethodItem(accessedMember, codeAddress));
+                }
+            }
         }
     }
 
-    private void addAnalyzedInstructionMethodItems(List<MethodItem> methodItems) {
-        methodAnalyzer = new MethodAnalyzer(encodedMethod, baksmali.deodex, baksmali.inlineResolver);
+    private List<AnalyzedInstruction> analyzeInstructions(DeodexUtil deodexUtil, List<MethodItem> commentItems) {
+        methodAnalyzer = new MethodAnalyzer(encodedMethod, deodexUtil);
 
         methodAnalyzer.analyze();
 
-        ValidationException validationException = methodAnalyzer.getValidationException();
+        validationException = methodAnalyzer.getValidationException();
         if (validationException != null) {
-            methodItems.add(new CommentMethodItem(
+            commentItems.add(new CommentMethodItem(
                     String.format("ValidationException: %s" ,validationException.getMessage()),
                     validationException.getCodeAddress(), Integer.MIN_VALUE));
         } else if (baksmali.verify) {
@@ -388,65 +452,20 @@ public class MethodDefinition {
 
             validationException = methodAnalyzer.getValidationException();
             if (validationException != null) {
-                methodItems.add(new CommentMethodItem(
+                commentItems.add(new CommentMethodItem(
                         String.format("ValidationException: %s" ,validationException.getMessage()),
                         validationException.getCodeAddress(), Integer.MIN_VALUE));
             }
         }
 
-        List<AnalyzedInstruction> instructions = methodAnalyzer.getInstructions();
-
-        int currentCodeAddress = 0;
-        for (int i=0; i<instructions.size(); i++) {
-            AnalyzedInstruction instruction = instructions.get(i);
-
-            MethodItem methodItem = InstructionMethodItemFactory.makeInstructionFormatMethodItem(this,
-                    encodedMethod.codeItem, currentCodeAddress, instruction.getInstruction());
-
-            methodItems.add(methodItem);
-
-            if (instruction.getInstruction().getFormat() == Format.UnresolvedOdexInstruction) {
-                methodItems.add(new CommentedOutMethodItem(
-                        InstructionMethodItemFactory.makeInstructionFormatMethodItem(this,
-                                encodedMethod.codeItem, currentCodeAddress, instruction.getOriginalInstruction())));
-            }
-
-            if (i != instructions.size() - 1) {
-                methodItems.add(new BlankMethodItem(currentCodeAddress));
-            }
-
-            if (baksmali.addCodeOffsets) {
-                methodItems.add(new MethodItem(currentCodeAddress) {
-
-                    @Override
-                    public double getSortOrder() {
-                        return -1000;
-                    }
-
-                    @Override
-                    public boolean writeTo(IndentingWriter writer) throws IOException {
-                        writer.write("#@");
-                        writer.printUnsignedLongAsHex(codeAddress & 0xFFFFFFFF);
-                        return true;
-                    }
-                });
-            }
-
-            if (baksmali.registerInfo != 0 && !instruction.getInstruction().getFormat().variableSizeFormat) {
-                methodItems.add(
-                        new PreInstructionRegisterInfoMethodItem(instruction, methodAnalyzer, currentCodeAddress));
-
-                methodItems.add(
-                        new PostInstructionRegisterInfoMethodItem(instruction, methodAnalyzer, currentCodeAddress));
-            }
-
-            currentCodeAddress += instruction.getInstruction().getSize(currentCodeAddress);
-        }
+        return methodAnalyzer.getInstructions();
     }
 
-    private void addTries(List<MethodItem> methodItems) {
+    private List<MethodItem> getTries() {
+        List<MethodItem> methodItems = new ArrayList<MethodItem>();
+
         if (encodedMethod.codeItem == null || encodedMethod.codeItem.getTries() == null) {
-            return;
+            return methodItems;
         }
 
         Instruction[] instructions = encodedMethod.codeItem.getInstructions();
@@ -508,11 +527,17 @@ public class MethodDefinition {
                 methodItems.add(catchMethodItem);
             }
         }
+
+        //the try items aren't necessarily in order of their end address
+        Collections.sort(methodItems);
+        return methodItems;
     }
 
-    private void addDebugInfo(final List<MethodItem> methodItems) {
+    private List<MethodItem> getDebugInfo() {
+        final List<MethodItem> methodItems = new ArrayList<MethodItem>();
+
         if (encodedMethod.codeItem == null || encodedMethod.codeItem.getDebugInfo() == null) {
-            return;
+            return methodItems;
         }
 
         final CodeItem codeItem = encodedMethod.codeItem;
@@ -615,14 +640,18 @@ public class MethodDefinition {
                          });
                     }
                 });
+
+        //the debug items are decoded in address order, but items at the same address still need to be sorted by
+        //their sort order
+        Collections.sort(methodItems);
+        return methodItems;
     }
 
-    private void setLabelSequentialNumbers() {
+    /**
+     * @param sortedLabels the labels of this method, sorted by their location in the method
+     */
+    private static void setLabelSequentialNumbers(List<LabelMethodItem> sortedLabels) {
         HashMap<String, Integer> nextLabelSequenceByType = new HashMap<String, Integer>();
-        ArrayList<LabelMethodItem> sortedLabels = new ArrayList<LabelMethodItem>(labelCache.getLabels());
-
-        //sort the labels by their location in the method
-        Collections.sort(sortedLabels);
 
         for (LabelMethodItem labelMethodItem: sortedLabels) {
             Integer labelSequence = nextLabelSequenceByType.get(labelMethodItem.getLabelPrefix());
@@ -634,6 +663,123 @@ public class MethodDefinition {
         }
     }
 
+    /**
+     * Releases the register types of the analyzed instructions as the method is written, once nothing else that is
+     * still to be written needs them. This keeps the memory used for the register types of huge methods from
+     * being held until the whole method has been written.
+     *
+     * The pre-instruction register types are only used when writing the instruction itself. The post-instruction
+     * register types are also used when writing the merge information for the instruction's successors, if merge
+     * information was requested, so they are kept until all of the successors have been written.
+     */
+    private static class RegisterTypeReleaser {
+        //the number of successors of each instruction that haven't been written yet, or null if the post-instruction
+        //register types aren't used by the successors
+        private final int[] unwrittenSuccessorCounts;
+
+        public RegisterTypeReleaser(List<AnalyzedInstruction> analyzedInstructions) {
+            if ((baksmali.registerInfo & (main.MERGE | main.FULLMERGE)) != 0) {
+                unwrittenSuccessorCounts = new int[analyzedInstructions.size()];
+                for (AnalyzedInstruction analyzedInstruction: analyzedInstructions) {
+                    for (AnalyzedInstruction predecessor: analyzedInstruction.getPredecessors()) {
+                        //the fake "StartOfMethod" instruction has an index of -1, and is never written
+                        if (predecessor.getInstructionIndex() >= 0) {
+                            unwrittenSuccessorCounts[predecessor.getInstructionIndex()]++;
+                        }
+                    }
+                }
+            } else {
+                unwrittenSuccessorCounts = null;
+            }
+        }
+
+        /**
+         * Releases the register types that are no longer needed, now that the given instruction has been written.
+         * The instructions are expected to be written in order of their index.
+         */
+        public void instructionWritten(AnalyzedInstruction analyzedInstruction) {
+            analyzedInstruction.releasePreInstructionRegisterTypes();
+
+            if (unwrittenSuccessorCounts == null) {
+                analyzedInstruction.releasePostInstructionRegisterTypes();
+                return;
+            }
+
+            int instructionIndex = analyzedInstruction.getInstructionIndex();
+
+            for (AnalyzedInstruction predecessor: analyzedInstruction.getPredecessors()) {
+                int predecessorIndex = predecessor.getInstructionIndex();
+                if (predecessorIndex >= 0 && --unwrittenSuccessorCounts[predecessorIndex] == 0 &&
+                        predecessorIndex <= instructionIndex) {
+                    predecessor.releasePostInstructionRegisterTypes();
+                }
+            }
+
+            if (unwrittenSuccessorCounts[instructionIndex] == 0) {
+                analyzedInstruction.releasePostInstructionRegisterTypes();
+            }
+        }
+    }
+
+    /**
+     * Merges several lists of method items that are each already sorted, and writes them out in between the items
+     * for the instructions
+     */
+    private static class MethodItemMerger {
+        private final List<? extends MethodItem>[] methodItemLists;
+        private final int[] indexes;
+
+        public MethodItemMerger(List<? extends MethodItem> commentItems, List<? extends MethodItem> catchItems,
+                                List<? extends MethodItem> debugItems, List<? extends MethodItem> labels) {
+            //if two items compare as equal, the one from the earlier list is written first
+            methodItemLists = new List[] {commentItems, catchItems, debugItems, labels};
+            indexes = new int[methodItemLists.length];
+        }
+
+        /**
+         * Writes all the remaining items that are at a lower code address than the given address, or that are at
+         * the given address and have a lower sort order than the given sort order
+         */
+        public void writeItemsBefore(IndentingWriter writer, int codeAddress, double sortOrder) throws IOException {
+            int listIndex;
+            while ((listIndex = getNextList()) != -1) {
+                MethodItem methodItem = methodItemLists[listIndex].get(indexes[listIndex]);
+                if (methodItem.getCodeAddress() > codeAddress || (methodItem.getCodeAddress() == codeAddress &&
+                        methodItem.getSortOrder() >= sortOrder)) {
+                    return;
+                }
+                writeMethodItem(writer, methodItem);
+                indexes[listIndex]++;
+            }
+        }
+
+        public void writeRemainingItems(IndentingWriter writer) throws IOException {
+            int listIndex;
+            while ((listIndex = getNextList()) != -1) {
+                writeMethodItem(writer, methodItemLists[listIndex].get(indexes[listIndex]));
+                indexes[listIndex]++;
+            }
+        }
+
+        /**
+         * @return the index of the list that contains the next item to write, or -1 if there are no items left
+         */
+        private int getNextList() {
+            int nextList = -1;
+            MethodItem nextItem = null;
+            for (int i=0; i<methodItemLists.length; i++) {
+                if (indexes[i] < methodItemLists[i].size()) {
+                    MethodItem methodItem = methodItemLists[i].get(indexes[i]);
+                    if (nextItem == null || methodItem.compareTo(nextItem) < 0) {
+                        nextList = i;
+                        nextItem = methodItem;
+                    }
+                }
+            }
+            return nextList;
+        }
+    }
+
     public static class LabelCache {
         protected HashMap<LabelMethodItem, LabelMethodItem> labels = new HashMap<LabelMethodItem, LabelMethodItem>();
 
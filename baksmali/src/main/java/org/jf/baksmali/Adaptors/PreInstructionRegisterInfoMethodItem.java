@@ -149,7 +149,7 @@ public class PreInstructionRegisterInfoMethodItem extends MethodItem {
             for (AnalyzedInstruction predecessor: analyzedInstruction.getPredecessors()) {
                 if (predecessor.getPostInstructionRegisterType(registerNum) != mergedRegisterType) {
                     registers.set(registerNum);
-                    continue;
+                    break;
                 }
             }
         }
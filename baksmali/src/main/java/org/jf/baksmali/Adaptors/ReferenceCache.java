@@ -0,0 +1,126 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.baksmali.Adaptors;
+
+import org.jf.dexlib.*;
+import org.jf.dexlib.Util.Utf8Utils;
+
+/**
+ * A cache of the rendered text of the method, field and string references in a <code>DexFile</code>, as written
+ * by <code>ReferenceFormatter</code>. Type references aren't cached, since the type descriptor is already stored as
+ * a string in the <code>TypeIdItem</code>.
+ *
+ * The text for each item is built the first time the item is referenced, and is stored in a flat array that is
+ * indexed by the index of the item within its section. It is safe to share a single cache between multiple
+ * threads - the worst that can happen is that the text for an item is built more than once, and since strings are
+ * immutable, a thread will either see a fully built string or null.
+ */
+public class ReferenceCache {
+    private final DexFile dexFile;
+
+    private final String[] methodReferences;
+    private final String[] fieldReferences;
+    private final String[] stringReferences;
+
+    public ReferenceCache(DexFile dexFile) {
+        this.dexFile = dexFile;
+
+        methodReferences = new String[dexFile.MethodIdsSection.getItems().size()];
+        fieldReferences = new String[dexFile.FieldIdsSection.getItems().size()];
+        stringReferences = new String[dexFile.StringIdsSection.getItems().size()];
+    }
+
+    /**
+     * Checks whether the given item can be looked up in this cache. Only items that were read in as part of the
+     * <code>DexFile</code> that this cache was created for have a usable index
+     * @param item the item to check
+     * @param references the array of cached references for the item's section
+     * @return true if the item can be looked up in this cache
+     */
+    private boolean isCached(Item item, String[] references) {
+        int index = item.getIndex();
+        return item.getDexFile() == dexFile && index >= 0 && index < references.length;
+    }
+
+    /**
+     * @param item the method to get the reference text for
+     * @return the reference text for the given method, or null if the method isn't from the cached
+     * <code>DexFile</code>
+     */
+    public String getMethodReference(MethodIdItem item) {
+        if (!isCached(item, methodReferences)) {
+            return null;
+        }
+
+        String reference = methodReferences[item.getIndex()];
+        if (reference == null) {
+            reference = item.getContainingClass().getTypeDescriptor() + "->" + item.getMethodName().getStringValue() +
+                    item.getPrototype().getPrototypeString();
+            methodReferences[item.getIndex()] = reference;
+        }
+        return reference;
+    }
+
+    /**
+     * @param item the field to get the reference text for
+     * @return the reference text for the given field, or null if the field isn't from the cached
+     * <code>DexFile</code>
+     */
+    public String getFieldReference(FieldIdItem item) {
+        if (!isCached(item, fieldReferences)) {
+            return null;
+        }
+
+        String reference = fieldReferences[item.getIndex()];
+        if (reference == null) {
+            reference = item.getContainingClass().getTypeDescriptor() + "->" + item.getFieldName().getStringValue() +
+                    ':' + item.getFieldType().getTypeDescriptor();
+            fieldReferences[item.getIndex()] = reference;
+        }
+        return reference;
+    }
+
+    /**
+     * @param item the string to get the reference text for
+     * @return the quoted and escaped reference text for the given string, or null if the string isn't from the
+     * cached <code>DexFile</code>
+     */
+    public String getStringReference(StringIdItem item) {
+        if (!isCached(item, stringReferences)) {
+            return null;
+        }
+
+        String reference = stringReferences[item.getIndex()];
+        if (reference == null) {
+            reference = '"' + Utf8Utils.escapeString(item.getStringValue()) + '"';
+            stringReferences[item.getIndex()] = reference;
+        }
+        return reference;
+    }
+}
@@ -28,6 +28,7 @@
 
 package org.jf.baksmali.Adaptors;
 
+import org.jf.baksmali.baksmali;
 import org.jf.util.IndentingWriter;
 import org.jf.dexlib.*;
 import org.jf.dexlib.Util.Utf8Utils;
@@ -53,6 +54,15 @@ public class ReferenceFormatter {
     }
 
     public static void writeMethodReference(IndentingWriter writer, MethodIdItem item) throws IOException {
+        ReferenceCache referenceCache = baksmali.getReferenceCache();
+        if (referenceCache != null) {
+            String reference = referenceCache.getMethodReference(item);
+            if (reference != null) {
+                writer.write(reference);
+                return;
+            }
+        }
+
         writer.write(item.getContainingClass().getTypeDescriptor());
         writer.write("->");
         writer.write(item.getMethodName().getStringValue());
@@ -60,6 +70,15 @@ public class ReferenceFormatter {
     }
 
     public static void writeFieldReference(IndentingWriter writer, FieldIdItem item) throws IOException {
+        ReferenceCache referenceCache = baksmali.getReferenceCache();
+        if (referenceCache != null) {
+            String reference = referenceCache.getFieldReference(item);
+            if (reference != null) {
+                writer.write(reference);
+                return;
+            }
+        }
+
         writer.write(item.getContainingClass().getTypeDescriptor());
         writer.write("->");
         writer.write(item.getFieldName().getStringValue());
@@ -68,6 +87,15 @@ public class ReferenceFormatter {
     }
 
     public static void writeStringReference(IndentingWriter writer, StringIdItem item) throws IOException {
+        ReferenceCache referenceCache = baksmali.getReferenceCache();
+        if (referenceCache != null) {
+            String reference = referenceCache.getStringReference(item);
+            if (reference != null) {
+                writer.write(reference);
+                return;
+            }
+        }
+
         writer.write('"');
         Utf8Utils.writeEscapedString(writer, item.getStringValue());
         writer.write('"');
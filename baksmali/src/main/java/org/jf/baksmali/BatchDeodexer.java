@@ -0,0 +1,533 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.baksmali;
+
+import org.jf.dexlib.ClassDataItem;
+import org.jf.dexlib.ClassDefItem;
+import org.jf.dexlib.CodeItem;
+import org.jf.dexlib.Code.Analysis.AnalyzedInstruction;
+import org.jf.dexlib.Code.Analysis.ClassPath;
+import org.jf.dexlib.Code.Analysis.CustomInlineMethodResolver;
+import org.jf.dexlib.Code.Analysis.DeodexUtil;
+import org.jf.dexlib.Code.Analysis.MethodAnalyzer;
+import org.jf.dexlib.Code.Analysis.ValidationException;
+import org.jf.dexlib.Code.Format.Instruction10x;
+import org.jf.dexlib.Code.Format.Instruction11x;
+import org.jf.dexlib.Code.Format.UnresolvedOdexInstruction;
+import org.jf.dexlib.Code.Instruction;
+import org.jf.dexlib.Code.Opcode;
+import org.jf.dexlib.DexFile;
+import org.jf.dexlib.Util.ByteArrayAnnotatedOutput;
+import org.jf.dexlib.Util.ExceptionWithContext;
+import org.jf.dexlib.Util.ItemCopier;
+import org.jf.dexlib.Util.Metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class deodexes all of the odex files in a directory at once, e.g. the framework directory of a system image.
+ *
+ * The files are all read in up front, and a single class path is built from them, with the boot class path entries
+ * that the odex files depend on loaded first, in dependency order. The files are then disassembled in parallel,
+ * sharing the class path, along with the hierarchy index and the inline method tables. Each thread uses a single
+ * DeodexUtil for the file that it is working on.
+ *
+ * For each input file, either a directory of smali files or a deodexed dex file is written to the output directory,
+ * named after the input file. Jar or apk files that still contain a classes.dex are disassembled as is, and a jar
+ * that doesn't contain a classes.dex is skipped, since its classes are in the corresponding odex file.
+ */
+public class BatchDeodexer {
+    //the usual boot class path, which is used to order the input files when there aren't any odex files to get the
+    //dependencies from
+    private static final String[] defaultBootClassPath = new String[] {"core.jar", "ext.jar", "framework.jar",
+            "android.policy.jar", "services.jar"};
+
+    //the extensions of the files that are read, in order of preference when there are several files with the same name
+    private static final String[] inputExtensions = new String[] {".odex", ".dex", ".jar", ".apk", ".zip"};
+
+    /**
+     * This class is uninstantiable.
+     */
+    private BatchDeodexer() {
+    }
+
+    /**
+     * Deodexes all of the odex files in the given directory, and disassembles any other dex files, using the options
+     * that have already been set in <code>baksmali</code>
+     * @param inputDirectory the directory containing the files to deodex
+     * @param outputDirectory the directory to write a smali directory or dex file for each input file into
+     * @param writeDex whether to write a deodexed dex file for each input file, instead of a directory of smali files
+     * @param classPathDirs the directories to search for any boot class path files that aren't in the input directory
+     * @param bootClassPath the boot class path entries, or null to use the dependencies of the odex files
+     * @param extraBootClassPath extra boot class path entries, separated and prefixed by a :, or null
+     * @param ignoreErrors whether to continue after a class has errors
+     * @param inlineTable a file containing a custom inline method table, or null
+     * @param jobs the number of files to deodex at once
+     * @return true if all of the files were deodexed without errors
+     */
+    public static boolean deodexDirectory(File inputDirectory, File outputDirectory, final boolean writeDex,
+                                          String[] classPathDirs, String bootClassPath, String extraBootClassPath,
+                                          final boolean ignoreErrors, String inlineTable, int jobs) {
+        List<InputFile> inputFiles = findInputFiles(inputDirectory);
+        if (inputFiles.size() == 0) {
+            System.err.println("Couldn't find any dex, odex, jar or apk files in " + inputDirectory.getPath());
+            return false;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(jobs, inputFiles.size())));
+        try {
+            if (!readInputFiles(executor, inputFiles)) {
+                return false;
+            }
+
+            String[] allClassPathDirs = new String[classPathDirs.length + 1];
+            allClassPathDirs[0] = inputDirectory.getPath();
+            System.arraycopy(classPathDirs, 0, allClassPathDirs, 1, classPathDirs.length);
+
+            Map<String, List<DexFile>> loadedEntries = new HashMap<String, List<DexFile>>();
+            for (InputFile inputFile: inputFiles) {
+                if (inputFile.dexFiles != null) {
+                    loadedEntries.put(inputFile.name, inputFile.dexFiles);
+                }
+            }
+
+            try {
+                ClassPath.InitializeClassPath(allClassPathDirs,
+                        getClassPathEntries(inputFiles, bootClassPath, extraBootClassPath), loadedEntries,
+                        baksmali.getClassPathErrorHandler(ignoreErrors));
+
+                if (inlineTable != null) {
+                    baksmali.inlineResolver = new CustomInlineMethodResolver(inlineTable);
+                }
+            } catch (Exception ex) {
+                System.err.println("\n\nError occured while loading boot class path files. Aborting.");
+                ex.printStackTrace(System.err);
+                return false;
+            }
+
+            if (!outputDirectory.exists() && !outputDirectory.mkdirs()) {
+                System.err.println("Can't create the output directory " + outputDirectory.getPath());
+                return false;
+            }
+
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(inputFiles.size());
+            for (final InputFile inputFile: inputFiles) {
+                if (inputFile.dexFiles == null) {
+                    continue;
+                }
+
+                final File output;
+                if (writeDex) {
+                    output = new File(outputDirectory, inputFile.name + ".dex");
+                } else {
+                    output = new File(outputDirectory, inputFile.name);
+                }
+
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws IOException {
+                        if (writeDex) {
+                            return writeDeodexedDexFiles(inputFile, output, ignoreErrors);
+                        }
+                        boolean success = true;
+                        for (DexFile dexFile: inputFile.dexFiles) {
+                            if (!baksmali.disassembleClasses(dexFile, output.getPath(), ignoreErrors, false, null,
+                                    false)) {
+                                success = false;
+                                break;
+                            }
+                        }
+                        return success;
+                    }
+                }));
+            }
+
+            boolean success = true;
+            for (int i=0, j=0; i<inputFiles.size(); i++) {
+                InputFile inputFile = inputFiles.get(i);
+                if (inputFile.dexFiles == null) {
+                    continue;
+                }
+                try {
+                    if (!results.get(j++).get()) {
+                        success = false;
+                    }
+                } catch (ExecutionException ex) {
+                    System.err.println("\n\nError occured while deodexing " + inputFile.file.getPath());
+                    ex.getCause().printStackTrace();
+                    success = false;
+                }
+            }
+            return success;
+        } catch (InterruptedException ex) {
+            throw ExceptionWithContext.withContext(ex, "Interrupted while deodexing " + inputDirectory.getPath());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Finds the files to deodex in the given directory. If there are several files with the same name and different
+     * extensions, e.g. framework.odex and framework.jar, they are all kept, in order of preference, and only the first
+     * one that contains a dex file is used
+     * @return a list of the input files, sorted by name
+     */
+    private static List<InputFile> findInputFiles(File inputDirectory) {
+        List<InputFile> inputFiles = new ArrayList<InputFile>();
+
+        File[] files = inputDirectory.listFiles();
+        if (files == null) {
+            return inputFiles;
+        }
+
+        TreeMap<String, File[]> filesByName = new TreeMap<String, File[]>();
+        for (File file: files) {
+            if (!file.isFile()) {
+                continue;
+            }
+
+            String fileName = file.getName();
+            for (int i=0; i<inputExtensions.length; i++) {
+                if (fileName.endsWith(inputExtensions[i])) {
+                    String name = fileName.substring(0, fileName.length() - inputExtensions[i].length());
+                    File[] candidates = filesByName.get(name);
+                    if (candidates == null) {
+                        candidates = new File[inputExtensions.length];
+                        filesByName.put(name, candidates);
+                    }
+                    candidates[i] = file;
+                    break;
+                }
+            }
+        }
+
+        for (Map.Entry<String, File[]> entry: filesByName.entrySet()) {
+            inputFiles.add(new InputFile(entry.getKey(), entry.getValue()));
+        }
+        return inputFiles;
+    }
+
+    /**
+     * Reads in the dex files of all of the input files in parallel. An input file that doesn't contain any dex files
+     * is left with a null list of dex files
+     * @return false if any of the files couldn't be read
+     */
+    private static boolean readInputFiles(ExecutorService executor, List<InputFile> inputFiles)
+            throws InterruptedException {
+        List<Callable<List<DexFile>>> tasks = new ArrayList<Callable<List<DexFile>>>(inputFiles.size());
+        for (final InputFile inputFile: inputFiles) {
+            tasks.add(new Callable<List<DexFile>>() {
+                public List<DexFile> call() throws IOException {
+                    return inputFile.read();
+                }
+            });
+        }
+
+        boolean success = true;
+        List<Future<List<DexFile>>> results = executor.invokeAll(tasks);
+        for (int i=0; i<results.size(); i++) {
+            InputFile inputFile = inputFiles.get(i);
+            try {
+                inputFile.dexFiles = results.get(i).get();
+            } catch (ExecutionException ex) {
+                System.err.println("\n\nError occured while reading " + inputFile.file.getPath());
+                ex.getCause().printStackTrace();
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Builds the list of class path entries for the input files. The boot class path is either the given one, or the
+     * dependencies of the odex files, in the order that they are listed in the odex files. If there aren't any odex
+     * files, the entries of the usual boot class path that are in the input directory are used. Any input files that
+     * aren't on the boot class path are added after it, followed by the extra boot class path entries
+     */
+    private static String[] getClassPathEntries(List<InputFile> inputFiles, String bootClassPath,
+                                                String extraBootClassPath) {
+        //the class path entries, keyed by the entry name without the extension
+        LinkedHashMap<String, String> classPathEntries = new LinkedHashMap<String, String>();
+
+        if (bootClassPath != null) {
+            for (String entry: bootClassPath.split(":")) {
+                addClassPathEntry(classPathEntries, entry);
+            }
+        } else {
+            for (InputFile inputFile: inputFiles) {
+                if (inputFile.dexFiles == null) {
+                    continue;
+                }
+                for (DexFile dexFile: inputFile.dexFiles) {
+                    if (dexFile.isOdex()) {
+                        for (String entry: ClassPath.getOdexDependencyEntries(dexFile)) {
+                            addClassPathEntry(classPathEntries, entry);
+                        }
+                    }
+                }
+            }
+
+            if (classPathEntries.size() == 0) {
+                for (String entry: defaultBootClassPath) {
+                    for (InputFile inputFile: inputFiles) {
+                        if (inputFile.dexFiles != null && inputFile.file.getName().equals(entry)) {
+                            addClassPathEntry(classPathEntries, entry);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (InputFile inputFile: inputFiles) {
+            if (inputFile.dexFiles != null) {
+                addClassPathEntry(classPathEntries, inputFile.file.getName());
+            }
+        }
+
+        if (extraBootClassPath != null && extraBootClassPath.length() > 0) {
+            assert extraBootClassPath.charAt(0) == ':';
+            for (String entry: extraBootClassPath.substring(1).split(":")) {
+                addClassPathEntry(classPathEntries, entry);
+            }
+        }
+
+        return classPathEntries.values().toArray(new String[classPathEntries.size()]);
+    }
+
+    private static void addClassPathEntry(LinkedHashMap<String, String> classPathEntries, String entry) {
+        int extIndex = entry.lastIndexOf(".");
+        String baseEntry = extIndex==-1?entry:entry.substring(0, extIndex);
+        if (!classPathEntries.containsKey(baseEntry)) {
+            classPathEntries.put(baseEntry, entry);
+        }
+    }
+
+    /**
+     * Writes a deodexed copy of each of the dex files of the given input file. The odexed instructions are replaced
+     * in place, so the addresses of the instructions don't change. An odexed instruction that couldn't be resolved
+     * because its object register is always null is replaced by a throw of that register, padded with nops, the same
+     * as in the smali output.
+     *
+     * The code items of the input dex files are modified, so they shouldn't be used afterwards
+     * @return false if a class couldn't be deodexed and ignoreErrors is false
+     */
+    private static boolean writeDeodexedDexFiles(InputFile inputFile, File outputFile, boolean ignoreErrors)
+            throws IOException {
+        for (int i=0; i<inputFile.dexFiles.size(); i++) {
+            DexFile dexFile = inputFile.dexFiles.get(i);
+
+            File dexOutputFile = outputFile;
+            if (i > 0) {
+                dexOutputFile = new File(outputFile.getParentFile(), inputFile.name + "-classes" + (i+1) + ".dex");
+            }
+
+            DexFile deodexedDexFile = new DexFile();
+            ItemCopier itemCopier = new ItemCopier(deodexedDexFile);
+
+            try {
+                for (ClassDefItem classDefItem: dexFile.ClassDefsSection.getItems()) {
+                    String classDescriptor = classDefItem.getClassType().getTypeDescriptor();
+                    ClassPath.ClassDef classDef = ClassPath.getClassDef(classDescriptor, false);
+                    if (classDef == null || classDef instanceof ClassPath.UnresolvedClassDef) {
+                        //the class couldn't be loaded into the class path, and the error has already been reported
+                        continue;
+                    }
+
+                    try {
+                        deodexClass(classDefItem);
+                    } catch (Exception ex) {
+                        System.err.println("\n\nError occured while deodexing class " +
+                                classDescriptor.replace('/', '.') + " - skipping class");
+                        ex.printStackTrace();
+                        if (!ignoreErrors) {
+                            return false;
+                        }
+                        continue;
+                    }
+
+                    itemCopier.copyClassDefItem(classDefItem);
+                    Metrics.count(Metrics.Counter.CLASSES);
+                }
+            } finally {
+                baksmali.clearDexFileState();
+            }
+
+            writeDexFile(deodexedDexFile, dexOutputFile);
+        }
+        return true;
+    }
+
+    private static void deodexClass(ClassDefItem classDefItem) {
+        ClassDataItem classDataItem = classDefItem.getClassData();
+        if (classDataItem == null) {
+            return;
+        }
+
+        DeodexUtil deodexUtil = baksmali.getDeodexUtil(classDefItem.getDexFile());
+        if (deodexUtil == null) {
+            return;
+        }
+
+        for (ClassDataItem.EncodedMethod encodedMethod: classDataItem.getDirectMethods()) {
+            deodexMethod(encodedMethod, deodexUtil);
+        }
+        for (ClassDataItem.EncodedMethod encodedMethod: classDataItem.getVirtualMethods()) {
+            deodexMethod(encodedMethod, deodexUtil);
+        }
+    }
+
+    private static void deodexMethod(ClassDataItem.EncodedMethod encodedMethod, DeodexUtil deodexUtil) {
+        CodeItem codeItem = encodedMethod.codeItem;
+        if (codeItem == null) {
+            return;
+        }
+
+        Instruction[] instructions = codeItem.getInstructions();
+        boolean hasOdexInstructions = false;
+        for (Instruction instruction: instructions) {
+            if (instruction.opcode.odexOnly()) {
+                hasOdexInstructions = true;
+                break;
+            }
+        }
+        if (!hasOdexInstructions) {
+            return;
+        }
+
+        MethodAnalyzer methodAnalyzer = new MethodAnalyzer(encodedMethod, deodexUtil);
+        methodAnalyzer.analyze();
+
+        ValidationException validationException = methodAnalyzer.getValidationException();
+        if (validationException != null) {
+            throw ExceptionWithContext.withContext(validationException, "Error while deodexing method " +
+                    encodedMethod.method.getMethodString());
+        }
+
+        List<Instruction> deodexedInstructions = new ArrayList<Instruction>(instructions.length);
+        int codeAddress = 0;
+        for (AnalyzedInstruction analyzedInstruction: methodAnalyzer.getInstructions()) {
+            Instruction instruction = analyzedInstruction.getInstruction();
+
+            if (instruction instanceof UnresolvedOdexInstruction) {
+                UnresolvedOdexInstruction unresolvedInstruction = (UnresolvedOdexInstruction)instruction;
+                deodexedInstructions.add(new Instruction11x(Opcode.THROW,
+                        (short)unresolvedInstruction.ObjectRegisterNum));
+                for (int i=1; i<instruction.getSize(codeAddress); i++) {
+                    deodexedInstructions.add(new Instruction10x(Opcode.NOP));
+                }
+            } else if (instruction.opcode.odexOnly()) {
+                throw new ExceptionWithContext(String.format("Couldn't deodex the %s instruction at address 0x%x in " +
+                        "method %s", instruction.opcode.name, codeAddress, encodedMethod.method.getMethodString()));
+            } else {
+                deodexedInstructions.add(instruction);
+            }
+
+            codeAddress += instruction.getSize(codeAddress);
+        }
+
+        codeItem.updateCode(deodexedInstructions.toArray(new Instruction[deodexedInstructions.size()]));
+    }
+
+    private static void writeDexFile(DexFile dexFile, File outputFile) throws IOException {
+        Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.PLACE);
+        try {
+            dexFile.place();
+        } finally {
+            Metrics.endPhase(timer);
+        }
+
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+
+        byte[] bytes;
+        timer = Metrics.startPhase(Metrics.Phase.WRITE);
+        try {
+            dexFile.writeTo(out);
+
+            bytes = out.toByteArray();
+
+            DexFile.calcSignature(bytes);
+            DexFile.calcChecksum(bytes);
+        } finally {
+            Metrics.endPhase(timer);
+        }
+
+        timer = Metrics.startPhase(Metrics.Phase.FILE_IO);
+        try {
+            FileOutputStream fileOutputStream = new FileOutputStream(outputFile);
+            try {
+                fileOutputStream.write(bytes);
+            } finally {
+                fileOutputStream.close();
+            }
+        } finally {
+            Metrics.endPhase(timer);
+        }
+    }
+
+    private static class InputFile {
+        //the name of the file, without the extension
+        public final String name;
+        //the candidate files with this name, indexed in the same order as inputExtensions
+        private final File[] candidates;
+
+        //the file that the dex files were read from, and the dex files, or null if none of the candidates had any
+        public File file;
+        public List<DexFile> dexFiles;
+
+        public InputFile(String name, File[] candidates) {
+            this.name = name;
+            this.candidates = candidates;
+        }
+
+        public List<DexFile> read() throws IOException {
+            for (File candidate: candidates) {
+                if (candidate == null) {
+                    continue;
+                }
+                try {
+                    //this is already running on one of the --jobs threads, so read the entries on this thread as well
+                    List<DexFile> dexFiles = DexFile.readDexFiles(candidate, true, false, null);
+                    file = candidate;
+                    return dexFiles;
+                } catch (DexFile.NoClassesDexException ex) {
+                    //an odexed jar doesn't have a classes.dex. The classes are in the odex file instead
+                }
+            }
+            return null;
+        }
+    }
+}
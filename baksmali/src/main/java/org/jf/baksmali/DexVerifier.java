@@ -0,0 +1,435 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.baksmali;
+
+import org.jf.dexlib.ClassDataItem;
+import org.jf.dexlib.ClassDefItem;
+import org.jf.dexlib.CodeItem;
+import org.jf.dexlib.Code.Analysis.AnalyzedInstruction;
+import org.jf.dexlib.Code.Analysis.ClassPath;
+import org.jf.dexlib.Code.Analysis.DeodexUtil;
+import org.jf.dexlib.Code.Analysis.MethodAnalyzer;
+import org.jf.dexlib.Code.Analysis.ValidationException;
+import org.jf.dexlib.DebugInfoItem;
+import org.jf.dexlib.DexFile;
+import org.jf.dexlib.Util.ExceptionWithContext;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class verifies all of the methods in a dex file, without disassembling them.
+ *
+ * The classes are verified in parallel, using the class path that has already been set up, and each method is
+ * analyzed and verified with its own <code>MethodAnalyzer</code>. An error in one method is recorded in the report,
+ * and doesn't stop the verification of the rest of the methods. The failures in the report are in the same order as
+ * the classes in the dex file, regardless of the number of threads that are used.
+ *
+ * If the dex file is an odex file and deodexing is enabled in <code>baksmali</code>, each thread uses a single
+ * DeodexUtil for the dex file.
+ */
+public class DexVerifier {
+    /**
+     * This class is uninstantiable.
+     */
+    private DexVerifier() {
+    }
+
+    /**
+     * Verifies all of the methods in the given dex file
+     * @param dexFile the dex file to verify
+     * @param jobs the number of classes to verify at once
+     * @return a report of the verification
+     */
+    public static Report verifyDexFile(DexFile dexFile, int jobs) {
+        List<ClassDefItem> classDefItems = dexFile.ClassDefsSection.getItems();
+
+        List<ClassResult> classResults = new ArrayList<ClassResult>(classDefItems.size());
+        int threads = Math.max(1, Math.min(jobs, classDefItems.size()));
+        if (threads == 1) {
+            try {
+                for (ClassDefItem classDefItem: classDefItems) {
+                    classResults.add(verifyClass(classDefItem));
+                }
+            } finally {
+                baksmali.clearDexFileState();
+            }
+        } else {
+            List<Callable<ClassResult>> tasks = new ArrayList<Callable<ClassResult>>(classDefItems.size());
+            for (final ClassDefItem classDefItem: classDefItems) {
+                tasks.add(new Callable<ClassResult>() {
+                    public ClassResult call() {
+                        return verifyClass(classDefItem);
+                    }
+                });
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                for (Future<ClassResult> result: executor.invokeAll(tasks)) {
+                    classResults.add(result.get());
+                }
+            } catch (InterruptedException ex) {
+                throw ExceptionWithContext.withContext(ex, "Interrupted while verifying the dex file");
+            } catch (ExecutionException ex) {
+                //verifyClass catches the errors of each method, so this shouldn't happen
+                throw ExceptionWithContext.withContext(ex.getCause(), "Error while verifying the dex file");
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        int skippedClassCount = 0;
+        int methodCount = 0;
+        List<Failure> failures = new ArrayList<Failure>();
+        for (ClassResult classResult: classResults) {
+            if (classResult.skipped) {
+                skippedClassCount++;
+                continue;
+            }
+            methodCount += classResult.methodCount;
+            failures.addAll(classResult.failures);
+        }
+
+        return new Report(classDefItems.size(), skippedClassCount, methodCount, failures);
+    }
+
+    private static ClassResult verifyClass(ClassDefItem classDefItem) {
+        //if the class isn't in the class path, there was an error while loading it, which has already been reported
+        ClassPath.ClassDef classDef = ClassPath.getClassDef(classDefItem.getClassType(), false);
+        if (classDef == null || classDef instanceof ClassPath.UnresolvedClassDef) {
+            return new ClassResult(true, 0, Collections.<Failure>emptyList());
+        }
+
+        ClassDataItem classDataItem = classDefItem.getClassData();
+        if (classDataItem == null) {
+            return new ClassResult(false, 0, Collections.<Failure>emptyList());
+        }
+
+        DeodexUtil deodexUtil = baksmali.getDeodexUtil(classDefItem.getDexFile());
+
+        int methodCount = 0;
+        List<Failure> failures = null;
+        for (int i=0; i<2; i++) {
+            ClassDataItem.EncodedMethod[] encodedMethods =
+                    i==0?classDataItem.getDirectMethods():classDataItem.getVirtualMethods();
+            for (ClassDataItem.EncodedMethod encodedMethod: encodedMethods) {
+                CodeItem codeItem = encodedMethod.codeItem;
+                if (codeItem == null || codeItem.getInstructions().length == 0) {
+                    continue;
+                }
+
+                methodCount++;
+                Failure failure = verifyMethod(encodedMethod, deodexUtil);
+                if (failure != null) {
+                    if (failures == null) {
+                        failures = new ArrayList<Failure>(1);
+                    }
+                    failures.add(failure);
+                }
+            }
+        }
+
+        if (failures == null) {
+            failures = Collections.emptyList();
+        }
+        return new ClassResult(false, methodCount, failures);
+    }
+
+    /**
+     * Analyzes and verifies the given method
+     * @return the failure, or null if the method was verified successfully
+     */
+    private static Failure verifyMethod(ClassDataItem.EncodedMethod encodedMethod, DeodexUtil deodexUtil) {
+        MethodAnalyzer methodAnalyzer = null;
+        try {
+            methodAnalyzer = new MethodAnalyzer(encodedMethod, deodexUtil);
+            methodAnalyzer.analyze();
+            if (methodAnalyzer.getValidationException() == null) {
+                methodAnalyzer.verify();
+            }
+
+            ValidationException validationException = methodAnalyzer.getValidationException();
+            if (validationException == null) {
+                return null;
+            }
+
+            int codeAddress = validationException.getCodeAddress();
+            return new Failure(encodedMethod, codeAddress, getOpcodeName(methodAnalyzer, codeAddress),
+                    validationException);
+        } catch (RuntimeException ex) {
+            //anything other than a validation error is an error in the analysis itself, rather than in the method,
+            //so the code address isn't known
+            return new Failure(encodedMethod, -1, null, ExceptionWithContext.withContext(ex,
+                    String.format("Method: %s", encodedMethod.method.getMethodString())));
+        }
+    }
+
+    private static String getOpcodeName(MethodAnalyzer methodAnalyzer, int codeAddress) {
+        for (AnalyzedInstruction analyzedInstruction: methodAnalyzer.getInstructions()) {
+            if (methodAnalyzer.getInstructionAddress(analyzedInstruction) == codeAddress) {
+                return analyzedInstruction.getInstruction().opcode.name;
+            }
+        }
+        return null;
+    }
+
+    private static class ClassResult {
+        public final boolean skipped;
+        public final int methodCount;
+        public final List<Failure> failures;
+
+        public ClassResult(boolean skipped, int methodCount, List<Failure> failures) {
+            this.skipped = skipped;
+            this.methodCount = methodCount;
+            this.failures = failures;
+        }
+    }
+
+    /**
+     * A method that failed verification
+     */
+    public static class Failure {
+        /**
+         * The type descriptor of the class containing the method
+         */
+        public final String classType;
+
+        /**
+         * The method string of the method, e.g. Ljava/lang/Object;->toString()Ljava/lang/String;
+         */
+        public final String method;
+
+        /**
+         * The code address of the instruction that failed verification, or -1 if the error didn't occur at a
+         * specific instruction
+         */
+        public final int codeAddress;
+
+        /**
+         * The name of the opcode of the instruction that failed verification, or null if it isn't known
+         */
+        public final String opcode;
+
+        /**
+         * The source line number of the instruction that failed verification, or -1 if it isn't known
+         */
+        public final int lineNumber;
+
+        /**
+         * The error message
+         */
+        public final String message;
+
+        /**
+         * The context that was added to the error, one entry per line
+         */
+        public final List<String> context;
+
+        /**
+         * The error itself
+         */
+        public final ExceptionWithContext exception;
+
+        public Failure(ClassDataItem.EncodedMethod encodedMethod, int codeAddress, String opcode,
+                       ExceptionWithContext exception) {
+            this.classType = encodedMethod.method.getContainingClass().getTypeDescriptor();
+            this.method = encodedMethod.method.getMethodString();
+            this.codeAddress = codeAddress;
+            this.opcode = opcode;
+
+            DebugInfoItem debugInfoItem = encodedMethod.codeItem.getDebugInfo();
+            if (codeAddress >= 0 && debugInfoItem != null) {
+                this.lineNumber = debugInfoItem.getLineNumber(codeAddress);
+            } else {
+                this.lineNumber = -1;
+            }
+
+            String message = exception.getMessage();
+            if (message == null) {
+                Throwable cause = exception.getCause();
+                message = (cause != null ? cause : exception).getClass().getName();
+            }
+            this.message = message;
+
+            List<String> context = new ArrayList<String>();
+            for (String line: exception.getContext().split("\n")) {
+                if (line.length() > 0) {
+                    context.add(line);
+                }
+            }
+            this.context = Collections.unmodifiableList(context);
+
+            this.exception = exception;
+        }
+    }
+
+    /**
+     * The results of verifying a dex file
+     */
+    public static class Report {
+        /**
+         * The number of classes in the dex file
+         */
+        public final int classCount;
+
+        /**
+         * The number of classes that weren't verified, because they couldn't be loaded into the class path
+         */
+        public final int skippedClassCount;
+
+        /**
+         * The number of methods with code that were verified
+         */
+        public final int methodCount;
+
+        /**
+         * The methods that failed verification, in the order of the classes in the dex file
+         */
+        public final List<Failure> failures;
+
+        public Report(int classCount, int skippedClassCount, int methodCount, List<Failure> failures) {
+            this.classCount = classCount;
+            this.skippedClassCount = skippedClassCount;
+            this.methodCount = methodCount;
+            this.failures = Collections.unmodifiableList(failures);
+        }
+
+        /**
+         * @return true if all of the methods were verified successfully, and no classes were skipped
+         */
+        public boolean isSuccessful() {
+            return failures.size() == 0 && skippedClassCount == 0;
+        }
+
+        /**
+         * Prints each failure along with its context, followed by a one line summary
+         * @param out the stream to print to
+         */
+        public void print(PrintStream out) {
+            for (Failure failure: failures) {
+                out.println(String.format("Error while verifying method %s", failure.method));
+                if (failure.codeAddress >= 0) {
+                    out.print(String.format("    code address: 0x%x", failure.codeAddress));
+                    if (failure.opcode != null) {
+                        out.print(String.format(", opcode: %s", failure.opcode));
+                    }
+                    if (failure.lineNumber >= 0) {
+                        out.print(String.format(", line: %d", failure.lineNumber));
+                    }
+                    out.println();
+                }
+                out.println("    " + failure.message);
+                for (String line: failure.context) {
+                    out.println("    " + line);
+                }
+                out.println();
+            }
+
+            out.println(String.format("Verified %d methods in %d classes: %d failed, %d classes skipped",
+                    methodCount, classCount - skippedClassCount, failures.size(), skippedClassCount));
+        }
+
+        /**
+         * Writes the report in JSON format
+         * @param writer the writer to write the report to
+         */
+        public void writeJson(Writer writer) throws IOException {
+            writer.write(String.format("{\n  \"classes\": %d,\n  \"skippedClasses\": %d,\n  \"methods\": %d,\n" +
+                    "  \"failures\": [", classCount, skippedClassCount, methodCount));
+            for (int i=0; i<failures.size(); i++) {
+                Failure failure = failures.get(i);
+                writer.write(i==0?"\n":",\n");
+                writer.write("    {\"class\": ");
+                writeJsonString(writer, failure.classType);
+                writer.write(", \"method\": ");
+                writeJsonString(writer, failure.method);
+                writer.write(String.format(", \"codeAddress\": %d, \"opcode\": ", failure.codeAddress));
+                writeJsonString(writer, failure.opcode);
+                writer.write(String.format(", \"line\": %d, \"message\": ", failure.lineNumber));
+                writeJsonString(writer, failure.message);
+                writer.write(", \"context\": [");
+                for (int j=0; j<failure.context.size(); j++) {
+                    if (j > 0) {
+                        writer.write(", ");
+                    }
+                    writeJsonString(writer, failure.context.get(j));
+                }
+                writer.write("]}");
+            }
+            writer.write(failures.size()==0?"]\n}\n":"\n  ]\n}\n");
+        }
+
+        private static void writeJsonString(Writer writer, String value) throws IOException {
+            if (value == null) {
+                writer.write("null");
+                return;
+            }
+
+            writer.write('"');
+            for (int i=0; i<value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        writer.write("\\\"");
+                        break;
+                    case '\\':
+                        writer.write("\\\\");
+                        break;
+                    case '\n':
+                        writer.write("\\n");
+                        break;
+                    case '\r':
+                        writer.write("\\r");
+                        break;
+                    case '\t':
+                        writer.write("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            writer.write(String.format("\\u%04x", (int)c));
+                        } else {
+                            writer.write(c);
+                        }
+                }
+            }
+            writer.write('"');
+        }
+    }
+}
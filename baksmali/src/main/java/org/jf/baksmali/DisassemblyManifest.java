@@ -0,0 +1,722 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.baksmali;
+
+import org.jf.dexlib.*;
+import org.jf.dexlib.Code.Analysis.SyntheticAccessorResolver;
+import org.jf.dexlib.Code.InstructionCursor;
+import org.jf.dexlib.Code.ReferenceType;
+import org.jf.dexlib.Debug.DebugInstructionIterator;
+import org.jf.dexlib.EncodedValue.*;
+
+import java.io.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Keeps track of the content hash of each class that was disassembled into an output directory, so that classes
+ * that haven't changed since the previous run don't need to be disassembled again.
+ *
+ * The content hash of a class is calculated from a canonical serialization of the class, along with the options that
+ * affect the disassembly. The bytes of the class in the dex file can't be hashed directly, because they contain
+ * indexes into the string/type/etc. tables, which change whenever a class is added or removed elsewhere in the dex
+ * file. So the serialization replaces each index with the string form of the item that it refers to. The encoded
+ * instructions are hashed as they are, apart from their reference indexes, so they don't need to be decoded.
+ *
+ * If accessor comments are enabled, the disassembly of a class also depends on the synthetic accessor methods that
+ * it calls, so the hash also includes the hash of each class containing such a method.
+ */
+public class DisassemblyManifest {
+    public static final String MANIFEST_FILE_NAME = ".baksmali-manifest";
+
+    /**
+     * This should be incremented whenever a change is made that affects the disassembly, so that the existing
+     * disassembly is re-generated
+     */
+    private static final int MANIFEST_VERSION = 1;
+
+    private final File outputDirectory;
+    private final File manifestFile;
+
+    private final HashMap<String, Entry> previousEntries = new HashMap<String, Entry>();
+    private final TreeMap<String, Entry> currentEntries = new TreeMap<String, Entry>();
+    private final HashSet<String> currentPaths = new HashSet<String>();
+
+    private final HashMap<ClassDefItem, String> hashes = new HashMap<ClassDefItem, String>();
+
+    /**
+     * Creates a new <code>DisassemblyManifest</code> for the given output directory, reading in the existing
+     * manifest from a previous run, if any
+     * @param outputDirectory the output directory of the disassembly
+     * @param dexFile the dex file being disassembled
+     * @param options a string that identifies the options that affect the disassembly
+     */
+    public DisassemblyManifest(File outputDirectory, DexFile dexFile, String options) {
+        this.outputDirectory = outputDirectory;
+        this.manifestFile = new File(outputDirectory, MANIFEST_FILE_NAME);
+
+        readManifest();
+        calculateHashes(dexFile, MANIFEST_VERSION + ":" + main.VERSION + ":" + options);
+    }
+
+    private void readManifest() {
+        if (!manifestFile.exists()) {
+            return;
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile),
+                    "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t");
+                    if (parts.length != 3) {
+                        continue;
+                    }
+                    previousEntries.put(parts[1], new Entry(parts[0], parts[2]));
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ex) {
+            System.err.println("Warning: Error occured while reading " + manifestFile.getPath() +
+                    ". All classes will be disassembled");
+            previousEntries.clear();
+        }
+    }
+
+    private void calculateHashes(DexFile dexFile, String options) {
+        HashMap<TypeIdItem, ClassDefItem> classMap = new HashMap<TypeIdItem, ClassDefItem>();
+        HashMap<ClassDefItem, byte[]> classHashes = new HashMap<ClassDefItem, byte[]>();
+
+        int failedClasses = 0;
+        for (ClassDefItem classDefItem: dexFile.ClassDefsSection.getItems()) {
+            classMap.put(classDefItem.getClassType(), classDefItem);
+
+            try {
+                classHashes.put(classDefItem, calculateClassHash(classDefItem));
+            } catch (Exception ex) {
+                System.err.println("Warning: Error occured while calculating the content hash of " +
+                        classDefItem.getClassType().getTypeDescriptor() + ": " + ex.getMessage());
+                failedClasses++;
+            }
+        }
+        if (failedClasses > 0) {
+            System.err.println("Warning: The content hash couldn't be calculated for " + failedClasses +
+                    " classes. They, and any classes that depend on their accessors, will always be disassembled");
+        }
+
+        for (ClassDefItem classDefItem: dexFile.ClassDefsSection.getItems()) {
+            byte[] classHash = classHashes.get(classDefItem);
+            if (classHash == null) {
+                continue;
+            }
+
+            MessageDigest md = getDigest();
+            md.update(classHash);
+            try {
+                md.update(options.getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException ex) {
+                throw new RuntimeException(ex);
+            }
+
+            if (!baksmali.noAccessorComments) {
+                boolean unhashable = false;
+                for (ClassDefItem accessorClass: getAccessorClasses(classDefItem, classMap)) {
+                    byte[] accessorClassHash = classHashes.get(accessorClass);
+                    if (accessorClassHash == null) {
+                        unhashable = true;
+                        break;
+                    }
+                    md.update(accessorClassHash);
+                }
+                if (unhashable) {
+                    continue;
+                }
+            }
+
+            hashes.put(classDefItem, toHexString(md.digest()));
+        }
+    }
+
+    /**
+     * Calculates the hash of the canonical serialization of the given class
+     */
+    private static byte[] calculateClassHash(ClassDefItem classDefItem) throws IOException {
+        MessageDigest md = getDigest();
+        new ClassSerializer(new DataOutputStream(new DigestOutputStream(new NullOutputStream(), md)))
+                .writeClass(classDefItem);
+        return md.digest();
+    }
+
+    /**
+     * Gets the classes (other than the given class) that contain a synthetic accessor called by the given class,
+     * sorted by class type
+     */
+    private static Collection<ClassDefItem> getAccessorClasses(ClassDefItem classDefItem,
+                                                               HashMap<TypeIdItem, ClassDefItem> classMap) {
+        TreeMap<String, ClassDefItem> accessorClasses = new TreeMap<String, ClassDefItem>();
+
+        ClassDataItem classDataItem = classDefItem.getClassData();
+        if (classDataItem == null) {
+            return accessorClasses.values();
+        }
+
+        for (ClassDataItem.EncodedMethod[] encodedMethods: new ClassDataItem.EncodedMethod[][] {
+                classDataItem.getDirectMethods(), classDataItem.getVirtualMethods()}) {
+            for (ClassDataItem.EncodedMethod encodedMethod: encodedMethods) {
+                if (encodedMethod.codeItem == null) {
+                    continue;
+                }
+                //this only needs the method references, so scan the instructions without decoding them
+                InstructionCursor cursor = encodedMethod.codeItem.getInstructionCursor();
+                while (cursor.next()) {
+                    if (cursor.getReferenceType() != ReferenceType.method) {
+                        continue;
+                    }
+                    MethodIdItem methodIdItem = (MethodIdItem)cursor.getReferencedItem();
+                    if (!SyntheticAccessorResolver.looksLikeSyntheticAccessor(methodIdItem)) {
+                        continue;
+                    }
+                    TypeIdItem containingClass = methodIdItem.getContainingClass();
+                    ClassDefItem accessorClass = classMap.get(containingClass);
+                    if (accessorClass != null && accessorClass != classDefItem) {
+                        accessorClasses.put(containingClass.getTypeDescriptor(), accessorClass);
+                    }
+                }
+            }
+        }
+        return accessorClasses.values();
+    }
+
+    /**
+     * Determines whether the given class needs to be disassembled into the given file, and records the class in
+     * the new manifest.
+     * @param classDefItem the class to be disassembled
+     * @param smaliFile the file that the class will be disassembled into
+     * @return true if the class has changed since the previous run, or if its file is missing
+     */
+    public boolean needsDisassembly(ClassDefItem classDefItem, File smaliFile) {
+        String classDescriptor = classDefItem.getClassType().getTypeDescriptor();
+        String hash = hashes.get(classDefItem);
+        String relativePath = getRelativePath(smaliFile);
+        currentPaths.add(relativePath);
+
+        if (hash == null) {
+            return true;
+        }
+
+        Entry entry = new Entry(hash, relativePath);
+        currentEntries.put(classDescriptor, entry);
+
+        Entry previousEntry = previousEntries.get(classDescriptor);
+        return previousEntry == null || !previousEntry.equals(entry) || !smaliFile.exists();
+    }
+
+    /**
+     * Removes a class from the new manifest. This should be called if an error occurs while disassembling a class
+     * @param classDefItem the class to remove
+     */
+    public void removeClass(ClassDefItem classDefItem) {
+        currentEntries.remove(classDefItem.getClassType().getTypeDescriptor());
+    }
+
+    /**
+     * Deletes the files of any classes that were in the previous manifest but weren't disassembled in this run,
+     * and writes out the new manifest
+     */
+    public void finish() throws IOException {
+        for (Map.Entry<String, Entry> previousEntry: previousEntries.entrySet()) {
+            if (!currentEntries.containsKey(previousEntry.getKey()) &&
+                    !currentPaths.contains(previousEntry.getValue().path)) {
+                File staleFile = new File(outputDirectory, previousEntry.getValue().path);
+                if (staleFile.exists() && !staleFile.delete()) {
+                    System.err.println("Warning: Unable to delete " + staleFile.getPath());
+                }
+            }
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifestFile), "UTF-8"));
+        try {
+            for (Map.Entry<String, Entry> entry: currentEntries.entrySet()) {
+                writer.write(entry.getValue().hash);
+                writer.write('\t');
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(entry.getValue().path);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private String getRelativePath(File smaliFile) {
+        String outputPath = outputDirectory.getPath();
+        String smaliPath = smaliFile.getPath();
+        if (smaliPath.startsWith(outputPath) && smaliPath.length() > outputPath.length()) {
+            return smaliPath.substring(outputPath.length() + 1);
+        }
+        return smaliPath;
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static String toHexString(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b: bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0x0f, 16));
+            sb.append(Character.forDigit(b & 0x0f, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes out a canonical serialization of a class, which doesn't depend on where the class or the items it
+     * refers to are in the dex file. Every item is written as its string form, and every array or list of values is
+     * preceded by its length, so that different classes can't have the same serialization
+     */
+    private static class ClassSerializer {
+        private final DataOutputStream out;
+
+        public ClassSerializer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        public void writeClass(ClassDefItem classDefItem) throws IOException {
+            writeItem(classDefItem.getClassType());
+            out.writeInt(classDefItem.getAccessFlags());
+            writeItem(classDefItem.getSuperclass());
+            writeTypeList(classDefItem.getInterfaces());
+            writeItem(classDefItem.getSourceFile());
+
+            AnnotationDirectoryItem annotationDirectory = classDefItem.getAnnotations();
+            if (annotationDirectory == null) {
+                out.writeBoolean(false);
+            } else {
+                out.writeBoolean(true);
+                writeAnnotationDirectory(annotationDirectory);
+            }
+
+            EncodedArrayItem staticFieldInitializers = classDefItem.getStaticFieldInitializers();
+            if (staticFieldInitializers == null) {
+                out.writeBoolean(false);
+            } else {
+                out.writeBoolean(true);
+                writeEncodedValue(staticFieldInitializers.getEncodedArray());
+            }
+
+            ClassDataItem classDataItem = classDefItem.getClassData();
+            if (classDataItem == null) {
+                out.writeBoolean(false);
+            } else {
+                out.writeBoolean(true);
+                writeFields(classDataItem.getStaticFields());
+                writeFields(classDataItem.getInstanceFields());
+                writeMethods(classDataItem.getDirectMethods());
+                writeMethods(classDataItem.getVirtualMethods());
+            }
+        }
+
+        private void writeFields(ClassDataItem.EncodedField[] encodedFields) throws IOException {
+            out.writeInt(encodedFields.length);
+            for (ClassDataItem.EncodedField encodedField: encodedFields) {
+                writeItem(encodedField.field);
+                out.writeInt(encodedField.accessFlags);
+            }
+        }
+
+        private void writeMethods(ClassDataItem.EncodedMethod[] encodedMethods) throws IOException {
+            out.writeInt(encodedMethods.length);
+            for (ClassDataItem.EncodedMethod encodedMethod: encodedMethods) {
+                writeItem(encodedMethod.method);
+                out.writeInt(encodedMethod.accessFlags);
+                if (encodedMethod.codeItem == null) {
+                    out.writeBoolean(false);
+                } else {
+                    out.writeBoolean(true);
+                    writeCode(encodedMethod.codeItem);
+                }
+            }
+        }
+
+        private void writeCode(CodeItem codeItem) throws IOException {
+            out.writeInt(codeItem.getRegisterCount());
+            out.writeInt(codeItem.getInWords());
+            out.writeInt(codeItem.getOutWords());
+
+            InstructionCursor cursor = codeItem.getInstructionCursor();
+            while (cursor.next()) {
+                byte[] encodedInstruction = cursor.getEncodedInstruction();
+                ReferenceType referenceType = cursor.getReferenceType();
+                if (referenceType != null && referenceType != ReferenceType.none) {
+                    //the index always starts at the second code unit, and is either 2 or 4 bytes long
+                    int indexLength;
+                    switch (cursor.getFormat()) {
+                        case Format31c:
+                        case Format41c:
+                        case Format52c:
+                        case Format5rc:
+                            indexLength = 4;
+                            break;
+                        default:
+                            indexLength = 2;
+                    }
+                    Arrays.fill(encodedInstruction, 2, 2 + indexLength, (byte)0);
+                    out.write(encodedInstruction);
+                    writeItem(cursor.getReferencedItem());
+                } else {
+                    out.write(encodedInstruction);
+                }
+            }
+            //marks the end of the instructions, since the instructions themselves aren't length prefixed
+            out.writeInt(-1);
+
+            CodeItem.TryItem[] tries = codeItem.getTries();
+            out.writeInt(tries == null ? 0 : tries.length);
+            if (tries != null) {
+                for (CodeItem.TryItem tryItem: tries) {
+                    out.writeInt(tryItem.getStartCodeAddress());
+                    out.writeInt(tryItem.getTryLength());
+                    CodeItem.EncodedCatchHandler handler = tryItem.encodedCatchHandler;
+                    out.writeInt(handler.getCatchAllHandlerAddress());
+                    out.writeInt(handler.handlers.length);
+                    for (CodeItem.EncodedTypeAddrPair handlerPair: handler.handlers) {
+                        writeItem(handlerPair.exceptionType);
+                        out.writeInt(handlerPair.getHandlerAddress());
+                    }
+                }
+            }
+
+            DebugInfoItem debugInfo = codeItem.getDebugInfo();
+            if (debugInfo == null) {
+                out.writeBoolean(false);
+            } else {
+                out.writeBoolean(true);
+                writeDebugInfo(debugInfo, codeItem.getRegisterCount());
+            }
+        }
+
+        private void writeDebugInfo(DebugInfoItem debugInfo, int registerCount) throws IOException {
+            out.writeInt(debugInfo.getLineStart());
+            StringIdItem[] parameterNames = debugInfo.getParameterNames();
+            out.writeInt(parameterNames.length);
+            for (StringIdItem parameterName: parameterNames) {
+                writeItem(parameterName);
+            }
+
+            //the delegate can't throw an IOException, so it's wrapped and unwrapped again below
+            try {
+                DebugInstructionIterator.DecodeInstructions(debugInfo, registerCount,
+                        new DebugInstructionIterator.ProcessDecodedDebugInstructionDelegate() {
+                            @Override
+                            public void ProcessStartLocal(int codeAddress, int length, int registerNum,
+                                                          StringIdItem name, TypeIdItem type) {
+                                writeDebugEvent(0x03, codeAddress, registerNum, name, type, null);
+                            }
+
+                            @Override
+                            public void ProcessStartLocalExtended(int codeAddress, int length, int registerNum,
+                                                                  StringIdItem name, TypeIdItem type,
+                                                                  StringIdItem signature) {
+                                writeDebugEvent(0x04, codeAddress, registerNum, name, type, signature);
+                            }
+
+                            @Override
+                            public void ProcessEndLocal(int codeAddress, int length, int registerNum,
+                                                        StringIdItem name, TypeIdItem type, StringIdItem signature) {
+                                writeDebugEvent(0x05, codeAddress, registerNum, name, type, signature);
+                            }
+
+                            @Override
+                            public void ProcessRestartLocal(int codeAddress, int length, int registerNum,
+                                                            StringIdItem name, TypeIdItem type,
+                                                            StringIdItem signature) {
+                                writeDebugEvent(0x06, codeAddress, registerNum, name, type, signature);
+                            }
+
+                            @Override
+                            public void ProcessSetPrologueEnd(int codeAddress) {
+                                writeDebugEvent(0x07, codeAddress, -1, null, null, null);
+                            }
+
+                            @Override
+                            public void ProcessSetEpilogueBegin(int codeAddress) {
+                                writeDebugEvent(0x08, codeAddress, -1, null, null, null);
+                            }
+
+                            @Override
+                            public void ProcessSetFile(int codeAddress, int length, StringIdItem name) {
+                                writeDebugEvent(0x09, codeAddress, -1, name, null, null);
+                            }
+
+                            @Override
+                            public void ProcessLineEmit(int codeAddress, int line) {
+                                writeDebugEvent(0x0a, codeAddress, line, null, null, null);
+                            }
+                        });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            out.writeInt(-1);
+        }
+
+        private void writeDebugEvent(int debugOpcode, int codeAddress, int value, StringIdItem name,
+                                     TypeIdItem type, StringIdItem signature) {
+            try {
+                out.writeInt(debugOpcode);
+                out.writeInt(codeAddress);
+                out.writeInt(value);
+                writeItem(name);
+                writeItem(type);
+                writeItem(signature);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        private void writeAnnotationDirectory(AnnotationDirectoryItem annotationDirectory) throws IOException {
+            writeAnnotationSet(annotationDirectory.getClassAnnotations());
+
+            final List<IOException> exceptions = new ArrayList<IOException>(1);
+
+            out.writeInt(annotationDirectory.getFieldAnnotationCount());
+            annotationDirectory.iterateFieldAnnotations(
+                    new AnnotationDirectoryItem.FieldAnnotationIteratorDelegate() {
+                        public void processFieldAnnotations(FieldIdItem field, AnnotationSetItem fieldAnnotations) {
+                            try {
+                                writeItem(field);
+                                writeAnnotationSet(fieldAnnotations);
+                            } catch (IOException ex) {
+                                exceptions.add(ex);
+                            }
+                        }
+                    });
+
+            out.writeInt(annotationDirectory.getMethodAnnotationCount());
+            annotationDirectory.iterateMethodAnnotations(
+                    new AnnotationDirectoryItem.MethodAnnotationIteratorDelegate() {
+                        public void processMethodAnnotations(MethodIdItem method,
+                                                             AnnotationSetItem methodAnnotations) {
+                            try {
+                                writeItem(method);
+                                writeAnnotationSet(methodAnnotations);
+                            } catch (IOException ex) {
+                                exceptions.add(ex);
+                            }
+                        }
+                    });
+
+            out.writeInt(annotationDirectory.getParameterAnnotationCount());
+            annotationDirectory.iterateParameterAnnotations(
+                    new AnnotationDirectoryItem.ParameterAnnotationIteratorDelegate() {
+                        public void processParameterAnnotations(MethodIdItem method,
+                                                                AnnotationSetRefList parameterAnnotations) {
+                            try {
+                                writeItem(method);
+                                AnnotationSetItem[] annotationSets = parameterAnnotations.getAnnotationSets();
+                                out.writeInt(annotationSets.length);
+                                for (AnnotationSetItem annotationSet: annotationSets) {
+                                    writeAnnotationSet(annotationSet);
+                                }
+                            } catch (IOException ex) {
+                                exceptions.add(ex);
+                            }
+                        }
+                    });
+
+            if (exceptions.size() > 0) {
+                throw exceptions.get(0);
+            }
+        }
+
+        private void writeAnnotationSet(AnnotationSetItem annotationSet) throws IOException {
+            if (annotationSet == null) {
+                out.writeInt(-1);
+                return;
+            }
+            AnnotationItem[] annotations = annotationSet.getAnnotations();
+            out.writeInt(annotations.length);
+            for (AnnotationItem annotation: annotations) {
+                out.writeByte(annotation.getVisibility().value);
+                writeEncodedValue(annotation.getEncodedAnnotation());
+            }
+        }
+
+        private void writeEncodedValue(EncodedValue encodedValue) throws IOException {
+            out.writeByte(encodedValue.getValueType().value);
+            switch (encodedValue.getValueType()) {
+                case VALUE_BYTE:
+                    out.writeByte(((ByteEncodedValue)encodedValue).value);
+                    break;
+                case VALUE_SHORT:
+                    out.writeShort(((ShortEncodedValue)encodedValue).value);
+                    break;
+                case VALUE_CHAR:
+                    out.writeChar(((CharEncodedValue)encodedValue).value);
+                    break;
+                case VALUE_INT:
+                    out.writeInt(((IntEncodedValue)encodedValue).value);
+                    break;
+                case VALUE_LONG:
+                    out.writeLong(((LongEncodedValue)encodedValue).value);
+                    break;
+                case VALUE_FLOAT:
+                    out.writeFloat(((FloatEncodedValue)encodedValue).value);
+                    break;
+                case VALUE_DOUBLE:
+                    out.writeDouble(((DoubleEncodedValue)encodedValue).value);
+                    break;
+                case VALUE_STRING:
+                    writeItem(((StringEncodedValue)encodedValue).value);
+                    break;
+                case VALUE_TYPE:
+                    writeItem(((TypeEncodedValue)encodedValue).value);
+                    break;
+                case VALUE_FIELD:
+                    writeItem(((FieldEncodedValue)encodedValue).value);
+                    break;
+                case VALUE_METHOD:
+                    writeItem(((MethodEncodedValue)encodedValue).value);
+                    break;
+                case VALUE_ENUM:
+                    writeItem(((EnumEncodedValue)encodedValue).value);
+                    break;
+                case VALUE_ARRAY: {
+                    EncodedValue[] values = ((ArrayEncodedSubValue)encodedValue).values;
+                    out.writeInt(values.length);
+                    for (EncodedValue value: values) {
+                        writeEncodedValue(value);
+                    }
+                    break;
+                }
+                case VALUE_ANNOTATION: {
+                    AnnotationEncodedSubValue annotationValue = (AnnotationEncodedSubValue)encodedValue;
+                    writeItem(annotationValue.annotationType);
+                    out.writeInt(annotationValue.names.length);
+                    for (int i=0; i<annotationValue.names.length; i++) {
+                        writeItem(annotationValue.names[i]);
+                        writeEncodedValue(annotationValue.values[i]);
+                    }
+                    break;
+                }
+                case VALUE_NULL:
+                    break;
+                case VALUE_BOOLEAN:
+                    out.writeBoolean(((BooleanEncodedValue)encodedValue).value);
+                    break;
+            }
+        }
+
+        private void writeTypeList(TypeListItem typeList) throws IOException {
+            if (typeList == null) {
+                out.writeInt(-1);
+                return;
+            }
+            out.writeInt(typeList.getTypeCount());
+            for (TypeIdItem type: typeList.getTypes()) {
+                writeItem(type);
+            }
+        }
+
+        private void writeItem(Item item) throws IOException {
+            String value;
+            if (item == null) {
+                out.writeInt(-1);
+                return;
+            } else if (item instanceof StringIdItem) {
+                value = ((StringIdItem)item).getStringValue();
+            } else if (item instanceof TypeIdItem) {
+                value = ((TypeIdItem)item).getTypeDescriptor();
+            } else if (item instanceof FieldIdItem) {
+                value = ((FieldIdItem)item).getFieldString();
+            } else if (item instanceof MethodIdItem) {
+                value = ((MethodIdItem)item).getMethodString();
+            } else {
+                throw new RuntimeException("Unexpected item type: " + item.getItemType().TypeName);
+            }
+            out.writeInt(value.length());
+            out.writeChars(value);
+        }
+    }
+
+    private static class UncheckedIOException extends RuntimeException {
+        public UncheckedIOException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public IOException getCause() {
+            return (IOException)super.getCause();
+        }
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    private static class Entry {
+        public final String hash;
+        public final String path;
+
+        public Entry(String hash, String path) {
+            this.hash = hash;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry)o;
+            return hash.equals(other.hash) && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash.hashCode() * 31 + path.hashCode();
+        }
+    }
+}
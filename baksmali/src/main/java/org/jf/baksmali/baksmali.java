@@ -29,16 +29,17 @@
 package org.jf.baksmali;
 
 import org.jf.baksmali.Adaptors.ClassDefinition;
+import org.jf.baksmali.Adaptors.ReferenceCache;
 import org.jf.dexlib.ClassDefItem;
 import org.jf.dexlib.Code.Analysis.*;
 import org.jf.dexlib.DexFile;
+import org.jf.dexlib.Util.Metrics;
+import org.jf.util.ArchiveWriter;
 import org.jf.util.ClassFileNameHandler;
 import org.jf.util.IndentingWriter;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -55,15 +56,77 @@ public class baksmali {
     public static int registerInfo = 0;
     public static String bootClassPath;
 
-    public static SyntheticAccessorResolver syntheticAccessorResolver = null;
+    //The following objects are specific to the dex file being disassembled. They are thread local, so that several
+    //dex files can be disassembled at once by the batch mode. See BatchDeodexer
+    private static final ThreadLocal<SyntheticAccessorResolver> syntheticAccessorResolver =
+            new ThreadLocal<SyntheticAccessorResolver>();
+    private static final ThreadLocal<ReferenceCache> referenceCache = new ThreadLocal<ReferenceCache>();
+    private static final ThreadLocal<DeodexUtil> deodexUtil = new ThreadLocal<DeodexUtil>();
 
-    public static void disassembleDexFile(String dexFilePath, DexFile dexFile, boolean deodex, String outputDirectory,
-                                          String[] classPathDirs, String bootClassPath, String extraBootClassPath,
-                                          boolean noParameterRegisters, boolean useLocalsDirective,
-                                          boolean useSequentialLabels, boolean outputDebugInfo, boolean addCodeOffsets,
-                                          boolean noAccessorComments, int registerInfo, boolean verify,
-                                          boolean ignoreErrors, String inlineTable)
-    {
+    /**
+     * The name of the index entry that is optionally added to an output archive
+     */
+    public static final String ARCHIVE_INDEX_NAME = ".smali-index";
+
+    /**
+     * @return the synthetic accessor resolver for the dex file that is being disassembled by the current thread, or
+     * null if there isn't one
+     */
+    public static SyntheticAccessorResolver getSyntheticAccessorResolver() {
+        return syntheticAccessorResolver.get();
+    }
+
+    public static void setSyntheticAccessorResolver(SyntheticAccessorResolver syntheticAccessorResolver) {
+        baksmali.syntheticAccessorResolver.set(syntheticAccessorResolver);
+    }
+
+    /**
+     * @return the reference cache for the dex file that is being disassembled by the current thread, or null if
+     * there isn't one
+     */
+    public static ReferenceCache getReferenceCache() {
+        return referenceCache.get();
+    }
+
+    public static void setReferenceCache(ReferenceCache referenceCache) {
+        baksmali.referenceCache.set(referenceCache);
+    }
+
+    /**
+     * Gets the DeodexUtil to use for the methods in the given dex file. All of the methods of a dex file that are
+     * disassembled by the current thread share the same DeodexUtil, along with the items that it has resolved
+     * @param dexFile the dex file containing the method being disassembled
+     * @return the DeodexUtil for the given dex file, or null if the dex file shouldn't be deodexed
+     */
+    public static DeodexUtil getDeodexUtil(DexFile dexFile) {
+        if (!deodex || !dexFile.isOdex()) {
+            return null;
+        }
+
+        DeodexUtil deodexUtil = baksmali.deodexUtil.get();
+        if (deodexUtil == null || deodexUtil.dexFile != dexFile) {
+            if (inlineResolver != null) {
+                deodexUtil = new DeodexUtil(dexFile, inlineResolver);
+            } else {
+                deodexUtil = new DeodexUtil(dexFile);
+            }
+            baksmali.deodexUtil.set(deodexUtil);
+        }
+        return deodexUtil;
+    }
+
+    /**
+     * Discards the objects for the dex file that was disassembled by the current thread
+     */
+    public static void clearDexFileState() {
+        syntheticAccessorResolver.remove();
+        referenceCache.remove();
+        deodexUtil.remove();
+    }
+
+    static void setOptions(boolean deodex, String bootClassPath, boolean noParameterRegisters,
+                           boolean useLocalsDirective, boolean useSequentialLabels, boolean outputDebugInfo,
+                           boolean addCodeOffsets, boolean noAccessorComments, int registerInfo, boolean verify) {
         baksmali.noParameterRegisters = noParameterRegisters;
         baksmali.useLocalsDirective = useLocalsDirective;
         baksmali.useSequentialLabels = useSequentialLabels;
@@ -74,66 +137,132 @@ public class baksmali {
         baksmali.registerInfo = registerInfo;
         baksmali.bootClassPath = bootClassPath;
         baksmali.verify = verify;
+        baksmali.inlineResolver = null;
+    }
 
-        ClassPath.ClassPathErrorHandler classPathErrorHandler = null;
-        if (ignoreErrors) {
-            classPathErrorHandler = new ClassPath.ClassPathErrorHandler() {
-                public void ClassPathError(String className, Exception ex) {
-                    System.err.println(String.format("Skipping %s", className));
-                    ex.printStackTrace(System.err);
-                }
-            };
+    static ClassPath.ClassPathErrorHandler getClassPathErrorHandler(boolean ignoreErrors) {
+        if (!ignoreErrors) {
+            return null;
         }
+        return new ClassPath.ClassPathErrorHandler() {
+            public void ClassPathError(String className, Exception ex) {
+                System.err.println(String.format("Skipping %s", className));
+                ex.printStackTrace(System.err);
+            }
+        };
+    }
+
+    /**
+     * Disassembles the given dex file
+     * @return false if an error occured. The error has already been reported
+     */
+    public static boolean disassembleDexFile(String dexFilePath, DexFile dexFile, boolean deodex,
+                                             String outputDirectory, String[] classPathDirs, String bootClassPath,
+                                             String extraBootClassPath, boolean noParameterRegisters,
+                                             boolean useLocalsDirective, boolean useSequentialLabels,
+                                             boolean outputDebugInfo, boolean addCodeOffsets,
+                                             boolean noAccessorComments, int registerInfo, boolean verify,
+                                             boolean ignoreErrors, String inlineTable, boolean incremental,
+                                             String outputArchive, boolean archiveIndex)
+    {
+        setOptions(deodex, bootClassPath, noParameterRegisters, useLocalsDirective, useSequentialLabels,
+                outputDebugInfo, addCodeOffsets, noAccessorComments, registerInfo, verify);
 
         if (registerInfo != 0 || deodex || verify) {
-            try {
-                String[] extraBootClassPathArray = null;
-                if (extraBootClassPath != null && extraBootClassPath.length() > 0) {
-                    assert extraBootClassPath.charAt(0) == ':';
-                    extraBootClassPathArray = extraBootClassPath.substring(1).split(":");
-                }
+            if (!initializeClassPath(dexFilePath, dexFile, classPathDirs, bootClassPath, extraBootClassPath,
+                    ignoreErrors, inlineTable)) {
+                return false;
+            }
+        }
 
-                if (dexFile.isOdex() && bootClassPath == null) {
-                    //ext.jar is a special case - it is typically the 2nd jar in the boot class path, but it also
-                    //depends on classes in framework.jar (typically the 3rd jar in the BCP). If the user didn't
-                    //specify a -c option, we should add framework.jar to the boot class path by default, so that it
-                    //"just works"
-                    if (extraBootClassPathArray == null && isExtJar(dexFilePath)) {
-                        extraBootClassPathArray = new String[] {"framework.jar"};
-                    }
-                    ClassPath.InitializeClassPathFromOdex(classPathDirs, extraBootClassPathArray, dexFilePath, dexFile,
-                            classPathErrorHandler);
-                } else {
-                    String[] bootClassPathArray = null;
-                    if (bootClassPath != null) {
-                        bootClassPathArray = bootClassPath.split(":");
-                    }
-                    ClassPath.InitializeClassPath(classPathDirs, bootClassPathArray, extraBootClassPathArray,
-                            dexFilePath, dexFile, classPathErrorHandler);
-                }
+        return disassembleClasses(dexFile, outputDirectory, ignoreErrors, incremental, outputArchive, archiveIndex);
+    }
+
+    /**
+     * Initializes the class path for analyzing the given dex file, and loads the custom inline method table, if any
+     * @param dexFilePath the path of the dex file
+     * @param dexFile the dex file that will be analyzed
+     * @param classPathDirs the directories to search for the boot class path files in
+     * @param bootClassPath the boot class path entries, separated by a :, or null
+     * @param extraBootClassPath extra boot class path entries, separated and prefixed by a :, or null
+     * @param ignoreErrors whether to skip the classes that can't be loaded, instead of failing
+     * @param inlineTable a file containing a custom inline method table, or null
+     * @return false if an error occured while loading the class path. The error has already been reported
+     */
+    static boolean initializeClassPath(String dexFilePath, DexFile dexFile, String[] classPathDirs,
+                                       String bootClassPath, String extraBootClassPath, boolean ignoreErrors,
+                                       String inlineTable) {
+        ClassPath.ClassPathErrorHandler classPathErrorHandler = getClassPathErrorHandler(ignoreErrors);
 
-                if (inlineTable != null) {
-                    inlineResolver = new CustomInlineMethodResolver(inlineTable);
+        try {
+            String[] extraBootClassPathArray = null;
+            if (extraBootClassPath != null && extraBootClassPath.length() > 0) {
+                assert extraBootClassPath.charAt(0) == ':';
+                extraBootClassPathArray = extraBootClassPath.substring(1).split(":");
+            }
+
+            if (dexFile.isOdex() && bootClassPath == null) {
+                //ext.jar is a special case - it is typically the 2nd jar in the boot class path, but it also
+                //depends on classes in framework.jar (typically the 3rd jar in the BCP). If the user didn't
+                //specify a -c option, we should add framework.jar to the boot class path by default, so that it
+                //"just works"
+                if (extraBootClassPathArray == null && isExtJar(dexFilePath)) {
+                    extraBootClassPathArray = new String[] {"framework.jar"};
                 }
-            } catch (Exception ex) {
-                System.err.println("\n\nError occured while loading boot class path files. Aborting.");
-                ex.printStackTrace(System.err);
-                System.exit(1);
+                ClassPath.InitializeClassPathFromOdex(classPathDirs, extraBootClassPathArray, dexFilePath, dexFile,
+                        classPathErrorHandler);
+            } else {
+                String[] bootClassPathArray = null;
+                if (bootClassPath != null) {
+                    bootClassPathArray = bootClassPath.split(":");
+                }
+                ClassPath.InitializeClassPath(classPathDirs, bootClassPathArray, extraBootClassPathArray,
+                        dexFilePath, dexFile, classPathErrorHandler);
+            }
+
+            if (inlineTable != null) {
+                inlineResolver = new CustomInlineMethodResolver(inlineTable);
             }
+        } catch (Exception ex) {
+            System.err.println("\n\nError occured while loading boot class path files. Aborting.");
+            ex.printStackTrace(System.err);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Disassembles the classes of the given dex file, using the options and class path that have already been set up
+     * @return false if a class had validation errors and ignoreErrors is false, or if the output couldn't be
+     * written. The disassembly is stopped after that class
+     */
+    static boolean disassembleClasses(DexFile dexFile, String outputDirectory, boolean ignoreErrors,
+                                      boolean incremental, String outputArchive, boolean archiveIndex) {
+        try {
+            return disassembleClassesInternal(dexFile, outputDirectory, ignoreErrors, incremental, outputArchive,
+                    archiveIndex);
+        } finally {
+            clearDexFileState();
         }
+    }
 
+    private static boolean disassembleClassesInternal(DexFile dexFile, String outputDirectory, boolean ignoreErrors,
+                                                      boolean incremental, String outputArchive,
+                                                      boolean archiveIndex) {
         File outputDirectoryFile = new File(outputDirectory);
-        if (!outputDirectoryFile.exists()) {
+        if (outputArchive == null && !outputDirectoryFile.exists()) {
             if (!outputDirectoryFile.mkdirs()) {
                 System.err.println("Can't create the output directory " + outputDirectory);
-                System.exit(1);
+                return false;
             }
         }
 
         if (!noAccessorComments) {
-            syntheticAccessorResolver = new SyntheticAccessorResolver(dexFile);
+            setSyntheticAccessorResolver(new SyntheticAccessorResolver(dexFile));
         }
 
+        setReferenceCache(new ReferenceCache(dexFile));
+
         //sort the classes, so that if we're on a case-insensitive file system and need to handle classes with file
         //name collisions, then we'll use the same name for each class, if the dex file goes through multiple
         //baksmali/smali cycles for some reason. If a class with a colliding name is added or removed, the filenames
@@ -141,11 +270,45 @@ public class baksmali {
         ArrayList<ClassDefItem> classDefItems = new ArrayList<ClassDefItem>(dexFile.ClassDefsSection.getItems());
         Collections.sort(classDefItems, new Comparator<ClassDefItem>() {
             public int compare(ClassDefItem classDefItem1, ClassDefItem classDefItem2) {
-                return classDefItem1.getClassType().getTypeDescriptor().compareTo(classDefItem1.getClassType().getTypeDescriptor());
+                return classDefItem1.getClassType().getTypeDescriptor().compareTo(classDefItem2.getClassType().getTypeDescriptor());
             }
         });
 
-        ClassFileNameHandler fileNameHandler = new ClassFileNameHandler(outputDirectoryFile, ".smali");
+        ClassFileNameHandler fileNameHandler;
+        ArchiveWriter archiveWriter = null;
+        if (outputArchive != null) {
+            fileNameHandler = new ClassFileNameHandler(".smali");
+            try {
+                archiveWriter = ArchiveWriter.createArchiveWriter(new File(outputArchive));
+            } catch (IOException ex) {
+                System.err.println("Can't create the output archive " + outputArchive);
+                ex.printStackTrace();
+                return false;
+            }
+        } else {
+            fileNameHandler = new ClassFileNameHandler(outputDirectoryFile, ".smali");
+        }
+
+        DisassemblyManifest manifest = null;
+        if (incremental) {
+            if (archiveWriter != null) {
+                System.err.println("Warning: incremental disassembly is not supported when writing to an archive. " +
+                        "All classes will be disassembled");
+            } else if (registerInfo != 0 || deodex || verify) {
+                //the disassembly depends on the classes in the classpath in these cases, which aren't tracked
+                System.err.println("Warning: incremental disassembly is not supported with the -r, -x or -V " +
+                        "options. All classes will be disassembled");
+            } else {
+                manifest = new DisassemblyManifest(outputDirectoryFile, dexFile,
+                        getManifestOptions(noParameterRegisters, useLocalsDirective, useSequentialLabels,
+                                outputDebugInfo, addCodeOffsets, noAccessorComments));
+            }
+        }
+
+        //allocate the file names for all of the classes up front, in sorted order, so that the directories can be
+        //created in one batch, rather than checking for and creating the directory of each class as it is written
+        ArrayList<ClassDefItem> classesToWrite = new ArrayList<ClassDefItem>(classDefItems.size());
+        ArrayList<File> smaliFiles = new ArrayList<File>(classDefItems.size());
 
         for (ClassDefItem classDefItem: classDefItems) {
             /**
@@ -174,7 +337,38 @@ public class baksmali {
                 continue;
             }
 
-            File smaliFile = fileNameHandler.getUniqueFilenameForClass(classDescriptor);
+            classesToWrite.add(classDefItem);
+            smaliFiles.add(fileNameHandler.getUniqueFilenameForClass(classDescriptor));
+        }
+
+        //the directories are created as the first file in each is written, so that a run that fails part way
+        //through doesn't leave empty directories behind. Each directory is only checked once
+        Set<File> createdDirectories = new HashSet<File>();
+        Set<File> failedDirectories = new HashSet<File>();
+
+        //the index of the archive entries, with a line of the form "descriptor\tentry name" for each class
+        StringBuilder archiveIndexBuilder = null;
+        if (archiveWriter != null && archiveIndex) {
+            archiveIndexBuilder = new StringBuilder();
+        }
+
+        for (int i=0; i<classesToWrite.size(); i++) {
+            ClassDefItem classDefItem = classesToWrite.get(i);
+            String classDescriptor = classDefItem.getClassType().getTypeDescriptor();
+            File smaliFile = smaliFiles.get(i);
+
+            if (manifest != null && !manifest.needsDisassembly(classDefItem, smaliFile)) {
+                continue;
+            }
+
+            if (archiveWriter == null &&
+                    !createParentDirectory(smaliFile, createdDirectories, failedDirectories)) {
+                System.err.println("Unable to create directory " + smaliFile.getParent() + " - skipping class");
+                if (manifest != null) {
+                    manifest.removeClass(classDefItem);
+                }
+                continue;
+            }
 
             //create and initialize the top level string template
             ClassDefinition classDefinition = new ClassDefinition(classDefItem);
@@ -183,46 +377,132 @@ public class baksmali {
             Writer writer = null;
             try
             {
-                File smaliParent = smaliFile.getParentFile();
-                if (!smaliParent.exists()) {
-                    if (!smaliParent.mkdirs()) {
-                        System.err.println("Unable to create directory " + smaliParent.toString() + " - skipping class");
-                        continue;
+                if (archiveWriter != null) {
+                    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(8192);
+                    writer = new IndentingWriter(byteArrayOutputStream);
+                    writeClass(classDefinition, (IndentingWriter)writer);
+                    writer.close();
+
+                    String entryName = smaliFile.getPath().replace(File.separatorChar, '/');
+                    Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.FILE_IO);
+                    try {
+                        archiveWriter.writeEntry(entryName, byteArrayOutputStream.toByteArray());
+                    } finally {
+                        Metrics.endPhase(timer);
                     }
-                }
 
-                if (!smaliFile.exists()){
-                    if (!smaliFile.createNewFile()) {
-                        System.err.println("Unable to create file " + smaliFile.toString() + " - skipping class");
-                        continue;
+                    if (archiveIndexBuilder != null) {
+                        archiveIndexBuilder.append(classDescriptor);
+                        archiveIndexBuilder.append('\t');
+                        archiveIndexBuilder.append(entryName);
+                        archiveIndexBuilder.append('\n');
+                    }
+                } else {
+                    Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.FILE_IO);
+                    try {
+                        writer = new IndentingWriter(new FileOutputStream(smaliFile));
+                    } finally {
+                        Metrics.endPhase(timer);
                     }
+                    writeClass(classDefinition, (IndentingWriter)writer);
                 }
-
-                BufferedWriter bufWriter = new BufferedWriter(new OutputStreamWriter(
-                        new FileOutputStream(smaliFile), "UTF8"));
-
-                writer = new IndentingWriter(bufWriter);
-                classDefinition.writeTo((IndentingWriter)writer);
             } catch (Exception ex) {
                 System.err.println("\n\nError occured while disassembling class " + classDescriptor.replace('/', '.') + " - skipping class");
                 ex.printStackTrace();
+                if (manifest != null) {
+                    manifest.removeClass(classDefItem);
+                }
             }
             finally
             {
                 if (writer != null) {
+                    Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.FILE_IO);
                     try {
                         writer.close();
                     } catch (Throwable ex) {
                         System.err.println("\n\nError occured while closing file " + smaliFile.toString());
                         ex.printStackTrace();
+                    } finally {
+                        Metrics.endPhase(timer);
                     }
                 }
             }
 
             if (!ignoreErrors && classDefinition.hadValidationErrors()) {
-                System.exit(1);
+                return false;
+            }
+        }
+
+        if (archiveWriter != null) {
+            try {
+                if (archiveIndexBuilder != null) {
+                    archiveWriter.writeEntry(ARCHIVE_INDEX_NAME, archiveIndexBuilder.toString().getBytes("UTF-8"));
+                }
+                archiveWriter.close();
+            } catch (IOException ex) {
+                System.err.println("\n\nError occured while writing the output archive " + outputArchive);
+                ex.printStackTrace();
+                return false;
+            }
+        }
+
+        if (manifest != null) {
+            try {
+                manifest.finish();
+            } catch (IOException ex) {
+                System.err.println("\n\nError occured while writing the manifest file");
+                ex.printStackTrace();
             }
         }
+        return true;
+    }
+
+    private static void writeClass(ClassDefinition classDefinition, IndentingWriter writer) throws IOException {
+        Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.RENDERING);
+        try {
+            classDefinition.writeTo(writer);
+        } finally {
+            Metrics.endPhase(timer);
+        }
+        Metrics.count(Metrics.Counter.CLASSES);
+    }
+
+    /**
+     * Creates the parent directory of the given file, if it hasn't already been created
+     * @param file the file to create the parent directory of
+     * @param createdDirectories the directories that have already been created
+     * @param failedDirectories the directories that couldn't be created
+     * @return true if the directory exists
+     */
+    private static boolean createParentDirectory(File file, Set<File> createdDirectories,
+                                                 Set<File> failedDirectories) {
+        File directory = file.getParentFile();
+        if (createdDirectories.contains(directory)) {
+            return true;
+        }
+        if (failedDirectories.contains(directory)) {
+            return false;
+        }
+
+        Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.FILE_IO);
+        try {
+            //mkdirs returns false if the directory already exists
+            if (!directory.mkdirs() && !directory.isDirectory()) {
+                failedDirectories.add(directory);
+                return false;
+            }
+        } finally {
+            Metrics.endPhase(timer);
+        }
+        createdDirectories.add(directory);
+        return true;
+    }
+
+    private static String getManifestOptions(boolean noParameterRegisters, boolean useLocalsDirective,
+                                             boolean useSequentialLabels, boolean outputDebugInfo,
+                                             boolean addCodeOffsets, boolean noAccessorComments) {
+        return String.format("p=%b,l=%b,s=%b,b=%b,f=%b,m=%b", noParameterRegisters, useLocalsDirective,
+                useSequentialLabels, outputDebugInfo, addCodeOffsets, noAccessorComments);
     }
 
     private static final Pattern extJarPattern = Pattern.compile("(?:^|\\\\|/)ext.(?:jar|odex)$");
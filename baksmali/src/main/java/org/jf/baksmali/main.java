@@ -31,10 +31,12 @@ package org.jf.baksmali;
 import org.apache.commons.cli.*;
 import org.jf.dexlib.Code.Opcode;
 import org.jf.dexlib.DexFile;
+import org.jf.dexlib.Util.Metrics;
 import org.jf.util.ConsoleUtil;
 import org.jf.util.SmaliHelpFormatter;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -84,6 +86,19 @@ public class main {
      * Run!
      */
     public static void main(String[] args) {
+        int status = run(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Runs baksmali with the given command line arguments, without exiting the JVM. This can be called more than once
+     * in the same JVM
+     * @param args the command line arguments
+     * @return the exit status
+     */
+    public static int run(String[] args) {
         CommandLineParser parser = new PosixParser();
         CommandLine commandLine;
 
@@ -91,7 +106,7 @@ public class main {
             commandLine = parser.parse(options, args);
         } catch (ParseException ex) {
             usage();
-            return;
+            return 0;
         }
 
         boolean disassemble = true;
@@ -108,12 +123,20 @@ public class main {
         boolean deodex = false;
         boolean verify = false;
         boolean ignoreErrors = false;
+        boolean incremental = false;
+        boolean archiveIndex = false;
+        boolean printStats = false;
+        boolean batch = false;
+        boolean batchDex = false;
+
+        int jobs = Runtime.getRuntime().availableProcessors();
 
         int apiLevel = 14;
 
         int registerInfo = 0;
 
         String outputDirectory = "out";
+        String outputArchive = null;
         String dumpFileName = null;
         String outputDexFileName = null;
         String inputDexFileName = null;
@@ -122,6 +145,8 @@ public class main {
         List<String> bootClassPathDirs = new ArrayList<String>();
         bootClassPathDirs.add(".");
         String inlineTable = null;
+        String statsJsonFile = null;
+        String verifyReportFile = null;
 
         String[] remainingArgs = commandLine.getArgs();
 
@@ -134,16 +159,16 @@ public class main {
             switch (opt.charAt(0)) {
                 case 'v':
                     version();
-                    return;
+                    return 0;
                 case '?':
                     while (++i < options.length) {
                         if (options[i].getOpt().charAt(0) == '?') {
                             usage(true);
-                            return;
+                            return 0;
                         }
                     }
                     usage(false);
-                    return;
+                    return 0;
                 case 'o':
                     outputDirectory = commandLine.getOptionValue("o");
                     break;
@@ -188,7 +213,7 @@ public class main {
                                 registerInfo |= FULLMERGE;
                             } else {
                                 usage();
-                                return;
+                                return 0;
                             }
                         }
 
@@ -237,9 +262,36 @@ public class main {
                 case 'V':
                     verify = true;
                     break;
+                case 'R':
+                    verifyReportFile = commandLine.getOptionValue("R");
+                    break;
                 case 'T':
                     inlineTable = commandLine.getOptionValue("T");
                     break;
+                case 'i':
+                    incremental = true;
+                    break;
+                case 'z':
+                    outputArchive = commandLine.getOptionValue("z");
+                    break;
+                case 'Z':
+                    archiveIndex = true;
+                    break;
+                case 'P':
+                    printStats = true;
+                    break;
+                case 'Q':
+                    statsJsonFile = commandLine.getOptionValue("Q");
+                    break;
+                case 'B':
+                    batch = true;
+                    break;
+                case 'X':
+                    batchDex = true;
+                    break;
+                case 'j':
+                    jobs = Integer.parseInt(commandLine.getOptionValue("j"));
+                    break;
                 default:
                     assert false;
             }
@@ -247,16 +299,29 @@ public class main {
 
         if (remainingArgs.length != 1) {
             usage();
-            return;
+            return 0;
         }
 
         inputDexFileName = remainingArgs[0];
 
+        Metrics.Snapshot statsStart = null;
+        if (printStats || statsJsonFile != null) {
+            Metrics.setEnabled(true);
+            statsStart = Metrics.snapshot();
+        }
+
+        if (batch) {
+            return deodexDirectory(inputDexFileName, outputDirectory, batchDex, bootClassPathDirs, bootClassPath,
+                    extraBootClassPathEntries.toString(), noParameterRegisters, useLocalsDirective, useSequentialLabels,
+                    outputDebugInfo, addCodeOffsets, noAccessorComments, registerInfo, verify, ignoreErrors,
+                    inlineTable, apiLevel, jobs, statsStart, printStats, statsJsonFile);
+        }
+
         try {
             File dexFileFile = new File(inputDexFileName);
             if (!dexFileFile.exists()) {
                 System.err.println("Can't find the file " + inputDexFileName);
-                System.exit(1);
+                return 1;
             }
 
             Opcode.updateMapsForApiLevel(apiLevel);
@@ -271,7 +336,7 @@ public class main {
                 if (write) {
                     System.err.println("-W cannot be used with an odex file. Ignoring -W");
                 }
-                if (!deodex) {
+                if (disassemble && !deodex) {
                     System.err.println("Warning: You are disassembling an odex file without deodexing it. You");
                     System.err.println("won't be able to re-assemble the results unless you deodex it with the -x");
                     System.err.println("option");
@@ -284,16 +349,23 @@ public class main {
                 }
             }
 
-            if (disassemble) {
-                String[] bootClassPathDirsArray = new String[bootClassPathDirs.size()];
-                for (int i=0; i<bootClassPathDirsArray.length; i++) {
-                    bootClassPathDirsArray[i] = bootClassPathDirs.get(i);
-                }
+            String[] bootClassPathDirsArray = new String[bootClassPathDirs.size()];
+            for (int i=0; i<bootClassPathDirsArray.length; i++) {
+                bootClassPathDirsArray[i] = bootClassPathDirs.get(i);
+            }
 
-                baksmali.disassembleDexFile(dexFileFile.getPath(), dexFile, deodex, outputDirectory,
+            boolean verified = true;
+            if (disassemble) {
+                if (!baksmali.disassembleDexFile(dexFileFile.getPath(), dexFile, deodex, outputDirectory,
                         bootClassPathDirsArray, bootClassPath, extraBootClassPathEntries.toString(),
-                        noParameterRegisters, useLocalsDirective, useSequentialLabels, outputDebugInfo, addCodeOffsets,
-                        noAccessorComments, registerInfo, verify, ignoreErrors, inlineTable);
+                        noParameterRegisters, useLocalsDirective, useSequentialLabels, outputDebugInfo,
+                        addCodeOffsets, noAccessorComments, registerInfo, verify, ignoreErrors, inlineTable,
+                        incremental, outputArchive, archiveIndex)) {
+                    return 1;
+                }
+            } else if (verify) {
+                verified = verifyDexFile(dexFileFile.getPath(), dexFile, bootClassPathDirsArray, bootClassPath,
+                        extraBootClassPathEntries.toString(), ignoreErrors, inlineTable, jobs, verifyReportFile);
             }
 
             if ((doDump || write) && !dexFile.isOdex()) {
@@ -305,17 +377,130 @@ public class main {
                     ex.printStackTrace();
                 }
             }
+
+            if (statsStart != null) {
+                writeStats(Metrics.snapshot().since(statsStart), printStats, statsJsonFile);
+            }
+
+            if (!verified) {
+                return 1;
+            }
+        } catch (RuntimeException ex) {
+            System.err.println("\n\nUNEXPECTED TOP-LEVEL EXCEPTION:");
+            ex.printStackTrace();
+            return 1;
+        } catch (Throwable ex) {
+            System.err.println("\n\nUNEXPECTED TOP-LEVEL ERROR:");
+            ex.printStackTrace();
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Verifies all of the methods in the given dex file without disassembling it, for the --verify option along
+     * with --no-disassembly. The failures are printed to stderr, and the report is optionally written to a file
+     * @return true if all of the methods were verified successfully
+     */
+    private static boolean verifyDexFile(String dexFilePath, DexFile dexFile, String[] bootClassPathDirs,
+                                         String bootClassPath, String extraBootClassPath, boolean ignoreErrors,
+                                         String inlineTable, int jobs, String reportFile) throws IOException {
+        //the odex instructions have to be deodexed in order to verify them
+        baksmali.setOptions(dexFile.isOdex(), bootClassPath, false, false, false, true, false, true, 0, true);
+
+        if (!baksmali.initializeClassPath(dexFilePath, dexFile, bootClassPathDirs, bootClassPath,
+                extraBootClassPath, ignoreErrors, inlineTable)) {
+            return false;
+        }
+
+        DexVerifier.Report report = DexVerifier.verifyDexFile(dexFile, jobs);
+        report.print(System.err);
+
+        if (reportFile != null) {
+            FileWriter writer = new FileWriter(reportFile);
+            try {
+                report.writeJson(writer);
+            } finally {
+                writer.close();
+            }
+        }
+
+        return report.isSuccessful();
+    }
+
+    /**
+     * Deodexes all of the files in the given directory at once, for the --batch option
+     * @return the exit status
+     */
+    private static int deodexDirectory(String inputDirectoryName, String outputDirectory, boolean writeDex,
+                                        List<String> bootClassPathDirs, String bootClassPath,
+                                        String extraBootClassPath, boolean noParameterRegisters,
+                                        boolean useLocalsDirective, boolean useSequentialLabels,
+                                        boolean outputDebugInfo, boolean addCodeOffsets, boolean noAccessorComments,
+                                        int registerInfo, boolean verify, boolean ignoreErrors, String inlineTable,
+                                        int apiLevel, int jobs, Metrics.Snapshot statsStart, boolean printStats,
+                                        String statsJsonFile) {
+        try {
+            File inputDirectory = new File(inputDirectoryName);
+            if (!inputDirectory.isDirectory()) {
+                System.err.println("Can't find the directory " + inputDirectoryName);
+                return 1;
+            }
+
+            Opcode.updateMapsForApiLevel(apiLevel);
+
+            baksmali.setOptions(true, bootClassPath, noParameterRegisters, useLocalsDirective, useSequentialLabels,
+                    outputDebugInfo, addCodeOffsets, noAccessorComments, registerInfo, verify);
+
+            boolean success = BatchDeodexer.deodexDirectory(inputDirectory, new File(outputDirectory), writeDex,
+                    bootClassPathDirs.toArray(new String[bootClassPathDirs.size()]), bootClassPath,
+                    extraBootClassPath, ignoreErrors, inlineTable, jobs);
+
+            if (statsStart != null) {
+                writeStats(Metrics.snapshot().since(statsStart), printStats, statsJsonFile);
+            }
+
+            if (!success) {
+                return 1;
+            }
         } catch (RuntimeException ex) {
             System.err.println("\n\nUNEXPECTED TOP-LEVEL EXCEPTION:");
             ex.printStackTrace();
-            System.exit(1);
+            return 1;
         } catch (Throwable ex) {
             System.err.println("\n\nUNEXPECTED TOP-LEVEL ERROR:");
             ex.printStackTrace();
-            System.exit(1);
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Prints and/or writes out the statistics collected during the run
+     */
+    private static void writeStats(Metrics.Snapshot stats, boolean printStats, String statsJsonFile)
+            throws IOException {
+        if (printStats) {
+            stats.printSummary(System.out);
+        }
+
+        if (statsJsonFile != null) {
+            FileWriter writer = new FileWriter(statsJsonFile);
+            try {
+                stats.writeJson(writer);
+            } finally {
+                writer.close();
+            }
         }
     }
 
+    /**
+     * @return the command line options that are recognized by baksmali
+     */
+    public static Options getOptions() {
+        return options;
+    }
+
     /**
      * Prints the usage message.
      */
@@ -343,7 +528,6 @@ public class main {
         System.out.println("baksmali " + VERSION + " (http://smali.googlecode.com)");
         System.out.println("Copyright (C) 2010 Ben Gruver (JesusFreke@JesusFreke.com)");
         System.out.println("BSD license (http://www.opensource.org/licenses/bsd-license.php)");
-        System.exit(0);
     }
 
     private static void buildOptions() {
@@ -422,6 +606,25 @@ public class main {
                 .withDescription("don't output helper comments for synthetic accessors")
                 .create("m");
 
+        Option incrementalOption = OptionBuilder.withLongOpt("incremental")
+                .withDescription("only disassemble the classes that have changed since the last time the same dex " +
+                        "file was disassembled into the output directory, and remove the files of classes that no " +
+                        "longer exist. This uses a manifest file that is stored in the output directory")
+                .create("i");
+
+        Option outputArchiveOption = OptionBuilder.withLongOpt("output-archive")
+                .withDescription("write all of the disassembled files into a single archive instead of into the " +
+                        "output directory. A tar archive is written if the file name ends in .tar, otherwise a zip " +
+                        "archive is written")
+                .hasArg()
+                .withArgName("FILE")
+                .create("z");
+
+        Option archiveIndexOption = OptionBuilder.withLongOpt("archive-index")
+                .withDescription("add an index entry named " + baksmali.ARCHIVE_INDEX_NAME + " to the output " +
+                        "archive, with a line containing the class descriptor and the entry name for each class")
+                .create("Z");
+
         Option apiLevelOption = OptionBuilder.withLongOpt("api-level")
                 .withDescription("The numeric api-level of the file being disassembled. If not " +
                         "specified, it defaults to 14 (ICS).")
@@ -463,15 +666,54 @@ public class main {
                 .create("F");
 
         Option verifyDexOption = OptionBuilder.withLongOpt("verify")
-                .withDescription("perform bytecode verification")
+                .withDescription("perform bytecode verification. Along with --no-disassembly, all of the methods are " +
+                        "verified in parallel without being disassembled, and all of the failures are reported")
                 .create("V");
 
+        Option verifyReportOption = OptionBuilder.withLongOpt("verify-report")
+                .withDescription("with --verify and --no-disassembly, also write the verification failures to FILE, " +
+                        "in JSON format")
+                .hasArg()
+                .withArgName("FILE")
+                .create("R");
+
         Option inlineTableOption = OptionBuilder.withLongOpt("inline-table")
                 .withDescription("specify a file containing a custom inline method table to use for deodexing")
                 .hasArg()
                 .withArgName("FILE")
                 .create("T");
 
+        Option statsOption = OptionBuilder.withLongOpt("stats")
+                .withDescription("print the time and memory spent in each phase of the disassembly, along with counts of " +
+                        "the classes, methods and instructions that were processed")
+                .create("P");
+
+        Option statsJsonOption = OptionBuilder.withLongOpt("stats-json")
+                .withDescription("write the same statistics as --stats to FILE, in JSON format")
+                .hasArg()
+                .withArgName("FILE")
+                .create("Q");
+
+        Option batchOption = OptionBuilder.withLongOpt("batch")
+                .withDescription("deodex all of the odex files in the given directory at once, e.g. the framework " +
+                        "directory of a system image. The class path is built once from all of the files, in the " +
+                        "order of the odex dependencies, and a directory of smali files is written into the output " +
+                        "directory for each file")
+                .create("B");
+
+        Option batchDexOption = OptionBuilder.withLongOpt("batch-dex")
+                .withDescription("with --batch, write a deodexed dex file for each file into the output directory, " +
+                        "instead of a directory of smali files")
+                .create("X");
+
+        Option jobsOption = OptionBuilder.withLongOpt("jobs")
+                .withDescription("with --batch, the number of files to deodex at once. With --verify and " +
+                        "--no-disassembly, the number of classes to verify at once. Defaults to the number of " +
+                        "processors")
+                .hasArg()
+                .withArgName("N")
+                .create("j");
+
         basicOptions.addOption(versionOption);
         basicOptions.addOption(helpOption);
         basicOptions.addOption(outputDirOption);
@@ -486,6 +728,12 @@ public class main {
         basicOptions.addOption(codeOffsetOption);
         basicOptions.addOption(noAccessorCommentsOption);
         basicOptions.addOption(apiLevelOption);
+        basicOptions.addOption(incrementalOption);
+        basicOptions.addOption(outputArchiveOption);
+        basicOptions.addOption(archiveIndexOption);
+        basicOptions.addOption(batchOption);
+        basicOptions.addOption(batchDexOption);
+        basicOptions.addOption(jobsOption);
 
         debugOptions.addOption(dumpOption);
         debugOptions.addOption(ignoreErrorsOption);
@@ -494,7 +742,10 @@ public class main {
         debugOptions.addOption(sortOption);
         debugOptions.addOption(fixSignedRegisterOption);
         debugOptions.addOption(verifyDexOption);
+        debugOptions.addOption(verifyReportOption);
         debugOptions.addOption(inlineTableOption);
+        debugOptions.addOption(statsOption);
+        debugOptions.addOption(statsJsonOption);
 
         for (Object option: basicOptions.getOptions()) {
             options.addOption((Option)option);
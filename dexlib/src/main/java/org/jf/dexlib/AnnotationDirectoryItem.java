@@ -346,6 +346,9 @@ public class AnnotationDirectoryItem extends Item<AnnotationDirectoryItem> {
      * @param delegate the delegate to call
      */
     public void iterateFieldAnnotations(FieldAnnotationIteratorDelegate delegate) {
+        if (fieldAnnotationFields == null) {
+            return;
+        }
         for (int i=0; i<fieldAnnotationFields.length; i++) {
             try {
                 delegate.processFieldAnnotations(fieldAnnotationFields[i], fieldAnnotations[i]);
@@ -365,7 +368,7 @@ public class AnnotationDirectoryItem extends Item<AnnotationDirectoryItem> {
      * @return the number of field annotations in this <code>AnnotationDirectoryItem</code>
      */
     public int getFieldAnnotationCount() {
-        return fieldAnnotationFields.length;
+        return fieldAnnotationFields==null?0:fieldAnnotationFields.length;
     }
 
     /**
@@ -373,6 +376,9 @@ public class AnnotationDirectoryItem extends Item<AnnotationDirectoryItem> {
      * @param delegate the delegate to call
      */
     public void iterateMethodAnnotations(MethodAnnotationIteratorDelegate delegate) {
+        if (methodAnnotationMethods == null) {
+            return;
+        }
         for (int i=0; i<methodAnnotationMethods.length; i++) {
             try {
                 delegate.processMethodAnnotations(methodAnnotationMethods[i], methodAnnotations[i]);
@@ -392,7 +398,7 @@ public class AnnotationDirectoryItem extends Item<AnnotationDirectoryItem> {
      * @return the number of method annotations in this <code>AnnotationDirectoryItem</code>
      */
     public int getMethodAnnotationCount() {
-        return methodAnnotationMethods.length;
+        return methodAnnotationMethods==null?0:methodAnnotationMethods.length;
     }
 
     /**
@@ -400,6 +406,9 @@ public class AnnotationDirectoryItem extends Item<AnnotationDirectoryItem> {
      * @param delegate the delegate to call
      */
     public void iterateParameterAnnotations(ParameterAnnotationIteratorDelegate delegate) {
+        if (parameterAnnotationMethods == null) {
+            return;
+        }
         for (int i=0; i<parameterAnnotationMethods.length; i++) {
             try {
                 delegate.processParameterAnnotations(parameterAnnotationMethods[i], parameterAnnotations[i]);
@@ -419,7 +428,7 @@ public class AnnotationDirectoryItem extends Item<AnnotationDirectoryItem> {
      * @return the number of parameter annotations in this <code>AnnotationDirectoryItem</code>
      */
     public int getParameterAnnotationCount() {
-        return parameterAnnotationMethods.length;
+        return parameterAnnotationMethods==null?0:parameterAnnotationMethods.length;
     }
 
     /**
@@ -29,14 +29,21 @@
 package org.jf.dexlib;
 
 import org.jf.dexlib.EncodedValue.AnnotationEncodedSubValue;
+import org.jf.dexlib.EncodedValue.EncodedValue;
 import org.jf.dexlib.Util.AnnotatedOutput;
+import org.jf.dexlib.Util.ByteArrayInput;
 import org.jf.dexlib.Util.Input;
 
 public class AnnotationItem extends Item<AnnotationItem> {
     private int hashCode = 0;
 
     private AnnotationVisibility visibility;
-    private AnnotationEncodedSubValue annotationValue;
+    private volatile AnnotationEncodedSubValue annotationValue;
+    /**
+     * The encoded annotation that was read from the dex file. This is only decoded into an
+     * <code>AnnotationEncodedSubValue</code> when it is first needed
+     */
+    private byte[] encodedAnnotation;
 
     /**
      * Creates a new uninitialized <code>AnnotationItem</code>
@@ -77,16 +84,23 @@ public class AnnotationItem extends Item<AnnotationItem> {
     /** {@inheritDoc} */
     protected void readItem(Input in, ReadContext readContext) {
         visibility = AnnotationVisibility.fromByte(in.readByte());
-        annotationValue = new AnnotationEncodedSubValue(dexFile, in);
+
+        int start = in.getCursor();
+        EncodedValue.skipEncodedAnnotation(in);
+        int length = in.getCursor() - start;
+        in.setCursor(start);
+        encodedAnnotation = in.readBytes(length);
+        annotationValue = null;
     }
 
     /** {@inheritDoc} */
     protected int placeItem(int offset) {
-        return annotationValue.placeValue(offset + 1);
+        return getEncodedAnnotation().placeValue(offset + 1);
     }
 
     /** {@inheritDoc} */
     protected void writeItem(AnnotatedOutput out) {
+        AnnotationEncodedSubValue annotationValue = getEncodedAnnotation();
         if (out.annotates()) {
             out.annotate("visibility: " + visibility.name());
             out.writeByte(visibility.value);
@@ -111,7 +125,7 @@ public class AnnotationItem extends Item<AnnotationItem> {
     public int compareTo(AnnotationItem o) {
         int comp = visibility.value - o.visibility.value;
         if (comp == 0) {
-            comp = annotationValue.compareTo(o.annotationValue);
+            comp = getEncodedAnnotation().compareTo(o.getEncodedAnnotation());
         }
         return comp;
     }
@@ -124,9 +138,27 @@ public class AnnotationItem extends Item<AnnotationItem> {
     }
 
     /**
-     * @return The encoded annotation value of this annotation
+     * @return The encoded annotation value of this annotation. For an annotation that was read from a dex file, the
+     * value is decoded the first time this is called
      */
     public AnnotationEncodedSubValue getEncodedAnnotation() {
+        AnnotationEncodedSubValue annotationValue = this.annotationValue;
+        if (annotationValue == null) {
+            annotationValue = decodeAnnotation();
+        }
+        return annotationValue;
+    }
+
+    private synchronized AnnotationEncodedSubValue decodeAnnotation() {
+        if (annotationValue != null) {
+            return annotationValue;
+        }
+
+        try {
+            annotationValue = new AnnotationEncodedSubValue(dexFile, new ByteArrayInput(encodedAnnotation));
+        } catch (Exception ex) {
+            throw this.addExceptionContext(ex);
+        }
         return annotationValue;
     }
 
@@ -135,7 +167,7 @@ public class AnnotationItem extends Item<AnnotationItem> {
      */
     private void calcHashCode() {
         hashCode = visibility.value;
-        hashCode = hashCode * 31 + annotationValue.hashCode();
+        hashCode = hashCode * 31 + getEncodedAnnotation().hashCode();
     }
 
     @Override
@@ -157,6 +189,6 @@ public class AnnotationItem extends Item<AnnotationItem> {
         }
 
         AnnotationItem other = (AnnotationItem)o;
-        return visibility == other.visibility && annotationValue.equals(other.annotationValue);
+        return visibility == other.visibility && getEncodedAnnotation().equals(other.getEncodedAnnotation());
     }
 }
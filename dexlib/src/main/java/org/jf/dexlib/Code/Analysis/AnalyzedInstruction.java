@@ -81,14 +81,16 @@ public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
     private final Iterable<AnalyzedInstruction> successors = new MergedIterable<AnalyzedInstruction>(normalSuccessors, exceptionSuccessors);
     
     /**
-     * This contains the register types *before* the instruction has executed
+     * This contains the register types *before* the instruction has executed. It is null once it has been released
      */
-    protected final RegisterType[] preRegisterMap;
+    protected RegisterType[] preRegisterMap;
 
     /**
-     * This contains the register types *after* the instruction has executed
+     * This contains the register types *after* the instruction has executed. It is null once it has been released
      */
-    protected final RegisterType[] postRegisterMap;
+    protected RegisterType[] postRegisterMap;
+
+    private final int registerCount;
 
     /**
      * When deodexing, we might need to deodex this instruction multiple times, when we merge in new register
@@ -107,6 +109,7 @@ public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
         this.instruction = instruction;
         this.originalInstruction = instruction;
         this.instructionIndex = instructionIndex;
+        this.registerCount = registerCount;
         this.postRegisterMap = new RegisterType[registerCount];
         this.preRegisterMap = new RegisterType[registerCount];
         RegisterType unknown = RegisterType.getRegisterType(RegisterType.Category.Unknown, null);
@@ -440,7 +443,7 @@ public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
     }
 
     public int getRegisterCount() {
-        return postRegisterMap.length;
+        return registerCount;
     }
 
     public RegisterType getPostInstructionRegisterType(int registerNumber) {
@@ -451,6 +454,24 @@ public class AnalyzedInstruction implements Comparable<AnalyzedInstruction> {
         return preRegisterMap[registerNumber];
     }
 
+    /**
+     * Releases the pre-instruction register types of this instruction, once they are no longer needed. This must
+     * only be used after the method has been fully analyzed, and getPreInstructionRegisterType can't be used
+     * afterwards
+     */
+    public void releasePreInstructionRegisterTypes() {
+        preRegisterMap = null;
+    }
+
+    /**
+     * Releases the post-instruction register types of this instruction, once they are no longer needed. This must
+     * only be used after the method has been fully analyzed, and getPostInstructionRegisterType can't be used
+     * afterwards
+     */
+    public void releasePostInstructionRegisterTypes() {
+        postRegisterMap = null;
+    }
+
     public int compareTo(AnalyzedInstruction analyzedInstruction) {
         //TODO: out of curiosity, check the disassembly of this to see if it retrieves the value of analyzedInstruction.instructionIndex for every access. It should, because the field is final. What about if we set the field to non-final?
         if (instructionIndex < analyzedInstruction.instructionIndex) {
@@ -29,11 +29,20 @@
 package org.jf.dexlib.Code.Analysis;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -42,22 +51,45 @@ import org.jf.dexlib.ClassDataItem.EncodedField;
 import org.jf.dexlib.ClassDataItem.EncodedMethod;
 import org.jf.dexlib.ClassDefItem;
 import org.jf.dexlib.DexFile;
+import org.jf.dexlib.FieldIdItem;
 import org.jf.dexlib.OdexDependencies;
 import org.jf.dexlib.TypeIdItem;
 import org.jf.dexlib.TypeListItem;
 import org.jf.dexlib.Util.AccessFlags;
 import org.jf.dexlib.Util.ExceptionWithContext;
+import org.jf.dexlib.Util.Metrics;
 import org.jf.dexlib.Util.SparseArray;
+import org.jf.dexlib.Util.SparseIntArray;
 
 public class ClassPath {
     private static ClassPath theClassPath = null;
 
-    private final HashMap<String, ClassDef> classDefs;
+    //the DexFiles read from each boot class path file, keyed by the file's canonical path. This is null unless
+    //boot class path caching has been enabled
+    private static HashMap<String, CachedBootClassPathFile> bootClassPathCache = null;
+
+    //this is a concurrent map, because the array and unresolved classes are created on demand, possibly by several
+    //threads that are analyzing different dex files against the same class path
+    private final ConcurrentHashMap<String, ClassDef> classDefs;
     protected ClassDef javaLangObjectClassDef; //Ljava/lang/Object;
 
-    //This is only used while initialing the class path. It is set to null after initialization has finished.
+    //This is only used while initialing the class path. The entry for a class is removed once its ClassDef has been
+    //loaded, and the map is set to null after initialization has finished.
     private LinkedHashMap<String, TempClassInfo> tempClasses;
 
+    //whether the hierarchy index has been built. See buildHierarchyIndex()
+    private boolean hierarchyIndexed = false;
+
+    //The method signatures of the form method(III)Ljava/lang/String; used by any class, and their ids. The vtables
+    //and method lookups of the classes only store the ids
+    private final HashMap<String, Integer> methodSignatureIds = new HashMap<String, Integer>();
+    private final ArrayList<String> methodSignatures = new ArrayList<String>();
+
+    //This is only used while loading classes, to find the methods that are already in a vtable being built. The
+    //entry for a method signature id is set to the current vtableMark when the method is added to the vtable
+    private int[] vtableMarks = new int[0];
+    private int vtableMark = 0;
+
 
     private static final Pattern dalvikCacheOdexPattern = Pattern.compile("@([^@]+)@classes.dex$");
 
@@ -87,6 +119,28 @@ public class ClassPath {
             throw new ExceptionWithContext("Cannot initialize ClassPath multiple times");
         }
 
+        String[] bootClassPath = getOdexDependencyEntries(dexFile);
+
+        List<DexFile> dexFiles = new ArrayList<DexFile>(1);
+        dexFiles.add(dexFile);
+
+        Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.CLASS_PATH);
+        try {
+            theClassPath = new ClassPath();
+            theClassPath.initClassPath(classPathDirs, bootClassPath, extraBootClassPathEntries, null, dexFilePath,
+                    dexFiles, errorHandler);
+        } finally {
+            Metrics.endPhase(timer);
+        }
+    }
+
+    /**
+     * Gets the boot class path entries that an odex file depends on, in the order that they are listed in the odex
+     * file, e.g. core.jar or framework.jar
+     * @param dexFile an odex file
+     * @return the boot class path entries for the dependencies of the given odex file
+     */
+    public static String[] getOdexDependencyEntries(DexFile dexFile) {
         OdexDependencies odexDependencies = dexFile.getOdexDependencies();
 
         String[] bootClassPath = new String[odexDependencies.getDependencyCount()];
@@ -113,10 +167,7 @@ public class ClassPath {
 
             bootClassPath[i] = dependency;
         }
-
-        theClassPath = new ClassPath();
-        theClassPath.initClassPath(classPathDirs, bootClassPath, extraBootClassPathEntries, dexFilePath, dexFile,
-                errorHandler);
+        return bootClassPath;
     }
 
     /**
@@ -131,41 +182,128 @@ public class ClassPath {
     public static void InitializeClassPath(String[] classPathDirs, String[] bootClassPath,
                                            String[] extraBootClassPathEntries, String dexFilePath, DexFile dexFile,
                                            ClassPathErrorHandler errorHandler) {
+        List<DexFile> dexFiles = null;
+        if (dexFile != null) {
+            dexFiles = new ArrayList<DexFile>(1);
+            dexFiles.add(dexFile);
+        }
+        InitializeClassPath(classPathDirs, bootClassPath, extraBootClassPathEntries, dexFilePath, dexFiles,
+                errorHandler);
+    }
+
+    /**
+     * Initialize the class path using the given boot class path entries, and all of the given dex files, e.g. the
+     * dex files of a multi-dex apk, as returned by <code>DexFile.readDexFiles</code>
+     * @param classPathDirs The directories to search for boot class path files
+     * @param bootClassPath A list of the boot class path entries to search for and load
+     * @param dexFilePath The path of the dex files (used for error reporting purposes only)
+     * @param dexFiles the DexFiles to load. If a class is defined in more than one of them, the first definition
+     * is used
+     * @param errorHandler a ClassPathErrorHandler object to receive and handle any errors that occur while loading
+     * classes
+     */
+    public static void InitializeClassPath(String[] classPathDirs, String[] bootClassPath,
+                                           String[] extraBootClassPathEntries, String dexFilePath,
+                                           List<DexFile> dexFiles, ClassPathErrorHandler errorHandler) {
         if (theClassPath != null) {
             throw new ExceptionWithContext("Cannot initialize ClassPath multiple times");
         }
 
-        theClassPath = new ClassPath();
-        theClassPath.initClassPath(classPathDirs, bootClassPath, extraBootClassPathEntries, dexFilePath, dexFile,
-                errorHandler);
+        Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.CLASS_PATH);
+        try {
+            theClassPath = new ClassPath();
+            theClassPath.initClassPath(classPathDirs, bootClassPath, extraBootClassPathEntries, null, dexFilePath,
+                    dexFiles, errorHandler);
+        } finally {
+            Metrics.endPhase(timer);
+        }
+    }
+
+    /**
+     * Initialize the class path for a set of files that are processed together, e.g. all of the odex files in the
+     * framework directory of a system image. The class path entries are loaded in the given order, so they should
+     * be in dependency order. An entry whose name (without the extension) is a key in <code>loadedEntries</code>
+     * uses those dex files, instead of reading the entry from one of the class path directories
+     * @param classPathDirs The directories to search for the class path entries that haven't been loaded already
+     * @param classPathEntries The class path entries to load, in dependency order
+     * @param loadedEntries The dex files of the entries that have been read already, keyed by the entry name without
+     * the extension
+     * @param errorHandler a ClassPathErrorHandler object to receive and handle any errors that occur while loading
+     * classes
+     */
+    public static void InitializeClassPath(String[] classPathDirs, String[] classPathEntries,
+                                           Map<String, List<DexFile>> loadedEntries,
+                                           ClassPathErrorHandler errorHandler) {
+        if (theClassPath != null) {
+            throw new ExceptionWithContext("Cannot initialize ClassPath multiple times");
+        }
+
+        Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.CLASS_PATH);
+        try {
+            theClassPath = new ClassPath();
+            theClassPath.initClassPath(classPathDirs, classPathEntries, null, loadedEntries, null, null,
+                    errorHandler);
+        } finally {
+            Metrics.endPhase(timer);
+        }
+    }
+
+    /**
+     * Discards the current class path, so that it can be initialized again. This is used by long running processes
+     * that disassemble or analyze more than one dex file. The interned register types, which refer to the classes
+     * of the current class path, are discarded along with it.
+     */
+    public static void clearClassPath() {
+        theClassPath = null;
+        RegisterType.clearInternedRegisterTypes();
+    }
+
+    /**
+     * Enables or disables caching of the DexFiles that are read from boot class path files. When enabled, a boot
+     * class path file that hasn't changed since the last time it was read is not read again when the class path is
+     * re-initialized. Disabling the cache discards any cached DexFiles.
+     * @param enabled whether boot class path files should be cached
+     */
+    public static synchronized void setBootClassPathCaching(boolean enabled) {
+        if (enabled) {
+            if (bootClassPathCache == null) {
+                bootClassPathCache = new HashMap<String, CachedBootClassPathFile>();
+            }
+        } else {
+            bootClassPathCache = null;
+        }
     }
 
     private ClassPath() {
-        classDefs = new HashMap<String, ClassDef>();
+        classDefs = new ConcurrentHashMap<String, ClassDef>();
     }
 
     private void initClassPath(String[] classPathDirs, String[] bootClassPath, String[] extraBootClassPathEntries,
-                               String dexFilePath, DexFile dexFile, ClassPathErrorHandler errorHandler) {
-        tempClasses = new LinkedHashMap<String, TempClassInfo>();
+                               Map<String, List<DexFile>> loadedEntries, String dexFilePath, List<DexFile> dexFiles,
+                               ClassPathErrorHandler errorHandler) {
+        List<ClassPathDexFile> classPathDexFiles = new ArrayList<ClassPathDexFile>();
 
         if (bootClassPath != null) {
             for (String bootClassPathEntry: bootClassPath) {
-                loadBootClassPath(classPathDirs, bootClassPathEntry);
+                loadBootClassPath(classPathDirs, bootClassPathEntry, loadedEntries, classPathDexFiles);
             }
         }
 
         if (extraBootClassPathEntries != null) {
             for (String bootClassPathEntry: extraBootClassPathEntries) {
-                loadBootClassPath(classPathDirs, bootClassPathEntry);
+                loadBootClassPath(classPathDirs, bootClassPathEntry, loadedEntries, classPathDexFiles);
             }
         }
 
-        if (dexFile != null) {
-            loadDexFile(dexFilePath, dexFile);
+        if (dexFiles != null) {
+            for (DexFile dexFile: dexFiles) {
+                classPathDexFiles.add(new ClassPathDexFile(null, dexFilePath, dexFile));
+            }
         }
 
+        tempClasses = loadDexFiles(classPathDexFiles);
 
-        for (String classType: tempClasses.keySet()) {
+        for (String classType: tempClasses.keySet().toArray(new String[tempClasses.size()])) {
             ClassDef classDef = null;
             try {
                 classDef = ClassPath.loadClassDef(classType);
@@ -178,10 +316,6 @@ public class ClassPath {
                             String.format("Error while loading ClassPath class %s", classType));
                 }
             }
-
-            if (classType.equals("Ljava/lang/Object;")) {
-                this.javaLangObjectClassDef = classDef;
-            }
         }
 
         for (String primitiveType: new String[]{"Z", "B", "S", "C", "I", "J", "F", "D"}) {
@@ -190,75 +324,357 @@ public class ClassPath {
         }
 
         tempClasses = null;
+
+        //the virtual methods and interface tables are only needed to build the vtables of the subclasses
+        for (ClassDef classDef: classDefs.values()) {
+            classDef.virtualMethods = null;
+            classDef.interfaceTable = null;
+        }
+
+        buildHierarchyIndex();
     }
 
-    private void loadBootClassPath(String[] classPathDirs, String bootClassPathEntry) {
-        for (String classPathDir: classPathDirs) {
-            File file = null;
-            DexFile dexFile = null;
+    /**
+     * Builds an index of the class hierarchy, so that the subclass and interface checks done while analyzing code
+     * don't have to walk the hierarchy.
+     *
+     * Each loaded class is numbered in the pre-order and post-order of a depth first traversal of the superclass
+     * tree, so that a class extends another class exactly when its interval is inside the other class's interval.
+     * Each interface is given a dense id, and each class gets a bitset of the ids of the interfaces it implements.
+     *
+     * The array and unresolved classes that are created later on aren't numbered, and fall back to walking the
+     * hierarchy
+     */
+    private void buildHierarchyIndex() {
+        HashMap<ClassDef, List<ClassDef>> subclassMap = new HashMap<ClassDef, List<ClassDef>>();
+        List<ClassDef> rootClasses = new ArrayList<ClassDef>();
+        int interfaceCount = 0;
 
-            int extIndex = bootClassPathEntry.lastIndexOf(".");
+        for (ClassDef classDef: classDefs.values()) {
+            if (classDef.getClass() != ClassDef.class) {
+                continue;
+            }
+
+            if (classDef.isInterface) {
+                classDef.interfaceId = interfaceCount++;
+            }
 
-            String baseEntry;
-            if (extIndex == -1) {
-                baseEntry = bootClassPathEntry;
+            if (classDef.superclass == null) {
+                rootClasses.add(classDef);
             } else {
-                baseEntry = bootClassPathEntry.substring(0, extIndex);
+                List<ClassDef> subclasses = subclassMap.get(classDef.superclass);
+                if (subclasses == null) {
+                    subclasses = new ArrayList<ClassDef>();
+                    subclassMap.put(classDef.superclass, subclasses);
+                }
+                subclasses.add(classDef);
+            }
+        }
+
+        int preOrder = 0;
+        int postOrder = 0;
+        //the classes on the current path from the root, and the index of the next subclass to visit for each
+        ClassDef[] classStack = new ClassDef[16];
+        int[] subclassIndexStack = new int[16];
+
+        for (ClassDef rootClass: rootClasses) {
+            int depth = 0;
+            classStack[0] = rootClass;
+            subclassIndexStack[0] = 0;
+            rootClass.preOrder = preOrder++;
+
+            while (depth >= 0) {
+                ClassDef classDef = classStack[depth];
+                List<ClassDef> subclasses = subclassMap.get(classDef);
+                int subclassIndex = subclassIndexStack[depth];
+
+                if (subclasses == null || subclassIndex >= subclasses.size()) {
+                    classDef.postOrder = postOrder++;
+                    depth--;
+                    continue;
+                }
+
+                subclassIndexStack[depth] = subclassIndex + 1;
+                ClassDef subclass = subclasses.get(subclassIndex);
+                subclass.preOrder = preOrder++;
+
+                depth++;
+                if (depth == classStack.length) {
+                    ClassDef[] newClassStack = new ClassDef[depth * 2];
+                    System.arraycopy(classStack, 0, newClassStack, 0, depth);
+                    classStack = newClassStack;
+                    int[] newSubclassIndexStack = new int[depth * 2];
+                    System.arraycopy(subclassIndexStack, 0, newSubclassIndexStack, 0, depth);
+                    subclassIndexStack = newSubclassIndexStack;
+                }
+                classStack[depth] = subclass;
+                subclassIndexStack[depth] = 0;
+            }
+        }
+
+        hierarchyIndexed = true;
+
+        for (ClassDef classDef: classDefs.values()) {
+            if (classDef.getClass() == ClassDef.class) {
+                classDef.interfaceBits = getInterfaceBits(classDef.implementedInterfaces);
             }
+        }
+    }
+
+    /**
+     * @param interfaces a set of interfaces
+     * @return a bitset with the interface ids of the given interfaces, or null if the hierarchy index hasn't been
+     * built yet, or if one of the interfaces doesn't have an interface id
+     */
+    private BitSet getInterfaceBits(TreeSet<ClassDef> interfaces) {
+        if (!hierarchyIndexed || interfaces == null) {
+            return null;
+        }
+
+        BitSet interfaceBits = new BitSet();
+        for (ClassDef interfaceDef: interfaces) {
+            if (interfaceDef.interfaceId < 0) {
+                return null;
+            }
+            interfaceBits.set(interfaceDef.interfaceId);
+        }
+        return interfaceBits;
+    }
+
+    private void loadBootClassPath(String[] classPathDirs, String bootClassPathEntry,
+                                   Map<String, List<DexFile>> loadedEntries,
+                                   List<ClassPathDexFile> classPathDexFiles) {
+        int extIndex = bootClassPathEntry.lastIndexOf(".");
 
+        String baseEntry;
+        if (extIndex == -1) {
+            baseEntry = bootClassPathEntry;
+        } else {
+            baseEntry = bootClassPathEntry.substring(0, extIndex);
+        }
+
+        if (loadedEntries != null) {
+            List<DexFile> dexFiles = loadedEntries.get(baseEntry);
+            if (dexFiles != null) {
+                for (DexFile dexFile: dexFiles) {
+                    classPathDexFiles.add(new ClassPathDexFile(bootClassPathEntry, bootClassPathEntry, dexFile));
+                }
+                return;
+            }
+        }
+
+        for (String classPathDir: classPathDirs) {
             for (String ext: new String[]{"", ".odex", ".jar", ".apk", ".zip"}) {
+                File file;
                 if (ext.length() == 0) {
                     file = new File(classPathDir, bootClassPathEntry);
                 } else {
                     file = new File(classPathDir, baseEntry + ext);
                 }
 
-                if (file.exists()) {
-                    if (!file.canRead()) {
-                        System.err.println(String.format("warning: cannot open %s for reading. Will continue " +
-                                "looking.", file.getPath()));
-                        continue;
-                    }
+                if (!file.isFile()) {
+                    continue;
+                }
 
-                    try {
-                        dexFile = new DexFile(file, false, true);
-                    } catch (DexFile.NoClassesDexException ex) {
-                        continue;
-                    } catch (Exception ex) {
-                        throw ExceptionWithContext.withContext(ex, "Error while reading boot class path entry \"" +
-                        bootClassPathEntry + "\".");
-                    }
+                if (!file.canRead()) {
+                    System.err.println(String.format("warning: cannot open %s for reading. Will continue " +
+                            "looking.", file.getPath()));
+                    continue;
                 }
-            }
-            if (dexFile == null) {
-                continue;
-            }
 
-            try {
-                loadDexFile(file.getPath(), dexFile);
-            } catch (Exception ex) {
-                throw ExceptionWithContext.withContext(ex,
-                        String.format("Error while loading boot classpath entry %s", bootClassPathEntry));
+                List<DexFile> dexFiles;
+                try {
+                    dexFiles = readBootClassPathFile(file);
+                } catch (DexFile.NoClassesDexException ex) {
+                    continue;
+                } catch (Exception ex) {
+                    throw ExceptionWithContext.withContext(ex, "Error while reading boot class path entry \"" +
+                    bootClassPathEntry + "\".");
+                }
+
+                for (DexFile dexFile: dexFiles) {
+                    classPathDexFiles.add(new ClassPathDexFile(bootClassPathEntry, file.getPath(), dexFile));
+                }
+                return;
             }
-            return;
         }
         throw new ExceptionWithContext(String.format("Cannot locate boot class path file %s", bootClassPathEntry));
     }
 
-    private void loadDexFile(String dexFilePath, DexFile dexFile) {
-        for (ClassDefItem classDefItem: dexFile.ClassDefsSection.getItems()) {
+    private static synchronized List<DexFile> readBootClassPathFile(File file) throws Exception {
+        if (bootClassPathCache == null) {
+            return DexFile.readDexFiles(file, false, true);
+        }
+
+        String key = file.getCanonicalPath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        CachedBootClassPathFile cachedFile = bootClassPathCache.get(key);
+        if (cachedFile != null && cachedFile.lastModified == lastModified && cachedFile.length == length) {
+            return cachedFile.dexFiles;
+        }
+
+        bootClassPathCache.remove(key);
+        List<DexFile> dexFiles = DexFile.readDexFiles(file, false, true);
+        bootClassPathCache.put(key, new CachedBootClassPathFile(lastModified, length, dexFiles));
+        return dexFiles;
+    }
+
+    private static class CachedBootClassPathFile {
+        public final long lastModified;
+        public final long length;
+        public final List<DexFile> dexFiles;
+
+        public CachedBootClassPathFile(long lastModified, long length, List<DexFile> dexFiles) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.dexFiles = dexFiles;
+        }
+    }
+
+    /**
+     * A dex file to load the classes from, along with the boot class path entry it was found for
+     */
+    private static class ClassPathDexFile {
+        //the boot class path entry, or null if this is the dex file being analyzed. Used for error reporting only
+        public final String bootClassPathEntry;
+        public final String dexFilePath;
+        public final DexFile dexFile;
+
+        public ClassPathDexFile(String bootClassPathEntry, String dexFilePath, DexFile dexFile) {
+            this.bootClassPathEntry = bootClassPathEntry;
+            this.dexFilePath = dexFilePath;
+            this.dexFile = dexFile;
+        }
+    }
+
+    /**
+     * Creates the TempClassInfo objects for the classes in the given dex files. Each dex file is handled on its own
+     * thread, since they don't share any items. If a class is defined in multiple dex files, the first one wins
+     * @param classPathDexFiles the dex files to load, in class path order
+     * @return a map of the TempClassInfo objects, in class path order
+     */
+    private static LinkedHashMap<String, TempClassInfo> loadDexFiles(List<ClassPathDexFile> classPathDexFiles) {
+        List<TempClassInfo[]> loadedDexFiles = new ArrayList<TempClassInfo[]>(classPathDexFiles.size());
+
+        int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), classPathDexFiles.size());
+        if (threadCount <= 1) {
+            for (ClassPathDexFile classPathDexFile: classPathDexFiles) {
+                loadedDexFiles.add(loadDexFile(classPathDexFile));
+            }
+        } else {
+            List<Callable<TempClassInfo[]>> tasks =
+                    new ArrayList<Callable<TempClassInfo[]>>(classPathDexFiles.size());
+            for (final ClassPathDexFile classPathDexFile: classPathDexFiles) {
+                tasks.add(new Callable<TempClassInfo[]>() {
+                    public TempClassInfo[] call() {
+                        return loadDexFile(classPathDexFile);
+                    }
+                });
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
             try {
-                //TODO: need to check if the class already exists. (and if so, what to do about it?)
-                TempClassInfo tempClassInfo = new TempClassInfo(dexFilePath, classDefItem);
+                for (Future<TempClassInfo[]> future: executor.invokeAll(tasks)) {
+                    try {
+                        loadedDexFiles.add(future.get());
+                    } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException)cause;
+                        }
+                        throw ExceptionWithContext.withContext(cause, "Error while loading the class path");
+                    }
+                }
+            } catch (InterruptedException ex) {
+                throw ExceptionWithContext.withContext(ex, "Interrupted while loading the class path");
+            } finally {
+                executor.shutdown();
+            }
+        }
 
+        LinkedHashMap<String, TempClassInfo> tempClasses = new LinkedHashMap<String, TempClassInfo>();
+        for (TempClassInfo[] tempClassInfos: loadedDexFiles) {
+            for (TempClassInfo tempClassInfo: tempClassInfos) {
+                //TODO: need to check if the class already exists. (and if so, what to do about it?)
                 if (!tempClasses.containsKey(tempClassInfo.classType)) {
                     tempClasses.put(tempClassInfo.classType, tempClassInfo);
                 }
+            }
+        }
+        return tempClasses;
+    }
+
+    private static TempClassInfo[] loadDexFile(ClassPathDexFile classPathDexFile) {
+        List<ClassDefItem> classDefItems = classPathDexFile.dexFile.ClassDefsSection.getItems();
+        TempClassInfo[] tempClassInfos = new TempClassInfo[classDefItems.size()];
+        for (int i=0; i<tempClassInfos.length; i++) {
+            ClassDefItem classDefItem = classDefItems.get(i);
+            try {
+                tempClassInfos[i] = new TempClassInfo(classPathDexFile.dexFilePath, classDefItem);
             } catch (Exception ex) {
-                throw ExceptionWithContext.withContext(ex, String.format("Error while loading class %s",
-                        classDefItem.getClassType().getTypeDescriptor()));
+                ExceptionWithContext exWithContext = ExceptionWithContext.withContext(ex,
+                        String.format("Error while loading class %s", classDefItem.getClassType().getTypeDescriptor()));
+                if (classPathDexFile.bootClassPathEntry == null) {
+                    throw exWithContext;
+                }
+                throw ExceptionWithContext.withContext(exWithContext, String.format(
+                        "Error while loading boot classpath entry %s", classPathDexFile.bootClassPathEntry));
             }
         }
+        return tempClassInfos;
+    }
+
+    private int internMethodSignature(String methodSignature) {
+        Integer methodSignatureId = methodSignatureIds.get(methodSignature);
+        if (methodSignatureId == null) {
+            methodSignatureId = methodSignatures.size();
+            methodSignatures.add(methodSignature);
+            methodSignatureIds.put(methodSignature, methodSignatureId);
+        }
+        return methodSignatureId;
+    }
+
+    private static int[] internMethodSignatures(EncodedMethod[] encodedMethods) {
+        if (encodedMethods == null) {
+            return null;
+        }
+        int[] methodSignatureIds = new int[encodedMethods.length];
+        for (int i=0; i<encodedMethods.length; i++) {
+            methodSignatureIds[i] =
+                    theClassPath.internMethodSignature(encodedMethods[i].method.getVirtualMethodString());
+        }
+        return methodSignatureIds;
+    }
+
+    /**
+     * @param methodSignature a method signature of the form method(III)Ljava/lang/String;
+     * @return the id of the given method signature, or -1 if no class in the class path has a method with that
+     * signature
+     */
+    public static int getMethodSignatureId(String methodSignature) {
+        Integer methodSignatureId = theClassPath.methodSignatureIds.get(methodSignature);
+        if (methodSignatureId == null) {
+            return -1;
+        }
+        return methodSignatureId;
+    }
+
+    /**
+     * @param methodSignatureId a method signature id, as returned by <code>getMethodSignatureId</code> or
+     * <code>ClassDef.getVirtualMethodId</code>
+     * @return the method signature with the given id, of the form method(III)Ljava/lang/String;
+     */
+    public static String getMethodSignature(int methodSignatureId) {
+        return theClassPath.methodSignatures.get(methodSignatureId);
+    }
+
+    /**
+     * @return the number of method signatures that have been given an id. The ids are all less than this
+     */
+    public static int getMethodSignatureCount() {
+        return theClassPath.methodSignatures.size();
     }
 
     private static class ClassNotFoundException extends ExceptionWithContext {
@@ -289,6 +705,13 @@ public class ClassPath {
             try {
                 classDef = new ClassDef(classInfo);
                 theClassPath.classDefs.put(classDef.classType, classDef);
+                theClassPath.tempClasses.remove(classType);
+
+                //this is set as soon as Object is loaded, rather than when its turn comes up, since the interfaces
+                //that are loaded before it check their superclass against it
+                if (classDef.classType.equals("Ljava/lang/Object;")) {
+                    theClassPath.javaLangObjectClassDef = classDef;
+                }
             } catch (Exception ex) {
                 throw ExceptionWithContext.withContext(ex, String.format("Error while loading class %s from file %s",
                         classInfo.classType, classInfo.dexFilePath));
@@ -335,7 +758,10 @@ public class ClassPath {
         assert classType.charAt(0) == 'L';
 
         UnresolvedClassDef unresolvedClassDef = new UnresolvedClassDef(classType);
-        classDefs.put(classType, unresolvedClassDef);
+        ClassDef existingClassDef = classDefs.putIfAbsent(classType, unresolvedClassDef);
+        if (existingClassDef != null) {
+            return existingClassDef;
+        }
         return unresolvedClassDef;
     }
 
@@ -348,7 +774,10 @@ public class ClassPath {
             return null;
         }
 
-        classDefs.put(arrayClassName, arrayClassDef);
+        ClassDef existingClassDef = classDefs.putIfAbsent(arrayClassName, arrayClassDef);
+        if (existingClassDef != null) {
+            return existingClassDef;
+        }
         return arrayClassDef;
     }
 
@@ -365,6 +794,25 @@ public class ClassPath {
             return class1;
         }
 
+        //the same pairs of classes tend to be merged over and over again, so the results are cached. If two threads
+        //create the cache for a class at the same time, one of them is simply dropped
+        ConcurrentHashMap<ClassDef, ClassDef> commonSuperclasses = class1.commonSuperclasses;
+        if (commonSuperclasses == null) {
+            commonSuperclasses = new ConcurrentHashMap<ClassDef, ClassDef>();
+            class1.commonSuperclasses = commonSuperclasses;
+        }
+
+        ClassDef commonSuperclass = commonSuperclasses.get(class2);
+        if (commonSuperclass == null) {
+            commonSuperclass = findCommonSuperclass(class1, class2);
+            if (commonSuperclass != null) {
+                commonSuperclasses.put(class2, commonSuperclass);
+            }
+        }
+        return commonSuperclass;
+    }
+
+    private static ClassDef findCommonSuperclass(ClassDef class1, ClassDef class2) {
         //TODO: do we want to handle primitive types here? I don't think so.. (if not, add assert)
 
         if (class2.isInterface) {
@@ -602,13 +1050,30 @@ public class ClassPath {
 
         private final int classDepth;
 
-        private final String[] vtable;
+        /**
+         * The position of this class in a pre-order and post-order traversal of the superclass tree, or -1 if this
+         * class isn't in the hierarchy index
+         */
+        private int preOrder = -1;
+        private int postOrder = -1;
+
+        //the dense id of this interface in the hierarchy index, or -1 if this isn't an interface, or isn't indexed
+        private int interfaceId = -1;
+
+        //the ids of all the interfaces in implementedInterfaces, or null if they aren't all indexed
+        private BitSet interfaceBits;
+
+        //the common superclass of this class and each class that it has been merged with
+        private volatile ConcurrentHashMap<ClassDef, ClassDef> commonSuperclasses;
+
+        //the method signature ids of the methods in the vtable
+        private final int[] vtable;
 
-        //this maps a method name of the form method(III)Ljava/lang/String; to an integer
+        //this maps a method signature id to an integer
         //If the value is non-negative, it is a vtable index
         //If it is -1, it is a non-static direct method,
         //If it is -2, it is a static method
-        private final HashMap<String, Integer> methodLookup;
+        private final SparseIntArray methodLookup;
 
         private final SparseArray<FieldDef> instanceFields;
 
@@ -618,14 +1083,14 @@ public class ClassPath {
 
         private final static int DirectMethod = -1;
         private final static int StaticMethod = -2;
+        private final static int MethodNotFound = Integer.MIN_VALUE;
 
         /**
          * The following fields are used only during the initial loading of classes, and are set to null afterwards
-         * TODO: free these
          */
 
-        //This is only the virtual methods that this class declares itself.
-        private String[] virtualMethods;
+        //This is only the virtual methods that this class declares itself, as method signature ids.
+        private int[] virtualMethods;
         //this is a list of all the interfaces that the class implements directory, or any super interfaces of those
         //interfaces. It is generated in such a way that it is ordered in the same way as dalvik's ClassObject.iftable,
         private LinkedHashMap<String, ClassDef> interfaceTable;
@@ -643,6 +1108,7 @@ public class ClassPath {
                 implementedInterfaces = new TreeSet<ClassDef>();
                 implementedInterfaces.add(ClassPath.getClassDef("Ljava/lang/Cloneable;"));
                 implementedInterfaces.add(ClassPath.getClassDef("Ljava/io/Serializable;"));
+                interfaceBits = ClassPath.theClassPath.getInterfaceBits(implementedInterfaces);
                 isInterface = false;
 
                 vtable = superclass.vtable;
@@ -701,26 +1167,9 @@ public class ClassPath {
 
             //TODO: we can probably get away with only creating the interface table for interface types
             interfaceTable = loadInterfaceTable(classInfo);
-            virtualMethods = classInfo.virtualMethods;
-            vtable = loadVtable(classInfo);
-
-            int directMethodCount = 0;
-            if (classInfo.directMethods != null) {
-                directMethodCount = classInfo.directMethods.length;
-            }
-            methodLookup = new HashMap<String, Integer>((int)Math.ceil(((vtable.length + directMethodCount)/ .7f)), .75f);
-            for (int i=0; i<vtable.length; i++) {
-                methodLookup.put(vtable[i], i);
-            }
-            if (directMethodCount > 0) {
-                for (int i=0; i<classInfo.directMethods.length; i++) {
-                    if (classInfo.staticMethods[i]) {
-                        methodLookup.put(classInfo.directMethods[i], StaticMethod);
-                    } else {
-                        methodLookup.put(classInfo.directMethods[i], DirectMethod);
-                    }
-                }
-            }
+            virtualMethods = internMethodSignatures(classInfo.virtualMethods);
+            vtable = loadVtable();
+            methodLookup = loadMethodLookup(classInfo);
 
             instanceFields = loadFields(classInfo);
         }
@@ -754,6 +1203,10 @@ public class ClassPath {
                 throw ((UnresolvedClassDef)superclassDef).unresolvedValidationException();
             }
 
+            if (preOrder >= 0 && superclassDef.preOrder >= 0) {
+                return superclassDef.preOrder <= preOrder && postOrder <= superclassDef.postOrder;
+            }
+
             int superclassDepth = superclassDef.classDepth;
             ClassDef ancestor = this;
             while (ancestor.classDepth > superclassDepth) {
@@ -772,20 +1225,27 @@ public class ClassPath {
          */
         public boolean implementsInterface(ClassDef interfaceDef) {
             assert !(interfaceDef instanceof UnresolvedClassDef);
+            if (interfaceBits != null && interfaceDef.interfaceId >= 0) {
+                return interfaceBits.get(interfaceDef.interfaceId);
+            }
             return implementedInterfaces.contains(interfaceDef);
         }
 
         public boolean hasVirtualMethod(String method) {
-            Integer val = methodLookup.get(method);
-            if (val == null || val < 0) {
+            int methodSignatureId = getMethodSignatureId(method);
+            if (methodSignatureId == -1) {
                 return false;
             }
-            return true;
+            return methodLookup.get(methodSignatureId, MethodNotFound) >= 0;
         }
 
         public int getMethodType(String method) {
-            Integer val = methodLookup.get(method);
-            if (val == null) {
+            int methodSignatureId = getMethodSignatureId(method);
+            if (methodSignatureId == -1) {
+                return -1;
+            }
+            int val = methodLookup.get(methodSignatureId, MethodNotFound);
+            if (val == MethodNotFound) {
                 return -1;
             }
             if (val >= 0) {
@@ -808,6 +1268,17 @@ public class ClassPath {
             if (vtableIndex < 0 || vtableIndex >= vtable.length) {
                 return null;
             }
+            return getMethodSignature(this.vtable[vtableIndex]);
+        }
+
+        /**
+         * @param vtableIndex a vtable index
+         * @return the method signature id of the method at the given vtable index, or -1 if the index is out of range
+         */
+        public int getVirtualMethodId(int vtableIndex) {
+            if (vtableIndex < 0 || vtableIndex >= vtable.length) {
+                return -1;
+            }
             return this.vtable[vtableIndex];
         }
 
@@ -869,7 +1340,8 @@ public class ClassPath {
 
 
             if (classInfo.interfaces != null) {
-                for (String interfaceType: classInfo.interfaces) {
+                for (TypeIdItem interfaceTypeItem: classInfo.interfaces) {
+                    String interfaceType = interfaceTypeItem.getTypeDescriptor();
                     ClassDef interfaceDef = ClassPath.loadClassDef(interfaceType);
                     if (interfaceDef == null) {
                         throw new ClassNotFoundException(String.format("Could not find interface %s", interfaceType));
@@ -896,7 +1368,8 @@ public class ClassPath {
 
             LinkedHashMap<String, ClassDef> interfaceTable = new LinkedHashMap<String, ClassDef>();
 
-            for (String interfaceType: classInfo.interfaces) {
+            for (TypeIdItem interfaceTypeItem: classInfo.interfaces) {
+                String interfaceType = interfaceTypeItem.getTypeDescriptor();
                 if (!interfaceTable.containsKey(interfaceType)) {
                     ClassDef interfaceDef = ClassPath.loadClassDef(interfaceType);
                     if (interfaceDef == null) {
@@ -917,19 +1390,27 @@ public class ClassPath {
             return interfaceTable;
         }
 
-        private String[] loadVtable(TempClassInfo classInfo) {
+        private int[] loadVtable() {
             //TODO: it might be useful to keep track of which class's implementation is used for each virtual method. In other words, associate the implementing class type with each vtable entry
-            List<String> virtualMethodList = new LinkedList<String>();
-            //use a temp hash table, so that we can construct the final lookup with an appropriate
-            //capacity, based on the number of virtual methods
-            HashMap<String, Integer> tempVirtualMethodLookup = new HashMap<String, Integer>();
+            ClassPath classPath = ClassPath.theClassPath;
+            int[] vtableMarks = classPath.vtableMarks;
+            if (vtableMarks.length < classPath.methodSignatures.size()) {
+                vtableMarks = new int[classPath.methodSignatures.size() * 2];
+                System.arraycopy(classPath.vtableMarks, 0, vtableMarks, 0, classPath.vtableMarks.length);
+                classPath.vtableMarks = vtableMarks;
+            }
+            int vtableMark = ++classPath.vtableMark;
+
+            int vtableSize = 0;
+            int[] vtable = new int[8];
 
             //copy the virtual methods from the superclass
-            int methodIndex = 0;
             if (superclass != null) {
-                for (String method: superclass.vtable) {
-                    virtualMethodList.add(method);
-                    tempVirtualMethodLookup.put(method, methodIndex++);
+                vtableSize = superclass.vtable.length;
+                vtable = new int[Math.max(vtableSize * 2, 8)];
+                System.arraycopy(superclass.vtable, 0, vtable, 0, vtableSize);
+                for (int i=0; i<vtableSize; i++) {
+                    vtableMarks[vtable[i]] = vtableMark;
                 }
 
                 assert superclass.instanceFields != null;
@@ -939,37 +1420,74 @@ public class ClassPath {
             //iterate over the virtual methods in the current class, and only add them when we don't already have the
             //method (i.e. if it was implemented by the superclass)
             if (!this.isInterface) {
-                if (classInfo.virtualMethods != null) {
-                    for (String virtualMethod: classInfo.virtualMethods) {
-                        if (tempVirtualMethodLookup.get(virtualMethod) == null) {
-                            virtualMethodList.add(virtualMethod);
-                            tempVirtualMethodLookup.put(virtualMethod, methodIndex++);
-                        }
+                List<int[]> methodLists = new ArrayList<int[]>();
+                methodLists.add(virtualMethods);
+                if (interfaceTable != null) {
+                    for (ClassDef interfaceDef: interfaceTable.values()) {
+                        methodLists.add(interfaceDef.virtualMethods);
                     }
                 }
 
-                if (interfaceTable != null) {
-                    for (ClassDef interfaceDef: interfaceTable.values()) {
-                        if (interfaceDef.virtualMethods == null) {
-                            continue;
-                        }
+                for (int[] methodList: methodLists) {
+                    if (methodList == null) {
+                        continue;
+                    }
 
-                        for (String virtualMethod: interfaceDef.virtualMethods) {
-                            if (tempVirtualMethodLookup.get(virtualMethod) == null) {
-                                virtualMethodList.add(virtualMethod);
-                                tempVirtualMethodLookup.put(virtualMethod, methodIndex++);
+                    for (int virtualMethod: methodList) {
+                        if (vtableMarks[virtualMethod] != vtableMark) {
+                            vtableMarks[virtualMethod] = vtableMark;
+                            if (vtableSize == vtable.length) {
+                                int[] newVtable = new int[vtableSize * 2];
+                                System.arraycopy(vtable, 0, newVtable, 0, vtableSize);
+                                vtable = newVtable;
                             }
+                            vtable[vtableSize++] = virtualMethod;
                         }
                     }
                 }
             }
 
-            String[] vtable = new String[virtualMethodList.size()];
-            for (int i=0; i<virtualMethodList.size(); i++) {
-                vtable[i] = virtualMethodList.get(i);
+            if (vtableSize == vtable.length) {
+                return vtable;
             }
+            int[] trimmedVtable = new int[vtableSize];
+            System.arraycopy(vtable, 0, trimmedVtable, 0, vtableSize);
+            return trimmedVtable;
+        }
+
+        private SparseIntArray loadMethodLookup(TempClassInfo classInfo) {
+            int[] directMethods = internMethodSignatures(classInfo.directMethods);
+            int directMethodCount = directMethods==null?0:directMethods.length;
+
+            //sort the entries by method signature id, so they can be appended in order. The low bits hold the
+            //position of the entry, so that a direct method overrides a vtable entry with the same signature
+            long[] entries = new long[vtable.length + directMethodCount];
+            for (int i=0; i<vtable.length; i++) {
+                entries[i] = ((long)vtable[i] << 32) | i;
+            }
+            for (int i=0; i<directMethodCount; i++) {
+                entries[vtable.length + i] = ((long)directMethods[i] << 32) | (vtable.length + i);
+            }
+            Arrays.sort(entries);
+
+            SparseIntArray methodLookup = new SparseIntArray(entries.length);
+            for (int i=0; i<entries.length; i++) {
+                int methodSignatureId = (int)(entries[i] >>> 32);
+                if (i+1 < entries.length && (int)(entries[i+1] >>> 32) == methodSignatureId) {
+                    continue;
+                }
 
-            return vtable;
+                int position = (int)entries[i];
+                if (position < vtable.length) {
+                    methodLookup.append(methodSignatureId, position);
+                } else if ((classInfo.directMethods[position - vtable.length].accessFlags &
+                        AccessFlags.STATIC.getValue()) != 0) {
+                    methodLookup.append(methodSignatureId, StaticMethod);
+                } else {
+                    methodLookup.append(methodSignatureId, DirectMethod);
+                }
+            }
+            return methodLookup;
         }
 
         private int getNextFieldOffset() {
@@ -1008,10 +1526,10 @@ public class ClassPath {
                 fieldTypes = new byte[fields.length];
 
                 for (int i=0; i<fields.length; i++) {
-                    String[] fieldInfo = classInfo.instanceFields[i];
+                    FieldIdItem fieldIdItem = classInfo.instanceFields[i].field;
 
-                    String fieldName = fieldInfo[0];
-                    String fieldType = fieldInfo[1];
+                    String fieldName = fieldIdItem.getFieldName().getStringValue();
+                    String fieldType = fieldIdItem.getFieldType().getTypeDescriptor();
 
                     fieldTypes[i] = getFieldType(fieldType);
                     fields[i] = new FieldDef(classInfo.classType, fieldName, fieldType);
@@ -1185,18 +1703,21 @@ public class ClassPath {
 
     /**
      * In some cases, classes can reference another class (i.e. a superclass or an interface) that is in a *later*
-     * boot class path entry. So we load all classes from all boot class path entries before starting to process them
+     * boot class path entry. So we load all classes from all boot class path entries before starting to process them.
+     *
+     * The methods, fields and interfaces are kept as references to the items of the dex file that the class is in,
+     * rather than copied out into strings. The method signature strings are built when the TempClassInfo is created,
+     * since they are cached by the MethodIdItem, and this is done in parallel for the different dex files
      */
     private static class TempClassInfo {
         public final String dexFilePath;
         public final String classType;
         public final boolean isInterface;
         public final String superclassType;
-        public final String[] interfaces;
-        public final boolean[] staticMethods;
-        public final String[] directMethods;
-        public final String[] virtualMethods;
-        public final String[][] instanceFields;
+        public final List<TypeIdItem> interfaces;
+        public final EncodedMethod[] directMethods;
+        public final EncodedMethod[] virtualMethods;
+        public final EncodedField[] instanceFields;
 
         public TempClassInfo(String dexFilePath, ClassDefItem classDefItem) {
             this.dexFilePath = dexFilePath;
@@ -1216,76 +1737,41 @@ public class ClassPath {
 
             ClassDataItem classDataItem = classDefItem.getClassData();
             if (classDataItem != null) {
-                boolean[][] _staticMethods = new boolean[1][];
-                directMethods = loadDirectMethods(classDataItem, _staticMethods);
-                staticMethods = _staticMethods[0];
-                virtualMethods = loadVirtualMethods(classDataItem);
+                directMethods = loadMethods(classDataItem.getDirectMethods());
+                virtualMethods = loadMethods(classDataItem.getVirtualMethods());
                 instanceFields = loadInstanceFields(classDataItem);
             } else {
-                staticMethods = null;
                 directMethods = null;
                 virtualMethods = null;
                 instanceFields = null;
             }
         }
 
-        private String[] loadInterfaces(ClassDefItem classDefItem) {
+        private List<TypeIdItem> loadInterfaces(ClassDefItem classDefItem) {
             TypeListItem typeList = classDefItem.getInterfaces();
             if (typeList != null) {
                 List<TypeIdItem> types = typeList.getTypes();
                 if (types != null && types.size() > 0) {
-                    String[] interfaces = new String[types.size()];
-                    for (int i=0; i<interfaces.length; i++) {
-                        interfaces[i] = types.get(i).getTypeDescriptor();
-                    }
-                    return interfaces;
-                }
-            }
-            return null;
-        }
-
-        private String[] loadDirectMethods(ClassDataItem classDataItem, boolean[][] _staticMethods) {
-            EncodedMethod[] encodedMethods = classDataItem.getDirectMethods();
-
-            if (encodedMethods != null && encodedMethods.length > 0) {
-                boolean[] staticMethods = new boolean[encodedMethods.length];
-                String[] directMethods = new String[encodedMethods.length];
-                for (int i=0; i<encodedMethods.length; i++) {
-                    EncodedMethod encodedMethod = encodedMethods[i];
-
-                    if ((encodedMethod.accessFlags & AccessFlags.STATIC.getValue()) != 0) {
-                        staticMethods[i] = true;
-                    }
-                    directMethods[i] = encodedMethods[i].method.getVirtualMethodString();
+                    return types;
                 }
-                _staticMethods[0] = staticMethods;
-                return directMethods;
             }
             return null;
         }
 
-        private String[] loadVirtualMethods(ClassDataItem classDataItem) {
-            EncodedMethod[] encodedMethods = classDataItem.getVirtualMethods();
+        private EncodedMethod[] loadMethods(EncodedMethod[] encodedMethods) {
             if (encodedMethods != null && encodedMethods.length > 0) {
-                String[] virtualMethods = new String[encodedMethods.length];
-                for (int i=0; i<encodedMethods.length; i++) {
-                    virtualMethods[i] = encodedMethods[i].method.getVirtualMethodString();
+                for (EncodedMethod encodedMethod: encodedMethods) {
+                    encodedMethod.method.getVirtualMethodString();
                 }
-                return virtualMethods;
+                return encodedMethods;
             }
             return null;
         }
 
-        private String[][] loadInstanceFields(ClassDataItem classDataItem) {
+        private EncodedField[] loadInstanceFields(ClassDataItem classDataItem) {
             EncodedField[] encodedFields = classDataItem.getInstanceFields();
             if (encodedFields != null && encodedFields.length > 0) {
-                String[][] instanceFields = new String[encodedFields.length][2];
-                for (int i=0; i<encodedFields.length; i++) {
-                    EncodedField encodedField = encodedFields[i];
-                    instanceFields[i][0] = encodedField.field.getFieldName().getStringValue();
-                    instanceFields[i][1] = encodedField.field.getFieldType().getTypeDescriptor();
-                }
-                return instanceFields;
+                return encodedFields;
             }
             return null;
         }
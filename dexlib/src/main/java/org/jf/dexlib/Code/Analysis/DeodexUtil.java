@@ -29,9 +29,8 @@
 package org.jf.dexlib.Code.Analysis;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.jf.dexlib.DexFile;
 import org.jf.dexlib.FieldIdItem;
@@ -42,6 +41,11 @@ import org.jf.dexlib.StringIdItem;
 import org.jf.dexlib.TypeIdItem;
 import org.jf.dexlib.TypeListItem;
 
+/**
+ * This class resolves the field and method items that odexed instructions refer to, in the dex file being deodexed.
+ * It caches the items that it resolves, so a single instance should be used for all of the methods in a dex file that
+ * are analyzed by a given thread. It isn't safe to use an instance from multiple threads
+ */
 public class DeodexUtil {
     public static final int Virtual = 0;
     public static final int Direct = 1;
@@ -51,6 +55,14 @@ public class DeodexUtil {
 
     public final DexFile dexFile;
 
+    //the method name and prototype items in this dex file for each method signature id in the class path, or
+    //unresolvedMethodSignature if the dex file doesn't have them
+    private ResolvedMethodSignature[] resolvedMethodSignatures = new ResolvedMethodSignature[0];
+    private static final ResolvedMethodSignature unresolvedMethodSignature = new ResolvedMethodSignature(null, null);
+
+    //the method item in this dex file for each inline method that has been resolved
+    private final HashMap<InlineMethod, MethodIdItem> inlineMethodItems = new HashMap<InlineMethod, MethodIdItem>();
+
     public DeodexUtil(DexFile dexFile) {
         this.dexFile = dexFile;
         OdexHeader odexHeader = dexFile.getOdexHeader();
@@ -59,7 +71,7 @@ public class DeodexUtil {
             assert false;
             throw new RuntimeException("Cannot create a DeodexUtil object for a dex file without an odex header");
         }
-        inlineMethodResolver = InlineMethodResolver.createInlineMethodResolver(this, odexHeader.version);
+        inlineMethodResolver = InlineMethodResolver.getInlineMethodResolver(odexHeader.version);
     }
 
     public DeodexUtil(DexFile dexFile, InlineMethodResolver inlineMethodResolver) {
@@ -71,6 +83,19 @@ public class DeodexUtil {
         return inlineMethodResolver.resolveExecuteInline(instruction);
     }
 
+    private MethodIdItem resolveInlineMethod(InlineMethod inlineMethod) {
+        MethodIdItem methodIdItem = inlineMethodItems.get(inlineMethod);
+        if (methodIdItem == null) {
+            ClassPath.ClassDef classDef = ClassPath.getClassDef(inlineMethod.classType);
+            methodIdItem = parseAndResolveMethod(classDef, inlineMethod.methodName, inlineMethod.parameters,
+                    inlineMethod.returnType);
+            if (methodIdItem != null) {
+                inlineMethodItems.put(inlineMethod, methodIdItem);
+            }
+        }
+        return methodIdItem;
+    }
+
     public FieldIdItem lookupField(ClassPath.ClassDef classDef, int fieldOffset) {
         ClassPath.FieldDef field = classDef.getInstanceField(fieldOffset);
         if (field == null) {
@@ -80,30 +105,66 @@ public class DeodexUtil {
         return parseAndResolveField(classDef, field);
     }
 
-    private static final Pattern shortMethodPattern = Pattern.compile("([^(]+)\\(([^)]*)\\)(.+)");
-
     public MethodIdItem lookupVirtualMethod(ClassPath.ClassDef classDef, int methodIndex) {
-        String method = classDef.getVirtualMethod(methodIndex);
-        if (method == null) {
+        int methodSignatureId = classDef.getVirtualMethodId(methodIndex);
+        if (methodSignatureId == -1) {
             return null;
         }
 
-        Matcher m = shortMethodPattern.matcher(method);
-        if (!m.matches()) {
-            assert false;
-            throw new RuntimeException("Invalid method descriptor: " + method);
-        }
-
-        String methodName = m.group(1);
-        String methodParams = m.group(2);
-        String methodRet = m.group(3);
-
         if (classDef.isInterface()) {
             classDef = classDef.getSuperclass();
             assert classDef != null;
         }
 
-        return parseAndResolveMethod(classDef, methodName, methodParams, methodRet);
+        ResolvedMethodSignature resolvedMethodSignature = resolveMethodSignature(methodSignatureId);
+        if (resolvedMethodSignature == unresolvedMethodSignature) {
+            return null;
+        }
+        return resolveMethod(classDef, resolvedMethodSignature.methodNameItem, resolvedMethodSignature.protoItem);
+    }
+
+    /**
+     * Looks up the method name and prototype items for the given method signature id. The signature is only parsed
+     * the first time each id is seen
+     */
+    private ResolvedMethodSignature resolveMethodSignature(int methodSignatureId) {
+        if (methodSignatureId >= resolvedMethodSignatures.length) {
+            ResolvedMethodSignature[] newResolvedMethodSignatures =
+                    new ResolvedMethodSignature[Math.max(ClassPath.getMethodSignatureCount(), methodSignatureId + 1)];
+            System.arraycopy(resolvedMethodSignatures, 0, newResolvedMethodSignatures, 0,
+                    resolvedMethodSignatures.length);
+            resolvedMethodSignatures = newResolvedMethodSignatures;
+        }
+
+        ResolvedMethodSignature resolvedMethodSignature = resolvedMethodSignatures[methodSignatureId];
+        if (resolvedMethodSignature == null) {
+            String method = ClassPath.getMethodSignature(methodSignatureId);
+
+            int paramsStart = method.indexOf('(');
+            int paramsEnd = method.indexOf(')', paramsStart);
+            if (paramsStart <= 0 || paramsEnd == -1 || paramsEnd == method.length() - 1) {
+                assert false;
+                throw new RuntimeException("Invalid method descriptor: " + method);
+            }
+
+            String methodName = method.substring(0, paramsStart);
+            String methodParams = method.substring(paramsStart + 1, paramsEnd);
+            String methodRet = method.substring(paramsEnd + 1);
+
+            StringIdItem methodNameItem = StringIdItem.lookupStringIdItem(dexFile, methodName);
+            ProtoIdItem protoItem = null;
+            if (methodNameItem != null) {
+                protoItem = lookupProtoItem(methodParams, methodRet);
+            }
+
+            if (protoItem == null) {
+                resolvedMethodSignature = unresolvedMethodSignature;
+            } else {
+                resolvedMethodSignature = new ResolvedMethodSignature(methodNameItem, protoItem);
+            }
+            resolvedMethodSignatures[methodSignatureId] = resolvedMethodSignature;
+        }
+        return resolvedMethodSignature;
     }
 
     private MethodIdItem parseAndResolveMethod(ClassPath.ClassDef classDef, String methodName, String methodParams,
@@ -113,6 +174,16 @@ public class DeodexUtil {
             return null;
         }
 
+        ProtoIdItem protoItem = lookupProtoItem(methodParams, methodRet);
+        if (protoItem == null) {
+            return null;
+        }
+
+        return resolveMethod(classDef, methodNameItem, protoItem);
+    }
+
+    private ProtoIdItem lookupProtoItem(String methodParams, String methodRet) {
+
         LinkedList<TypeIdItem> paramList = new LinkedList<TypeIdItem>();
 
         for (int i=0; i<methodParams.length(); i++) {
@@ -195,11 +266,11 @@ public class DeodexUtil {
             return null;
         }
 
-        ProtoIdItem protoItem = ProtoIdItem.lookupProtoIdItem(dexFile, retType, paramListItem);
-        if (protoItem == null) {
-            return null;
-        }
+        return ProtoIdItem.lookupProtoIdItem(dexFile, retType, paramListItem);
+    }
 
+    private MethodIdItem resolveMethod(ClassPath.ClassDef classDef, StringIdItem methodNameItem,
+                                       ProtoIdItem protoItem) {
         ClassPath.ClassDef methodClassDef = classDef;
 
         do {
@@ -258,6 +329,16 @@ public class DeodexUtil {
         return null;
     }
 
+    private static class ResolvedMethodSignature {
+        public final StringIdItem methodNameItem;
+        public final ProtoIdItem protoItem;
+
+        public ResolvedMethodSignature(StringIdItem methodNameItem, ProtoIdItem protoItem) {
+            this.methodNameItem = methodNameItem;
+            this.protoItem = protoItem;
+        }
+    }
+
     public static class InlineMethod {
         public final int methodType;
         public final String classType;
@@ -265,8 +346,6 @@ public class DeodexUtil {
         public final String parameters;
         public final String returnType;
 
-        private MethodIdItem methodIdItem = null;
-
         InlineMethod(int methodType, String classType, String methodName, String parameters,
                                String returnType) {
             this.methodType = methodType;
@@ -276,17 +355,13 @@ public class DeodexUtil {
             this.returnType = returnType;
         }
 
+        /**
+         * Gets the method item for this inline method in the dex file of the given <code>DeodexUtil</code>. The
+         * inline method tables are shared between dex files, so the resolved method is cached by the
+         * <code>DeodexUtil</code>, rather than by this object
+         */
         public MethodIdItem getMethodIdItem(DeodexUtil deodexUtil) {
-            if (methodIdItem == null) {
-                loadMethod(deodexUtil);
-            }
-            return methodIdItem;
-        }
-
-        private void loadMethod(DeodexUtil deodexUtil) {
-            ClassPath.ClassDef classDef = ClassPath.getClassDef(classType);
-
-            this.methodIdItem = deodexUtil.parseAndResolveMethod(classDef, methodName, parameters, returnType);
+            return deodexUtil.resolveInlineMethod(this);
         }
 
         public String getMethodString() {
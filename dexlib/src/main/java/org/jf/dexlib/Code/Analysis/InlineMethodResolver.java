@@ -45,6 +45,30 @@ public abstract class InlineMethodResolver {
         }
     }
 
+    private static InlineMethodResolver version35Resolver = null;
+    private static InlineMethodResolver version36Resolver = null;
+
+    /**
+     * Gets the inline method table for the given odex version. The tables don't depend on the dex file being
+     * deodexed, so a single table for each version is shared by every <code>DeodexUtil</code>
+     * @param odexVersion the version of the odex file
+     * @return the shared <code>InlineMethodResolver</code> for the given odex version
+     */
+    public static synchronized InlineMethodResolver getInlineMethodResolver(int odexVersion) {
+        if (odexVersion == 35) {
+            if (version35Resolver == null) {
+                version35Resolver = createInlineMethodResolver(null, odexVersion);
+            }
+            return version35Resolver;
+        } else if (odexVersion == 36) {
+            if (version36Resolver == null) {
+                version36Resolver = createInlineMethodResolver(null, odexVersion);
+            }
+            return version36Resolver;
+        }
+        return createInlineMethodResolver(null, odexVersion);
+    }
+
     protected InlineMethodResolver() {
     }
 
@@ -69,6 +69,7 @@ import org.jf.dexlib.Code.Format.Instruction5rc;
 import org.jf.dexlib.Code.Format.UnresolvedOdexInstruction;
 import org.jf.dexlib.Util.AccessFlags;
 import org.jf.dexlib.Util.ExceptionWithContext;
+import org.jf.dexlib.Util.Metrics;
 import org.jf.dexlib.Util.SparseArray;
 
 /**
@@ -105,6 +106,17 @@ public class MethodAnalyzer {
 
     public MethodAnalyzer(ClassDataItem.EncodedMethod encodedMethod, boolean deodex,
                           InlineMethodResolver inlineResolver) {
+        this(encodedMethod, createDeodexUtil(encodedMethod, deodex, inlineResolver));
+    }
+
+    /**
+     * Creates a MethodAnalyzer that uses the given DeodexUtil to deodex the method. This lets the methods of a dex
+     * file share a single DeodexUtil, along with the items that it has resolved in the dex file
+     * @param encodedMethod the method to analyze
+     * @param deodexUtil the DeodexUtil for the dex file containing the method, or null if the method shouldn't be
+     * deodexed
+     */
+    public MethodAnalyzer(ClassDataItem.EncodedMethod encodedMethod, DeodexUtil deodexUtil) {
         if (encodedMethod == null) {
             throw new IllegalArgumentException("encodedMethod cannot be null");
         }
@@ -113,15 +125,8 @@ public class MethodAnalyzer {
         }
         this.encodedMethod = encodedMethod;
 
-        if (deodex) {
-            if (inlineResolver != null) {
-                this.deodexUtil = new DeodexUtil(encodedMethod.method.getDexFile(), inlineResolver);
-            } else {
-                this.deodexUtil = new DeodexUtil(encodedMethod.method.getDexFile());
-            }
-        } else {
-            this.deodexUtil = null;
-        }
+        assert deodexUtil == null || deodexUtil.dexFile == encodedMethod.method.getDexFile();
+        this.deodexUtil = deodexUtil;
 
         //override AnalyzedInstruction and provide custom implementations of some of the methods, so that we don't
         //have to handle the case this special case of instruction being null, in the main class
@@ -152,6 +157,17 @@ public class MethodAnalyzer {
         analyzedInstructions = new BitSet(instructions.size());
     }
 
+    private static DeodexUtil createDeodexUtil(ClassDataItem.EncodedMethod encodedMethod, boolean deodex,
+                                               InlineMethodResolver inlineResolver) {
+        if (!deodex || encodedMethod == null) {
+            return null;
+        }
+        if (inlineResolver != null) {
+            return new DeodexUtil(encodedMethod.method.getDexFile(), inlineResolver);
+        }
+        return new DeodexUtil(encodedMethod.method.getDexFile());
+    }
+
     public boolean isAnalyzed() {
         return analyzerState >= ANALYZED;
     }
@@ -161,6 +177,15 @@ public class MethodAnalyzer {
     }
 
     public void analyze() {
+        Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.ANALYSIS);
+        try {
+            analyzeInstructions();
+        } finally {
+            Metrics.endPhase(timer);
+        }
+    }
+
+    private void analyzeInstructions() {
         assert encodedMethod != null;
         assert encodedMethod.codeItem != null;
 
@@ -223,6 +248,8 @@ public class MethodAnalyzer {
 
         BitSet undeodexedInstructions = new BitSet(instructions.size());
 
+        int iterations = 0;
+
         do {
             boolean didSomething = false;
 
@@ -242,6 +269,7 @@ public class MethodAnalyzer {
                             instructionToAnalyze.restoreOdexedInstruction();
                         }
 
+                        iterations++;
                         if (!analyzeInstruction(instructionToAnalyze)) {
                             undeodexedInstructions.set(i);
                             continue;
@@ -281,6 +309,9 @@ public class MethodAnalyzer {
             }
         } while (true);
 
+        Metrics.count(Metrics.Counter.ANALYZED_METHODS);
+        Metrics.count(Metrics.Counter.ANALYZER_ITERATIONS, iterations);
+
         for (int i=0; i<instructions.size(); i++) {
             AnalyzedInstruction instruction = instructions.valueAt(i);
 
@@ -309,6 +340,15 @@ public class MethodAnalyzer {
     }
 
     public void verify() {
+        Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.VERIFICATION);
+        try {
+            verifyInstructions();
+        } finally {
+            Metrics.endPhase(timer);
+        }
+    }
+
+    private void verifyInstructions() {
         if (analyzerState < ANALYZED) {
             throw new ExceptionWithContext("You must call analyze() before calling verify().");
         }
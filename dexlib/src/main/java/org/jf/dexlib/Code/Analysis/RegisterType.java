@@ -30,14 +30,15 @@ package org.jf.dexlib.Code.Analysis;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jf.dexlib.TypeIdItem;
 import org.jf.dexlib.Code.Analysis.ClassPath.ClassDef;
 
 public class RegisterType {
-    private final static HashMap<RegisterType, RegisterType> internedRegisterTypes =
-            new HashMap<RegisterType, RegisterType>();
+    //this is shared by all of the threads that are analyzing methods
+    private final static ConcurrentHashMap<RegisterType, RegisterType> internedRegisterTypes =
+            new ConcurrentHashMap<RegisterType, RegisterType>();
 
     public final Category category;
     public final ClassDef type;
@@ -305,12 +306,23 @@ public class RegisterType {
         return new RegisterType(Category.UninitRef, classType);
     }
 
+    /**
+     * Discards the interned register types. Reference types are compared by class name, so the interned types of a
+     * discarded class path must not be returned for the classes of a new one, which could have different
+     * definitions. This is called when the class path is cleared.
+     */
+    public static void clearInternedRegisterTypes() {
+        internedRegisterTypes.clear();
+    }
+
     public static RegisterType getRegisterType(Category category, ClassDef classType) {
         RegisterType newRegisterType = new RegisterType(category, classType);
         RegisterType internedRegisterType = internedRegisterTypes.get(newRegisterType);
         if (internedRegisterType == null) {
-            internedRegisterTypes.put(newRegisterType, newRegisterType);
-            return newRegisterType;
+            internedRegisterType = internedRegisterTypes.putIfAbsent(newRegisterType, newRegisterType);
+            if (internedRegisterType == null) {
+                return newRegisterType;
+            }
         }
         return internedRegisterType;
     }
@@ -33,12 +33,11 @@ import java.util.HashMap;
 import org.jf.dexlib.ClassDataItem;
 import org.jf.dexlib.ClassDefItem;
 import org.jf.dexlib.DexFile;
-import org.jf.dexlib.FieldIdItem;
 import org.jf.dexlib.Item;
 import org.jf.dexlib.MethodIdItem;
-import org.jf.dexlib.Code.Instruction;
-import org.jf.dexlib.Code.InstructionWithReference;
-import org.jf.dexlib.Code.Format.Instruction22c;
+import org.jf.dexlib.Code.InstructionCursor;
+import org.jf.dexlib.Code.Opcode;
+import org.jf.dexlib.Code.ReferenceType;
 import org.jf.dexlib.Util.AccessFlags;
 
 public class SyntheticAccessorResolver {
@@ -78,43 +77,64 @@ public class SyntheticAccessorResolver {
             return null;
         }
 
-        Instruction[] instructions = encodedMethod.codeItem.getInstructions();
+        //scan the instructions in place, rather than decoding the whole method
+        InstructionCursor cursor = encodedMethod.codeItem.getInstructionCursor();
+        if (!cursor.next()) {
+            return null;
+        }
+
+        Opcode opcode = cursor.getOpcode();
 
         //TODO: add support for odexed formats
-        switch (instructions[0].opcode.format) {
+        switch (opcode.format) {
+            case Format35c:
+            case Format3rc:
+                if (opcode.referenceType != ReferenceType.method) {
+                    return null;
+                }
+                break;
+            case Format22c:
+                if (opcode.referenceType != ReferenceType.field) {
+                    return null;
+                }
+                break;
+            default:
+                return null;
+        }
+        Item referencedItem = cursor.getReferencedItem();
+
+        int instructionCount = 1;
+        while (cursor.next()) {
+            instructionCount++;
+        }
+
+        switch (opcode.format) {
             case Format35c:
             case Format3rc: {
                 //a synthetic method access should be either 2 or 3 instructions, depending on if the method returns
                 //anything or not
-                if (instructions.length < 2 || instructions.length > 3) {
+                if (instructionCount < 2 || instructionCount > 3) {
                     return null;
                 }
-                InstructionWithReference instruction = (InstructionWithReference)instructions[0];
-                MethodIdItem referencedMethodIdItem = (MethodIdItem)instruction.getReferencedItem();
-
-                accessedMember = new AccessedMember(METHOD, referencedMethodIdItem);
+                accessedMember = new AccessedMember(METHOD, referencedItem);
                 resolvedAccessors.put(methodIdItem, accessedMember);
                 return accessedMember;
             }
-            case Format22c: {
+            default: {
                 //a synthetic field access should be exactly 2 instructions. The set/put, and then the return
-                if (instructions.length != 2) {
+                if (instructionCount != 2) {
                     return null;
                 }
-                Instruction22c instruction = (Instruction22c)instructions[0];
-                FieldIdItem referencedFieldIdItem = (FieldIdItem)instruction.getReferencedItem();
 
-                if (instruction.opcode.setsRegister() || instruction.opcode.setsWideRegister()) {
-                    accessedMember = new AccessedMember(GETTER, referencedFieldIdItem);
+                if (opcode.setsRegister() || opcode.setsWideRegister()) {
+                    accessedMember = new AccessedMember(GETTER, referencedItem);
                 } else {
-                    accessedMember = new AccessedMember(SETTER, referencedFieldIdItem);
+                    accessedMember = new AccessedMember(SETTER, referencedItem);
                 }
 
                 resolvedAccessors.put(methodIdItem, accessedMember);
                 return accessedMember;
             }
-            default:
-                return null;
         }
     }
 
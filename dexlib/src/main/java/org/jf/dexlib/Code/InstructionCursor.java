@@ -0,0 +1,425 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.dexlib.Code;
+
+import org.jf.dexlib.DexFile;
+import org.jf.dexlib.Item;
+import org.jf.dexlib.Code.Format.Format;
+import org.jf.dexlib.Util.ExceptionWithContext;
+import org.jf.dexlib.Util.Hex;
+import org.jf.dexlib.Util.NumberUtils;
+
+/**
+ * This class provides a read-only view of the encoded instructions of a method, one instruction at a time, without
+ * creating an <code>Instruction</code> object for each of them. It is meant for code that only needs to scan over
+ * the instructions, such as looking for references to a method or field.
+ *
+ * The cursor starts before the first instruction, and <code>next()</code> moves it to the next one. The accessors
+ * decode the values of the current instruction directly from the buffer, and follow the naming of the
+ * <code>Instruction</code> classes. Calling an accessor that doesn't apply to the format of the current instruction
+ * results in an exception.
+ */
+public class InstructionCursor {
+    private final DexFile dexFile;
+    private final byte[] insns;
+
+    private int position = -1;
+    private int nextPosition = 0;
+    private Opcode opcode;
+    private Format format;
+
+    /**
+     * Creates a new <code>InstructionCursor</code> over the given encoded instructions
+     * @param dexFile the <code>DexFile</code> that the referenced items are looked up in
+     * @param insns the encoded instructions, as they are stored in a code item
+     */
+    public InstructionCursor(DexFile dexFile, byte[] insns) {
+        this.dexFile = dexFile;
+        this.insns = insns;
+    }
+
+    /**
+     * Moves the cursor to the next instruction
+     * @return true if there is a next instruction, or false if the end of the instructions has been reached
+     */
+    public boolean next() {
+        if (nextPosition >= insns.length) {
+            position = insns.length;
+            opcode = null;
+            format = null;
+            return false;
+        }
+
+        position = nextPosition;
+        try {
+            short opcodeValue = (short)(insns[position] & 0xFF);
+            if (opcodeValue == 0xFF) {
+                opcodeValue = (short)((0xFF << 8) | (insns[position+1] & 0xFF));
+            }
+
+            opcode = Opcode.getOpcodeByValue(opcodeValue);
+            if (opcode == null) {
+                throw new RuntimeException("Unknown opcode: " + Hex.u1(insns[position]));
+            }
+
+            format = opcode.format;
+            if (opcode == Opcode.NOP) {
+                switch (insns[position + 1]) {
+                    case 0:
+                        break;
+                    case 1:
+                        format = Format.PackedSwitchData;
+                        break;
+                    case 2:
+                        format = Format.SparseSwitchData;
+                        break;
+                    case 3:
+                        format = Format.ArrayData;
+                        break;
+                    default:
+                        throw new RuntimeException("Unknown pseudo instruction type: " +
+                                Hex.u1(insns[position + 1]));
+                }
+            }
+
+            nextPosition = position + getSize()*2;
+        } catch (Exception ex) {
+            throw ExceptionWithContext.withContext(ex, "Error occured at code address " + position/2);
+        }
+        return true;
+    }
+
+    /**
+     * Moves the cursor back to before the first instruction
+     */
+    public void reset() {
+        position = -1;
+        nextPosition = 0;
+        opcode = null;
+        format = null;
+    }
+
+    /**
+     * @return the code address of the current instruction, in 2-byte code units
+     */
+    public int getCodeAddress() {
+        return position/2;
+    }
+
+    /**
+     * @return the opcode of the current instruction. This is <code>Opcode.NOP</code> for the switch and array data
+     * pseudo instructions
+     */
+    public Opcode getOpcode() {
+        checkPosition();
+        return opcode;
+    }
+
+    /**
+     * @return the format of the current instruction, including the switch and array data pseudo instruction formats
+     */
+    public Format getFormat() {
+        checkPosition();
+        return format;
+    }
+
+    /**
+     * @return the size of the current instruction, in 2-byte code units
+     */
+    public int getSize() {
+        checkPosition();
+        int codeAddress = position/2;
+        switch (format) {
+            case PackedSwitchData:
+                return NumberUtils.decodeUnsignedShort(insns, position + 2) * 2 + 4 + (codeAddress % 2);
+            case SparseSwitchData:
+                return NumberUtils.decodeUnsignedShort(insns, position + 2) * 4 + 2 + (codeAddress % 2);
+            case ArrayData: {
+                int elementWidth = NumberUtils.decodeUnsignedShort(insns, position + 2);
+                int elementCount = NumberUtils.decodeInt(insns, position + 4);
+                return ((elementWidth * elementCount + 1)/2) + 4 + (codeAddress % 2);
+            }
+            default:
+                return format.size/2;
+        }
+    }
+
+    /**
+     * @return a copy of the encoded bytes of the current instruction
+     */
+    public byte[] getEncodedInstruction() {
+        int length = getSize()*2;
+        byte[] encodedInstruction = new byte[length];
+        System.arraycopy(insns, position, encodedInstruction, 0, length);
+        return encodedInstruction;
+    }
+
+    public int getRegisterA() {
+        checkPosition();
+        switch (format) {
+            case Format11n:
+            case Format12x:
+            case Format22c:
+            case Format22cs:
+            case Format22s:
+            case Format22t:
+            case Format35c:
+            case Format35mi:
+            case Format35ms:
+                return NumberUtils.decodeLowUnsignedNibble(insns[position + 1]);
+            case Format11x:
+            case Format21c:
+            case Format21h:
+            case Format21s:
+            case Format21t:
+            case Format22b:
+            case Format22x:
+            case Format23x:
+            case Format31c:
+            case Format31i:
+            case Format31t:
+            case Format51l:
+                return NumberUtils.decodeUnsignedByte(insns[position + 1]);
+            case Format32x:
+                return NumberUtils.decodeUnsignedShort(insns, position + 2);
+            case Format41c:
+            case Format52c:
+                return NumberUtils.decodeUnsignedShort(insns, position + 6);
+        }
+        throw unsupportedFormat("register A");
+    }
+
+    public int getRegisterB() {
+        checkPosition();
+        switch (format) {
+            case Format12x:
+            case Format22c:
+            case Format22cs:
+            case Format22s:
+            case Format22t:
+                return NumberUtils.decodeHighUnsignedNibble(insns[position + 1]);
+            case Format22b:
+            case Format23x:
+                return NumberUtils.decodeUnsignedByte(insns[position + 2]);
+            case Format22x:
+                return NumberUtils.decodeUnsignedShort(insns, position + 2);
+            case Format32x:
+                return NumberUtils.decodeUnsignedShort(insns, position + 4);
+            case Format52c:
+                return NumberUtils.decodeUnsignedShort(insns, position + 8);
+        }
+        throw unsupportedFormat("register B");
+    }
+
+    public int getRegisterC() {
+        checkPosition();
+        if (format == Format.Format23x) {
+            return NumberUtils.decodeUnsignedByte(insns[position + 3]);
+        }
+        throw unsupportedFormat("register C");
+    }
+
+    public int getRegisterD() {
+        checkFiveRegisterFormat("register D");
+        return NumberUtils.decodeLowUnsignedNibble(insns[position + 4]);
+    }
+
+    public int getRegisterE() {
+        checkFiveRegisterFormat("register E");
+        return NumberUtils.decodeHighUnsignedNibble(insns[position + 4]);
+    }
+
+    public int getRegisterF() {
+        checkFiveRegisterFormat("register F");
+        return NumberUtils.decodeLowUnsignedNibble(insns[position + 5]);
+    }
+
+    public int getRegisterG() {
+        checkFiveRegisterFormat("register G");
+        return NumberUtils.decodeHighUnsignedNibble(insns[position + 5]);
+    }
+
+    /**
+     * @return the number of registers used by the current invoke instruction
+     */
+    public int getRegCount() {
+        checkPosition();
+        switch (format) {
+            case Format35c:
+            case Format35mi:
+            case Format35ms:
+                return NumberUtils.decodeHighUnsignedNibble(insns[position + 1]);
+            case Format3rc:
+            case Format3rmi:
+            case Format3rms:
+                return NumberUtils.decodeUnsignedByte(insns[position + 1]);
+            case Format5rc:
+                return NumberUtils.decodeUnsignedShort(insns, position + 6);
+        }
+        throw unsupportedFormat("register count");
+    }
+
+    /**
+     * @return the first register of the current register range instruction
+     */
+    public int getStartRegister() {
+        checkPosition();
+        switch (format) {
+            case Format3rc:
+            case Format3rmi:
+            case Format3rms:
+                return NumberUtils.decodeUnsignedShort(insns, position + 4);
+            case Format5rc:
+                return NumberUtils.decodeUnsignedShort(insns, position + 8);
+        }
+        throw unsupportedFormat("start register");
+    }
+
+    /**
+     * @return the literal value of the current instruction, as it is encoded. As with
+     * <code>Instruction21h</code>, this is not shifted for the const/high16 and const-wide/high16 instructions
+     */
+    public long getLiteral() {
+        checkPosition();
+        switch (format) {
+            case Format11n:
+                return NumberUtils.decodeHighSignedNibble(insns[position + 1]);
+            case Format21h:
+            case Format21s:
+            case Format22s:
+                return NumberUtils.decodeShort(insns, position + 2);
+            case Format22b:
+                return insns[position + 3];
+            case Format31i:
+                return NumberUtils.decodeInt(insns, position + 2);
+            case Format51l:
+                return NumberUtils.decodeLong(insns, position + 2);
+        }
+        throw unsupportedFormat("literal");
+    }
+
+    /**
+     * @return the offset from the current instruction to its target, in 2-byte code units
+     */
+    public int getTargetAddressOffset() {
+        checkPosition();
+        switch (format) {
+            case Format10t:
+                return insns[position + 1];
+            case Format20t:
+            case Format21t:
+            case Format22t:
+                return NumberUtils.decodeShort(insns, position + 2);
+            case Format30t:
+            case Format31t:
+                return NumberUtils.decodeInt(insns, position + 2);
+        }
+        throw unsupportedFormat("target address offset");
+    }
+
+    /**
+     * @return the type of item that the current instruction references, or <code>ReferenceType.none</code>
+     */
+    public ReferenceType getReferenceType() {
+        checkPosition();
+        if (format == Format.Format20bc) {
+            short val = NumberUtils.decodeUnsignedByte(insns[position + 1]);
+            return ReferenceType.fromValidationErrorReferenceType(val >> 6);
+        }
+        if (format == Format.PackedSwitchData || format == Format.SparseSwitchData || format == Format.ArrayData) {
+            return ReferenceType.none;
+        }
+        return opcode.referenceType;
+    }
+
+    /**
+     * @return the index of the item that the current instruction references, in the section for its reference type
+     */
+    public int getReferenceIndex() {
+        checkPosition();
+        switch (format) {
+            case Format20bc:
+            case Format21c:
+            case Format22c:
+            case Format35c:
+            case Format3rc:
+                return NumberUtils.decodeUnsignedShort(insns, position + 2);
+            case Format31c:
+            case Format41c:
+            case Format52c:
+            case Format5rc:
+                return NumberUtils.decodeInt(insns, position + 2);
+        }
+        throw unsupportedFormat("reference");
+    }
+
+    /**
+     * Looks up the item that the current instruction references. Unlike the rest of the accessors, this resolves the
+     * item from the <code>DexFile</code>, so the index must be valid in it
+     * @return the referenced item, or null if the current instruction doesn't reference an item
+     */
+    public Item getReferencedItem() {
+        ReferenceType referenceType = getReferenceType();
+        if (referenceType == null || referenceType == ReferenceType.none) {
+            return null;
+        }
+
+        int itemIndex = getReferenceIndex();
+        switch (referenceType) {
+            case field:
+                return dexFile.FieldIdsSection.getItemByIndex(itemIndex);
+            case method:
+                return dexFile.MethodIdsSection.getItemByIndex(itemIndex);
+            case type:
+                return dexFile.TypeIdsSection.getItemByIndex(itemIndex);
+            case string:
+                return dexFile.StringIdsSection.getItemByIndex(itemIndex);
+        }
+        return null;
+    }
+
+    private void checkPosition() {
+        if (format == null) {
+            throw new IllegalStateException("The cursor is not positioned at an instruction");
+        }
+    }
+
+    private void checkFiveRegisterFormat(String value) {
+        checkPosition();
+        if (format != Format.Format35c && format != Format.Format35mi && format != Format.Format35ms) {
+            throw unsupportedFormat(value);
+        }
+    }
+
+    private RuntimeException unsupportedFormat(String value) {
+        return new RuntimeException(String.format("The %s instruction at code address %d does not have a %s",
+                opcode.name, position/2, value));
+    }
+}
@@ -32,6 +32,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.jf.dexlib.Code.Instruction;
+import org.jf.dexlib.Code.InstructionCursor;
 import org.jf.dexlib.Code.InstructionIterator;
 import org.jf.dexlib.Code.InstructionWithReference;
 import org.jf.dexlib.Code.MultiOffsetInstruction;
@@ -44,6 +45,7 @@ import org.jf.dexlib.Debug.DebugInstructionIterator;
 import org.jf.dexlib.Debug.DebugOpcode;
 import org.jf.dexlib.Util.AlignmentUtils;
 import org.jf.dexlib.Util.AnnotatedOutput;
+import org.jf.dexlib.Util.ByteArrayAnnotatedOutput;
 import org.jf.dexlib.Util.ByteArrayInput;
 import org.jf.dexlib.Util.DebugInfoBuilder;
 import org.jf.dexlib.Util.ExceptionWithContext;
@@ -57,7 +59,12 @@ public class CodeItem extends Item<CodeItem> {
     private int inWords;
     private int outWords;
     private DebugInfoItem debugInfo;
-    private Instruction[] instructions;
+    private volatile Instruction[] instructions;
+    /**
+     * The encoded instructions that were read from the dex file. These are only decoded into <code>Instruction</code>
+     * objects when they are first needed, and are dropped if the instructions are changed
+     */
+    private byte[] encodedInstructions;
     private TryItem[] tries;
     private EncodedCatchHandler[] encodedCatchHandlers;
 
@@ -163,18 +170,8 @@ public class CodeItem extends Item<CodeItem> {
 
         int instructionCount = in.readInt();
 
-        final ArrayList<Instruction> instructionList = new ArrayList<Instruction>();
-
-        byte[] encodedInstructions = in.readBytes(instructionCount * 2);
-        InstructionIterator.IterateInstructions(dexFile, encodedInstructions,
-                new InstructionIterator.ProcessInstructionDelegate() {
-                    public void ProcessInstruction(int codeAddress, Instruction instruction) {
-                        instructionList.add(instruction);
-                    }
-                });
-
-        this.instructions = new Instruction[instructionList.size()];
-        instructionList.toArray(instructions);
+        this.encodedInstructions = in.readBytes(instructionCount * 2);
+        this.instructions = null;
 
         if (triesCount > 0) {
             in.alignTo(4);
@@ -269,7 +266,7 @@ public class CodeItem extends Item<CodeItem> {
         out.writeInt(instructionsLength);
 
         int currentCodeAddress = 0;
-        for (Instruction instruction: instructions) {
+        for (Instruction instruction: getInstructions()) {
             currentCodeAddress = instruction.write(out, currentCodeAddress);
         }
 
@@ -352,12 +349,78 @@ public class CodeItem extends Item<CodeItem> {
     }
 
     /**
-     * @return an array of the instructions in this code item
+     * @return the number of 2-byte words that the parameters to the method containing this code take
+     */
+    public int getInWords() {
+        return inWords;
+    }
+
+    /**
+     * @return the maximum number of 2-byte words for the arguments of any method call in this code
+     */
+    public int getOutWords() {
+        return outWords;
+    }
+
+    /**
+     * @return an array of the instructions in this code item. For a code item that was read from a dex file, the
+     * instructions are decoded the first time this is called
      */
     public Instruction[] getInstructions() {
+        Instruction[] instructions = this.instructions;
+        if (instructions == null && encodedInstructions != null) {
+            instructions = decodeInstructions();
+        }
         return instructions;
     }
 
+    private synchronized Instruction[] decodeInstructions() {
+        if (instructions != null || encodedInstructions == null) {
+            return instructions;
+        }
+
+        final ArrayList<Instruction> instructionList = new ArrayList<Instruction>();
+
+        try {
+            InstructionIterator.IterateInstructions(dexFile, encodedInstructions,
+                    new InstructionIterator.ProcessInstructionDelegate() {
+                        public void ProcessInstruction(int codeAddress, Instruction instruction) {
+                            instructionList.add(instruction);
+                        }
+                    });
+        } catch (Exception ex) {
+            throw this.addExceptionContext(ex);
+        }
+
+        Instruction[] decodedInstructions = new Instruction[instructionList.size()];
+        instructionList.toArray(decodedInstructions);
+        instructions = decodedInstructions;
+        return decodedInstructions;
+    }
+
+    /**
+     * Gets an <code>InstructionCursor</code> over the encoded instructions in this code item. This doesn't decode the
+     * instructions into <code>Instruction</code> objects, for a code item that was read from a dex file.
+     *
+     * Otherwise, the instructions are encoded first, and the reference indexes in the cursor are only meaningful once
+     * the dex file has been placed
+     * @return an <code>InstructionCursor</code> positioned before the first instruction
+     */
+    public InstructionCursor getInstructionCursor() {
+        byte[] encodedInstructions = this.encodedInstructions;
+        if (encodedInstructions == null) {
+            ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+            if (instructions != null) {
+                int currentCodeAddress = 0;
+                for (Instruction instruction: instructions) {
+                    currentCodeAddress = instruction.write(out, currentCodeAddress);
+                }
+            }
+            encodedInstructions = out.toByteArray();
+        }
+        return new InstructionCursor(dexFile, encodedInstructions);
+    }
+
     /**
      * @return an array of the <code>TryItem</code> objects in this <code>CodeItem</code>
      */
@@ -401,12 +464,17 @@ public class CodeItem extends Item<CodeItem> {
      */
     public void updateCode(Instruction[] newInstructions) {
         this.instructions = newInstructions;
+        this.encodedInstructions = null;
     }
 
     /**
      * @return The length of the instructions in this CodeItem, in 2-byte code blocks
      */
     private int getInstructionsLength() {
+        if (instructions == null && encodedInstructions != null) {
+            return encodedInstructions.length / 2;
+        }
+
         int currentCodeAddress = 0;
         for (Instruction instruction: instructions) {
             currentCodeAddress += instruction.getSize(currentCodeAddress);
@@ -425,6 +493,9 @@ public class CodeItem extends Item<CodeItem> {
      * The above fixes are applied iteratively, until no more fixes have been performed
      */
     public void fixInstructions(boolean fixJumbo, boolean fixGoto) {
+        //make sure the instructions have been decoded, if this code item was read from a dex file
+        getInstructions();
+
         try {
             boolean didSomething = false;
 
@@ -533,6 +604,7 @@ public class CodeItem extends Item<CodeItem> {
         }
 
         instructions[instructionIndex] = replacementInstruction;
+        encodedInstructions = null;
 
         //if we're replacing the instruction with one of the same size, we don't have to worry about fixing
         //up any address
@@ -42,7 +42,17 @@ public class DebugInfoItem extends Item<DebugInfoItem> {
     private int lineStart;
     private StringIdItem[] parameterNames;
     private byte[] encodedDebugInfo;
-    private Item[] referencedItems;
+    /**
+     * The items referenced by the encoded debug info. For a debug info item that was read from a dex file, these are
+     * only looked up when they are first needed
+     */
+    private volatile Item[] referencedItems;
+
+    /**
+     * The code address and line number of each position entry, interleaved. This is built from the encoded debug
+     * info the first time a line number is looked up
+     */
+    private volatile int[] lineTable;
 
     private CodeItem parent = null;
 
@@ -107,49 +117,69 @@ public class DebugInfoItem extends Item<DebugInfoItem> {
         }
 
         int start = in.getCursor();
-        final List<Item> referencedItemsList = new ArrayList<Item>(50);
-        DebugInstructionIterator.IterateInstructions(in,
-                new DebugInstructionIterator.ProcessRawDebugInstructionDelegate() {
-                    @Override
-                    public void ProcessStartLocal(int startDebugOffset, int length, int registerNum, int nameIndex,
-                                                  int typeIndex, boolean registerIsSigned) {
-                        if (nameIndex != -1) {
-                            referencedItemsList.add(dexFile.StringIdsSection.getItemByIndex(nameIndex));
-                        }
-                        if (typeIndex != -1) {
-                            referencedItemsList.add(dexFile.TypeIdsSection.getItemByIndex(typeIndex));
-                        }
-                    }
+        DebugInstructionIterator.IterateInstructions(in, skipDelegate);
+        int length = in.getCursor() - start;
+        in.setCursor(start);
+        encodedDebugInfo = in.readBytes(length);
+        referencedItems = null;
+    }
 
-                    @Override
-                    public void ProcessStartLocalExtended(int startDebugOffset, int length, int registerNume,
-                                                          int nameIndex, int typeIndex, int signatureIndex,
-                                                          boolean registerIsSigned) {
-                        if (nameIndex != -1) {
-                            referencedItemsList.add(dexFile.StringIdsSection.getItemByIndex(nameIndex));
-                        }
-                        if (typeIndex != -1) {
-                            referencedItemsList.add(dexFile.TypeIdsSection.getItemByIndex(typeIndex));
-                        }
-                        if (signatureIndex != -1) {
-                            referencedItemsList.add(dexFile.StringIdsSection.getItemByIndex(signatureIndex));
-                        }
-                    }
+    /**
+     * This is used to find the end of the encoded debug info when reading it in, without looking at the instructions
+     */
+    private static final DebugInstructionIterator.ProcessRawDebugInstructionDelegate skipDelegate =
+            new DebugInstructionIterator.ProcessRawDebugInstructionDelegate();
 
-                    @Override
-                    public void ProcessSetFile(int startDebugOffset, int length, int nameIndex) {
-                        if (nameIndex != -1) {
-                            referencedItemsList.add(dexFile.StringIdsSection.getItemByIndex(nameIndex));
-                        }
-                    }
-                });
+    private synchronized Item[] decodeReferencedItems() {
+        if (referencedItems != null) {
+            return referencedItems;
+        }
 
-        referencedItems = new Item[referencedItemsList.size()];
-        referencedItemsList.toArray(referencedItems);
+        final List<Item> referencedItemsList = new ArrayList<Item>(50);
+        try {
+            DebugInstructionIterator.IterateInstructions(new ByteArrayInput(encodedDebugInfo),
+                    new DebugInstructionIterator.ProcessRawDebugInstructionDelegate() {
+                        @Override
+                        public void ProcessStartLocal(int startDebugOffset, int length, int registerNum,
+                                                      int nameIndex, int typeIndex, boolean registerIsSigned) {
+                            if (nameIndex != -1) {
+                                referencedItemsList.add(dexFile.StringIdsSection.getItemByIndex(nameIndex));
+                            }
+                            if (typeIndex != -1) {
+                                referencedItemsList.add(dexFile.TypeIdsSection.getItemByIndex(typeIndex));
+                            }
+                        }
+
+                        @Override
+                        public void ProcessStartLocalExtended(int startDebugOffset, int length, int registerNume,
+                                                              int nameIndex, int typeIndex, int signatureIndex,
+                                                              boolean registerIsSigned) {
+                            if (nameIndex != -1) {
+                                referencedItemsList.add(dexFile.StringIdsSection.getItemByIndex(nameIndex));
+                            }
+                            if (typeIndex != -1) {
+                                referencedItemsList.add(dexFile.TypeIdsSection.getItemByIndex(typeIndex));
+                            }
+                            if (signatureIndex != -1) {
+                                referencedItemsList.add(dexFile.StringIdsSection.getItemByIndex(signatureIndex));
+                            }
+                        }
+
+                        @Override
+                        public void ProcessSetFile(int startDebugOffset, int length, int nameIndex) {
+                            if (nameIndex != -1) {
+                                referencedItemsList.add(dexFile.StringIdsSection.getItemByIndex(nameIndex));
+                            }
+                        }
+                    });
+        } catch (Exception ex) {
+            throw this.addExceptionContext(ex);
+        }
 
-        int length = in.getCursor() - start;
-        in.setCursor(start);
-        encodedDebugInfo = in.readBytes(length);
+        Item[] decodedReferencedItems = new Item[referencedItemsList.size()];
+        referencedItemsList.toArray(decodedReferencedItems);
+        referencedItems = decodedReferencedItems;
+        return decodedReferencedItems;
     }
 
 
@@ -168,6 +198,8 @@ public class DebugInfoItem extends Item<DebugInfoItem> {
             offset += Leb128Utils.unsignedLeb128Size(indexp1);
         }
 
+        final Item[] referencedItems = getReferencedItems();
+
         //make a subclass so we can keep track of and access the computed length
         class ProcessDebugInstructionDelegateWithLength extends
                 DebugInstructionIterator.ProcessRawDebugInstructionDelegate {
@@ -272,6 +304,7 @@ public class DebugInfoItem extends Item<DebugInfoItem> {
         //TODO: I would rather replace this method with some way of saying "The (code) instruction at address changed from A bytes to B bytes. Fixup the debug info accordingly"
 
         this.encodedDebugInfo = encodedDebugInfo;
+        this.lineTable = null;
     }
 
     /**
@@ -279,6 +312,8 @@ public class DebugInfoItem extends Item<DebugInfoItem> {
      * @param out the AnnotatedOutput object
      */
     private void writeItemWithNoAnnotations(final AnnotatedOutput out) {
+        final Item[] referencedItems = getReferencedItems();
+
         out.writeUnsignedLeb128(lineStart);
         out.writeUnsignedLeb128(parameterNames.length);
         for (StringIdItem parameterName: parameterNames) {
@@ -365,6 +400,8 @@ public class DebugInfoItem extends Item<DebugInfoItem> {
      * @param out the AnnotatedOutput object
      */
     private void writeItemWithAnnotations(final AnnotatedOutput out) {
+        final Item[] referencedItems = getReferencedItems();
+
         out.annotate(0, parent.getParent().method.getMethodString());
         out.annotate("line_start: 0x" + Integer.toHexString(lineStart) + " (" + lineStart + ")");
         out.writeUnsignedLeb128(lineStart);
@@ -604,12 +641,99 @@ public class DebugInfoItem extends Item<DebugInfoItem> {
     }
 
     /**
-     * @return an array of the items referenced by instructions, in order of occurance in the encoded debug info
+     * @return an array of the items referenced by instructions, in order of occurance in the encoded debug info. For a
+     * debug info item that was read from a dex file, the items are looked up the first time this is called
      */
     public Item[] getReferencedItems() {
+        Item[] referencedItems = this.referencedItems;
+        if (referencedItems == null) {
+            referencedItems = decodeReferencedItems();
+        }
         return referencedItems;
     }
 
+    /**
+     * Gets the source line number for the given code address. This is the line of the last position entry at or
+     * before the code address, the same as the VM uses for stack traces.
+     *
+     * The first lookup builds a table of the position entries from the encoded debug info, skipping over the local
+     * variable instructions, and each lookup after that is a binary search
+     * @param codeAddress the code address, in 16-bit code units
+     * @return the line number for the given code address, or -1 if there is no position entry at or before it
+     */
+    public int getLineNumber(int codeAddress) {
+        int[] lineTable = this.lineTable;
+        if (lineTable == null) {
+            lineTable = buildLineTable();
+            this.lineTable = lineTable;
+        }
+
+        //find the last entry with an address <= codeAddress
+        int low = 0;
+        int high = lineTable.length / 2 - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (lineTable[mid * 2] <= codeAddress) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        if (found == -1) {
+            return -1;
+        }
+        return lineTable[found * 2 + 1];
+    }
+
+    private int[] buildLineTable() {
+        class LineTableBuilder extends DebugInstructionIterator.ProcessRawDebugInstructionDelegate {
+            public int[] lineTable = new int[16];
+            public int entryCount = 0;
+            private int codeAddress = 0;
+            private int line = lineStart;
+
+            @Override
+            public void ProcessAdvancePC(int startDebugOffset, int length, int codeAddressDiff) {
+                codeAddress += codeAddressDiff;
+            }
+
+            @Override
+            public void ProcessAdvanceLine(int startDebugOffset, int length, int lineDiff) {
+                line += lineDiff;
+            }
+
+            @Override
+            public void ProcessSpecialOpcode(int startDebugOffset, int debugOpcode, int lineDiff,
+                                             int codeAddressDiff) {
+                codeAddress += codeAddressDiff;
+                line += lineDiff;
+
+                if (entryCount * 2 == lineTable.length) {
+                    int[] newLineTable = new int[lineTable.length * 2];
+                    System.arraycopy(lineTable, 0, newLineTable, 0, lineTable.length);
+                    lineTable = newLineTable;
+                }
+                lineTable[entryCount * 2] = codeAddress;
+                lineTable[entryCount * 2 + 1] = line;
+                entryCount++;
+            }
+        }
+
+        LineTableBuilder lineTableBuilder = new LineTableBuilder();
+        try {
+            DebugInstructionIterator.IterateInstructions(new ByteArrayInput(encodedDebugInfo), lineTableBuilder);
+        } catch (Exception ex) {
+            throw this.addExceptionContext(ex);
+        }
+
+        int[] lineTable = new int[lineTableBuilder.entryCount * 2];
+        System.arraycopy(lineTableBuilder.lineTable, 0, lineTable, 0, lineTable.length);
+        return lineTable;
+    }
+
     /**
      * @return an array of the names of the associated method's parameters. The array can be null if no parameter info
      * is available, or any element can be null to indicate no info for that parameter
@@ -28,17 +28,15 @@
 
 package org.jf.dexlib;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.Adler32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -50,6 +48,7 @@ import org.jf.dexlib.Util.ExceptionWithContext;
 import org.jf.dexlib.Util.FileUtils;
 import org.jf.dexlib.Util.Hex;
 import org.jf.dexlib.Util.Input;
+import org.jf.dexlib.Util.Metrics;
 
 /**
  * <h3>Main use cases</h3>
@@ -292,109 +291,300 @@ public class DexFile
             throws IOException {
         this(preserveSignedRegisters, skipInstructions);
 
-        long fileLength;
         byte[] magic = FileUtils.readFile(file, 0, 8);
 
-        InputStream inputStream = null;
-        Input in = null;
-        ZipFile zipFile = null;
+        byte[] bytes;
+        String name;
 
-        try {
-            //do we have a zip file?
-            if (magic[0] == 0x50 && magic[1] == 0x4B) {
-                zipFile = new ZipFile(file);
+        //do we have a zip file?
+        if (magic[0] == 0x50 && magic[1] == 0x4B) {
+            ZipFile zipFile = new ZipFile(file);
+            try {
                 ZipEntry zipEntry = zipFile.getEntry("classes.dex");
                 if (zipEntry == null) {
                     throw new NoClassesDexException("zip file " + file.getName() + " does not contain a classes.dex " +
                             "file");
                 }
-                fileLength = zipEntry.getSize();
-                if (fileLength < 40) {
-                    throw new RuntimeException("The classes.dex file in " + file.getName() + " is too small to be a" +
-                            " valid dex file");
-                } else if (fileLength > Integer.MAX_VALUE) {
-                    throw new RuntimeException("The classes.dex file in " + file.getName() + " is too large to read in");
-                }
-                inputStream = new BufferedInputStream(zipFile.getInputStream(zipEntry));
+                name = "The classes.dex file in " + file.getName();
+                bytes = readZipEntry(zipFile, zipEntry, name);
+            } finally {
+                zipFile.close();
+            }
+        } else {
+            name = file.getName();
+            if (file.length() > Integer.MAX_VALUE) {
+                throw new RuntimeException(name + " is too large to read in");
+            }
+            bytes = FileUtils.readFile(file);
+        }
 
-                inputStream.mark(8);
-                for (int i=0; i<8; i++) {
-                    magic[i] = (byte)inputStream.read();
-                }
-                inputStream.reset();
-            } else {
-                fileLength = file.length();
-                if (fileLength < 40) {
-                    throw new RuntimeException(file.getName() + " is too small to be a valid dex file");
-                }
-                if (fileLength < 40) {
-                    throw new RuntimeException(file.getName() + " is too small to be a valid dex file");
-                } else if (fileLength > Integer.MAX_VALUE) {
-                    throw new RuntimeException(file.getName() + " is too large to read in");
-                }
-                inputStream = new FileInputStream(file);
+        readFrom(bytes, name);
+    }
+
+    /**
+     * Construct a new DexFile instance by reading in the given dex or odex file contents,
+     * and optionally keep track of any registers in the debug information that are signed,
+     * so they will be written in the same format.
+     * @param bytes The contents of the dex or odex file. The strings are decoded from this array when they are
+     * needed, so it must not be modified afterwards
+     * @param preserveSignedRegisters If true, keep track of any registers in the debug information
+     * that are signed, so they will be written in the same format.
+     * @param skipInstructions If true, skip the instructions in any code item.
+     * @see #getPreserveSignedRegisters
+     */
+    public DexFile(byte[] bytes, boolean preserveSignedRegisters, boolean skipInstructions) {
+        this(preserveSignedRegisters, skipInstructions);
+
+        readFrom(bytes, "The dex file");
+    }
+
+    /**
+     * Reads in all the dex files in the given file. If the file is a zip file (i.e. an apk or jar), each of the
+     * classes.dex, classes2.dex, classes3.dex, etc. entries is read in, otherwise the file itself is read in as a
+     * single dex or odex file.
+     *
+     * The zip file is only opened once, and if there are multiple dex entries, they are inflated and read in in
+     * parallel, on a thread pool with a thread per processor that is created for this call.
+     * @param file The dex, odex or zip file to read in
+     * @param preserveSignedRegisters If true, keep track of any registers in the debug information
+     * that are signed, so they will be written in the same format.
+     * @param skipInstructions If true, skip the instructions in any code item.
+     * @return a list of the <code>DexFile</code>s, in the order classes.dex, classes2.dex, etc.
+     * @throws IOException if an IOException occurs
+     */
+    public static List<DexFile> readDexFiles(File file, boolean preserveSignedRegisters, boolean skipInstructions)
+            throws IOException {
+        return readDexFiles(file, preserveSignedRegisters, skipInstructions, null, true);
+    }
+
+    /**
+     * Reads in all the dex files in the given file, like <code>readDexFiles(File, boolean, boolean)</code>, but
+     * reads the dex entries of a zip file on the given executor instead of creating a thread pool.
+     *
+     * The calling thread waits for the entries to be read, so the executor must not be one whose threads could all
+     * be waiting in this method. When this is called from a task of a bounded thread pool, pass null instead.
+     * @param file The dex, odex or zip file to read in
+     * @param preserveSignedRegisters If true, keep track of any registers in the debug information
+     * that are signed, so they will be written in the same format.
+     * @param skipInstructions If true, skip the instructions in any code item.
+     * @param executor The executor to read the dex entries on, or null to read them one at a time on the calling
+     * thread
+     * @return a list of the <code>DexFile</code>s, in the order classes.dex, classes2.dex, etc.
+     * @throws IOException if an IOException occurs
+     */
+    public static List<DexFile> readDexFiles(File file, boolean preserveSignedRegisters, boolean skipInstructions,
+                                             ExecutorService executor)
+            throws IOException {
+        return readDexFiles(file, preserveSignedRegisters, skipInstructions, executor, false);
+    }
+
+    private static List<DexFile> readDexFiles(File file, final boolean preserveSignedRegisters,
+                                              final boolean skipInstructions, ExecutorService executor,
+                                              boolean createExecutor)
+            throws IOException {
+        byte[] magic = FileUtils.readFile(file, 0, 8);
+        if (magic[0] != 0x50 || magic[1] != 0x4B) {
+            List<DexFile> dexFiles = new ArrayList<DexFile>(1);
+            dexFiles.add(new DexFile(file, preserveSignedRegisters, skipInstructions));
+            return dexFiles;
+        }
+
+        final ZipFile zipFile = new ZipFile(file);
+        try {
+            List<ZipEntry> dexEntries = getDexEntries(zipFile);
+
+            if (dexEntries.size() == 0) {
+                throw new NoClassesDexException("zip file " + file.getName() + " does not contain a classes.dex " +
+                        "file");
             }
 
-            byte[] dexMagic, odexMagic;
-            boolean isDex = false;
-            this.isOdex = false;
+            final String fileName = file.getName();
 
-            for (int i=0; i<HeaderItem.MAGIC_VALUES.length; i++) {
-                byte[] magic_value = HeaderItem.MAGIC_VALUES[i];
-                if (Arrays.equals(magic, magic_value)) {
-                    isDex = true;
-                    break;
+            List<DexFile> dexFiles = new ArrayList<DexFile>(dexEntries.size());
+            if (dexEntries.size() == 1 || (executor == null && !createExecutor)) {
+                for (ZipEntry zipEntry: dexEntries) {
+                    dexFiles.add(readZipDexEntry(zipFile, zipEntry, fileName, preserveSignedRegisters,
+                            skipInstructions));
                 }
+                return dexFiles;
+            }
+
+            List<Callable<DexFile>> tasks = new ArrayList<Callable<DexFile>>(dexEntries.size());
+            for (final ZipEntry zipEntry: dexEntries) {
+                tasks.add(new Callable<DexFile>() {
+                    public DexFile call() throws IOException {
+                        return readZipDexEntry(zipFile, zipEntry, fileName, preserveSignedRegisters,
+                                skipInstructions);
+                    }
+                });
             }
-            if (!isDex) {
-                if (Arrays.equals(magic, OdexHeader.MAGIC_35)) {
-                    isOdex = true;
-                } else if (Arrays.equals(magic, OdexHeader.MAGIC_36)) {
-                    isOdex = true;
+
+            if (createExecutor) {
+                executor = Executors.newFixedThreadPool(
+                        Math.min(Runtime.getRuntime().availableProcessors(), tasks.size()));
+            }
+            try {
+                for (Future<DexFile> future: executor.invokeAll(tasks)) {
+                    try {
+                        dexFiles.add(future.get());
+                    } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        if (cause instanceof IOException) {
+                            throw (IOException)cause;
+                        }
+                        throw ExceptionWithContext.withContext(cause, "Error while reading " + fileName);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                throw ExceptionWithContext.withContext(ex, "Interrupted while reading " + fileName);
+            } finally {
+                if (createExecutor) {
+                    executor.shutdown();
                 }
             }
+            return dexFiles;
+        } finally {
+            zipFile.close();
+        }
+    }
 
-            if (isOdex) {
-                byte[] odexHeaderBytes = FileUtils.readStream(inputStream, 40);
-                Input odexHeaderIn = new ByteArrayInput(odexHeaderBytes);
-                odexHeader = new OdexHeader(odexHeaderIn);
+    /**
+     * Gets the dex entries of the given zip file, using the same naming scheme as the platform: classes.dex,
+     * followed by classes2.dex, classes3.dex, etc. up until the first missing entry. Any other entries, like
+     * classes1.dex or classes02.dex, aren't dex entries
+     */
+    private static List<ZipEntry> getDexEntries(ZipFile zipFile) {
+        List<ZipEntry> dexEntries = new ArrayList<ZipEntry>();
 
-                int dependencySkip = odexHeader.depsOffset - odexHeader.dexOffset - odexHeader.dexLength;
-                if (dependencySkip < 0) {
-                    throw new ExceptionWithContext("Unexpected placement of the odex dependency data");
-                }
+        ZipEntry zipEntry = zipFile.getEntry("classes.dex");
+        while (zipEntry != null) {
+            dexEntries.add(zipEntry);
+            zipEntry = zipFile.getEntry("classes" + (dexEntries.size() + 1) + ".dex");
+        }
+        return dexEntries;
+    }
 
-                if (odexHeader.dexOffset > 40) {
-                    FileUtils.readStream(inputStream, odexHeader.dexOffset - 40);
-                }
+    private static DexFile readZipDexEntry(ZipFile zipFile, ZipEntry zipEntry, String fileName,
+                                           boolean preserveSignedRegisters, boolean skipInstructions)
+            throws IOException {
+        String name = "The " + zipEntry.getName() + " file in " + fileName;
+        byte[] bytes = readZipEntry(zipFile, zipEntry, name);
 
-                in = new ByteArrayInput(FileUtils.readStream(inputStream, odexHeader.dexLength));
+        DexFile dexFile = new DexFile(preserveSignedRegisters, skipInstructions);
+        dexFile.readFrom(bytes, name);
+        return dexFile;
+    }
 
-                if (dependencySkip > 0) {
-                    FileUtils.readStream(inputStream, dependencySkip);
-                }
+    /**
+     * Reads the contents of the given zip entry into an array of exactly the right size
+     */
+    private static byte[] readZipEntry(ZipFile zipFile, ZipEntry zipEntry, String name)
+            throws IOException {
+        long entryLength = zipEntry.getSize();
+        if (entryLength > Integer.MAX_VALUE) {
+            throw new RuntimeException(name + " is too large to read in");
+        }
 
-                odexDependencies = new OdexDependencies(
-                        new ByteArrayInput(FileUtils.readStream(inputStream, odexHeader.depsLength)));
-            } else if (isDex) {
-                in = new ByteArrayInput(FileUtils.readStream(inputStream, (int)fileLength));
-            } else {
-                StringBuffer sb = new StringBuffer("bad magic value:");
-                for (int i=0; i<8; i++) {
-                    sb.append(" ");
-                    sb.append(Hex.u1(magic[i]));
-                }
-                throw new RuntimeException(sb.toString());
+        InputStream inputStream = zipFile.getInputStream(zipEntry);
+        try {
+            if (entryLength >= 0) {
+                return FileUtils.readStream(inputStream, (int)entryLength);
+            }
+
+            //the size isn't known ahead of time
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, read);
             }
+            return outputStream.toByteArray();
         } finally {
-            if (inputStream != null) {
-                inputStream.close();
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Reads in the given dex or odex file contents
+     * @param bytes the contents of the dex or odex file
+     * @param name a description of the file, for error messages
+     */
+    private void readFrom(byte[] bytes, String name) {
+        if (bytes.length < 40) {
+            throw new RuntimeException(name + " is too small to be a valid dex file");
+        }
+
+        byte[] magic = new byte[8];
+        System.arraycopy(bytes, 0, magic, 0, 8);
+
+        boolean isDex = false;
+        this.isOdex = false;
+
+        for (int i=0; i<HeaderItem.MAGIC_VALUES.length; i++) {
+            byte[] magic_value = HeaderItem.MAGIC_VALUES[i];
+            if (Arrays.equals(magic, magic_value)) {
+                isDex = true;
+                break;
             }
-            if (zipFile != null) {
-                zipFile.close();
+        }
+        if (!isDex) {
+            if (Arrays.equals(magic, OdexHeader.MAGIC_35)) {
+                isOdex = true;
+            } else if (Arrays.equals(magic, OdexHeader.MAGIC_36)) {
+                isOdex = true;
+            }
+        }
+
+        Input in;
+        if (isOdex) {
+            odexHeader = new OdexHeader(new ByteArrayInput(bytes));
+
+            if (odexHeader.depsOffset - odexHeader.dexOffset - odexHeader.dexLength < 0) {
+                throw new ExceptionWithContext("Unexpected placement of the odex dependency data");
+            }
+
+            in = new ByteArrayInput(copyOfRange(bytes, odexHeader.dexOffset, odexHeader.dexLength, name));
+
+            odexDependencies = new OdexDependencies(new ByteArrayInput(
+                    copyOfRange(bytes, odexHeader.depsOffset, odexHeader.depsLength, name)));
+        } else if (isDex) {
+            in = new ByteArrayInput(bytes);
+        } else {
+            StringBuffer sb = new StringBuffer("bad magic value:");
+            for (int i=0; i<8; i++) {
+                sb.append(" ");
+                sb.append(Hex.u1(magic[i]));
             }
+            throw new RuntimeException(sb.toString());
         }
 
+        readFrom(in);
+    }
+
+    private static byte[] copyOfRange(byte[] bytes, int offset, int length, String name) {
+        if (offset < 0 || length < 0 || offset + length > bytes.length) {
+            throw new RuntimeException(name + " is truncated");
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(bytes, offset, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Reads in the sections of the dex file
+     * @param in the <code>Input</code> containing the dex file
+     */
+    private void readFrom(Input in) {
+        Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.DEX_PARSING);
+        try {
+            readSections(in);
+        } finally {
+            Metrics.endPhase(timer);
+        }
+        Metrics.count(Metrics.Counter.DEX_FILES);
+    }
+
+    private void readSections(Input in) {
         ReadContext readContext = new ReadContext();
 
         HeaderItem.readFrom(in, 0, readContext);
@@ -470,6 +660,28 @@ public class DexFile
         return sectionsByType[itemType.SectionIndex];
     }
 
+    /**
+     * Gets a summary of the intern table statistics for each section in this dex file that has built an
+     * intern table
+     * @return a summary of the intern table statistics, with one line per section
+     */
+    public String getInternStatistics() {
+        StringBuilder sb = new StringBuilder();
+        for (Section section: sectionsByType) {
+            if (section == null) {
+                continue;
+            }
+            String statistics = section.getInternStatistics();
+            if (statistics != null) {
+                sb.append(section.ItemType.TypeName);
+                sb.append(": ");
+                sb.append(statistics);
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
     /**
      * Get a boolean value indicating whether this dex file preserved any signed
      * registers in the debug info as it read the dex file in. By default, the dex file
@@ -638,6 +850,26 @@ public class DexFile
         return sections;
     }
 
+    /**
+     * The instructions, annotations, encoded arrays and debug info of the items that were read from a dex file are
+     * only decoded when they are first needed, and they refer to other items by their index in the file that was
+     * read. So they have to be decoded before the indexed sections are sorted, in case that changes the indexes
+     */
+    private void decodeLazyItems() {
+        for (CodeItem codeItem: CodeItemsSection.getItems()) {
+            codeItem.getInstructions();
+        }
+        for (DebugInfoItem debugInfoItem: DebugInfoItemsSection.getItems()) {
+            debugInfoItem.getReferencedItems();
+        }
+        for (AnnotationItem annotationItem: AnnotationsSection.getItems()) {
+            annotationItem.getEncodedAnnotation();
+        }
+        for (EncodedArrayItem encodedArrayItem: EncodedArraysSection.getItems()) {
+            encodedArrayItem.getEncodedArray();
+        }
+    }
+
     /**
      * This method should be called before writing a dex file. It sorts the sections
      * as needed or as indicated by <code>getSortAllItems()</code> and <code>getInplace()</code>,
@@ -648,6 +880,10 @@ public class DexFile
      * offsetted items are available when writing references to those items elsewhere.
      */
     public void place() {
+        if (!this.inplace) {
+            decodeLazyItems();
+        }
+
         int offset = HeaderItem.placeAt(0, 0);
 
         int sectionsPosition = 0;
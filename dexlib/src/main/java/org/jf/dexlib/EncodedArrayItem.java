@@ -29,13 +29,20 @@
 package org.jf.dexlib;
 
 import org.jf.dexlib.EncodedValue.ArrayEncodedSubValue;
+import org.jf.dexlib.EncodedValue.EncodedValue;
 import org.jf.dexlib.Util.AnnotatedOutput;
+import org.jf.dexlib.Util.ByteArrayInput;
 import org.jf.dexlib.Util.Input;
 
 public class EncodedArrayItem extends Item<EncodedArrayItem> {
     private int hashCode = 0;
 
-    private ArrayEncodedSubValue encodedArray;
+    private volatile ArrayEncodedSubValue encodedArray;
+    /**
+     * The encoded array that was read from the dex file. This is only decoded into an
+     * <code>ArrayEncodedSubValue</code> when it is first needed
+     */
+    private byte[] encodedArrayBytes;
 
     /**
      * Creates a new uninitialized <code>EncodedArrayItem</code>
@@ -69,17 +76,22 @@ public class EncodedArrayItem extends Item<EncodedArrayItem> {
 
     /** {@inheritDoc} */
     protected void readItem(Input in, ReadContext readContext) {
-        encodedArray = new ArrayEncodedSubValue(dexFile, in);
+        int start = in.getCursor();
+        EncodedValue.skipEncodedArray(in);
+        int length = in.getCursor() - start;
+        in.setCursor(start);
+        encodedArrayBytes = in.readBytes(length);
+        encodedArray = null;
     }
 
     /** {@inheritDoc} */
     protected int placeItem(int offset) {
-        return encodedArray.placeValue(offset);
+        return getEncodedArray().placeValue(offset);
     }
 
     /** {@inheritDoc} */
     protected void writeItem(AnnotatedOutput out) {
-        encodedArray.writeValue(out);
+        getEncodedArray().writeValue(out);
     }
 
     /** {@inheritDoc} */
@@ -94,13 +106,31 @@ public class EncodedArrayItem extends Item<EncodedArrayItem> {
 
     /** {@inheritDoc} */
     public int compareTo(EncodedArrayItem encodedArrayItem) {
-        return encodedArray.compareTo(encodedArrayItem.encodedArray);
+        return getEncodedArray().compareTo(encodedArrayItem.getEncodedArray());
     }
 
     /**
-     * @return The encoded array value
+     * @return The encoded array value. For an encoded array that was read from a dex file, the value is decoded the
+     * first time this is called
      */
     public ArrayEncodedSubValue getEncodedArray() {
+        ArrayEncodedSubValue encodedArray = this.encodedArray;
+        if (encodedArray == null) {
+            encodedArray = decodeEncodedArray();
+        }
+        return encodedArray;
+    }
+
+    private synchronized ArrayEncodedSubValue decodeEncodedArray() {
+        if (encodedArray != null) {
+            return encodedArray;
+        }
+
+        try {
+            encodedArray = new ArrayEncodedSubValue(dexFile, new ByteArrayInput(encodedArrayBytes));
+        } catch (Exception ex) {
+            throw this.addExceptionContext(ex);
+        }
         return encodedArray;
     }
 
@@ -108,7 +138,7 @@ public class EncodedArrayItem extends Item<EncodedArrayItem> {
      * calculate and cache the hashcode
      */
     private void calcHashCode() {
-        hashCode = encodedArray.hashCode();
+        hashCode = getEncodedArray().hashCode();
     }
 
     @Override
@@ -130,6 +160,6 @@ public class EncodedArrayItem extends Item<EncodedArrayItem> {
         }
 
         EncodedArrayItem other = (EncodedArrayItem)o;
-        return (encodedArray.compareTo(other.encodedArray) == 0);
+        return (getEncodedArray().compareTo(other.getEncodedArray()) == 0);
     }
 }
@@ -29,10 +29,20 @@
 package org.jf.dexlib.EncodedValue;
 
 import org.jf.dexlib.Util.AnnotatedOutput;
-import org.jf.dexlib.Util.EncodedValueUtils;
 import org.jf.dexlib.Util.Input;
 
 public class ByteEncodedValue extends EncodedValue {
+    /**
+     * The shared value for each possible byte value, indexed by value + 128. These are used when reading values in,
+     * since byte values are often repeated
+     */
+    private static final ByteEncodedValue[] byteValues = new ByteEncodedValue[256];
+    static {
+        for (int i=0; i<byteValues.length; i++) {
+            byteValues[i] = new ByteEncodedValue((byte)(i - 128));
+        }
+    }
+
     public final byte value;
 
     /**
@@ -41,7 +51,17 @@ public class ByteEncodedValue extends EncodedValue {
      * @param in The <code>Input</code> object to read from
      */
     protected ByteEncodedValue(Input in) {
-        value = (byte)EncodedValueUtils.decodeSignedIntegralValue(in.readBytes(1));
+        value = in.readByte();
+    }
+
+    /**
+     * Reads a value from the given <code>Input</code> object, and returns the shared <code>ByteEncodedValue</code>
+     * for it. The <code>Input</code>'s cursor should be set to the 2nd byte of the encoded value
+     * @param in The <code>Input</code> object to read from
+     * @return the shared <code>ByteEncodedValue</code> for the value that was read
+     */
+    protected static ByteEncodedValue readByteEncodedValue(Input in) {
+        return byteValues[in.readByte() + 128];
     }
 
     /**
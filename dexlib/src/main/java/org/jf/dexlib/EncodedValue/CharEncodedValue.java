@@ -43,7 +43,7 @@ public class CharEncodedValue extends EncodedValue {
      * @param valueArg The high 3 bits of the first byte of this encoded value
      */
     protected CharEncodedValue(Input in, byte valueArg) {
-        value = (char)EncodedValueUtils.decodeUnsignedIntegralValue(in.readBytes(valueArg+1));
+        value = (char)EncodedValueUtils.readUnsignedIntegralValue(in, valueArg+1);
     }
 
     /**
@@ -43,7 +43,7 @@ public class DoubleEncodedValue extends EncodedValue {
      * @param valueArg The high 3 bits of the first byte of this encoded value
      */
     protected DoubleEncodedValue(Input in, byte valueArg) {
-        long longValue = EncodedValueUtils.decodeRightZeroExtendedValue(in.readBytes(valueArg + 1));
+        long longValue = EncodedValueUtils.readRightZeroExtendedValue(in, valueArg + 1);
         value = Double.longBitsToDouble(longValue);
     }
 
@@ -48,19 +48,19 @@ public abstract class EncodedValue implements Comparable<EncodedValue> {
 
 
     public static EncodedValue readEncodedValue(DexFile dexFile, Input in) {
-        Byte b = in.readByte();
+        byte b = in.readByte();
         ValueType valueType = ValueType.fromByte((byte)(b & 0x1f));
         byte valueArg = (byte)((b & 0xFF) >> 5);
 
         switch (valueType) {
             case VALUE_BYTE:
-                return new ByteEncodedValue(in);
+                return ByteEncodedValue.readByteEncodedValue(in);
             case VALUE_SHORT:
                 return new ShortEncodedValue(in, valueArg);
             case VALUE_CHAR:
                 return new CharEncodedValue(in, valueArg);
             case VALUE_INT:
-                return new IntEncodedValue(in, valueArg);
+                return IntEncodedValue.readIntEncodedValue(in, valueArg);
             case VALUE_LONG:
                 return new LongEncodedValue(in, valueArg);
             case VALUE_FLOAT:
@@ -89,6 +89,68 @@ public abstract class EncodedValue implements Comparable<EncodedValue> {
         return null;
     }
 
+    /**
+     * Skips over an encoded value, without creating any objects for it. The <code>Input</code>'s cursor should be set
+     * to the first byte of the encoded value, and is left at the byte immediately after it
+     * @param in The <code>Input</code> object to read from
+     */
+    public static void skipEncodedValue(Input in) {
+        byte b = in.readByte();
+        ValueType valueType = ValueType.fromByte((byte)(b & 0x1f));
+        int valueArg = (b & 0xFF) >> 5;
+
+        switch (valueType) {
+            case VALUE_BYTE:
+                in.skipBytes(1);
+                return;
+            case VALUE_SHORT:
+            case VALUE_CHAR:
+            case VALUE_INT:
+            case VALUE_LONG:
+            case VALUE_FLOAT:
+            case VALUE_DOUBLE:
+            case VALUE_STRING:
+            case VALUE_TYPE:
+            case VALUE_FIELD:
+            case VALUE_METHOD:
+            case VALUE_ENUM:
+                in.skipBytes(valueArg + 1);
+                return;
+            case VALUE_ARRAY:
+                skipEncodedArray(in);
+                return;
+            case VALUE_ANNOTATION:
+                skipEncodedAnnotation(in);
+                return;
+        }
+    }
+
+    /**
+     * Skips over the contents of an encoded array, i.e. an encoded array value without the initial
+     * valueType/valueArg byte
+     * @param in The <code>Input</code> object to read from
+     */
+    public static void skipEncodedArray(Input in) {
+        int size = in.readUnsignedLeb128();
+        for (int i=0; i<size; i++) {
+            skipEncodedValue(in);
+        }
+    }
+
+    /**
+     * Skips over the contents of an encoded annotation, i.e. an encoded annotation value without the initial
+     * valueType/valueArg byte
+     * @param in The <code>Input</code> object to read from
+     */
+    public static void skipEncodedAnnotation(Input in) {
+        in.readUnsignedLeb128();
+        int size = in.readUnsignedLeb128();
+        for (int i=0; i<size; i++) {
+            in.readUnsignedLeb128();
+            skipEncodedValue(in);
+        }
+    }
+
     /** {@inheritDoc} */
     public int compareTo(EncodedValue o) {
         int comp = getValueType().compareTo(o.getValueType());
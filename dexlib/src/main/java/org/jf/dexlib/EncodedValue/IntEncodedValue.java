@@ -33,6 +33,17 @@ import org.jf.dexlib.Util.EncodedValueUtils;
 import org.jf.dexlib.Util.Input;
 
 public class IntEncodedValue extends EncodedValue {
+    /**
+     * The shared values for -128 to 127, indexed by value + 128. These are used when reading values in, since small
+     * int values make up most of the int values in annotations and static field initializers
+     */
+    private static final IntEncodedValue[] smallIntValues = new IntEncodedValue[256];
+    static {
+        for (int i=0; i<smallIntValues.length; i++) {
+            smallIntValues[i] = new IntEncodedValue(i - 128);
+        }
+    }
+
     public final int value;
 
     /**
@@ -43,7 +54,23 @@ public class IntEncodedValue extends EncodedValue {
      * @param valueArg The high 3 bits of the first byte of this encoded value
      */
     protected IntEncodedValue(Input in, byte valueArg) {
-        value = (int)EncodedValueUtils.decodeSignedIntegralValue(in.readBytes(valueArg+1));
+        value = (int)EncodedValueUtils.readSignedIntegralValue(in, valueArg+1);
+    }
+
+    /**
+     * Reads a value from the given <code>Input</code> object, and returns an <code>IntEncodedValue</code> for it. The
+     * shared instance is returned for small values. The <code>Input</code>'s cursor should be set to the 2nd byte of
+     * the encoded value, and the high 3 bits of the first byte should be passed as the valueArg parameter
+     * @param in The <code>Input</code> object to read from
+     * @param valueArg The high 3 bits of the first byte of this encoded value
+     * @return an <code>IntEncodedValue</code> for the value that was read
+     */
+    protected static IntEncodedValue readIntEncodedValue(Input in, byte valueArg) {
+        int value = (int)EncodedValueUtils.readSignedIntegralValue(in, valueArg+1);
+        if (value >= -128 && value < 128) {
+            return smallIntValues[value + 128];
+        }
+        return new IntEncodedValue(value);
     }
 
     /**
@@ -43,7 +43,7 @@ public class LongEncodedValue extends EncodedValue {
      * @param valueArg The high 3 bits of the first byte of this encoded value
      */
     protected LongEncodedValue(Input in, byte valueArg) {
-        value = EncodedValueUtils.decodeSignedIntegralValue(in.readBytes(valueArg+1));
+        value = EncodedValueUtils.readSignedIntegralValue(in, valueArg+1);
     }
 
     /**
@@ -46,7 +46,7 @@ public class MethodEncodedValue extends EncodedValue {
      * @param valueArg The high 3 bits of the first byte of this encoded value
      */
     protected MethodEncodedValue(DexFile dexFile, Input in, byte valueArg) {
-        int index = (int) EncodedValueUtils.decodeUnsignedIntegralValue(in.readBytes(valueArg+1));
+        int index = (int) EncodedValueUtils.readUnsignedIntegralValue(in, valueArg+1);
         value = dexFile.MethodIdsSection.getItemByIndex(index);
     }
 
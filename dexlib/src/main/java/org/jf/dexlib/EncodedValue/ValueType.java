@@ -28,8 +28,6 @@
 
 package org.jf.dexlib.EncodedValue;
 
-import org.jf.dexlib.Util.SparseArray;
-
 public enum ValueType {
 
     VALUE_BYTE((byte) 0x00),
@@ -50,16 +48,17 @@ public enum ValueType {
     VALUE_BOOLEAN((byte) 0x1f);
 
     /**
-     * A map to facilitate looking up a <code>ValueType</code> by byte value
+     * A table to facilitate looking up a <code>ValueType</code> by byte value. The value type is only 5 bits, so
+     * this is indexed directly by the byte value
      */
-    private final static SparseArray<ValueType> valueTypeIntegerMap;
+    private final static ValueType[] valueTypesByValue;
 
     static {
-        /** build the <code>valueTypeIntegerMap</code> object */
-        valueTypeIntegerMap = new SparseArray<ValueType>(16);
+        /** build the <code>valueTypesByValue</code> table */
+        valueTypesByValue = new ValueType[0x20];
 
         for (ValueType valueType : ValueType.values()) {
-            valueTypeIntegerMap.put(valueType.value, valueType);
+            valueTypesByValue[valueType.value] = valueType;
         }
     }
 
@@ -81,6 +80,9 @@ public enum ValueType {
      *         if not a valid ValueType value
      */
     public static ValueType fromByte(byte valueType) {
-        return valueTypeIntegerMap.get(valueType);
+        if (valueType < 0 || valueType >= valueTypesByValue.length) {
+            return null;
+        }
+        return valueTypesByValue[valueType];
     }
 }
\ No newline at end of file
@@ -77,8 +77,11 @@ public class FieldIdItem extends Item<FieldIdItem> {
      */
     public static FieldIdItem internFieldIdItem(DexFile dexFile, TypeIdItem classType, TypeIdItem fieldType,
                                               StringIdItem fieldName) {
-        FieldIdItem fieldIdItem = new FieldIdItem(dexFile, classType, fieldType, fieldName);
-        return dexFile.FieldIdsSection.intern(fieldIdItem);
+        FieldIdItem fieldIdItem = lookupFieldIdItem(dexFile, classType, fieldType, fieldName);
+        if (fieldIdItem != null) {
+            return fieldIdItem;
+        }
+        return dexFile.FieldIdsSection.intern(new FieldIdItem(dexFile, classType, fieldType, fieldName));
     }
 
     /**
@@ -93,10 +96,19 @@ public class FieldIdItem extends Item<FieldIdItem> {
      */
     public static FieldIdItem lookupFieldIdItem(DexFile dexFile, TypeIdItem classType, TypeIdItem fieldType,
                                               StringIdItem fieldName) {
-        FieldIdItem fieldIdItem = new FieldIdItem(dexFile, classType, fieldType, fieldName);
-        return dexFile.FieldIdsSection.getInternedItem(fieldIdItem);
+        return dexFile.FieldIdsSection.getInternedItem(calcHashCode(classType, fieldType, fieldName), KEY_MATCHER,
+                classType, fieldType, fieldName);
     }
 
+    private static final InternTable.KeyMatcher<FieldIdItem> KEY_MATCHER =
+            new InternTable.KeyMatcher<FieldIdItem>() {
+        public boolean matches(FieldIdItem item, Object classType, Object fieldType, Object fieldName) {
+            return item.classType == classType &&
+                   item.fieldType == fieldType &&
+                   item.fieldName == fieldName;
+        }
+    };
+
     /** {@inheritDoc} */
     protected void readItem(Input in, ReadContext readContext) {
         classType = dexFile.TypeIdsSection.getItemByIndex(in.readShort());
@@ -205,9 +217,13 @@ public class FieldIdItem extends Item<FieldIdItem> {
      * calculate and cache the hashcode
      */
     private void calcHashCode() {
-        hashCode = classType.hashCode();
+        hashCode = calcHashCode(classType, fieldType, fieldName);
+    }
+
+    private static int calcHashCode(TypeIdItem classType, TypeIdItem fieldType, StringIdItem fieldName) {
+        int hashCode = classType.hashCode();
         hashCode = 31 * hashCode + fieldType.hashCode();
-        hashCode = 31 * hashCode + fieldName.hashCode();
+        return 31 * hashCode + fieldName.hashCode();
     }
 
     @Override
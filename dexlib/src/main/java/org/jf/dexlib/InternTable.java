@@ -0,0 +1,283 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.dexlib;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An open-addressing hash table that holds the interned items of a <code>Section</code>.
+ *
+ * In addition to the usual item based lookup, items can be looked up by a key of up to 3 components
+ * (e.g. a string, or a class type/prototype/name triple) together with a <code>KeyMatcher</code> for the item
+ * type. This avoids having to create a throwaway "probe" item for every lookup.
+ *
+ * The hash that is passed in for a key based lookup must be the same value that <code>hashCode()</code> would
+ * return for an item with the same key.
+ *
+ * The lookup statistics are only collected after <code>setCollectStatistics(true)</code> has been called, so that
+ * lookups don't have to update shared counters otherwise.
+ */
+public class InternTable<T extends Item> {
+    private static final int MIN_CAPACITY = 16;
+
+    private static volatile boolean collectStatistics = false;
+
+    private Item[] items;
+    private int[] hashes;
+    private int size = 0;
+    private int threshold;
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong probes = new AtomicLong();
+    private final AtomicInteger maxProbeLength = new AtomicInteger();
+    private int resizes = 0;
+
+    /**
+     * @return true if the lookup statistics are being collected
+     */
+    public static boolean isCollectingStatistics() {
+        return collectStatistics;
+    }
+
+    /**
+     * Enables or disables the collection of lookup statistics for all intern tables
+     * @param collectStatistics whether to collect the lookup statistics
+     */
+    public static void setCollectStatistics(boolean collectStatistics) {
+        InternTable.collectStatistics = collectStatistics;
+    }
+
+    /**
+     * Creates a new <code>InternTable</code> that can hold the given number of items without having to grow
+     * @param expectedSize the number of items that this table is expected to hold
+     */
+    public InternTable(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 <= expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        items = new Item[capacity];
+        hashes = new int[capacity];
+        threshold = capacity * 3 / 4;
+    }
+
+    /**
+     * Mixes the bits of the hash code (using the murmur3 finalizer), so that similar hash codes don't end up in
+     * adjacent slots. Linear probing degrades quickly when that happens
+     */
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Gets the item that is equal to the given item, or null if there is no such item
+     * @param item the item to look up
+     * @return the item that is equal to the given item, or null
+     */
+    public T get(T item) {
+        int hash = item.hashCode();
+        int mask = items.length - 1;
+        int slot = spread(hash) & mask;
+        int probeLength = 0;
+
+        while (true) {
+            Item current = items[slot];
+            if (current == null) {
+                recordProbeLength(probeLength);
+                return null;
+            }
+            if (hashes[slot] == hash && current.equals(item)) {
+                recordProbeLength(probeLength);
+                return (T)current;
+            }
+            slot = (slot + 1) & mask;
+            probeLength++;
+        }
+    }
+
+    /**
+     * Gets the item with the given key, or null if there is no such item
+     * @param hash the hash code of the key. This must be the same value that <code>hashCode()</code> returns
+     * for an item with this key
+     * @param matcher the <code>KeyMatcher</code> that compares an item against the key
+     * @param key1 the first key component
+     * @param key2 the second key component, or null if not used by the matcher
+     * @param key3 the third key component, or null if not used by the matcher
+     * @return the item with the given key, or null
+     */
+    public T get(int hash, KeyMatcher<T> matcher, Object key1, Object key2, Object key3) {
+        int mask = items.length - 1;
+        int slot = spread(hash) & mask;
+        int probeLength = 0;
+
+        while (true) {
+            Item current = items[slot];
+            if (current == null) {
+                recordProbeLength(probeLength);
+                return null;
+            }
+            if (hashes[slot] == hash && matcher.matches((T)current, key1, key2, key3)) {
+                recordProbeLength(probeLength);
+                return (T)current;
+            }
+            slot = (slot + 1) & mask;
+            probeLength++;
+        }
+    }
+
+    /**
+     * Adds the given item to the table. The caller is responsible for checking that an equal item isn't already
+     * present
+     * @param item the item to add
+     */
+    public void add(T item) {
+        if (size >= threshold) {
+            grow();
+        }
+        insert(item, item.hashCode());
+        size++;
+    }
+
+    private void insert(Item item, int hash) {
+        int mask = items.length - 1;
+        int slot = spread(hash) & mask;
+        while (items[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        items[slot] = item;
+        hashes[slot] = hash;
+    }
+
+    private void grow() {
+        Item[] oldItems = items;
+        int[] oldHashes = hashes;
+
+        allocate(oldItems.length << 1);
+        resizes++;
+
+        for (int i=0; i<oldItems.length; i++) {
+            if (oldItems[i] != null) {
+                insert(oldItems[i], oldHashes[i]);
+            }
+        }
+    }
+
+    private void recordProbeLength(int probeLength) {
+        if (!collectStatistics) {
+            return;
+        }
+
+        lookups.incrementAndGet();
+        probes.addAndGet(probeLength);
+        while (true) {
+            int currentMax = maxProbeLength.get();
+            if (probeLength <= currentMax || maxProbeLength.compareAndSet(currentMax, probeLength)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of items in this table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of slots in this table
+     */
+    public int getCapacity() {
+        return items.length;
+    }
+
+    /**
+     * @return the number of lookups that have been performed on this table while collecting statistics
+     */
+    public long getLookupCount() {
+        return lookups.get();
+    }
+
+    /**
+     * @return the average number of extra slots that had to be examined per lookup
+     */
+    public double getAverageProbeLength() {
+        long lookupCount = lookups.get();
+        if (lookupCount == 0) {
+            return 0;
+        }
+        return (double)probes.get() / lookupCount;
+    }
+
+    /**
+     * @return the largest number of extra slots that had to be examined by a single lookup
+     */
+    public int getMaxProbeLength() {
+        return maxProbeLength.get();
+    }
+
+    /**
+     * @return the number of times that this table had to grow
+     */
+    public int getResizeCount() {
+        return resizes;
+    }
+
+    /**
+     * @return a one line summary of the statistics for this table
+     */
+    public String getStatistics() {
+        return String.format("size: %d, capacity: %d, load: %.2f, lookups: %d, avg probe: %.3f, max probe: %d, " +
+                "resizes: %d", size, items.length, (double)size / items.length, lookups.get(),
+                getAverageProbeLength(), maxProbeLength.get(), resizes);
+    }
+
+    /**
+     * Compares an item against a lookup key
+     */
+    public static interface KeyMatcher<T extends Item> {
+        /**
+         * @param item the item to compare
+         * @param key1 the first key component
+         * @param key2 the second key component
+         * @param key3 the third key component
+         * @return true if the given item has the given key
+         */
+        boolean matches(T item, Object key1, Object key2, Object key3);
+    }
+}
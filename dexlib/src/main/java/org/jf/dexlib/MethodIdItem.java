@@ -72,8 +72,11 @@ public class MethodIdItem extends Item<MethodIdItem> {
      */
     public static MethodIdItem internMethodIdItem(DexFile dexFile, TypeIdItem classType,
                                                        ProtoIdItem methodPrototype, StringIdItem methodName) {
-        MethodIdItem methodIdItem = new MethodIdItem(dexFile, classType, methodPrototype, methodName);
-        return dexFile.MethodIdsSection.intern(methodIdItem);
+        MethodIdItem methodIdItem = lookupMethodIdItem(dexFile, classType, methodPrototype, methodName);
+        if (methodIdItem != null) {
+            return methodIdItem;
+        }
+        return dexFile.MethodIdsSection.intern(new MethodIdItem(dexFile, classType, methodPrototype, methodName));
     }
 
     /**
@@ -88,10 +91,19 @@ public class MethodIdItem extends Item<MethodIdItem> {
      */
     public static MethodIdItem lookupMethodIdItem(DexFile dexFile, TypeIdItem classType,
                                                        ProtoIdItem methodPrototype, StringIdItem methodName) {
-        MethodIdItem methodIdItem = new MethodIdItem(dexFile, classType, methodPrototype, methodName);
-        return dexFile.MethodIdsSection.getInternedItem(methodIdItem);
+        return dexFile.MethodIdsSection.getInternedItem(calcHashCode(classType, methodPrototype, methodName),
+                KEY_MATCHER, classType, methodPrototype, methodName);
     }
 
+    private static final InternTable.KeyMatcher<MethodIdItem> KEY_MATCHER =
+            new InternTable.KeyMatcher<MethodIdItem>() {
+        public boolean matches(MethodIdItem item, Object classType, Object methodPrototype, Object methodName) {
+            return item.classType == classType &&
+                   item.methodPrototype == methodPrototype &&
+                   item.methodName == methodName;
+        }
+    };
+
     /** {@inheritDoc} */
     protected void readItem(Input in, ReadContext readContext) {
         classType = dexFile.TypeIdsSection.getItemByIndex(in.readShort());
@@ -217,9 +229,13 @@ public class MethodIdItem extends Item<MethodIdItem> {
      * calculate and cache the hashcode
      */
     private void calcHashCode() {
-        hashCode = classType.hashCode();
+        hashCode = calcHashCode(classType, methodPrototype, methodName);
+    }
+
+    private static int calcHashCode(TypeIdItem classType, ProtoIdItem methodPrototype, StringIdItem methodName) {
+        int hashCode = classType.hashCode();
         hashCode = 31 * hashCode + methodPrototype.hashCode();
-        hashCode = 31 * hashCode + methodName.hashCode();
+        return 31 * hashCode + methodName.hashCode();
     }
 
     @Override
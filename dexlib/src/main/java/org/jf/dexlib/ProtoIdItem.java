@@ -74,8 +74,11 @@ public class ProtoIdItem extends Item<ProtoIdItem> {
      * the given <code>DexFile</code>
      */
     public static ProtoIdItem internProtoIdItem(DexFile dexFile, TypeIdItem returnType, TypeListItem parameters) {
-        ProtoIdItem protoIdItem = new ProtoIdItem(dexFile, returnType, parameters);
-        return dexFile.ProtoIdsSection.intern(protoIdItem);
+        ProtoIdItem protoIdItem = lookupProtoIdItem(dexFile, returnType, parameters);
+        if (protoIdItem != null) {
+            return protoIdItem;
+        }
+        return dexFile.ProtoIdsSection.intern(new ProtoIdItem(dexFile, returnType, parameters));
     }
 
     /**
@@ -88,10 +91,18 @@ public class ProtoIdItem extends Item<ProtoIdItem> {
      * values, or null if it doesn't exist
      */
     public static ProtoIdItem lookupProtoIdItem(DexFile dexFile, TypeIdItem returnType, TypeListItem parameters) {
-        ProtoIdItem protoIdItem = new ProtoIdItem(dexFile, returnType, parameters);
-        return dexFile.ProtoIdsSection.getInternedItem(protoIdItem);
+        return dexFile.ProtoIdsSection.getInternedItem(calcHashCode(returnType, parameters), KEY_MATCHER,
+                returnType, parameters, null);
     }
 
+    private static final InternTable.KeyMatcher<ProtoIdItem> KEY_MATCHER =
+            new InternTable.KeyMatcher<ProtoIdItem>() {
+        public boolean matches(ProtoIdItem item, Object returnType, Object parameters, Object unused) {
+            return item.returnType == returnType &&
+                   item.parameters == parameters;
+        }
+    };
+
     /** {@inheritDoc} */
     protected void readItem(Input in, ReadContext readContext) {
         shortyDescriptor = dexFile.StringIdsSection.getItemByIndex(in.readInt());
@@ -198,8 +209,11 @@ public class ProtoIdItem extends Item<ProtoIdItem> {
      * calculate and cache the hashcode
      */
     private void calcHashCode() {
-        hashCode = returnType.hashCode();
-        hashCode = 31 * hashCode + (parameters==null?0:parameters.hashCode());
+        hashCode = calcHashCode(returnType, parameters);
+    }
+
+    private static int calcHashCode(TypeIdItem returnType, TypeListItem parameters) {
+        return 31 * returnType.hashCode() + (parameters==null?0:parameters.hashCode());
     }
 
     @Override
@@ -30,7 +30,6 @@ package org.jf.dexlib;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 
 import org.jf.dexlib.Util.AlignmentUtils;
@@ -46,11 +45,10 @@ public abstract class Section<T extends Item> {
     protected final ArrayList<T> items;
 
     /**
-     * A HashMap of the items in this section. This is used when interning items, to determine
+     * A hash table of the items in this section. This is used when interning items, to determine
      * if this section already has an item equivalent to the one that is being interned.
-     * Both the key and the value should be the same object
      */
-    protected HashMap<T,T> uniqueItems = null;
+    protected volatile InternTable<T> uniqueItems = null;
 
     /**
      * The offset of this section within the <code>DexFile</code>
@@ -182,7 +180,7 @@ public abstract class Section<T extends Item> {
         }
         T internedItem = getInternedItem(item);
         if (internedItem == null) {
-            uniqueItems.put(item, item);
+            uniqueItems.add(item);
             items.add(item);
             return item;
         }
@@ -195,21 +193,55 @@ public abstract class Section<T extends Item> {
      * @return the interned item that is equivalent to the given item, or null
      */
     protected T getInternedItem(T item) {
-        if (uniqueItems == null) {
-            buildInternedItemMap();
+        return getInternTable().get(item);
+    }
+
+    /**
+     * Returns the interned item with the given key, or null. This is the same as
+     * <code>getInternedItem(T)</code>, except that it doesn't require an item to be created for the lookup
+     * @param hash the hash code of the key. This must be the same value that <code>hashCode()</code> returns for
+     * an item with this key
+     * @param matcher the <code>KeyMatcher</code> that compares an item against the key
+     * @param key1 the first key component
+     * @param key2 the second key component, or null if not used by the matcher
+     * @param key3 the third key component, or null if not used by the matcher
+     * @return the interned item with the given key, or null
+     */
+    protected T getInternedItem(int hash, InternTable.KeyMatcher<T> matcher, Object key1, Object key2,
+                                Object key3) {
+        return getInternTable().get(hash, matcher, key1, key2, key3);
+    }
+
+    /**
+     * Gets the intern table for this section, building it from the items that are in this section if needed.
+     *
+     * The table is only published once it is complete, so that several threads can look up items in a section at
+     * the same time, e.g. when verifying or deodexing the methods of a dex file in parallel. Interning items is
+     * still not thread safe
+     * @return the intern table for this section
+     */
+    private InternTable<T> getInternTable() {
+        InternTable<T> internTable = uniqueItems;
+        if (internTable == null) {
+            internTable = new InternTable<T>(items.size());
+            for (T item: items) {
+                assert item != null;
+                internTable.add(item);
+            }
+            uniqueItems = internTable;
         }
-        return uniqueItems.get(item);
+        return internTable;
     }
 
     /**
-     * Builds the interned item map from the items that are in this section
+     * @return a one line summary of the statistics of the intern table for this section, or null if the table
+     * hasn't been built
      */
-    private void buildInternedItemMap() {
-        uniqueItems = new HashMap<T,T>();
-        for (T item: items) {
-            assert item != null;
-            uniqueItems.put(item, item);
+    public String getInternStatistics() {
+        if (uniqueItems == null) {
+            return null;
         }
+        return uniqueItems.getStatistics();
     }
 
     /**
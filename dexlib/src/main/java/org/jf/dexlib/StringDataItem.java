@@ -29,6 +29,7 @@
 package org.jf.dexlib;
 
 import org.jf.dexlib.Util.AnnotatedOutput;
+import org.jf.dexlib.Util.ByteArrayInput;
 import org.jf.dexlib.Util.Input;
 import org.jf.dexlib.Util.Leb128Utils;
 import org.jf.dexlib.Util.Utf8Utils;
@@ -36,7 +37,22 @@ import org.jf.dexlib.Util.Utf8Utils;
 public class StringDataItem extends Item<StringDataItem> {
     private int hashCode = 0;
 
-    private String stringValue;
+    /**
+     * The decoded string value. For a string that was read from a dex file, this is only decoded from the encoded
+     * bytes when it is first needed
+     */
+    private volatile String stringValue;
+
+    /**
+     * For a string that was read from a dex file, this is the buffer that the dex file was read from. The string's
+     * utf8 bytes are kept in place in this buffer, at encodedOffset. Note that this keeps the whole buffer reachable
+     * for as long as the item is, even once the string has been decoded
+     */
+    private byte[] encodedBuffer;
+    private int encodedOffset;
+    private int encodedLength;
+    //the number of UTF-16 code units in the string
+    private int utf16Length;
 
     /**
      * Creates a new uninitialized <code>StringDataItem</code>
@@ -66,8 +82,11 @@ public class StringDataItem extends Item<StringDataItem> {
      * the given <code>DexFile</code>
      */
     public static StringDataItem internStringDataItem(DexFile dexFile, String value) {
-        StringDataItem StringDataItem = new StringDataItem(dexFile, value);
-        return dexFile.StringDataSection.intern(StringDataItem);
+        StringDataItem stringDataItem = lookupStringDataItem(dexFile, value);
+        if (stringDataItem != null) {
+            return stringDataItem;
+        }
+        return dexFile.StringDataSection.intern(new StringDataItem(dexFile, value));
     }
 
     /**
@@ -79,24 +98,89 @@ public class StringDataItem extends Item<StringDataItem> {
      * string value, or null if it doesn't exist
      **/
     public static StringDataItem lookupStringDataItem(DexFile dexFile, String value) {
-        StringDataItem StringDataItem = new StringDataItem(dexFile, value);
-        return dexFile.StringDataSection.getInternedItem(StringDataItem);
+        return dexFile.StringDataSection.getInternedItem(value.hashCode(), KEY_MATCHER, value, null, null);
     }
 
+    /**
+     * Looks up the <code>StringDataItem</code> from the given <code>DexFile</code> for the given
+     * utf8 encoded string value. The strings in the dex file don't need to be decoded for this
+     * @param dexFile the <code>Dexfile</code> to find the string value in
+     * @param utf8Bytes The utf8 bytes of the string value to look up, without a null terminator
+     * @return a <code>StringDataItem</code> from the given <code>DexFile</code> for the given
+     * string value, or null if it doesn't exist
+     **/
+    public static StringDataItem lookupStringDataItem(DexFile dexFile, byte[] utf8Bytes) {
+        return dexFile.StringDataSection.getInternedItem(Utf8Utils.utf8BytesHashCode(utf8Bytes, 0, utf8Bytes.length),
+                BYTES_KEY_MATCHER, utf8Bytes, null, null);
+    }
+
+    private static final InternTable.KeyMatcher<StringDataItem> KEY_MATCHER =
+            new InternTable.KeyMatcher<StringDataItem>() {
+        public boolean matches(StringDataItem item, Object value, Object unused1, Object unused2) {
+            if (item.encodedBuffer != null) {
+                return Utf8Utils.utf8BytesEqualsString(item.encodedBuffer, item.encodedOffset, item.encodedLength,
+                        (String)value);
+            }
+            return item.stringValue.equals(value);
+        }
+    };
+
+    private static final InternTable.KeyMatcher<StringDataItem> BYTES_KEY_MATCHER =
+            new InternTable.KeyMatcher<StringDataItem>() {
+        public boolean matches(StringDataItem item, Object value, Object unused1, Object unused2) {
+            byte[] utf8Bytes = (byte[])value;
+            if (item.encodedBuffer == null) {
+                return Utf8Utils.utf8BytesEqualsString(utf8Bytes, 0, utf8Bytes.length, item.stringValue);
+            }
+            return item.encodedBytesEqual(utf8Bytes, 0, utf8Bytes.length);
+        }
+    };
+
     /** {@inheritDoc} */
     protected void readItem(Input in, ReadContext readContext) {
-        in.readUnsignedLeb128(); //string length
-        stringValue = in.realNullTerminatedUtf8String();
+        utf16Length = in.readUnsignedLeb128();
+
+        if (!(in instanceof ByteArrayInput)) {
+            stringValue = in.realNullTerminatedUtf8String();
+            return;
+        }
+
+        //keep the string in the buffer that it was read from, rather than decoding it now
+        byte[] buffer = ((ByteArrayInput)in).getArray();
+        int start = in.getCursor();
+        int end = start;
+        while (buffer[end] != 0) {
+            end++;
+        }
+
+        encodedBuffer = buffer;
+        encodedOffset = start;
+        encodedLength = end - start;
+        stringValue = null;
+
+        //skip the terminating null
+        in.setCursor(end + 1);
     }
 
     /** {@inheritDoc} */
     protected int placeItem(int offset) {
+        if (encodedBuffer != null) {
+            return offset + Leb128Utils.unsignedLeb128Size(utf16Length) + encodedLength + 1;
+        }
         return offset + Leb128Utils.unsignedLeb128Size(stringValue.length()) +
                 Utf8Utils.stringToUtf8Bytes(stringValue).length + 1;
     }
 
     /** {@inheritDoc} */
     protected void writeItem(AnnotatedOutput out) {
+        if (encodedBuffer != null && !out.annotates()) {
+            out.writeUnsignedLeb128(utf16Length);
+            out.write(encodedBuffer, encodedOffset, encodedLength);
+            out.writeByte(0);
+            return;
+        }
+
+        String stringValue = getStringValue();
         byte[] encodedValue = Utf8Utils.stringToUtf8Bytes(stringValue);
         if (out.annotates()) {
             out.annotate("string_size: 0x" + Integer.toHexString(stringValue.length()) + " (" + stringValue.length() +
@@ -127,18 +211,42 @@ public class StringDataItem extends Item<StringDataItem> {
     }
 
     /**
-     * Get the string value of this item as a <code>String</code>
+     * Get the string value of this item as a <code>String</code>. For a string that was read from a dex file, the
+     * string is decoded the first time this is called
      * @return the string value of this item as a String
      */
     public String getStringValue() {
+        String stringValue = this.stringValue;
+        if (stringValue == null) {
+            stringValue = Utf8Utils.utf8BytesToString(encodedBuffer, encodedOffset, encodedLength);
+            this.stringValue = stringValue;
+        }
         return stringValue;
     }
 
+    private boolean encodedBytesEqual(byte[] bytes, int offset, int length) {
+        if (encodedLength != length) {
+            return false;
+        }
+        for (int i=0; i<length; i++) {
+            if (encodedBuffer[encodedOffset + i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
-     * calculate and cache the hashcode
+     * calculate and cache the hashcode. This is the hash code of the string value, which is calculated from the
+     * encoded bytes if the string hasn't been decoded
      */
     private void calcHashCode() {
-        hashCode = getStringValue().hashCode();
+        String stringValue = this.stringValue;
+        if (stringValue == null) {
+            hashCode = Utf8Utils.utf8BytesHashCode(encodedBuffer, encodedOffset, encodedLength);
+        } else {
+            hashCode = stringValue.hashCode();
+        }
     }
 
     @Override
@@ -164,6 +272,21 @@ public class StringDataItem extends Item<StringDataItem> {
         //"getInterned..." style methods to make new items, and any item created
         //internally is guaranteed to be interned
         StringDataItem other = (StringDataItem)o;
-        return getStringValue().equals(other.getStringValue());
+
+        //An item that was read from a dex file is always compared by its encoded bytes, whether or not it has been
+        //decoded, so that the result doesn't depend on which of the items happen to have been decoded. A string has
+        //only one valid encoding, so comparing the encoded bytes is the same as comparing the strings
+        if (encodedBuffer != null) {
+            if (other.encodedBuffer != null) {
+                return other.encodedBytesEqual(encodedBuffer, encodedOffset, encodedLength);
+            }
+            byte[] otherBytes = Utf8Utils.stringToUtf8Bytes(other.stringValue);
+            return encodedBytesEqual(otherBytes, 0, otherBytes.length);
+        }
+        if (other.encodedBuffer != null) {
+            byte[] bytes = Utf8Utils.stringToUtf8Bytes(stringValue);
+            return other.encodedBytesEqual(bytes, 0, bytes.length);
+        }
+        return stringValue.equals(other.stringValue);
     }
 }
@@ -66,8 +66,11 @@ public class StringIdItem extends Item<StringIdItem> {
         if (stringDataItem == null) {
             return null;
         }
-        StringIdItem stringIdItem = new StringIdItem(dexFile, stringDataItem);
-        return dexFile.StringIdsSection.intern(stringIdItem);
+        StringIdItem stringIdItem = lookupStringIdItem(dexFile, stringDataItem);
+        if (stringIdItem != null) {
+            return stringIdItem;
+        }
+        return dexFile.StringIdsSection.intern(new StringIdItem(dexFile, stringDataItem));
     }
 
     /**
@@ -83,10 +86,37 @@ public class StringIdItem extends Item<StringIdItem> {
         if (stringDataItem == null) {
             return null;
         }
-        StringIdItem stringIdItem = new StringIdItem(dexFile, stringDataItem);
-        return dexFile.StringIdsSection.getInternedItem(stringIdItem);
+        return lookupStringIdItem(dexFile, stringDataItem);
+    }
+
+    /**
+     * Looks up the <code>StringIdItem</code> from the given <code>DexFile</code> for the given
+     * utf8 encoded string value. The strings in the dex file don't need to be decoded for this
+     * @param dexFile the <code>Dexfile</code> to find the string value in
+     * @param utf8Bytes The utf8 bytes of the string value to look up, without a null terminator
+     * @return a <code>StringIdItem</code> from the given <code>DexFile</code> for the given
+     * string value, or null if it doesn't exist
+     */
+    public static StringIdItem lookupStringIdItem(DexFile dexFile, byte[] utf8Bytes) {
+        StringDataItem stringDataItem = StringDataItem.lookupStringDataItem(dexFile, utf8Bytes);
+        if (stringDataItem == null) {
+            return null;
+        }
+        return lookupStringIdItem(dexFile, stringDataItem);
     }
 
+    private static StringIdItem lookupStringIdItem(DexFile dexFile, StringDataItem stringDataItem) {
+        return dexFile.StringIdsSection.getInternedItem(stringDataItem.hashCode(), KEY_MATCHER, stringDataItem,
+                null, null);
+    }
+
+    private static final InternTable.KeyMatcher<StringIdItem> KEY_MATCHER =
+            new InternTable.KeyMatcher<StringIdItem>() {
+        public boolean matches(StringIdItem item, Object stringDataItem, Object unused1, Object unused2) {
+            return item.stringDataItem == stringDataItem;
+        }
+    };
+
     /** {@inheritDoc} */
     protected void readItem(Input in, ReadContext readContext) {
         int stringDataOffset = in.readInt();
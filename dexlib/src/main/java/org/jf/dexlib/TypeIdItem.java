@@ -63,8 +63,11 @@ public class TypeIdItem extends Item<TypeIdItem> {
      * the given <code>DexFile</code>
      */
     public static TypeIdItem internTypeIdItem(DexFile dexFile, StringIdItem typeDescriptor) {
-        TypeIdItem typeIdItem = new TypeIdItem(dexFile, typeDescriptor);
-        return dexFile.TypeIdsSection.intern(typeIdItem);
+        TypeIdItem typeIdItem = lookupTypeIdItem(dexFile, typeDescriptor);
+        if (typeIdItem != null) {
+            return typeIdItem;
+        }
+        return dexFile.TypeIdsSection.intern(new TypeIdItem(dexFile, typeDescriptor));
     }
 
     /**
@@ -81,8 +84,7 @@ public class TypeIdItem extends Item<TypeIdItem> {
         if (stringIdItem == null) {
             return null;
         }
-        TypeIdItem typeIdItem = new TypeIdItem(dexFile, stringIdItem);
-        return dexFile.TypeIdsSection.intern(typeIdItem);
+        return internTypeIdItem(dexFile, stringIdItem);
     }
 
     /**
@@ -98,10 +100,45 @@ public class TypeIdItem extends Item<TypeIdItem> {
         if (stringIdItem == null) {
             return null;
         }
-        TypeIdItem typeIdItem = new TypeIdItem(dexFile, stringIdItem);
-        return dexFile.TypeIdsSection.getInternedItem(typeIdItem);
+        return lookupTypeIdItem(dexFile, stringIdItem);
+    }
+
+    /**
+     * Looks up the <code>TypeIdItem</code> from the given <code>DexFile</code> for the given
+     * utf8 encoded type descriptor. The strings in the dex file don't need to be decoded for this
+     * @param dexFile the <code>Dexfile</code> to find the type in
+     * @param typeDescriptor The utf8 bytes of the type descriptor to look up, without a null terminator
+     * @return a <code>TypeIdItem</code> from the given <code>DexFile</code> for the given
+     * type descriptor, or null if it doesn't exist
+     */
+    public static TypeIdItem lookupTypeIdItem(DexFile dexFile, byte[] typeDescriptor) {
+        StringIdItem stringIdItem = StringIdItem.lookupStringIdItem(dexFile, typeDescriptor);
+        if (stringIdItem == null) {
+            return null;
+        }
+        return lookupTypeIdItem(dexFile, stringIdItem);
+    }
+
+    /**
+     * Looks up the <code>TypeIdItem</code> from the given <code>DexFile</code> for the given
+     * type descriptor
+     * @param dexFile the <code>Dexfile</code> to find the type in
+     * @param typeDescriptor The <code>StringIdItem</code> containing the type descriptor to look up
+     * @return a <code>TypeIdItem</code> from the given <code>DexFile</code> for the given
+     * type descriptor, or null if it doesn't exist
+     */
+    public static TypeIdItem lookupTypeIdItem(DexFile dexFile, StringIdItem typeDescriptor) {
+        return dexFile.TypeIdsSection.getInternedItem(typeDescriptor.hashCode(), KEY_MATCHER, typeDescriptor, null,
+                null);
     }
 
+    private static final InternTable.KeyMatcher<TypeIdItem> KEY_MATCHER =
+            new InternTable.KeyMatcher<TypeIdItem>() {
+        public boolean matches(TypeIdItem item, Object typeDescriptor, Object unused1, Object unused2) {
+            return item.typeDescriptor == typeDescriptor;
+        }
+    };
+
     /** {@inheritDoc} */
     protected void readItem(Input in, ReadContext readContext) {
         int stringIdIndex = in.readInt();
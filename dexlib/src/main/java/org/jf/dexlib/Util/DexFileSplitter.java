@@ -0,0 +1,128 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.dexlib.Util;
+
+import org.jf.dexlib.ClassDefItem;
+import org.jf.dexlib.DexFile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class splits the classes in a <code>DexFile</code> across multiple <code>DexFile</code>s, so that none of
+ * them references more method, field or type ids than can be addressed by a 16-bit index.
+ *
+ * The classes are assigned in the order they appear in the source dex file, and each output dex file is filled up
+ * as far as possible before starting the next one. The ordering of superclasses and interfaces within each output
+ * dex file is taken care of as usual, when it is placed.
+ */
+public class DexFileSplitter {
+    /**
+     * The maximum number of method, field or type ids in a dex file
+     */
+    public static final int MAX_ID_COUNT = 0x10000;
+
+    /**
+     * This class is uninstantiable
+     */
+    private DexFileSplitter() {
+    }
+
+    /**
+     * Splits the given dex file, using the default limit of 65536 ids per section
+     * @param dexFile the dex file to split
+     * @return the list of output dex files. The source dex file shouldn't be used after it has been split
+     */
+    public static List<DexFile> splitDexFile(DexFile dexFile) {
+        return splitDexFile(dexFile, MAX_ID_COUNT);
+    }
+
+    /**
+     * Splits the given dex file
+     * @param dexFile the dex file to split
+     * @param maxIdCount the maximum number of method, field or type ids in each output dex file
+     * @return the list of output dex files. The source dex file shouldn't be used after it has been split
+     */
+    public static List<DexFile> splitDexFile(DexFile dexFile, int maxIdCount) {
+        List<DexFile> dexFiles = new ArrayList<DexFile>();
+        List<ClassDefItem> currentClasses = new ArrayList<ClassDefItem>();
+
+        DexFile currentDexFile = new DexFile();
+        ItemCopier itemCopier = new ItemCopier(currentDexFile);
+
+        for (ClassDefItem classDefItem: dexFile.ClassDefsSection.getItems()) {
+            itemCopier.copyClassDefItem(classDefItem);
+
+            if (exceedsLimits(currentDexFile, maxIdCount)) {
+                if (currentClasses.size() == 0) {
+                    throw new ExceptionWithContext(String.format("Class %s references too many ids to fit in a " +
+                            "single dex file", classDefItem.getClassType().getTypeDescriptor()));
+                }
+
+                //items can't be removed from a dex file, so re-create the current dex file without this class
+                currentDexFile = new DexFile();
+                itemCopier = new ItemCopier(currentDexFile);
+                for (ClassDefItem previousClassDefItem: currentClasses) {
+                    itemCopier.copyClassDefItem(previousClassDefItem);
+                }
+                dexFiles.add(currentDexFile);
+
+                currentClasses.clear();
+                currentDexFile = new DexFile();
+                itemCopier = new ItemCopier(currentDexFile);
+                itemCopier.copyClassDefItem(classDefItem);
+
+                if (exceedsLimits(currentDexFile, maxIdCount)) {
+                    throw new ExceptionWithContext(String.format("Class %s references too many ids to fit in a " +
+                            "single dex file", classDefItem.getClassType().getTypeDescriptor()));
+                }
+            }
+
+            currentClasses.add(classDefItem);
+        }
+
+        if (currentClasses.size() > 0 || dexFiles.size() == 0) {
+            dexFiles.add(currentDexFile);
+        }
+
+        return dexFiles;
+    }
+
+    /**
+     * Checks whether the given dex file is within the given limit for the number of method, field and type ids
+     * @param dexFile the dex file to check
+     * @param maxIdCount the maximum number of method, field or type ids
+     * @return true if the dex file contains more than <code>maxIdCount</code> method, field or type ids
+     */
+    public static boolean exceedsLimits(DexFile dexFile, int maxIdCount) {
+        return dexFile.MethodIdsSection.getItems().size() > maxIdCount ||
+               dexFile.FieldIdsSection.getItems().size() > maxIdCount ||
+               dexFile.TypeIdsSection.getItems().size() > maxIdCount;
+    }
+}
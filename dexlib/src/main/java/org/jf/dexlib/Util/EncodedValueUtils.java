@@ -56,6 +56,23 @@ public class EncodedValueUtils {
         return  value << shift >> shift;
     }
 
+    /**
+     * Reads a signed integral value directly from the given <code>Input</code>, without reading the bytes into a
+     * temporary array first
+     * @param in the <code>Input</code> object to read from
+     * @param byteCount the number of bytes in the encoded value
+     * @return the decoded value
+     */
+    public static long readSignedIntegralValue(Input in, int byteCount) {
+        long value = 0;
+        for (int i = 0; i < byteCount; i++) {
+            value |= (((long)(in.readByte() & 0xFF)) << (i * 8));
+        }
+
+        int shift = (8 - byteCount) * 8;
+        return  value << shift >> shift;
+    }
+
     public static byte[] encodeSignedIntegralValue(long value) {
         int requiredBytes = getRequiredBytesForSignedIntegralValue(value);
 
@@ -91,6 +108,21 @@ public class EncodedValueUtils {
         return value;
     }
 
+    /**
+     * Reads an unsigned integral value directly from the given <code>Input</code>, without reading the bytes into a
+     * temporary array first
+     * @param in the <code>Input</code> object to read from
+     * @param byteCount the number of bytes in the encoded value
+     * @return the decoded value
+     */
+    public static long readUnsignedIntegralValue(Input in, int byteCount) {
+        long value = 0;
+        for (int i = 0; i < byteCount; i++) {
+            value |= (((long)(in.readByte() & 0xFF)) << i * 8);
+        }
+        return value;
+    }
+
     public static byte[] encodeUnsignedIntegralValue(long value) {
         int requiredBytes = getRequiredBytesForUnsignedIntegralValue(value);
 
@@ -126,6 +158,21 @@ public class EncodedValueUtils {
         return value << (8 - bytes.length) * 8;
     }
 
+    /**
+     * Reads a right zero extended value directly from the given <code>Input</code>, without reading the bytes into a
+     * temporary array first
+     * @param in the <code>Input</code> object to read from
+     * @param byteCount the number of bytes in the encoded value
+     * @return the decoded value
+     */
+    public static long readRightZeroExtendedValue(Input in, int byteCount) {
+        long value = 0;
+        for (int i = 0; i < byteCount; i++) {
+            value |= (((long)(in.readByte() & 0xFF)) << (i * 8));
+        }
+        return value << (8 - byteCount) * 8;
+    }
+
     public static byte[] encodeRightZeroExtendedValue(long value) {
         int requiredBytes = getRequiredBytesForRightZeroExtendedValue(value);
 
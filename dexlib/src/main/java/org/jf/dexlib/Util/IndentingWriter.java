@@ -147,6 +147,22 @@ public final class IndentingWriter extends FilterWriter {
     public void write(char[] cbuf, int off, int len) throws IOException {
         synchronized (lock) {
             while (len > 0) {
+                int runLength = getRunLength(len);
+                if (runLength > 0) {
+                    //copy the run of characters up to the next newline, or up to the end of the line
+                    int runEnd = off;
+                    while (runEnd < off + runLength && cbuf[runEnd] != '\n') {
+                        runEnd++;
+                    }
+                    if (runEnd > off) {
+                        out.write(cbuf, off, runEnd - off);
+                        column += runEnd - off;
+                        len -= runEnd - off;
+                        off = runEnd;
+                        continue;
+                    }
+                }
+
                 write(cbuf[off]);
                 off++;
                 len--;
@@ -159,6 +175,22 @@ public final class IndentingWriter extends FilterWriter {
     public void write(String str, int off, int len) throws IOException {
         synchronized (lock) {
             while (len > 0) {
+                int runLength = getRunLength(len);
+                if (runLength > 0) {
+                    //copy the run of characters up to the next newline, or up to the end of the line
+                    int runEnd = str.indexOf('\n', off);
+                    if (runEnd < 0 || runEnd > off + runLength) {
+                        runEnd = off + runLength;
+                    }
+                    if (runEnd > off) {
+                        out.write(str, off, runEnd - off);
+                        column += runEnd - off;
+                        len -= runEnd - off;
+                        off = runEnd;
+                        continue;
+                    }
+                }
+
                 write(str.charAt(off));
                 off++;
                 len--;
@@ -166,6 +198,20 @@ public final class IndentingWriter extends FilterWriter {
         }
     }
 
+    /**
+     * Gets the number of characters that can be passed straight through to the underlying writer, without
+     * needing any prefix, indentation or wrapping. This is only possible in the middle of a line, once the indent
+     * has been determined
+     * @param len the number of characters remaining to be written
+     * @return the number of characters that can be passed through, assuming none of them are newlines
+     */
+    private int getRunLength(int len) {
+        if (collectingIndent || column == 0 || column >= width) {
+            return 0;
+        }
+        return Math.min(len, width - column);
+    }
+
     /**
      * Indicates that output is at the beginning of a line.
      */
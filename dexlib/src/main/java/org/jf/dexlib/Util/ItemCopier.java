@@ -0,0 +1,520 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.dexlib.Util;
+
+import org.jf.dexlib.*;
+import org.jf.dexlib.Code.Format.*;
+import org.jf.dexlib.Code.Instruction;
+import org.jf.dexlib.Code.InstructionWithReference;
+import org.jf.dexlib.EncodedValue.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * This class copies items from one <code>DexFile</code> into another, by re-interning the item and everything that
+ * it references into the target <code>DexFile</code>.
+ *
+ * Items that don't depend on a particular <code>DexFile</code> (i.e. primitive encoded values, instructions that
+ * don't reference an item, and the encoded debug info) are shared between the source and target dex files, so the
+ * source dex file shouldn't be modified after it has been copied from. Likewise, fixing up the instructions of a
+ * copied <code>CodeItem</code> will also affect the original, so the source dex file shouldn't be used after that.
+ */
+public class ItemCopier {
+    private final DexFile dexFile;
+
+    private final IdentityHashMap<Item, Item> copiedItems = new IdentityHashMap<Item, Item>();
+
+    /**
+     * Creates a new <code>ItemCopier</code> that copies items into the given <code>DexFile</code>
+     * @param dexFile the <code>DexFile</code> to copy items into
+     */
+    public ItemCopier(DexFile dexFile) {
+        this.dexFile = dexFile;
+    }
+
+    /**
+     * @return the <code>DexFile</code> that this <code>ItemCopier</code> copies items into
+     */
+    public DexFile getDexFile() {
+        return dexFile;
+    }
+
+    /**
+     * Copies the given class, along with its class data, code, annotations and static field initializers into
+     * the target <code>DexFile</code>
+     * @param classDefItem the class to copy
+     * @return the interned <code>ClassDefItem</code> in the target <code>DexFile</code>
+     */
+    public ClassDefItem copyClassDefItem(ClassDefItem classDefItem) {
+        ClassDefItem copy = (ClassDefItem)copiedItems.get(classDefItem);
+        if (copy != null) {
+            return copy;
+        }
+
+        try {
+            ClassDataItem classDataItem = classDefItem.getClassData();
+            ClassDataItem classDataCopy = null;
+            List<ClassDefItem.StaticFieldInitializer> staticFieldInitializers = null;
+
+            if (classDataItem != null) {
+                classDataCopy = copyClassDataItem(classDataItem);
+                staticFieldInitializers = copyStaticFieldInitializers(classDefItem.getStaticFieldInitializers(),
+                        classDataCopy);
+            }
+
+            copy = ClassDefItem.internClassDefItem(dexFile,
+                    copyTypeIdItem(classDefItem.getClassType()),
+                    classDefItem.getAccessFlags(),
+                    copyTypeIdItem(classDefItem.getSuperclass()),
+                    copyTypeListItem(classDefItem.getInterfaces()),
+                    copyStringIdItem(classDefItem.getSourceFile()),
+                    copyAnnotationDirectoryItem(classDefItem.getAnnotations()),
+                    classDataCopy,
+                    staticFieldInitializers);
+        } catch (Exception ex) {
+            throw ExceptionWithContext.withContext(ex, "Error occured while copying class " +
+                    classDefItem.getClassType().getTypeDescriptor());
+        }
+
+        copiedItems.put(classDefItem, copy);
+        return copy;
+    }
+
+    /**
+     * Copies the given item into the target <code>DexFile</code>. This only supports the item types that can be
+     * referenced by an instruction or by debug info
+     * @param item the item to copy, or null
+     * @return the copied item, or null if <code>item</code> was null
+     */
+    public Item copyItem(Item item) {
+        if (item == null) {
+            return null;
+        }
+        if (item instanceof StringIdItem) {
+            return copyStringIdItem((StringIdItem)item);
+        }
+        if (item instanceof TypeIdItem) {
+            return copyTypeIdItem((TypeIdItem)item);
+        }
+        if (item instanceof FieldIdItem) {
+            return copyFieldIdItem((FieldIdItem)item);
+        }
+        if (item instanceof MethodIdItem) {
+            return copyMethodIdItem((MethodIdItem)item);
+        }
+        throw new ExceptionWithContext("Cannot copy an item of type " + item.getItemType().TypeName);
+    }
+
+    public StringIdItem copyStringIdItem(StringIdItem stringIdItem) {
+        if (stringIdItem == null) {
+            return null;
+        }
+        StringIdItem copy = (StringIdItem)copiedItems.get(stringIdItem);
+        if (copy == null) {
+            copy = StringIdItem.internStringIdItem(dexFile, stringIdItem.getStringValue());
+            copiedItems.put(stringIdItem, copy);
+        }
+        return copy;
+    }
+
+    public TypeIdItem copyTypeIdItem(TypeIdItem typeIdItem) {
+        if (typeIdItem == null) {
+            return null;
+        }
+        TypeIdItem copy = (TypeIdItem)copiedItems.get(typeIdItem);
+        if (copy == null) {
+            copy = TypeIdItem.internTypeIdItem(dexFile, typeIdItem.getTypeDescriptor());
+            copiedItems.put(typeIdItem, copy);
+        }
+        return copy;
+    }
+
+    public TypeListItem copyTypeListItem(TypeListItem typeListItem) {
+        if (typeListItem == null) {
+            return null;
+        }
+        TypeListItem copy = (TypeListItem)copiedItems.get(typeListItem);
+        if (copy == null) {
+            List<TypeIdItem> types = new ArrayList<TypeIdItem>(typeListItem.getTypeCount());
+            for (TypeIdItem typeIdItem: typeListItem.getTypes()) {
+                types.add(copyTypeIdItem(typeIdItem));
+            }
+            copy = TypeListItem.internTypeListItem(dexFile, types);
+            copiedItems.put(typeListItem, copy);
+        }
+        return copy;
+    }
+
+    public ProtoIdItem copyProtoIdItem(ProtoIdItem protoIdItem) {
+        if (protoIdItem == null) {
+            return null;
+        }
+        ProtoIdItem copy = (ProtoIdItem)copiedItems.get(protoIdItem);
+        if (copy == null) {
+            copy = ProtoIdItem.internProtoIdItem(dexFile, copyTypeIdItem(protoIdItem.getReturnType()),
+                    copyTypeListItem(protoIdItem.getParameters()));
+            copiedItems.put(protoIdItem, copy);
+        }
+        return copy;
+    }
+
+    public FieldIdItem copyFieldIdItem(FieldIdItem fieldIdItem) {
+        if (fieldIdItem == null) {
+            return null;
+        }
+        FieldIdItem copy = (FieldIdItem)copiedItems.get(fieldIdItem);
+        if (copy == null) {
+            copy = FieldIdItem.internFieldIdItem(dexFile, copyTypeIdItem(fieldIdItem.getContainingClass()),
+                    copyTypeIdItem(fieldIdItem.getFieldType()), copyStringIdItem(fieldIdItem.getFieldName()));
+            copiedItems.put(fieldIdItem, copy);
+        }
+        return copy;
+    }
+
+    public MethodIdItem copyMethodIdItem(MethodIdItem methodIdItem) {
+        if (methodIdItem == null) {
+            return null;
+        }
+        MethodIdItem copy = (MethodIdItem)copiedItems.get(methodIdItem);
+        if (copy == null) {
+            copy = MethodIdItem.internMethodIdItem(dexFile, copyTypeIdItem(methodIdItem.getContainingClass()),
+                    copyProtoIdItem(methodIdItem.getPrototype()), copyStringIdItem(methodIdItem.getMethodName()));
+            copiedItems.put(methodIdItem, copy);
+        }
+        return copy;
+    }
+
+    private ClassDataItem copyClassDataItem(ClassDataItem classDataItem) {
+        List<ClassDataItem.EncodedField> staticFields = copyEncodedFields(classDataItem.getStaticFields());
+        List<ClassDataItem.EncodedField> instanceFields = copyEncodedFields(classDataItem.getInstanceFields());
+        List<ClassDataItem.EncodedMethod> directMethods = copyEncodedMethods(classDataItem.getDirectMethods());
+        List<ClassDataItem.EncodedMethod> virtualMethods = copyEncodedMethods(classDataItem.getVirtualMethods());
+
+        return ClassDataItem.internClassDataItem(dexFile, staticFields, instanceFields, directMethods,
+                virtualMethods);
+    }
+
+    private List<ClassDataItem.EncodedField> copyEncodedFields(ClassDataItem.EncodedField[] encodedFields) {
+        List<ClassDataItem.EncodedField> copies = new ArrayList<ClassDataItem.EncodedField>(encodedFields.length);
+        for (ClassDataItem.EncodedField encodedField: encodedFields) {
+            copies.add(new ClassDataItem.EncodedField(copyFieldIdItem(encodedField.field),
+                    encodedField.accessFlags));
+        }
+        return copies;
+    }
+
+    private List<ClassDataItem.EncodedMethod> copyEncodedMethods(ClassDataItem.EncodedMethod[] encodedMethods) {
+        List<ClassDataItem.EncodedMethod> copies = new ArrayList<ClassDataItem.EncodedMethod>(encodedMethods.length);
+        for (ClassDataItem.EncodedMethod encodedMethod: encodedMethods) {
+            copies.add(new ClassDataItem.EncodedMethod(copyMethodIdItem(encodedMethod.method),
+                    encodedMethod.accessFlags, copyCodeItem(encodedMethod.codeItem)));
+        }
+        return copies;
+    }
+
+    /**
+     * Builds the list of static field initializers for the copied class. The initializers in the encoded array
+     * correspond to the first n static fields (in their sorted order), and any remaining fields have the default
+     * value
+     */
+    private List<ClassDefItem.StaticFieldInitializer> copyStaticFieldInitializers(EncodedArrayItem encodedArrayItem,
+                                                                                ClassDataItem classDataCopy) {
+        if (encodedArrayItem == null) {
+            return null;
+        }
+
+        EncodedValue[] values = encodedArrayItem.getEncodedArray().values;
+        ClassDataItem.EncodedField[] staticFields = classDataCopy.getStaticFields();
+
+        List<ClassDefItem.StaticFieldInitializer> staticFieldInitializers =
+                new ArrayList<ClassDefItem.StaticFieldInitializer>(staticFields.length);
+        for (int i=0; i<staticFields.length; i++) {
+            EncodedValue value = null;
+            if (i < values.length) {
+                value = copyEncodedValue(values[i]);
+            }
+            staticFieldInitializers.add(new ClassDefItem.StaticFieldInitializer(value, staticFields[i]));
+        }
+        return staticFieldInitializers;
+    }
+
+    private CodeItem copyCodeItem(CodeItem codeItem) {
+        if (codeItem == null) {
+            return null;
+        }
+
+        Instruction[] instructions = codeItem.getInstructions();
+        List<Instruction> instructionCopies = null;
+        if (instructions != null) {
+            instructionCopies = new ArrayList<Instruction>(instructions.length);
+            for (Instruction instruction: instructions) {
+                instructionCopies.add(copyInstruction(instruction));
+            }
+        }
+
+        List<CodeItem.TryItem> tryCopies = null;
+        List<CodeItem.EncodedCatchHandler> handlerCopies = null;
+
+        CodeItem.EncodedCatchHandler[] handlers = codeItem.getHandlers();
+        if (handlers != null) {
+            //the handlers can be shared between multiple tries, so we need to keep track of the copy for each one
+            IdentityHashMap<CodeItem.EncodedCatchHandler, CodeItem.EncodedCatchHandler> handlerMap =
+                    new IdentityHashMap<CodeItem.EncodedCatchHandler, CodeItem.EncodedCatchHandler>();
+            handlerCopies = new ArrayList<CodeItem.EncodedCatchHandler>(handlers.length);
+
+            for (CodeItem.EncodedCatchHandler handler: handlers) {
+                CodeItem.EncodedTypeAddrPair[] typeAddrPairs =
+                        new CodeItem.EncodedTypeAddrPair[handler.handlers.length];
+                for (int i=0; i<typeAddrPairs.length; i++) {
+                    CodeItem.EncodedTypeAddrPair typeAddrPair = handler.handlers[i];
+                    typeAddrPairs[i] = new CodeItem.EncodedTypeAddrPair(copyTypeIdItem(typeAddrPair.exceptionType),
+                            typeAddrPair.getHandlerAddress());
+                }
+                CodeItem.EncodedCatchHandler handlerCopy = new CodeItem.EncodedCatchHandler(typeAddrPairs,
+                        handler.getCatchAllHandlerAddress());
+                handlerMap.put(handler, handlerCopy);
+                handlerCopies.add(handlerCopy);
+            }
+
+            CodeItem.TryItem[] tries = codeItem.getTries();
+            if (tries != null) {
+                tryCopies = new ArrayList<CodeItem.TryItem>(tries.length);
+                for (CodeItem.TryItem tryItem: tries) {
+                    tryCopies.add(new CodeItem.TryItem(tryItem.getStartCodeAddress(), tryItem.getTryLength(),
+                            handlerMap.get(tryItem.encodedCatchHandler)));
+                }
+            }
+        }
+
+        return CodeItem.internCodeItem(dexFile, codeItem.getRegisterCount(), codeItem.getInWords(),
+                codeItem.getOutWords(), copyDebugInfoItem(codeItem.getDebugInfo()), instructionCopies, tryCopies,
+                handlerCopies);
+    }
+
+    private DebugInfoItem copyDebugInfoItem(DebugInfoItem debugInfoItem) {
+        if (debugInfoItem == null) {
+            return null;
+        }
+
+        StringIdItem[] parameterNames = debugInfoItem.getParameterNames();
+        StringIdItem[] parameterNameCopies = null;
+        if (parameterNames != null) {
+            parameterNameCopies = new StringIdItem[parameterNames.length];
+            for (int i=0; i<parameterNames.length; i++) {
+                parameterNameCopies[i] = copyStringIdItem(parameterNames[i]);
+            }
+        }
+
+        Item[] referencedItems = debugInfoItem.getReferencedItems();
+        Item[] referencedItemCopies = new Item[referencedItems.length];
+        for (int i=0; i<referencedItems.length; i++) {
+            referencedItemCopies[i] = copyItem(referencedItems[i]);
+        }
+
+        return DebugInfoItem.internDebugInfoItem(dexFile, debugInfoItem.getLineStart(), parameterNameCopies,
+                debugInfoItem.getEncodedDebugInfo(), referencedItemCopies);
+    }
+
+    private Instruction copyInstruction(Instruction instruction) {
+        if (!(instruction instanceof InstructionWithReference)) {
+            return instruction;
+        }
+
+        Item referencedItem = copyItem(((InstructionWithReference)instruction).getReferencedItem());
+
+        switch (instruction.getFormat()) {
+            case Format20bc:
+                return new Instruction20bc(instruction.opcode,
+                        ((Instruction20bc)instruction).getValidationErrorType(), referencedItem);
+            case Format21c:
+                return new Instruction21c(instruction.opcode, (short)((Instruction21c)instruction).getRegisterA(),
+                        referencedItem);
+            case Format22c: {
+                Instruction22c instruction22c = (Instruction22c)instruction;
+                return new Instruction22c(instruction.opcode, (byte)instruction22c.getRegisterA(),
+                        (byte)instruction22c.getRegisterB(), referencedItem);
+            }
+            case Format31c:
+                return new Instruction31c(instruction.opcode, (short)((Instruction31c)instruction).getRegisterA(),
+                        referencedItem);
+            case Format35c: {
+                Instruction35c instruction35c = (Instruction35c)instruction;
+                return new Instruction35c(instruction.opcode, instruction35c.getRegCount(),
+                        instruction35c.getRegisterD(), instruction35c.getRegisterE(), instruction35c.getRegisterF(),
+                        instruction35c.getRegisterG(), instruction35c.getRegisterA(), referencedItem);
+            }
+            case Format3rc: {
+                Instruction3rc instruction3rc = (Instruction3rc)instruction;
+                return new Instruction3rc(instruction.opcode, (short)instruction3rc.getRegCount(),
+                        instruction3rc.getStartRegister(), referencedItem);
+            }
+            case Format41c:
+                return new Instruction41c(instruction.opcode, ((Instruction41c)instruction).getRegisterA(),
+                        referencedItem);
+            case Format52c: {
+                Instruction52c instruction52c = (Instruction52c)instruction;
+                return new Instruction52c(instruction.opcode, instruction52c.getRegisterA(),
+                        instruction52c.getRegisterB(), referencedItem);
+            }
+            case Format5rc: {
+                Instruction5rc instruction5rc = (Instruction5rc)instruction;
+                return new Instruction5rc(instruction.opcode, instruction5rc.getRegCount(),
+                        instruction5rc.getStartRegister(), referencedItem);
+            }
+            default:
+                throw new ExceptionWithContext("Cannot copy an instruction with format " +
+                        instruction.getFormat().name());
+        }
+    }
+
+    private AnnotationDirectoryItem copyAnnotationDirectoryItem(AnnotationDirectoryItem annotationDirectoryItem) {
+        if (annotationDirectoryItem == null) {
+            return null;
+        }
+
+        final List<AnnotationDirectoryItem.FieldAnnotation> fieldAnnotations =
+                new ArrayList<AnnotationDirectoryItem.FieldAnnotation>();
+        final List<AnnotationDirectoryItem.MethodAnnotation> methodAnnotations =
+                new ArrayList<AnnotationDirectoryItem.MethodAnnotation>();
+        final List<AnnotationDirectoryItem.ParameterAnnotation> parameterAnnotations =
+                new ArrayList<AnnotationDirectoryItem.ParameterAnnotation>();
+
+        annotationDirectoryItem.iterateFieldAnnotations(
+                new AnnotationDirectoryItem.FieldAnnotationIteratorDelegate() {
+            public void processFieldAnnotations(FieldIdItem field, AnnotationSetItem annotationSet) {
+                fieldAnnotations.add(new AnnotationDirectoryItem.FieldAnnotation(copyFieldIdItem(field),
+                        copyAnnotationSetItem(annotationSet)));
+            }
+        });
+
+        annotationDirectoryItem.iterateMethodAnnotations(
+                new AnnotationDirectoryItem.MethodAnnotationIteratorDelegate() {
+            public void processMethodAnnotations(MethodIdItem method, AnnotationSetItem annotationSet) {
+                methodAnnotations.add(new AnnotationDirectoryItem.MethodAnnotation(copyMethodIdItem(method),
+                        copyAnnotationSetItem(annotationSet)));
+            }
+        });
+
+        annotationDirectoryItem.iterateParameterAnnotations(
+                new AnnotationDirectoryItem.ParameterAnnotationIteratorDelegate() {
+            public void processParameterAnnotations(MethodIdItem method, AnnotationSetRefList annotationSetRefList) {
+                parameterAnnotations.add(new AnnotationDirectoryItem.ParameterAnnotation(copyMethodIdItem(method),
+                        copyAnnotationSetRefList(annotationSetRefList)));
+            }
+        });
+
+        return AnnotationDirectoryItem.internAnnotationDirectoryItem(dexFile,
+                copyAnnotationSetItem(annotationDirectoryItem.getClassAnnotations()), fieldAnnotations,
+                methodAnnotations, parameterAnnotations);
+    }
+
+    private AnnotationSetRefList copyAnnotationSetRefList(AnnotationSetRefList annotationSetRefList) {
+        AnnotationSetItem[] annotationSets = annotationSetRefList.getAnnotationSets();
+        List<AnnotationSetItem> annotationSetCopies = new ArrayList<AnnotationSetItem>(annotationSets.length);
+        for (AnnotationSetItem annotationSetItem: annotationSets) {
+            if (annotationSetItem == null) {
+                //a parameter without annotations. Use an empty set, like smali does
+                annotationSetCopies.add(AnnotationSetItem.internAnnotationSetItem(dexFile, null));
+            } else {
+                annotationSetCopies.add(copyAnnotationSetItem(annotationSetItem));
+            }
+        }
+        return AnnotationSetRefList.internAnnotationSetRefList(dexFile, annotationSetCopies);
+    }
+
+    private AnnotationSetItem copyAnnotationSetItem(AnnotationSetItem annotationSetItem) {
+        if (annotationSetItem == null) {
+            return null;
+        }
+        AnnotationSetItem copy = (AnnotationSetItem)copiedItems.get(annotationSetItem);
+        if (copy == null) {
+            AnnotationItem[] annotations = annotationSetItem.getAnnotations();
+            List<AnnotationItem> annotationCopies = new ArrayList<AnnotationItem>(annotations.length);
+            for (AnnotationItem annotationItem: annotations) {
+                annotationCopies.add(AnnotationItem.internAnnotationItem(dexFile, annotationItem.getVisibility(),
+                        copyAnnotationValue(annotationItem.getEncodedAnnotation())));
+            }
+            copy = AnnotationSetItem.internAnnotationSetItem(dexFile, annotationCopies);
+            copiedItems.put(annotationSetItem, copy);
+        }
+        return copy;
+    }
+
+    private AnnotationEncodedSubValue copyAnnotationValue(AnnotationEncodedSubValue annotationValue) {
+        StringIdItem[] names = new StringIdItem[annotationValue.names.length];
+        EncodedValue[] values = new EncodedValue[annotationValue.values.length];
+
+        for (int i=0; i<names.length; i++) {
+            names[i] = copyStringIdItem(annotationValue.names[i]);
+            values[i] = copyEncodedValue(annotationValue.values[i]);
+        }
+
+        if (annotationValue instanceof AnnotationEncodedValue) {
+            return new AnnotationEncodedValue(copyTypeIdItem(annotationValue.annotationType), names, values);
+        }
+        return new AnnotationEncodedSubValue(copyTypeIdItem(annotationValue.annotationType), names, values);
+    }
+
+    /**
+     * Copies the given encoded value. Values that don't reference any items are returned as-is
+     * @param encodedValue the value to copy
+     * @return the copied value
+     */
+    public EncodedValue copyEncodedValue(EncodedValue encodedValue) {
+        switch (encodedValue.getValueType()) {
+            case VALUE_STRING:
+                return new StringEncodedValue(copyStringIdItem(((StringEncodedValue)encodedValue).value));
+            case VALUE_TYPE:
+                return new TypeEncodedValue(copyTypeIdItem(((TypeEncodedValue)encodedValue).value));
+            case VALUE_FIELD:
+                return new FieldEncodedValue(copyFieldIdItem(((FieldEncodedValue)encodedValue).value));
+            case VALUE_METHOD:
+                return new MethodEncodedValue(copyMethodIdItem(((MethodEncodedValue)encodedValue).value));
+            case VALUE_ENUM:
+                return new EnumEncodedValue(copyFieldIdItem(((EnumEncodedValue)encodedValue).value));
+            case VALUE_ARRAY: {
+                ArrayEncodedSubValue arrayValue = (ArrayEncodedSubValue)encodedValue;
+                EncodedValue[] values = new EncodedValue[arrayValue.values.length];
+                for (int i=0; i<values.length; i++) {
+                    values[i] = copyEncodedValue(arrayValue.values[i]);
+                }
+                if (arrayValue instanceof ArrayEncodedValue) {
+                    return new ArrayEncodedValue(values);
+                }
+                return new ArrayEncodedSubValue(values);
+            }
+            case VALUE_ANNOTATION:
+                return copyAnnotationValue((AnnotationEncodedSubValue)encodedValue);
+            default:
+                return encodedValue;
+        }
+    }
+}
@@ -0,0 +1,500 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.dexlib.Util;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class collects the time spent in and the memory allocated by each phase of a smali or baksmali run, along
+ * with some counts of the work that was done.
+ *
+ * Collection is disabled by default. When it is disabled, starting and ending a phase and incrementing a counter only
+ * check a volatile flag. The times of nested phases are exclusive - while a nested phase is running, its time is not
+ * added to the enclosing phase. Each thread tracks its own nesting, and the totals are shared across threads.
+ *
+ * Phases are timed like this:
+ * <pre>
+ * Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.PLACE);
+ * try {
+ *     ...
+ * } finally {
+ *     Metrics.endPhase(timer);
+ * }
+ * </pre>
+ */
+public class Metrics {
+    public static enum Phase {
+        DEX_PARSING("dex parsing"),
+        CLASS_PATH("class path loading"),
+        ANALYSIS("method analysis"),
+        VERIFICATION("method verification"),
+        RENDERING("smali rendering"),
+        FILE_IO("file i/o"),
+        LEXING("lexing"),
+        PARSING("parsing"),
+        TREE_WALKING("tree walking"),
+        FIX_INSTRUCTIONS("fixing instructions"),
+        PLACE("placing items"),
+        WRITE("writing dex file");
+
+        public final String description;
+
+        private Phase(String description) {
+            this.description = description;
+        }
+    }
+
+    public static enum Counter {
+        DEX_FILES("dex files parsed"),
+        SMALI_FILES("smali files assembled"),
+        CLASSES("classes"),
+        METHODS("methods"),
+        INSTRUCTIONS("instructions"),
+        ANALYZED_METHODS("analyzed methods"),
+        ANALYZER_ITERATIONS("analyzer iterations");
+
+        public final String description;
+
+        private Counter(String description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * The name that the metrics MBean is registered under
+     */
+    public static final String OBJECT_NAME = "org.jf.smali:type=Metrics";
+
+    private static final Phase[] phases = Phase.values();
+    private static final Counter[] counters = Counter.values();
+
+    private static volatile boolean enabled = false;
+
+    private static final AtomicLongArray wallTimes = new AtomicLongArray(phases.length);
+    private static final AtomicLongArray cpuTimes = new AtomicLongArray(phases.length);
+    private static final AtomicLongArray allocatedBytes = new AtomicLongArray(phases.length);
+    private static final AtomicLongArray invocations = new AtomicLongArray(phases.length);
+    private static final AtomicLongArray counterValues = new AtomicLongArray(counters.length);
+
+    private static final ThreadLocal<PhaseTimer> currentTimer = new ThreadLocal<PhaseTimer>();
+
+    private static ThreadMXBean threadMXBean = null;
+    //com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long), if this JVM has it
+    private static Method getThreadAllocatedBytes = null;
+    private static boolean mBeanRegistered = false;
+
+    /**
+     * This class is uninstantiable.
+     */
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static synchronized void setEnabled(boolean enabled) {
+        if (enabled && threadMXBean == null) {
+            initThreadMXBean();
+        }
+        Metrics.enabled = enabled;
+    }
+
+    private static void initThreadMXBean() {
+        threadMXBean = ManagementFactory.getThreadMXBean();
+        try {
+            if (threadMXBean.isCurrentThreadCpuTimeSupported() && !threadMXBean.isThreadCpuTimeEnabled()) {
+                threadMXBean.setThreadCpuTimeEnabled(true);
+            }
+        } catch (UnsupportedOperationException ex) {
+        } catch (SecurityException ex) {
+        }
+
+        try {
+            Class sunThreadMXBean = Class.forName("com.sun.management.ThreadMXBean");
+            if (sunThreadMXBean.isInstance(threadMXBean)) {
+                getThreadAllocatedBytes = sunThreadMXBean.getMethod("getThreadAllocatedBytes", long.class);
+                getThreadAllocatedBytes.invoke(threadMXBean, Thread.currentThread().getId());
+            }
+        } catch (Exception ex) {
+            getThreadAllocatedBytes = null;
+        }
+    }
+
+    /**
+     * Starts timing a phase on the current thread. If another phase is already running on this thread, it is paused
+     * until the new phase ends.
+     * @param phase the phase to start
+     * @return the timer to pass to <code>endPhase</code>, or null if metrics are disabled
+     */
+    public static PhaseTimer startPhase(Phase phase) {
+        if (!enabled) {
+            return null;
+        }
+
+        long wallTime = System.nanoTime();
+        long cpuTime = getCurrentThreadCpuTime();
+        long allocated = getCurrentThreadAllocatedBytes();
+
+        PhaseTimer parent = currentTimer.get();
+        if (parent != null) {
+            parent.accumulate(wallTime, cpuTime, allocated);
+        }
+
+        PhaseTimer timer = new PhaseTimer(phase, parent, wallTime, cpuTime, allocated);
+        currentTimer.set(timer);
+        return timer;
+    }
+
+    /**
+     * Ends the given phase, and resumes the phase that it was nested in, if any
+     * @param timer the timer returned by <code>startPhase</code>. This may be null
+     */
+    public static void endPhase(PhaseTimer timer) {
+        if (timer == null) {
+            return;
+        }
+
+        long wallTime = System.nanoTime();
+        long cpuTime = getCurrentThreadCpuTime();
+        long allocated = getCurrentThreadAllocatedBytes();
+
+        timer.accumulate(wallTime, cpuTime, allocated);
+        invocations.incrementAndGet(timer.phase.ordinal());
+
+        currentTimer.set(timer.parent);
+        if (timer.parent != null) {
+            timer.parent.restart(wallTime, cpuTime, allocated);
+        }
+    }
+
+    public static void count(Counter counter) {
+        if (enabled) {
+            counterValues.incrementAndGet(counter.ordinal());
+        }
+    }
+
+    public static void count(Counter counter, long amount) {
+        if (enabled) {
+            counterValues.addAndGet(counter.ordinal(), amount);
+        }
+    }
+
+    /**
+     * @return a copy of the current totals
+     */
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    /**
+     * Sets all totals back to 0
+     */
+    public static void reset() {
+        for (int i=0; i<phases.length; i++) {
+            wallTimes.set(i, 0);
+            cpuTimes.set(i, 0);
+            allocatedBytes.set(i, 0);
+            invocations.set(i, 0);
+        }
+        for (int i=0; i<counters.length; i++) {
+            counterValues.set(i, 0);
+        }
+    }
+
+    /**
+     * Registers an MBean with the platform MBean server that exposes the totals, under <code>OBJECT_NAME</code>
+     */
+    public static synchronized void registerMBean() throws JMException {
+        if (mBeanRegistered) {
+            return;
+        }
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean(new MetricsView(), MetricsMBean.class), new ObjectName(OBJECT_NAME));
+        mBeanRegistered = true;
+    }
+
+    private static long getCurrentThreadCpuTime() {
+        ThreadMXBean threadMXBean = Metrics.threadMXBean;
+        if (threadMXBean == null || !threadMXBean.isCurrentThreadCpuTimeSupported()) {
+            return 0;
+        }
+        long cpuTime = threadMXBean.getCurrentThreadCpuTime();
+        return cpuTime<0?0:cpuTime;
+    }
+
+    private static long getCurrentThreadAllocatedBytes() {
+        Method getThreadAllocatedBytes = Metrics.getThreadAllocatedBytes;
+        if (getThreadAllocatedBytes == null) {
+            return 0;
+        }
+        try {
+            long allocated = (Long)getThreadAllocatedBytes.invoke(threadMXBean, Thread.currentThread().getId());
+            return allocated<0?0:allocated;
+        } catch (Exception ex) {
+            return 0;
+        }
+    }
+
+    public static final class PhaseTimer {
+        private final Phase phase;
+        private final PhaseTimer parent;
+        private long wallStart;
+        private long cpuStart;
+        private long allocatedStart;
+
+        private PhaseTimer(Phase phase, PhaseTimer parent, long wallStart, long cpuStart, long allocatedStart) {
+            this.phase = phase;
+            this.parent = parent;
+            restart(wallStart, cpuStart, allocatedStart);
+        }
+
+        private void restart(long wallTime, long cpuTime, long allocated) {
+            wallStart = wallTime;
+            cpuStart = cpuTime;
+            allocatedStart = allocated;
+        }
+
+        private void accumulate(long wallTime, long cpuTime, long allocated) {
+            int index = phase.ordinal();
+            wallTimes.addAndGet(index, wallTime - wallStart);
+            cpuTimes.addAndGet(index, cpuTime - cpuStart);
+            allocatedBytes.addAndGet(index, allocated - allocatedStart);
+            restart(wallTime, cpuTime, allocated);
+        }
+    }
+
+    /**
+     * An immutable copy of the totals at some point in time
+     */
+    public static class Snapshot {
+        private final long[] wallTimes = new long[phases.length];
+        private final long[] cpuTimes = new long[phases.length];
+        private final long[] allocatedBytes = new long[phases.length];
+        private final long[] invocations = new long[phases.length];
+        private final long[] counterValues = new long[counters.length];
+
+        private Snapshot() {
+            for (int i=0; i<phases.length; i++) {
+                wallTimes[i] = Metrics.wallTimes.get(i);
+                cpuTimes[i] = Metrics.cpuTimes.get(i);
+                allocatedBytes[i] = Metrics.allocatedBytes.get(i);
+                invocations[i] = Metrics.invocations.get(i);
+            }
+            for (int i=0; i<counters.length; i++) {
+                counterValues[i] = Metrics.counterValues.get(i);
+            }
+        }
+
+        private Snapshot(Snapshot snapshot, Snapshot earlier) {
+            for (int i=0; i<phases.length; i++) {
+                wallTimes[i] = snapshot.wallTimes[i] - earlier.wallTimes[i];
+                cpuTimes[i] = snapshot.cpuTimes[i] - earlier.cpuTimes[i];
+                allocatedBytes[i] = snapshot.allocatedBytes[i] - earlier.allocatedBytes[i];
+                invocations[i] = snapshot.invocations[i] - earlier.invocations[i];
+            }
+            for (int i=0; i<counters.length; i++) {
+                counterValues[i] = snapshot.counterValues[i] - earlier.counterValues[i];
+            }
+        }
+
+        /**
+         * @param earlier a snapshot that was taken before this one
+         * @return the totals accumulated between the two snapshots
+         */
+        public Snapshot since(Snapshot earlier) {
+            return new Snapshot(this, earlier);
+        }
+
+        public long getWallTime(Phase phase) {
+            return wallTimes[phase.ordinal()];
+        }
+
+        public long getCpuTime(Phase phase) {
+            return cpuTimes[phase.ordinal()];
+        }
+
+        public long getAllocatedBytes(Phase phase) {
+            return allocatedBytes[phase.ordinal()];
+        }
+
+        public long getInvocations(Phase phase) {
+            return invocations[phase.ordinal()];
+        }
+
+        public long getCount(Counter counter) {
+            return counterValues[counter.ordinal()];
+        }
+
+        /**
+         * Prints a table of the phases that ran, followed by the non-zero counters
+         */
+        public void printSummary(PrintStream out) {
+            out.println(String.format("%-22s %10s %12s %12s %14s", "phase", "calls", "wall ms", "cpu ms",
+                    "allocated KB"));
+
+            long totalWallTime = 0;
+            long totalCpuTime = 0;
+            long totalAllocatedBytes = 0;
+            for (Phase phase: phases) {
+                int index = phase.ordinal();
+                if (invocations[index] == 0) {
+                    continue;
+                }
+                out.println(String.format("%-22s %10d %12.1f %12.1f %14d", phase.description, invocations[index],
+                        wallTimes[index] / 1000000.0, cpuTimes[index] / 1000000.0, allocatedBytes[index] / 1024));
+                totalWallTime += wallTimes[index];
+                totalCpuTime += cpuTimes[index];
+                totalAllocatedBytes += allocatedBytes[index];
+            }
+            out.println(String.format("%-22s %10s %12.1f %12.1f %14d", "total", "", totalWallTime / 1000000.0,
+                    totalCpuTime / 1000000.0, totalAllocatedBytes / 1024));
+
+            for (Counter counter: counters) {
+                long value = counterValues[counter.ordinal()];
+                if (value != 0) {
+                    out.println(String.format("%-22s %10d", counter.description, value));
+                }
+            }
+        }
+
+        /**
+         * Writes the totals as a JSON object, with a "phases" object and a "counters" object. Times are in
+         * nanoseconds.
+         */
+        public void writeJson(Writer writer) throws IOException {
+            writer.write("{\n  \"phases\": {");
+            for (int i=0; i<phases.length; i++) {
+                writer.write(i==0?"\n":",\n");
+                writer.write(String.format("    \"%s\": {\"invocations\": %d, \"wallNanos\": %d, \"cpuNanos\": %d, " +
+                        "\"allocatedBytes\": %d}", getJsonName(phases[i]), invocations[i], wallTimes[i], cpuTimes[i],
+                        allocatedBytes[i]));
+            }
+            writer.write("\n  },\n  \"counters\": {");
+            for (int i=0; i<counters.length; i++) {
+                writer.write(i==0?"\n":",\n");
+                writer.write(String.format("    \"%s\": %d", getJsonName(counters[i]), counterValues[i]));
+            }
+            writer.write("\n  }\n}\n");
+        }
+
+        private static String getJsonName(Enum value) {
+            return value.name().toLowerCase();
+        }
+    }
+
+    /**
+     * The management interface of the metrics MBean. The values of the phase attributes are in the order of the
+     * phase names, and likewise for the counters.
+     */
+    public static interface MetricsMBean {
+        boolean isEnabled();
+        void setEnabled(boolean enabled);
+        String[] getPhaseNames();
+        long[] getPhaseInvocations();
+        long[] getPhaseWallTimeNanos();
+        long[] getPhaseCpuTimeNanos();
+        long[] getPhaseAllocatedBytes();
+        String[] getCounterNames();
+        long[] getCounterValues();
+        String getJson();
+        void reset();
+    }
+
+    private static class MetricsView implements MetricsMBean {
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+
+        public void setEnabled(boolean enabled) {
+            Metrics.setEnabled(enabled);
+        }
+
+        public String[] getPhaseNames() {
+            String[] names = new String[phases.length];
+            for (int i=0; i<phases.length; i++) {
+                names[i] = Snapshot.getJsonName(phases[i]);
+            }
+            return names;
+        }
+
+        public long[] getPhaseInvocations() {
+            return snapshot().invocations;
+        }
+
+        public long[] getPhaseWallTimeNanos() {
+            return snapshot().wallTimes;
+        }
+
+        public long[] getPhaseCpuTimeNanos() {
+            return snapshot().cpuTimes;
+        }
+
+        public long[] getPhaseAllocatedBytes() {
+            return snapshot().allocatedBytes;
+        }
+
+        public String[] getCounterNames() {
+            String[] names = new String[counters.length];
+            for (int i=0; i<counters.length; i++) {
+                names[i] = Snapshot.getJsonName(counters[i]);
+            }
+            return names;
+        }
+
+        public long[] getCounterValues() {
+            return snapshot().counterValues;
+        }
+
+        public String getJson() {
+            StringWriter writer = new StringWriter();
+            try {
+                snapshot().writeJson(writer);
+            } catch (IOException ex) {
+                //can't happen with a StringWriter
+            }
+            return writer.toString();
+        }
+
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
@@ -68,12 +68,12 @@ public final class Utf8Utils {
         return result;
     }
 
-    private static char[] tempBuffer = null;
+    private static final ThreadLocal<char[]> tempBuffer = new ThreadLocal<char[]>();
 
     /**
      * Converts an array of UTF-8 bytes into a string.
      *
-     * This method uses a global buffer to avoid having to allocate one every time, so it is *not* thread-safe
+     * This method uses a per-thread buffer to avoid having to allocate one every time
      *
      * @param bytes non-null; the bytes to convert
      * @param start the start index of the utf8 string to convert
@@ -81,10 +81,11 @@ public final class Utf8Utils {
      * @return non-null; the converted string
      */
     public static String utf8BytesToString(byte[] bytes, int start, int length) {
-        if (tempBuffer == null || tempBuffer.length < length) {
-            tempBuffer = new char[length];
+        char[] chars = tempBuffer.get();
+        if (chars == null || chars.length < length) {
+            chars = new char[length];
+            tempBuffer.set(chars);
         }
-        char[] chars = tempBuffer;
         int outAt = 0;
 
         for (int at = start; length > 0; /*at*/) {
@@ -164,6 +165,75 @@ public final class Utf8Utils {
         return new String(chars, 0, outAt);
     }
 
+    /**
+     * Calculates the hash code of the string that the given UTF-8 bytes encode, without decoding them into a
+     * <code>String</code>. This is the same value that <code>hashCode()</code> returns for the decoded string.
+     *
+     * The bytes are expected to be valid, since they aren't checked here
+     *
+     * @param bytes non-null; the bytes of the string
+     * @param start the start index of the utf8 string
+     * @param length the length of the utf8 string, not including any null-terminator that might be present
+     * @return the hash code of the string
+     */
+    public static int utf8BytesHashCode(byte[] bytes, int start, int length) {
+        int hashCode = 0;
+        int end = start + length;
+
+        for (int at = start; at < end; /*at*/) {
+            int v0 = bytes[at] & 0xFF;
+            if (v0 < 0x80) {
+                hashCode = 31 * hashCode + v0;
+                at++;
+            } else if (v0 < 0xe0) {
+                hashCode = 31 * hashCode + (((v0 & 0x1f) << 6) | (bytes[at + 1] & 0x3f));
+                at += 2;
+            } else {
+                hashCode = 31 * hashCode + (((v0 & 0x0f) << 12) | ((bytes[at + 1] & 0x3f) << 6) |
+                        (bytes[at + 2] & 0x3f));
+                at += 3;
+            }
+        }
+        return hashCode;
+    }
+
+    /**
+     * Checks whether the given UTF-8 bytes encode the given string, without decoding them into a
+     * <code>String</code>.
+     *
+     * The bytes are expected to be valid, since they aren't checked here
+     *
+     * @param bytes non-null; the bytes of the string
+     * @param start the start index of the utf8 string
+     * @param length the length of the utf8 string, not including any null-terminator that might be present
+     * @param string non-null; the string to compare against
+     * @return true if the bytes encode the given string
+     */
+    public static boolean utf8BytesEqualsString(byte[] bytes, int start, int length, String string) {
+        int end = start + length;
+        int stringLength = string.length();
+        int index = 0;
+
+        for (int at = start; at < end; /*at*/) {
+            int v0 = bytes[at] & 0xFF;
+            int c;
+            if (v0 < 0x80) {
+                c = v0;
+                at++;
+            } else if (v0 < 0xe0) {
+                c = ((v0 & 0x1f) << 6) | (bytes[at + 1] & 0x3f);
+                at += 2;
+            } else {
+                c = ((v0 & 0x0f) << 12) | ((bytes[at + 1] & 0x3f) << 6) | (bytes[at + 2] & 0x3f);
+                at += 3;
+            }
+            if (index == stringLength || string.charAt(index++) != c) {
+                return false;
+            }
+        }
+        return index == stringLength;
+    }
+
     /**
      * Helper for {@link #utf8BytesToString}, which throws the right
      * exception for a bogus utf-8 byte.
@@ -0,0 +1,542 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.dexlib.Util;
+
+import org.jf.dexlib.*;
+import org.jf.dexlib.Code.InstructionCursor;
+import org.jf.dexlib.Code.Opcode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class is an index of the cross references in the code of a <code>DexFile</code>. It contains the methods that
+ * call each method, the methods that read or write each field, and the methods that use each string or type.
+ *
+ * The index is built in a single pass over the code items of the dex file, which is split across several threads.
+ * Each kind of reference is stored as a set of int arrays, with a range of entries for each method, field, string or
+ * type id, so that looking up the references to an item only takes time proportional to the number of references.
+ * The references to an item are in the order that they appear in the dex file.
+ *
+ * Only the instructions that refer to an item directly are indexed. The odexed instructions, which refer to a vtable
+ * index or a field offset instead, aren't included.
+ *
+ * The index refers to the items by their index, so the dex file must not be changed after the index has been built.
+ * The index can be written to a file, and read back in for the same dex file.
+ */
+public class XrefIndex {
+    private static final int MAGIC = 0x66657278; //"xref"
+    private static final int VERSION = 1;
+
+    private final DexFile dexFile;
+
+    private final XrefTable callers;
+    private final XrefTable fieldReaders;
+    private final XrefTable fieldWriters;
+    private final XrefTable stringUsers;
+    private final XrefTable typeUsers;
+
+    private XrefIndex(DexFile dexFile, XrefTable callers, XrefTable fieldReaders, XrefTable fieldWriters,
+                      XrefTable stringUsers, XrefTable typeUsers) {
+        this.dexFile = dexFile;
+        this.callers = callers;
+        this.fieldReaders = fieldReaders;
+        this.fieldWriters = fieldWriters;
+        this.stringUsers = stringUsers;
+        this.typeUsers = typeUsers;
+    }
+
+    /**
+     * Builds the cross reference index for the given dex file, using one thread per processor
+     * @param dexFile the dex file to index. This must be a dex file that has been read in or placed
+     * @return the cross reference index for the dex file
+     */
+    public static XrefIndex buildIndex(DexFile dexFile) {
+        return buildIndex(dexFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Builds the cross reference index for the given dex file
+     * @param dexFile the dex file to index. This must be a dex file that has been read in or placed
+     * @param threads the number of threads to use
+     * @return the cross reference index for the dex file
+     */
+    public static XrefIndex buildIndex(DexFile dexFile, int threads) {
+        final List<ClassDefItem> classDefItems = dexFile.ClassDefsSection.getItems();
+
+        //split the classes into more chunks than there are threads, so that the threads are kept busy when the
+        //classes in some chunks have more code than others
+        threads = Math.max(1, Math.min(threads, classDefItems.size()));
+        int chunkCount = threads==1?1:Math.min(threads * 4, classDefItems.size());
+
+        List<XrefChunk> chunks = new ArrayList<XrefChunk>(chunkCount);
+        if (chunkCount == 1) {
+            chunks.add(indexClasses(classDefItems, 0, classDefItems.size()));
+        } else {
+            List<Callable<XrefChunk>> tasks = new ArrayList<Callable<XrefChunk>>(chunkCount);
+            for (int i=0; i<chunkCount; i++) {
+                final int start = (int)((long)classDefItems.size() * i / chunkCount);
+                final int end = (int)((long)classDefItems.size() * (i+1) / chunkCount);
+                tasks.add(new Callable<XrefChunk>() {
+                    public XrefChunk call() {
+                        return indexClasses(classDefItems, start, end);
+                    }
+                });
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                for (Future<XrefChunk> result: executor.invokeAll(tasks)) {
+                    chunks.add(result.get());
+                }
+            } catch (InterruptedException ex) {
+                throw ExceptionWithContext.withContext(ex, "Interrupted while building the xref index");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                throw ExceptionWithContext.withContext(cause, "Error while building the xref index");
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        List<XrefList> lists = new ArrayList<XrefList>(chunks.size());
+        for (XrefChunk chunk: chunks) {
+            lists.add(chunk.callers);
+        }
+        XrefTable callers = XrefTable.build(dexFile.MethodIdsSection.getItems().size(), lists);
+
+        lists.clear();
+        for (XrefChunk chunk: chunks) {
+            lists.add(chunk.fieldReaders);
+        }
+        XrefTable fieldReaders = XrefTable.build(dexFile.FieldIdsSection.getItems().size(), lists);
+
+        lists.clear();
+        for (XrefChunk chunk: chunks) {
+            lists.add(chunk.fieldWriters);
+        }
+        XrefTable fieldWriters = XrefTable.build(dexFile.FieldIdsSection.getItems().size(), lists);
+
+        lists.clear();
+        for (XrefChunk chunk: chunks) {
+            lists.add(chunk.stringUsers);
+        }
+        XrefTable stringUsers = XrefTable.build(dexFile.StringIdsSection.getItems().size(), lists);
+
+        lists.clear();
+        for (XrefChunk chunk: chunks) {
+            lists.add(chunk.typeUsers);
+        }
+        XrefTable typeUsers = XrefTable.build(dexFile.TypeIdsSection.getItems().size(), lists);
+
+        return new XrefIndex(dexFile, callers, fieldReaders, fieldWriters, stringUsers, typeUsers);
+    }
+
+    /**
+     * Collects the references in the methods of the classes in the given range
+     */
+    private static XrefChunk indexClasses(List<ClassDefItem> classDefItems, int start, int end) {
+        XrefChunk chunk = new XrefChunk();
+        for (int i=start; i<end; i++) {
+            ClassDataItem classDataItem = classDefItems.get(i).getClassData();
+            if (classDataItem == null) {
+                continue;
+            }
+            indexMethods(chunk, classDataItem.getDirectMethods());
+            indexMethods(chunk, classDataItem.getVirtualMethods());
+        }
+        return chunk;
+    }
+
+    private static void indexMethods(XrefChunk chunk, ClassDataItem.EncodedMethod[] encodedMethods) {
+        for (ClassDataItem.EncodedMethod encodedMethod: encodedMethods) {
+            CodeItem codeItem = encodedMethod.codeItem;
+            if (codeItem == null) {
+                continue;
+            }
+
+            int methodIndex = encodedMethod.method.getIndex();
+
+            //scan the encoded instructions directly, rather than decoding them into Instruction objects. The
+            //reference type is taken from the opcode, so that throw-verification-error, which only names the kind
+            //of item it failed to resolve, isn't included
+            InstructionCursor cursor = codeItem.getInstructionCursor();
+            while (cursor.next()) {
+                Opcode opcode = cursor.getOpcode();
+                switch (opcode.referenceType) {
+                    case method:
+                        chunk.callers.add(cursor.getReferenceIndex(), methodIndex, cursor.getCodeAddress());
+                        break;
+                    case field:
+                        //the field get instructions are the ones that set a register
+                        if (opcode.setsRegister()) {
+                            chunk.fieldReaders.add(cursor.getReferenceIndex(), methodIndex, cursor.getCodeAddress());
+                        } else {
+                            chunk.fieldWriters.add(cursor.getReferenceIndex(), methodIndex, cursor.getCodeAddress());
+                        }
+                        break;
+                    case string:
+                        chunk.stringUsers.add(cursor.getReferenceIndex(), methodIndex, cursor.getCodeAddress());
+                        break;
+                    case type:
+                        chunk.typeUsers.add(cursor.getReferenceIndex(), methodIndex, cursor.getCodeAddress());
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param method the method to get the callers of
+     * @return the invoke instructions that call the given method
+     */
+    public Xrefs getCallers(MethodIdItem method) {
+        assert method.getDexFile() == dexFile;
+        return callers.getXrefs(this, method.getIndex());
+    }
+
+    /**
+     * @param field the field to get the readers of
+     * @return the iget and sget instructions that read the given field
+     */
+    public Xrefs getFieldReaders(FieldIdItem field) {
+        assert field.getDexFile() == dexFile;
+        return fieldReaders.getXrefs(this, field.getIndex());
+    }
+
+    /**
+     * @param field the field to get the writers of
+     * @return the iput and sput instructions that write the given field
+     */
+    public Xrefs getFieldWriters(FieldIdItem field) {
+        assert field.getDexFile() == dexFile;
+        return fieldWriters.getXrefs(this, field.getIndex());
+    }
+
+    /**
+     * @param string the string to get the users of
+     * @return the const-string instructions that use the given string
+     */
+    public Xrefs getStringUsers(StringIdItem string) {
+        assert string.getDexFile() == dexFile;
+        return stringUsers.getXrefs(this, string.getIndex());
+    }
+
+    /**
+     * @param type the type to get the users of
+     * @return the instructions that refer to the given type directly, e.g. new-instance, check-cast and const-class
+     */
+    public Xrefs getTypeUsers(TypeIdItem type) {
+        assert type.getDexFile() == dexFile;
+        return typeUsers.getXrefs(this, type.getIndex());
+    }
+
+    /**
+     * @return the dex file that this index is for
+     */
+    public DexFile getDexFile() {
+        return dexFile;
+    }
+
+    /**
+     * Writes this index to the given file
+     * @param file the file to write to
+     */
+    public void write(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(toByteArray());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return this index in serialized form
+     */
+    public byte[] toByteArray() {
+        ByteArrayOutput out = new ByteArrayOutput();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(dexFile.MethodIdsSection.getItems().size());
+        out.writeInt(dexFile.FieldIdsSection.getItems().size());
+        out.writeInt(dexFile.StringIdsSection.getItems().size());
+        out.writeInt(dexFile.TypeIdsSection.getItems().size());
+        callers.write(out);
+        fieldReaders.write(out);
+        fieldWriters.write(out);
+        stringUsers.write(out);
+        typeUsers.write(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads in an index that was written by <code>write</code>
+     * @param file the file to read the index from
+     * @param dexFile the dex file that the index was built for
+     * @return the index
+     */
+    public static XrefIndex read(File file, DexFile dexFile) throws IOException {
+        return fromByteArray(FileUtils.readFile(file), dexFile);
+    }
+
+    /**
+     * Reads in an index that was serialized by <code>toByteArray</code>
+     * @param bytes the serialized index
+     * @param dexFile the dex file that the index was built for
+     * @return the index
+     */
+    public static XrefIndex fromByteArray(byte[] bytes, DexFile dexFile) {
+        ByteArrayInput in = new ByteArrayInput(bytes);
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new ExceptionWithContext("Not an xref index");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new ExceptionWithContext(String.format("Unsupported xref index version %d", version));
+            }
+
+            int methodCount = dexFile.MethodIdsSection.getItems().size();
+            int fieldCount = dexFile.FieldIdsSection.getItems().size();
+            int stringCount = dexFile.StringIdsSection.getItems().size();
+            int typeCount = dexFile.TypeIdsSection.getItems().size();
+            if (in.readInt() != methodCount || in.readInt() != fieldCount || in.readInt() != stringCount ||
+                    in.readInt() != typeCount) {
+                throw new ExceptionWithContext("The xref index was built for a different dex file");
+            }
+
+            XrefTable callers = XrefTable.read(in, methodCount, methodCount);
+            XrefTable fieldReaders = XrefTable.read(in, fieldCount, methodCount);
+            XrefTable fieldWriters = XrefTable.read(in, fieldCount, methodCount);
+            XrefTable stringUsers = XrefTable.read(in, stringCount, methodCount);
+            XrefTable typeUsers = XrefTable.read(in, typeCount, methodCount);
+
+            if (in.getCursor() != bytes.length) {
+                throw new ExceptionWithContext("Unexpected data at the end of the xref index");
+            }
+
+            return new XrefIndex(dexFile, callers, fieldReaders, fieldWriters, stringUsers, typeUsers);
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            throw new ExceptionWithContext("The xref index is truncated", ex);
+        }
+    }
+
+    /**
+     * The references to a single item. Each reference is an instruction, identified by the method that contains it
+     * and its code address
+     */
+    public static class Xrefs {
+        private final XrefIndex xrefIndex;
+        private final XrefTable table;
+        private final int start;
+        private final int end;
+
+        private Xrefs(XrefIndex xrefIndex, XrefTable table, int start, int end) {
+            this.xrefIndex = xrefIndex;
+            this.table = table;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return the number of references
+         */
+        public int size() {
+            return end - start;
+        }
+
+        /**
+         * @param i the index of the reference
+         * @return the index of the method id item of the method containing the referencing instruction
+         */
+        public int getMethodIndex(int i) {
+            return table.methods[checkIndex(i)];
+        }
+
+        /**
+         * @param i the index of the reference
+         * @return the method containing the referencing instruction
+         */
+        public MethodIdItem getMethod(int i) {
+            return xrefIndex.dexFile.MethodIdsSection.getItemByIndex(getMethodIndex(i));
+        }
+
+        /**
+         * @param i the index of the reference
+         * @return the code address of the referencing instruction, in 16-bit code units
+         */
+        public int getCodeAddress(int i) {
+            return table.codeAddresses[checkIndex(i)];
+        }
+
+        private int checkIndex(int i) {
+            if (i < 0 || i >= end - start) {
+                throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", i, end - start));
+            }
+            return start + i;
+        }
+    }
+
+    /**
+     * One kind of reference, for all of the items of one type. The references to the item with index i are stored at
+     * the positions from offsets[i] to offsets[i+1] in the methods and codeAddresses arrays
+     */
+    private static class XrefTable {
+        private final int[] offsets;
+        private final int[] methods;
+        private final int[] codeAddresses;
+
+        private XrefTable(int[] offsets, int[] methods, int[] codeAddresses) {
+            this.offsets = offsets;
+            this.methods = methods;
+            this.codeAddresses = codeAddresses;
+        }
+
+        /**
+         * Builds a table from the references that were collected for each chunk of classes, keeping them in order
+         */
+        public static XrefTable build(int itemCount, List<XrefList> lists) {
+            int[] offsets = new int[itemCount + 1];
+            for (XrefList list: lists) {
+                for (int i=0; i<list.size; i+=3) {
+                    offsets[list.data[i] + 1]++;
+                }
+            }
+            for (int i=0; i<itemCount; i++) {
+                offsets[i+1] += offsets[i];
+            }
+
+            int[] methods = new int[offsets[itemCount]];
+            int[] codeAddresses = new int[methods.length];
+
+            int[] positions = new int[itemCount];
+            System.arraycopy(offsets, 0, positions, 0, itemCount);
+            for (XrefList list: lists) {
+                for (int i=0; i<list.size; i+=3) {
+                    int position = positions[list.data[i]]++;
+                    methods[position] = list.data[i+1];
+                    codeAddresses[position] = list.data[i+2];
+                }
+            }
+
+            return new XrefTable(offsets, methods, codeAddresses);
+        }
+
+        public Xrefs getXrefs(XrefIndex xrefIndex, int itemIndex) {
+            return new Xrefs(xrefIndex, this, offsets[itemIndex], offsets[itemIndex+1]);
+        }
+
+        public void write(ByteArrayOutput out) {
+            //the offsets are written as the number of references to each item
+            for (int i=0; i<offsets.length-1; i++) {
+                out.writeInt(offsets[i+1] - offsets[i]);
+            }
+            for (int i=0; i<methods.length; i++) {
+                out.writeInt(methods[i]);
+                out.writeInt(codeAddresses[i]);
+            }
+        }
+
+        public static XrefTable read(ByteArrayInput in, int itemCount, int methodCount) {
+            int length = in.getArray().length;
+
+            //each reference takes 8 bytes, so the total number of references can't be more than the remaining bytes
+            //allow. This is checked as the counts are read, so that a corrupt count can't cause the total to overflow
+            //or a huge array to be allocated
+            int[] offsets = new int[itemCount + 1];
+            long totalCount = 0;
+            for (int i=0; i<itemCount; i++) {
+                int count = in.readInt();
+                if (count < 0) {
+                    throw new ExceptionWithContext("Invalid reference count in the xref index");
+                }
+                totalCount += count;
+                if (totalCount > (length - in.getCursor()) / 8) {
+                    throw new ExceptionWithContext("The xref index is truncated");
+                }
+                offsets[i+1] = (int)totalCount;
+            }
+
+            int[] methods = new int[offsets[itemCount]];
+            int[] codeAddresses = new int[methods.length];
+            for (int i=0; i<methods.length; i++) {
+                methods[i] = in.readInt();
+                if (methods[i] < 0 || methods[i] >= methodCount) {
+                    throw new ExceptionWithContext("Invalid method index in the xref index");
+                }
+                codeAddresses[i] = in.readInt();
+            }
+
+            return new XrefTable(offsets, methods, codeAddresses);
+        }
+    }
+
+    /**
+     * The references of each kind that were found in a chunk of classes
+     */
+    private static class XrefChunk {
+        public final XrefList callers = new XrefList();
+        public final XrefList fieldReaders = new XrefList();
+        public final XrefList fieldWriters = new XrefList();
+        public final XrefList stringUsers = new XrefList();
+        public final XrefList typeUsers = new XrefList();
+    }
+
+    /**
+     * A growable list of references, stored as (item index, method index, code address) triples
+     */
+    private static class XrefList {
+        public int[] data = new int[48];
+        public int size = 0;
+
+        public void add(int itemIndex, int methodIndex, int codeAddress) {
+            if (size + 3 > data.length) {
+                int[] newData = new int[data.length * 2];
+                System.arraycopy(data, 0, newData, 0, size);
+                data = newData;
+            }
+            data[size++] = itemIndex;
+            data[size++] = methodIndex;
+            data[size++] = codeAddress;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.dexlib.Code;
+
+import org.jf.dexlib.*;
+import org.jf.dexlib.Code.Format.*;
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Checks that <code>InstructionCursor</code> reads the same values as the <code>Instruction</code> objects that the
+ * instructions are decoded into, for a method with an instruction of every format
+ */
+public class InstructionCursorTest {
+    /**
+     * Builds the instructions of the test method, which has an instruction of every format, with register numbers,
+     * literals and offsets that use the full width of their fields
+     * @param payloadOffsets the offsets from the packed-switch, sparse-switch and fill-array-data instructions to
+     * their payloads
+     */
+    private static List<Instruction> getTestInstructions(DexFile dexFile, int[] payloadOffsets) {
+        TypeIdItem type = TypeIdItem.internTypeIdItem(dexFile, "LTest;");
+        TypeIdItem intType = TypeIdItem.internTypeIdItem(dexFile, "I");
+        TypeIdItem arrayType = TypeIdItem.internTypeIdItem(dexFile, "[I");
+        StringIdItem string = StringIdItem.internStringIdItem(dexFile, "test string");
+        FieldIdItem field = FieldIdItem.internFieldIdItem(dexFile, type, intType,
+                StringIdItem.internStringIdItem(dexFile, "field"));
+        MethodIdItem method = MethodIdItem.internMethodIdItem(dexFile, type,
+                ProtoIdItem.internProtoIdItem(dexFile, TypeIdItem.internTypeIdItem(dexFile, "V"), null),
+                StringIdItem.internStringIdItem(dexFile, "method"));
+        MethodIdItem fiveArgMethod = MethodIdItem.internMethodIdItem(dexFile, type,
+                ProtoIdItem.internProtoIdItem(dexFile, TypeIdItem.internTypeIdItem(dexFile, "V"),
+                        TypeListItem.internTypeListItem(dexFile,
+                                Arrays.asList(intType, intType, intType, intType, intType))),
+                StringIdItem.internStringIdItem(dexFile, "method"));
+
+        List<Instruction> instructions = new ArrayList<Instruction>();
+        instructions.add(new Instruction10x(Opcode.NOP));
+        instructions.add(new Instruction12x(Opcode.MOVE, (byte)15, (byte)14));
+        instructions.add(new Instruction11n(Opcode.CONST_4, (byte)1, (byte)-8));
+        instructions.add(new Instruction11x(Opcode.MOVE_RESULT, (short)255));
+        instructions.add(new Instruction10t(Opcode.GOTO, 1));
+        instructions.add(new Instruction20t(Opcode.GOTO_16, 2));
+        instructions.add(new Instruction30t(Opcode.GOTO_32, 3));
+        instructions.add(new Instruction21t(Opcode.IF_EQZ, (short)254, (short)2));
+        instructions.add(new Instruction22t(Opcode.IF_EQ, (byte)15, (byte)1, (short)2));
+        instructions.add(new Instruction20bc(Opcode.THROW_VERIFICATION_ERROR, VerificationErrorType.NoClass, type));
+        instructions.add(new Instruction21c(Opcode.CONST_STRING, (short)253, string));
+        instructions.add(new Instruction21c(Opcode.CONST_CLASS, (short)3, type));
+        instructions.add(new Instruction21h(Opcode.CONST_HIGH16, (short)4, (short)-0x8000));
+        instructions.add(new Instruction21s(Opcode.CONST_16, (short)5, (short)-1000));
+        instructions.add(new Instruction22b(Opcode.ADD_INT_LIT8, (short)252, (short)251, (byte)-128));
+        instructions.add(new Instruction22c(Opcode.IGET, (byte)14, (byte)13, field));
+        instructions.add(new Instruction22cs(Opcode.IGET_QUICK, (byte)12, (byte)11, 0xFFF8));
+        instructions.add(new Instruction22s(Opcode.ADD_INT_LIT16, (byte)10, (byte)9, (short)-0x8000));
+        instructions.add(new Instruction22x(Opcode.MOVE_FROM16, (short)250, 0xFFFF));
+        instructions.add(new Instruction23x(Opcode.ADD_INT, (short)249, (short)248, (short)247));
+        instructions.add(new Instruction31c(Opcode.CONST_STRING_JUMBO, (short)246, string));
+        instructions.add(new Instruction31i(Opcode.CONST, (short)245, 0x87654321));
+        instructions.add(new Instruction31t(Opcode.PACKED_SWITCH, (short)244, payloadOffsets[0]));
+        instructions.add(new Instruction31t(Opcode.SPARSE_SWITCH, (short)243, payloadOffsets[1]));
+        instructions.add(new Instruction31t(Opcode.FILL_ARRAY_DATA, (short)242, payloadOffsets[2]));
+        instructions.add(new Instruction32x(Opcode.MOVE_16, 0xFFFF, 0xFFFE));
+        instructions.add(new Instruction35c(Opcode.INVOKE_STATIC, 5, (byte)1, (byte)2, (byte)3, (byte)4, (byte)15,
+                fiveArgMethod));
+        instructions.add(new Instruction35c(Opcode.INVOKE_STATIC, 0, (byte)0, (byte)0, (byte)0, (byte)0, (byte)0,
+                method));
+        instructions.add(new Instruction35mi(Opcode.EXECUTE_INLINE, 2, (byte)6, (byte)7, (byte)0, (byte)0, (byte)0,
+                0xFFFF));
+        instructions.add(new Instruction35ms(Opcode.INVOKE_VIRTUAL_QUICK, 3, (byte)8, (byte)9, (byte)10, (byte)0,
+                (byte)0, 0xFFFF));
+        instructions.add(new Instruction3rc(Opcode.FILLED_NEW_ARRAY_RANGE, (short)255, 0xFF00, arrayType));
+        instructions.add(new Instruction3rmi(Opcode.EXECUTE_INLINE_RANGE, (short)1, 0xFFFF, 0xFFFF));
+        instructions.add(new Instruction3rc(Opcode.INVOKE_STATIC_RANGE, (short)5, 0xFFFA, fiveArgMethod));
+        instructions.add(new Instruction3rms(Opcode.INVOKE_VIRTUAL_QUICK_RANGE, (short)2, 0xFFFE, 0xFFFF));
+        instructions.add(new Instruction41c(Opcode.CONST_CLASS_JUMBO, 0xFFFF, type));
+        instructions.add(new Instruction51l(Opcode.CONST_WIDE, (short)240, 0x8765432112345678L));
+        instructions.add(new Instruction52c(Opcode.IGET_JUMBO, 0xFFFF, 0xFFFE, field));
+        instructions.add(new Instruction5rc(Opcode.FILLED_NEW_ARRAY_JUMBO, 0xFFFF, 0xFFFF, arrayType));
+        instructions.add(new Instruction5rc(Opcode.INVOKE_STATIC_JUMBO, 0, 0xFFFF, method));
+        instructions.add(new Instruction10x(Opcode.RETURN_VOID));
+        return instructions;
+    }
+
+    /**
+     * @return the payloads of the packed-switch, sparse-switch and fill-array-data instructions
+     */
+    private static Instruction[] getTestPayloads() {
+        return new Instruction[] {
+                new PackedSwitchDataPseudoInstruction(-5, new int[] {-10, 20, -30}),
+                new SparseSwitchDataPseudoInstruction(new int[] {Integer.MIN_VALUE, 0, Integer.MAX_VALUE},
+                        new int[] {-10, 20, -30}),
+                new ArrayDataPseudoInstruction(2, new byte[] {1, 2, 3, 4, 5, 6})
+        };
+    }
+
+    /**
+     * Adds a class with the test method to the given dex file
+     * @return the code item of the test method
+     */
+    private static CodeItem internTestMethod(DexFile dexFile) {
+        //build the instructions once to find the addresses of the payloads, and then again with the right offsets
+        List<Instruction> instructions = getTestInstructions(dexFile, new int[3]);
+        int[] switchAddresses = new int[3];
+        int switchCount = 0;
+        int codeAddress = 0;
+        for (Instruction instruction: instructions) {
+            if (instruction.getFormat() == Format.Format31t) {
+                switchAddresses[switchCount++] = codeAddress;
+            }
+            codeAddress += instruction.getSize(codeAddress);
+        }
+
+        //the payloads must be 4 byte aligned. Add the padding explicitly, so that the created instructions are the
+        //same as the ones that are read back in
+        boolean padding = codeAddress % 2 != 0;
+        if (padding) {
+            codeAddress++;
+        }
+
+        Instruction[] payloads = getTestPayloads();
+        int[] payloadOffsets = new int[3];
+        for (int i=0; i<payloads.length; i++) {
+            payloadOffsets[i] = codeAddress - switchAddresses[i];
+            codeAddress += payloads[i].getSize(codeAddress);
+        }
+
+        instructions = getTestInstructions(dexFile, payloadOffsets);
+        if (padding) {
+            instructions.add(new Instruction10x(Opcode.NOP));
+        }
+        for (Instruction payload: payloads) {
+            instructions.add(payload);
+        }
+
+        CodeItem codeItem = CodeItem.internCodeItem(dexFile, 0x10000, 0, 0xFFFF, null, instructions, null, null);
+        TestDexFiles.internTestClass(dexFile, "LInstructionCursorTest;", codeItem);
+        return codeItem;
+    }
+
+    @Test
+    public void createdCodeItemTest() {
+        DexFile dexFile = new DexFile();
+        CodeItem codeItem = internTestMethod(dexFile);
+        //the reference indexes are assigned when the dex file is placed
+        dexFile.place();
+        checkFormats(codeItem);
+        checkCodeItem(codeItem);
+    }
+
+    @Test
+    public void readCodeItemTest() {
+        DexFile dexFile = new DexFile();
+        internTestMethod(dexFile);
+        dexFile = TestDexFiles.writeAndReadDexFile(dexFile);
+
+        List<CodeItem> codeItems = dexFile.CodeItemsSection.getItems();
+        Assert.assertEquals(1, codeItems.size());
+        checkFormats(codeItems.get(0));
+        checkCodeItem(codeItems.get(0));
+    }
+
+    /**
+     * Checks that the test method has an instruction of every format
+     */
+    private static void checkFormats(CodeItem codeItem) {
+        EnumSet<Format> formats = EnumSet.allOf(Format.class);
+        formats.remove(Format.UnresolvedOdexInstruction);
+        for (Instruction instruction: codeItem.getInstructions()) {
+            formats.remove(instruction.getFormat());
+        }
+        Assert.assertTrue(formats.toString(), formats.isEmpty());
+    }
+
+    private static void checkCodeItem(CodeItem codeItem) {
+        InstructionCursor cursor = codeItem.getInstructionCursor();
+        Instruction[] instructions = codeItem.getInstructions();
+
+        int codeAddress = 0;
+        for (Instruction instruction: instructions) {
+            String context = codeItem.getConciseIdentity() + " at code address " + codeAddress;
+            Assert.assertTrue(context, cursor.next());
+            checkInstruction(context, cursor, instruction, codeAddress);
+            codeAddress += instruction.getSize(codeAddress);
+        }
+        Assert.assertFalse(codeItem.getConciseIdentity(), cursor.next());
+
+        //and again after a reset
+        cursor.reset();
+        int count = 0;
+        while (cursor.next()) {
+            Assert.assertSame(instructions[count++].opcode, cursor.getOpcode());
+        }
+        Assert.assertEquals(instructions.length, count);
+    }
+
+    private static void checkInstruction(String context, InstructionCursor cursor, Instruction instruction,
+                                         int codeAddress) {
+        Assert.assertEquals(context, codeAddress, cursor.getCodeAddress());
+        Assert.assertSame(context, instruction.opcode, cursor.getOpcode());
+        Assert.assertSame(context, instruction.getFormat(), cursor.getFormat());
+        Assert.assertEquals(context, instruction.getSize(codeAddress), cursor.getSize());
+
+        if (instruction instanceof FiveRegisterInstruction) {
+            FiveRegisterInstruction fiveRegisterInstruction = (FiveRegisterInstruction)instruction;
+            Assert.assertEquals(context, fiveRegisterInstruction.getRegCount(), cursor.getRegCount());
+            Assert.assertEquals(context, fiveRegisterInstruction.getRegisterA(), cursor.getRegisterA());
+            Assert.assertEquals(context, fiveRegisterInstruction.getRegisterD(), cursor.getRegisterD());
+            Assert.assertEquals(context, fiveRegisterInstruction.getRegisterE(), cursor.getRegisterE());
+            Assert.assertEquals(context, fiveRegisterInstruction.getRegisterF(), cursor.getRegisterF());
+            Assert.assertEquals(context, fiveRegisterInstruction.getRegisterG(), cursor.getRegisterG());
+        }
+        if (instruction instanceof RegisterRangeInstruction) {
+            RegisterRangeInstruction rangeInstruction = (RegisterRangeInstruction)instruction;
+            Assert.assertEquals(context, rangeInstruction.getRegCount(), cursor.getRegCount());
+            Assert.assertEquals(context, rangeInstruction.getStartRegister(), cursor.getStartRegister());
+        }
+        if (instruction instanceof SingleRegisterInstruction) {
+            Assert.assertEquals(context, ((SingleRegisterInstruction)instruction).getRegisterA(),
+                    cursor.getRegisterA());
+        }
+        if (instruction instanceof TwoRegisterInstruction) {
+            Assert.assertEquals(context, ((TwoRegisterInstruction)instruction).getRegisterB(), cursor.getRegisterB());
+        }
+        if (instruction instanceof ThreeRegisterInstruction) {
+            Assert.assertEquals(context, ((ThreeRegisterInstruction)instruction).getRegisterC(),
+                    cursor.getRegisterC());
+        }
+        if (instruction instanceof LiteralInstruction) {
+            Assert.assertEquals(context, ((LiteralInstruction)instruction).getLiteral(), cursor.getLiteral());
+        }
+        if (instruction instanceof OffsetInstruction) {
+            Assert.assertEquals(context, ((OffsetInstruction)instruction).getTargetAddressOffset(),
+                    cursor.getTargetAddressOffset());
+        }
+
+        if (instruction instanceof InstructionWithReference) {
+            InstructionWithReference instructionWithReference = (InstructionWithReference)instruction;
+            Item referencedItem = instructionWithReference.getReferencedItem();
+            Assert.assertSame(context, instructionWithReference.getReferenceType(), cursor.getReferenceType());
+            Assert.assertEquals(context, referencedItem.getIndex(), cursor.getReferenceIndex());
+            Assert.assertSame(context, referencedItem, cursor.getReferencedItem());
+        } else {
+            Assert.assertSame(context, ReferenceType.none, cursor.getReferenceType());
+            Assert.assertNull(context, cursor.getReferencedItem());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.dexlib;
+
+import org.jf.dexlib.Code.Format.Instruction10x;
+import org.jf.dexlib.Code.Instruction;
+import org.jf.dexlib.Code.Opcode;
+import org.jf.dexlib.Util.DebugInfoBuilder;
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DebugInfoItemTest {
+    private static final int CODE_SIZE = 70;
+
+    /**
+     * The position entries of the test method, as pairs of code address and line. The entries exercise the special
+     * opcodes, the advance pc and advance line opcodes in both directions, multiple entries at the same address and
+     * a first entry after the start of the method
+     */
+    private static final int[][] LINES = new int[][] {
+            {2, 10}, {2, 11}, {5, 7}, {6, 17}, {40, 100}, {42, 3}, {60, 4}, {60, 5}
+    };
+
+    /**
+     * Adds a class with a method with the test debug info to the given dex file. The local variable and other
+     * non-position instructions are interleaved with the position entries, and must be skipped over
+     */
+    private static void internTestMethod(DexFile dexFile) {
+        DebugInfoBuilder debugInfoBuilder = new DebugInfoBuilder();
+        debugInfoBuilder.addPrologue(0);
+        debugInfoBuilder.addLine(LINES[0][0], LINES[0][1]);
+        debugInfoBuilder.addLocal(2, 0, "local", "I");
+        for (int i=1; i<LINES.length; i++) {
+            debugInfoBuilder.addLine(LINES[i][0], LINES[i][1]);
+            if (LINES[i][0] == 40) {
+                debugInfoBuilder.addEndLocal(41, 0);
+                debugInfoBuilder.addRestartLocal(42, 0);
+            } else if (LINES[i][0] == 42) {
+                debugInfoBuilder.addLocalExtended(45, 1, "other", "Ljava/util/List;", "Ljava/util/List<I>;");
+                debugInfoBuilder.addEpilogue(50);
+                debugInfoBuilder.addSetFile(50, "Other.java");
+            }
+        }
+
+        List<Instruction> instructions = new ArrayList<Instruction>();
+        for (int i=0; i<CODE_SIZE-1; i++) {
+            instructions.add(new Instruction10x(Opcode.NOP));
+        }
+        instructions.add(new Instruction10x(Opcode.RETURN_VOID));
+
+        CodeItem codeItem = CodeItem.internCodeItem(dexFile, 2, 0, 0, debugInfoBuilder.encodeDebugInfo(dexFile),
+                instructions, null, null);
+        TestDexFiles.internTestClass(dexFile, "LDebugInfoItemTest;", codeItem);
+    }
+
+    /**
+     * @return the expected line at the given code address, which is the line of the last position entry at or
+     * before it
+     */
+    private static int getExpectedLine(int codeAddress) {
+        int line = -1;
+        for (int[] entry: LINES) {
+            if (entry[0] <= codeAddress) {
+                line = entry[1];
+            }
+        }
+        return line;
+    }
+
+    private static void checkLineNumbers(DebugInfoItem debugInfoItem) {
+        for (int codeAddress=0; codeAddress<CODE_SIZE + 10; codeAddress++) {
+            Assert.assertEquals("code address " + codeAddress, getExpectedLine(codeAddress),
+                    debugInfoItem.getLineNumber(codeAddress));
+        }
+    }
+
+    @Test
+    public void createdDebugInfoTest() {
+        DexFile dexFile = new DexFile();
+        internTestMethod(dexFile);
+
+        List<DebugInfoItem> debugInfoItems = dexFile.DebugInfoItemsSection.getItems();
+        Assert.assertEquals(1, debugInfoItems.size());
+        checkLineNumbers(debugInfoItems.get(0));
+    }
+
+    @Test
+    public void readDebugInfoTest() {
+        DexFile dexFile = new DexFile();
+        internTestMethod(dexFile);
+        dexFile = TestDexFiles.writeAndReadDexFile(dexFile);
+
+        List<DebugInfoItem> debugInfoItems = dexFile.DebugInfoItemsSection.getItems();
+        Assert.assertEquals(1, debugInfoItems.size());
+        checkLineNumbers(debugInfoItems.get(0));
+    }
+
+    @Test
+    public void noPositionEntriesTest() {
+        DexFile dexFile = new DexFile();
+        DebugInfoBuilder debugInfoBuilder = new DebugInfoBuilder();
+        debugInfoBuilder.addLocal(0, 0, "local", "I");
+        DebugInfoItem debugInfoItem = debugInfoBuilder.encodeDebugInfo(dexFile);
+
+        Assert.assertEquals(-1, debugInfoItem.getLineNumber(0));
+        Assert.assertEquals(-1, debugInfoItem.getLineNumber(100));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jf.dexlib;
+
+import org.junit.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class DexFileTest {
+    /**
+     * Writes out a zip file with the given entries. Each entry contains a dex file with a class whose type is
+     * based on the entry name, e.g. Lclasses2; for classes2.dex
+     */
+    private static File writeZipFile(String... entryNames) throws IOException {
+        File file = File.createTempFile("dexfiletest", ".zip");
+        file.deleteOnExit();
+
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (String entryName: entryNames) {
+                out.putNextEntry(new ZipEntry(entryName));
+                DexFile dexFile = new DexFile();
+                TestDexFiles.internTestClass(dexFile, "L" + entryName.substring(0, entryName.length() - 4) + ";");
+                out.write(TestDexFiles.writeDexFile(dexFile));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void checkDexFiles(List<DexFile> dexFiles, String... classTypes) {
+        Assert.assertEquals(classTypes.length, dexFiles.size());
+        for (int i=0; i<classTypes.length; i++) {
+            List<ClassDefItem> classDefItems = dexFiles.get(i).ClassDefsSection.getItems();
+            Assert.assertEquals(1, classDefItems.size());
+            Assert.assertEquals(classTypes[i], classDefItems.get(0).getClassType().getTypeDescriptor());
+        }
+    }
+
+    @Test
+    public void multiDexEntriesTest() throws IOException {
+        //only classes.dex, classes2.dex, classes3.dex, etc. are dex entries. classes1.dex and classes02.dex would be
+        //ambiguous, and classes5.dex is after the first missing entry
+        File file = writeZipFile("classes5.dex", "classes3.dex", "classes1.dex", "classes02.dex", "classes.dex",
+                "classes2.dex", "classes99999999999999999999.dex", "dir/classes4.dex");
+
+        checkDexFiles(DexFile.readDexFiles(file, false, false), "Lclasses;", "Lclasses2;", "Lclasses3;");
+        checkDexFiles(DexFile.readDexFiles(file, false, false, null), "Lclasses;", "Lclasses2;", "Lclasses3;");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            checkDexFiles(DexFile.readDexFiles(file, false, false, executor), "Lclasses;", "Lclasses2;",
+                    "Lclasses3;");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void noClassesDexTest() throws IOException {
+        File file = writeZipFile("classes2.dex", "classes1.dex");
+        try {
+            DexFile.readDexFiles(file, false, false);
+            Assert.fail();
+        } catch (DexFile.NoClassesDexException ex) {
+            //expected
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.dexlib;
+
+import org.jf.dexlib.Util.AnnotatedOutput;
+import org.jf.dexlib.Util.Input;
+import org.junit.*;
+
+public class InternTableTest {
+    private static final InternTable.KeyMatcher<TestItem> KEY_MATCHER = new InternTable.KeyMatcher<TestItem>() {
+        public boolean matches(TestItem item, Object key1, Object key2, Object key3) {
+            return item.key.equals(key1);
+        }
+    };
+
+    @After
+    public void disableStatistics() {
+        InternTable.setCollectStatistics(false);
+    }
+
+    @Test
+    public void collisionTest() {
+        DexFile dexFile = new DexFile();
+        InternTable<TestItem> internTable = new InternTable<TestItem>(0);
+        InternTable.setCollectStatistics(true);
+
+        //every item has the same hash code, so every item after the first has to be probed for
+        TestItem[] items = new TestItem[100];
+        for (int i=0; i<items.length; i++) {
+            items[i] = new TestItem(dexFile, "item" + i, 42);
+            Assert.assertNull(internTable.get(items[i]));
+            internTable.add(items[i]);
+        }
+
+        Assert.assertEquals(items.length, internTable.size());
+        for (int i=0; i<items.length; i++) {
+            Assert.assertSame(items[i], internTable.get(new TestItem(dexFile, "item" + i, 42)));
+            Assert.assertSame(items[i], internTable.get(42, KEY_MATCHER, "item" + i, null, null));
+        }
+
+        Assert.assertNull(internTable.get(new TestItem(dexFile, "item100", 42)));
+        Assert.assertNull(internTable.get(42, KEY_MATCHER, "item100", null, null));
+        //an item with the same key but a different hash is in a different chain
+        Assert.assertNull(internTable.get(43, KEY_MATCHER, "item0", null, null));
+        Assert.assertTrue(internTable.getMaxProbeLength() >= items.length - 1);
+    }
+
+    @Test
+    public void resizeTest() {
+        DexFile dexFile = new DexFile();
+        InternTable<TestItem> internTable = new InternTable<TestItem>(0);
+        int initialCapacity = internTable.getCapacity();
+
+        TestItem[] items = new TestItem[5000];
+        for (int i=0; i<items.length; i++) {
+            //a few distinct hash codes, so that there are collisions across the resizes as well
+            items[i] = new TestItem(dexFile, "item" + i, i % 1000);
+            internTable.add(items[i]);
+        }
+
+        Assert.assertEquals(items.length, internTable.size());
+        Assert.assertTrue(internTable.getResizeCount() > 0);
+        Assert.assertTrue(internTable.getCapacity() > initialCapacity);
+        Assert.assertTrue(internTable.size() <= internTable.getCapacity() * 3 / 4);
+
+        for (int i=0; i<items.length; i++) {
+            Assert.assertSame(items[i], internTable.get(i % 1000, KEY_MATCHER, "item" + i, null, null));
+        }
+        Assert.assertNull(internTable.get(0, KEY_MATCHER, "item1", null, null));
+    }
+
+    @Test
+    public void statisticsTest() throws InterruptedException {
+        DexFile dexFile = new DexFile();
+        final InternTable<TestItem> internTable = new InternTable<TestItem>(0);
+        for (int i=0; i<100; i++) {
+            internTable.add(new TestItem(dexFile, "item" + i, i % 10));
+        }
+
+        //the statistics aren't collected unless asked for
+        Assert.assertNotNull(internTable.get(0, KEY_MATCHER, "item0", null, null));
+        Assert.assertEquals(0, internTable.getLookupCount());
+        Assert.assertEquals(0, internTable.getMaxProbeLength());
+
+        //lookups from multiple threads must all be counted
+        InternTable.setCollectStatistics(true);
+        final int lookupsPerThread = 10000;
+        Thread[] threads = new Thread[4];
+        for (int i=0; i<threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j=0; j<lookupsPerThread; j++) {
+                        internTable.get(j % 10, KEY_MATCHER, "item" + (j % 100), null, null);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(threads.length * lookupsPerThread, internTable.getLookupCount());
+        Assert.assertTrue(internTable.getMaxProbeLength() > 0);
+        Assert.assertTrue(internTable.getAverageProbeLength() > 0);
+    }
+
+    @Test
+    public void presizedTest() {
+        InternTable<TestItem> internTable = new InternTable<TestItem>(1000);
+        DexFile dexFile = new DexFile();
+        for (int i=0; i<1000; i++) {
+            internTable.add(new TestItem(dexFile, "item" + i, i));
+        }
+        Assert.assertEquals(0, internTable.getResizeCount());
+    }
+
+    @Test
+    public void lookupWithoutInternTest() {
+        DexFile dexFile = new DexFile();
+
+        Assert.assertNull(StringIdItem.lookupStringIdItem(dexFile, "some string"));
+        Assert.assertNull(TypeIdItem.lookupTypeIdItem(dexFile, "LSomeClass;"));
+        Assert.assertEquals(0, dexFile.StringIdsSection.getItems().size());
+        Assert.assertEquals(0, dexFile.StringDataSection.getItems().size());
+        Assert.assertEquals(0, dexFile.TypeIdsSection.getItems().size());
+
+        StringIdItem stringIdItem = StringIdItem.internStringIdItem(dexFile, "some string");
+        TypeIdItem typeIdItem = TypeIdItem.internTypeIdItem(dexFile, "LSomeClass;");
+
+        Assert.assertSame(stringIdItem, StringIdItem.lookupStringIdItem(dexFile, "some string"));
+        Assert.assertSame(stringIdItem, StringIdItem.internStringIdItem(dexFile, "some string"));
+        Assert.assertSame(typeIdItem, TypeIdItem.lookupTypeIdItem(dexFile, "LSomeClass;"));
+        Assert.assertSame(typeIdItem, TypeIdItem.internTypeIdItem(dexFile, "LSomeClass;"));
+        Assert.assertNull(StringIdItem.lookupStringIdItem(dexFile, "another string"));
+
+        //the type's descriptor and the string are the only strings
+        Assert.assertEquals(2, dexFile.StringIdsSection.getItems().size());
+        Assert.assertEquals(1, dexFile.TypeIdsSection.getItems().size());
+    }
+
+    private static class TestItem extends Item<TestItem> {
+        public final String key;
+        private final int hashCode;
+
+        public TestItem(DexFile dexFile, String key, int hashCode) {
+            super(dexFile);
+            this.key = key;
+            this.hashCode = hashCode;
+        }
+
+        protected void readItem(Input in, ReadContext readContext) {
+            throw new UnsupportedOperationException();
+        }
+
+        protected int placeItem(int offset) {
+            throw new UnsupportedOperationException();
+        }
+
+        protected void writeItem(AnnotatedOutput out) {
+            throw new UnsupportedOperationException();
+        }
+
+        public ItemType getItemType() {
+            return ItemType.TYPE_STRING_ID_ITEM;
+        }
+
+        public String getConciseIdentity() {
+            return key;
+        }
+
+        public int compareTo(TestItem o) {
+            return key.compareTo(o.key);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof TestItem && ((TestItem)o).key.equals(key);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.dexlib;
+
+import org.junit.*;
+
+public class StringDataItemTest {
+    private static final String[] STRINGS = new String[] {
+            "", "a", "Lfoo/bar;", "null\u0000char", "\u00e9t\u00e9", "\u4e2d\u6587", "\ud83d\ude00"
+    };
+
+    /**
+     * Writes out a dex file with the test strings, and reads it back in, so that its strings are undecoded
+     */
+    private static DexFile readTestDexFile() {
+        DexFile dexFile = new DexFile();
+        for (String string: STRINGS) {
+            StringIdItem.internStringIdItem(dexFile, string);
+        }
+        //a dex file needs at least one class
+        TestDexFiles.internTestClass(dexFile, "LTest;");
+        return TestDexFiles.writeAndReadDexFile(dexFile);
+    }
+
+    private static StringDataItem findItem(DexFile dexFile, String string) {
+        for (StringDataItem item: dexFile.StringDataSection.getItems()) {
+            if (item.getStringValue().equals(string)) {
+                return item;
+            }
+        }
+        Assert.fail(string);
+        return null;
+    }
+
+    @Test
+    public void equalsTest() {
+        for (String string: STRINGS) {
+            //items read from two different dex files, to compare undecoded, partially decoded and decoded items
+            StringDataItem first = StringDataItem.lookupStringDataItem(readTestDexFile(), string);
+            StringDataItem second = StringDataItem.lookupStringDataItem(readTestDexFile(), string);
+            StringDataItem created = StringDataItem.internStringDataItem(new DexFile(), string);
+            Assert.assertNotNull(string, first);
+            Assert.assertNotNull(string, second);
+
+            checkEqual(string, first, second, created);
+            second.getStringValue();
+            checkEqual(string, first, second, created);
+            first.getStringValue();
+            checkEqual(string, first, second, created);
+        }
+    }
+
+    @Test
+    public void notEqualTest() {
+        DexFile dexFile = readTestDexFile();
+        DexFile createdDexFile = new DexFile();
+        for (String string1: STRINGS) {
+            for (String string2: STRINGS) {
+                if (string1.equals(string2)) {
+                    continue;
+                }
+                StringDataItem item1 = findItem(dexFile, string1);
+                StringDataItem item2 = StringDataItem.lookupStringDataItem(dexFile, string2);
+                StringDataItem created2 = StringDataItem.internStringDataItem(createdDexFile, string2);
+                Assert.assertFalse(item1.equals(item2));
+                Assert.assertFalse(item1.equals(created2));
+                Assert.assertFalse(created2.equals(item1));
+            }
+        }
+    }
+
+    private static void checkEqual(String string, StringDataItem first, StringDataItem second,
+                                   StringDataItem created) {
+        Assert.assertTrue(string, first.equals(second));
+        Assert.assertTrue(string, second.equals(first));
+        Assert.assertTrue(string, first.equals(created));
+        Assert.assertTrue(string, created.equals(first));
+        Assert.assertTrue(string, second.equals(created));
+        Assert.assertEquals(string, first.hashCode(), second.hashCode());
+        Assert.assertEquals(string, first.hashCode(), created.hashCode());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jf.dexlib;
+
+import org.jf.dexlib.Util.AccessFlags;
+import org.jf.dexlib.Util.ByteArrayAnnotatedOutput;
+import org.junit.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixtures that are shared by the dexlib tests
+ */
+public class TestDexFiles {
+    /**
+     * This class is uninstantiable.
+     */
+    private TestDexFiles() {
+    }
+
+    /**
+     * Reads in the first dex file of the given jar in the libandroid directory at the root of the project
+     * @param jarName the name of the jar, e.g. core.jar
+     * @return the dex file
+     */
+    public static DexFile readLibAndroidDexFile(String jarName) throws IOException {
+        //the tests are run from the module directory
+        File libAndroid = new File("../libandroid");
+        Assert.assertTrue("Cannot find " + libAndroid.getCanonicalPath(), libAndroid.isDirectory());
+        return DexFile.readDexFiles(new File(libAndroid, jarName), false, false).get(0);
+    }
+
+    /**
+     * Adds a class that extends Object to the given dex file, with a static method for each of the given code items.
+     * The methods are named method0, method1, etc. and have a ()V prototype
+     * @param dexFile the dex file to add the class to
+     * @param classType the type descriptor of the class
+     * @param codeItems the code items of the methods
+     * @return the <code>ClassDefItem</code> for the new class
+     */
+    public static ClassDefItem internTestClass(DexFile dexFile, String classType, CodeItem... codeItems) {
+        TypeIdItem classTypeItem = TypeIdItem.internTypeIdItem(dexFile, classType);
+
+        ClassDataItem classDataItem = null;
+        if (codeItems.length > 0) {
+            ProtoIdItem protoIdItem = ProtoIdItem.internProtoIdItem(dexFile,
+                    TypeIdItem.internTypeIdItem(dexFile, "V"), null);
+            List<ClassDataItem.EncodedMethod> methods = new ArrayList<ClassDataItem.EncodedMethod>();
+            for (int i=0; i<codeItems.length; i++) {
+                MethodIdItem methodIdItem = MethodIdItem.internMethodIdItem(dexFile, classTypeItem, protoIdItem,
+                        StringIdItem.internStringIdItem(dexFile, "method" + i));
+                methods.add(new ClassDataItem.EncodedMethod(methodIdItem,
+                        AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue(), codeItems[i]));
+            }
+            classDataItem = ClassDataItem.internClassDataItem(dexFile, null, null, methods, null);
+        }
+
+        return ClassDefItem.internClassDefItem(dexFile, classTypeItem, AccessFlags.PUBLIC.getValue(),
+                TypeIdItem.internTypeIdItem(dexFile, "Ljava/lang/Object;"), null, null, null, classDataItem, null);
+    }
+
+    /**
+     * Places and writes out the given dex file, and calculates its signature and checksum
+     * @param dexFile the dex file to write out. It must have at least one class
+     * @return the contents of the dex file
+     */
+    public static byte[] writeDexFile(DexFile dexFile) {
+        dexFile.place();
+
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+        dexFile.writeTo(out);
+        byte[] bytes = out.toByteArray();
+        DexFile.calcSignature(bytes);
+        DexFile.calcChecksum(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes out the given dex file and reads it back in, so that its items are read from the encoded dex file
+     * rather than created directly
+     * @param dexFile the dex file to write out. It must have at least one class
+     * @return the dex file that was read back in
+     */
+    public static DexFile writeAndReadDexFile(DexFile dexFile) {
+        return new DexFile(writeDexFile(dexFile), false, false);
+    }
+}
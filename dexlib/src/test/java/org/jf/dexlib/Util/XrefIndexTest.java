@@ -0,0 +1,211 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.dexlib.Util;
+
+import org.jf.dexlib.*;
+import org.jf.dexlib.Code.Instruction;
+import org.jf.dexlib.Code.InstructionWithReference;
+import org.junit.*;
+
+import java.util.*;
+
+public class XrefIndexTest {
+    private static DexFile dexFile;
+
+    @BeforeClass
+    public static void readDexFile() throws Exception {
+        dexFile = TestDexFiles.readLibAndroidDexFile("core.jar");
+    }
+
+    @AfterClass
+    public static void releaseDexFile() {
+        dexFile = null;
+    }
+
+    /**
+     * Checks the index against a naive scan of the decoded instructions of every method, for both a single threaded
+     * and a multi-threaded build
+     */
+    @Test
+    public void buildIndexTest() {
+        Map<Item, List<String>> expectedUsers = new HashMap<Item, List<String>>();
+        Map<Item, List<String>> expectedWriters = new HashMap<Item, List<String>>();
+        int referenceCount = 0;
+
+        for (ClassDefItem classDefItem: dexFile.ClassDefsSection.getItems()) {
+            ClassDataItem classDataItem = classDefItem.getClassData();
+            if (classDataItem == null) {
+                continue;
+            }
+            List<ClassDataItem.EncodedMethod> methods = new ArrayList<ClassDataItem.EncodedMethod>();
+            methods.addAll(Arrays.asList(classDataItem.getDirectMethods()));
+            methods.addAll(Arrays.asList(classDataItem.getVirtualMethods()));
+
+            for (ClassDataItem.EncodedMethod method: methods) {
+                if (method.codeItem == null) {
+                    continue;
+                }
+                int codeAddress = 0;
+                for (Instruction instruction: method.codeItem.getInstructions()) {
+                    if (instruction instanceof InstructionWithReference) {
+                        Item item = ((InstructionWithReference)instruction).getReferencedItem();
+                        Map<Item, List<String>> map = expectedUsers;
+                        if (item instanceof FieldIdItem && !instruction.opcode.setsRegister()) {
+                            map = expectedWriters;
+                        }
+                        List<String> references = map.get(item);
+                        if (references == null) {
+                            references = new ArrayList<String>();
+                            map.put(item, references);
+                        }
+                        references.add(method.method.getMethodString() + "@" + codeAddress);
+                        referenceCount++;
+                    }
+                    codeAddress += instruction.getSize(codeAddress);
+                }
+            }
+        }
+        Assert.assertTrue(referenceCount > 10000);
+
+        for (int threads: new int[] {1, 4}) {
+            XrefIndex xrefIndex = XrefIndex.buildIndex(dexFile, threads);
+            Assert.assertEquals(referenceCount, checkIndex(xrefIndex, expectedUsers, expectedWriters));
+        }
+    }
+
+    private static int checkIndex(XrefIndex xrefIndex, Map<Item, List<String>> expectedUsers,
+                                  Map<Item, List<String>> expectedWriters) {
+        int count = 0;
+        for (MethodIdItem method: dexFile.MethodIdsSection.getItems()) {
+            count += checkXrefs(method, expectedUsers.get(method), xrefIndex.getCallers(method));
+        }
+        for (FieldIdItem field: dexFile.FieldIdsSection.getItems()) {
+            count += checkXrefs(field, expectedUsers.get(field), xrefIndex.getFieldReaders(field));
+            count += checkXrefs(field, expectedWriters.get(field), xrefIndex.getFieldWriters(field));
+        }
+        for (StringIdItem string: dexFile.StringIdsSection.getItems()) {
+            count += checkXrefs(string, expectedUsers.get(string), xrefIndex.getStringUsers(string));
+        }
+        for (TypeIdItem type: dexFile.TypeIdsSection.getItems()) {
+            count += checkXrefs(type, expectedUsers.get(type), xrefIndex.getTypeUsers(type));
+        }
+        return count;
+    }
+
+    private static int checkXrefs(Item item, List<String> expected, XrefIndex.Xrefs xrefs) {
+        if (expected == null) {
+            expected = Collections.emptyList();
+        }
+        Assert.assertEquals(item.getConciseIdentity(), expected.size(), xrefs.size());
+        for (int i=0; i<xrefs.size(); i++) {
+            Assert.assertEquals(item.getConciseIdentity(), expected.get(i),
+                    xrefs.getMethod(i).getMethodString() + "@" + xrefs.getCodeAddress(i));
+        }
+        return xrefs.size();
+    }
+
+    @Test
+    public void roundTripTest() {
+        XrefIndex xrefIndex = XrefIndex.buildIndex(dexFile, 2);
+        byte[] bytes = xrefIndex.toByteArray();
+
+        XrefIndex readIndex = XrefIndex.fromByteArray(bytes, dexFile);
+        Assert.assertArrayEquals(bytes, readIndex.toByteArray());
+
+        for (MethodIdItem method: dexFile.MethodIdsSection.getItems()) {
+            XrefIndex.Xrefs expected = xrefIndex.getCallers(method);
+            XrefIndex.Xrefs actual = readIndex.getCallers(method);
+            Assert.assertEquals(expected.size(), actual.size());
+            for (int i=0; i<expected.size(); i++) {
+                Assert.assertEquals(expected.getMethodIndex(i), actual.getMethodIndex(i));
+                Assert.assertEquals(expected.getCodeAddress(i), actual.getCodeAddress(i));
+            }
+        }
+    }
+
+    @Test
+    public void corruptIndexTest() {
+        byte[] bytes = XrefIndex.buildIndex(dexFile, 1).toByteArray();
+        //the header is the magic, the version and the 4 item counts. The reference counts of the callers table
+        //come right after it
+        int firstCountOffset = 24;
+
+        checkCorrupt(copyOf(bytes, 0));
+        checkCorrupt(copyOf(bytes, 20));
+        checkCorrupt(copyOf(bytes, firstCountOffset + 2));
+        checkCorrupt(copyOf(bytes, bytes.length / 2));
+        checkCorrupt(copyOf(bytes, bytes.length - 4));
+        checkCorrupt(copyOf(bytes, bytes.length + 4));
+
+        //bad magic and version
+        checkCorrupt(withInt(bytes, 0, 0x12345678));
+        checkCorrupt(withInt(bytes, 4, 2));
+
+        //item counts that don't match the dex file
+        checkCorrupt(withInt(bytes, 8, dexFile.MethodIdsSection.getItems().size() + 1));
+
+        //reference counts that are negative, or far larger than the index
+        checkCorrupt(withInt(bytes, firstCountOffset, -1));
+        checkCorrupt(withInt(bytes, firstCountOffset, Integer.MAX_VALUE));
+        checkCorrupt(withInt(withInt(bytes, firstCountOffset, Integer.MAX_VALUE), firstCountOffset + 4,
+                Integer.MAX_VALUE));
+        checkCorrupt(withInt(bytes, firstCountOffset, bytes.length / 8));
+
+        //a reference to a method that doesn't exist
+        int methodCount = dexFile.MethodIdsSection.getItems().size();
+        int firstReferenceOffset = firstCountOffset + methodCount * 4;
+        checkCorrupt(withInt(bytes, firstReferenceOffset, methodCount));
+        checkCorrupt(withInt(bytes, firstReferenceOffset, -1));
+    }
+
+    private static void checkCorrupt(byte[] bytes) {
+        try {
+            XrefIndex.fromByteArray(bytes, dexFile);
+        } catch (ExceptionWithContext ex) {
+            return;
+        }
+        Assert.fail("The corrupt index was accepted");
+    }
+
+    private static byte[] copyOf(byte[] bytes, int length) {
+        byte[] newBytes = new byte[length];
+        System.arraycopy(bytes, 0, newBytes, 0, Math.min(length, bytes.length));
+        return newBytes;
+    }
+
+    private static byte[] withInt(byte[] bytes, int offset, int value) {
+        byte[] newBytes = bytes.clone();
+        newBytes[offset] = (byte)value;
+        newBytes[offset + 1] = (byte)(value >> 8);
+        newBytes[offset + 2] = (byte)(value >> 16);
+        newBytes[offset + 3] = (byte)(value >> 24);
+        return newBytes;
+    }
+}
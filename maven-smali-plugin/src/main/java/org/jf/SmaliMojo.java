@@ -69,11 +69,20 @@ public class SmaliMojo
      */
     private File dumpFile;
 
+    /**
+     * The directory used to cache the assembled form of each smali file, so that only the files that have changed
+     * are re-assembled. Incremental assembly is disabled if this isn't set
+     *
+     * @parameter default-value=null
+     */
+    private File cacheDirectory;
+
     public void execute()
         throws MojoExecutionException
     {
         outputFile.getParentFile().mkdirs();
 
+        int status;
         try
         {
             List<String> args = new ArrayList<String>();
@@ -86,12 +95,22 @@ public class SmaliMojo
                 args.add(dumpFile.getAbsolutePath());
             }
 
+            if (cacheDirectory != null) {
+                args.add("-C");
+                args.add(cacheDirectory.getAbsolutePath());
+            }
+
             args.add(sourceDirectory.getAbsolutePath());
 
-            main.main(args.toArray(new String[args.size()]));
+            status = main.run(args.toArray(new String[args.size()]));
         } catch (Exception ex)
         {
             throw new MojoExecutionException("oops!", ex);
         }
+
+        if (status != 0)
+        {
+            throw new MojoExecutionException("smali failed with exit status " + status);
+        }
     }
 }
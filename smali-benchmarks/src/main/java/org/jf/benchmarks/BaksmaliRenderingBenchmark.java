@@ -0,0 +1,91 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.benchmarks;
+
+import org.jf.baksmali.Adaptors.ClassDefinition;
+import org.jf.baksmali.Adaptors.ReferenceCache;
+import org.jf.baksmali.baksmali;
+import org.jf.dexlib.ClassDefItem;
+import org.jf.dexlib.Code.Analysis.SyntheticAccessorResolver;
+import org.jf.dexlib.DexFile;
+import org.jf.util.IndentingWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the rendering of every class in core.jar to smali, with baksmali's default options. The output is
+ * discarded, so no file i/o is included.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BaksmaliRenderingBenchmark {
+    private DexFile dexFile;
+    private SyntheticAccessorResolver syntheticAccessorResolver;
+
+    @Setup
+    public void setup() throws Exception {
+        dexFile = BenchmarkFiles.readJar("core.jar").get(0);
+        syntheticAccessorResolver = new SyntheticAccessorResolver(dexFile);
+    }
+
+    @TearDown
+    public void tearDown() {
+        baksmali.clearDexFileState();
+    }
+
+    @Benchmark
+    public void renderCore() throws IOException {
+        //baksmali creates a new reference cache for each dex file, so a warm cache shouldn't carry over between runs.
+        //These are thread local, so they're set on the thread that runs the benchmark
+        baksmali.setSyntheticAccessorResolver(syntheticAccessorResolver);
+        baksmali.setReferenceCache(new ReferenceCache(dexFile));
+
+        for (ClassDefItem classDefItem: dexFile.ClassDefsSection.getItems()) {
+            IndentingWriter writer = new IndentingWriter(new NullOutputStream());
+            new ClassDefinition(classDefItem).writeTo(writer);
+            writer.close();
+        }
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.benchmarks;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Runs the benchmarks and compares their scores against a stored baseline, so that regressions show up when a change
+ * is reviewed.
+ *
+ * usage: java -jar smali-benchmarks/target/benchmarks.jar [--baseline FILE] [--threshold PERCENT] [--update] [REGEX]*
+ *
+ * The baseline is a properties file that maps each benchmark and its parameters to its score. It defaults to
+ * smali-benchmarks/baseline.properties under the source tree. All of the benchmarks measure the average time per
+ * operation, so a score that is more than the threshold (10% by default) above its baseline is reported as a
+ * regression, and the exit status is 1. --update writes the new scores to the baseline file instead of failing.
+ * Scores are only comparable when taken on the same machine, so the baseline should be updated on the machine that
+ * runs the comparison.
+ *
+ * The REGEX arguments select which benchmarks to run, as with JMH's own runner. By default, all of them are run.
+ */
+public class BaselineComparison {
+    private static final double DEFAULT_THRESHOLD = 10.0;
+
+    /**
+     * This class is uninstantiable.
+     */
+    private BaselineComparison() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        File baselineFile = null;
+        double threshold = DEFAULT_THRESHOLD;
+        boolean update = false;
+        List<String> includes = new ArrayList<String>();
+
+        for (int i=0; i<args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--baseline") && i+1 < args.length) {
+                baselineFile = new File(args[++i]);
+            } else if (arg.equals("--threshold") && i+1 < args.length) {
+                threshold = Double.parseDouble(args[++i]);
+            } else if (arg.equals("--update")) {
+                update = true;
+            } else if (arg.startsWith("-")) {
+                usage();
+                System.exit(1);
+            } else {
+                includes.add(arg);
+            }
+        }
+
+        if (baselineFile == null) {
+            baselineFile = new File(new File(BenchmarkFiles.getRootDirectory(), "smali-benchmarks"),
+                    "baseline.properties");
+        }
+
+        OptionsBuilder optionsBuilder = new OptionsBuilder();
+        if (includes.size() == 0) {
+            optionsBuilder.include(BaselineComparison.class.getPackage().getName() + "\\..*Benchmark");
+        } else {
+            for (String include: includes) {
+                optionsBuilder.include(include);
+            }
+        }
+
+        Collection<RunResult> results = new Runner(optionsBuilder.build()).run();
+
+        Properties baseline = new Properties();
+        if (baselineFile.exists()) {
+            InputStream in = new FileInputStream(baselineFile);
+            try {
+                baseline.load(in);
+            } finally {
+                in.close();
+            }
+        } else if (!update) {
+            System.out.println("No baseline found at " + baselineFile.getPath() + ". Run with --update to create it");
+        }
+
+        TreeMap<String, Double> scores = new TreeMap<String, Double>();
+        TreeMap<String, String> units = new TreeMap<String, String>();
+        for (RunResult result: results) {
+            Result primaryResult = result.getPrimaryResult();
+            String key = getBaselineKey(result.getParams());
+            scores.put(key, primaryResult.getScore());
+            units.put(key, primaryResult.getScoreUnit());
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-80s %14s %14s %9s", "benchmark", "baseline", "score", "change"));
+
+        int regressions = 0;
+        for (Map.Entry<String, Double> entry: scores.entrySet()) {
+            String key = entry.getKey();
+            double score = entry.getValue();
+            String unit = units.get(key);
+
+            String baselineValue = baseline.getProperty(key);
+            if (baselineValue == null) {
+                System.out.println(String.format("%-80s %14s %14.3f %9s  %s", key, "-", score, "new", unit));
+                continue;
+            }
+
+            double baselineScore = Double.parseDouble(baselineValue);
+            double change = baselineScore==0?0:(score - baselineScore) * 100 / baselineScore;
+            String marker = "";
+            if (change > threshold) {
+                marker = "  REGRESSION";
+                regressions++;
+            }
+            System.out.println(String.format("%-80s %14.3f %14.3f %+8.1f%%  %s%s", key, baselineScore, score, change,
+                    unit, marker));
+        }
+
+        if (update) {
+            for (Map.Entry<String, Double> entry: scores.entrySet()) {
+                baseline.setProperty(entry.getKey(), Double.toString(entry.getValue()));
+            }
+            writeBaseline(baseline, baselineFile);
+            System.out.println("Updated " + baselineFile.getPath());
+        } else if (regressions > 0) {
+            System.out.println(String.format("%d benchmark(s) regressed by more than %.1f%%", regressions,
+                    threshold));
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return the name of the benchmark method, followed by the benchmark's parameters, if any
+     */
+    private static String getBaselineKey(BenchmarkParams params) {
+        StringBuilder sb = new StringBuilder(params.getBenchmark());
+        for (String paramKey: params.getParamsKeys()) {
+            sb.append(':');
+            sb.append(paramKey);
+            sb.append('=');
+            sb.append(params.getParam(paramKey));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes out the baseline with the keys in sorted order, so that changes to it are easy to review
+     */
+    private static void writeBaseline(Properties baseline, File baselineFile) throws IOException {
+        TreeSet<String> keys = new TreeSet<String>(baseline.stringPropertyNames());
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(baselineFile), "ISO-8859-1");
+        try {
+            writer.write("# JMH baseline scores, written by BaselineComparison --update\n");
+            for (String key: keys) {
+                writer.write(escapeKey(key));
+                writer.write('=');
+                writer.write(baseline.getProperty(key));
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String escapeKey(String key) {
+        StringBuilder sb = new StringBuilder(key.length());
+        for (int i=0; i<key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == ':' || c == '=' || c == ' ' || c == '\\' || c == '#' || c == '!') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static void usage() {
+        System.err.println("usage: java -jar benchmarks.jar [--baseline FILE] [--threshold PERCENT] [--update] " +
+                "[REGEX]*");
+    }
+}
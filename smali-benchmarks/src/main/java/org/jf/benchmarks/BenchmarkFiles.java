@@ -0,0 +1,144 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.benchmarks;
+
+import org.jf.dexlib.ClassDataItem;
+import org.jf.dexlib.ClassDefItem;
+import org.jf.dexlib.Code.Analysis.ClassPath;
+import org.jf.dexlib.Code.Analysis.MethodAnalyzer;
+import org.jf.dexlib.DexFile;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Locates and loads the inputs that are shared by the benchmarks.
+ *
+ * The benchmarks use the jars in the libandroid directory and the smali files in the examples directory of the source
+ * tree. The root of the source tree is taken from the smali.root system property if it is set, otherwise the current
+ * directory and its parent are tried.
+ */
+public class BenchmarkFiles {
+    public static final String[] BOOT_CLASS_PATH = new String[] {
+            "core.jar", "core-junit.jar", "ext.jar", "framework.jar", "android.policy.jar", "services.jar"
+    };
+
+    /**
+     * This class is uninstantiable.
+     */
+    private BenchmarkFiles() {
+    }
+
+    public static File getRootDirectory() {
+        String root = System.getProperty("smali.root");
+        if (root != null) {
+            return new File(root);
+        }
+
+        for (String candidate: new String[] {".", ".."}) {
+            File directory = new File(candidate);
+            if (new File(directory, "libandroid").isDirectory()) {
+                return directory;
+            }
+        }
+        throw new RuntimeException("Cannot find the libandroid directory. Set the smali.root system property to " +
+                "the root of the smali source tree");
+    }
+
+    public static File getLibAndroidDirectory() {
+        return new File(getRootDirectory(), "libandroid");
+    }
+
+    public static File getExamplesDirectory() {
+        return new File(getRootDirectory(), "examples");
+    }
+
+    /**
+     * Reads in all of the dex files in the given jar from the libandroid directory, including the instructions
+     */
+    public static List<DexFile> readJar(String jarName) throws Exception {
+        return DexFile.readDexFiles(new File(getLibAndroidDirectory(), jarName), false, false);
+    }
+
+    /**
+     * Initializes the class path with the full boot class path from the libandroid directory
+     */
+    public static void initializeClassPath() {
+        ClassPath.clearClassPath();
+        ClassPath.InitializeClassPath(new String[] {getLibAndroidDirectory().getPath()}, BOOT_CLASS_PATH, null,
+                null, (List<DexFile>)null, null);
+    }
+
+    /**
+     * @return all of the methods with code in the given dex files
+     */
+    public static List<ClassDataItem.EncodedMethod> getMethodsWithCode(List<DexFile> dexFiles) {
+        List<ClassDataItem.EncodedMethod> methods = new ArrayList<ClassDataItem.EncodedMethod>();
+
+        for (DexFile dexFile: dexFiles) {
+            for (ClassDefItem classDefItem: dexFile.ClassDefsSection.getItems()) {
+                ClassDataItem classDataItem = classDefItem.getClassData();
+                if (classDataItem == null) {
+                    continue;
+                }
+                for (ClassDataItem.EncodedMethod method: classDataItem.getDirectMethods()) {
+                    if (method.codeItem != null) {
+                        methods.add(method);
+                    }
+                }
+                for (ClassDataItem.EncodedMethod method: classDataItem.getVirtualMethods()) {
+                    if (method.codeItem != null) {
+                        methods.add(method);
+                    }
+                }
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * @return the given methods, without any whose analysis fails with an exception. The class path must be
+     * initialized first
+     */
+    public static List<ClassDataItem.EncodedMethod> getAnalyzableMethods(List<ClassDataItem.EncodedMethod> methods) {
+        List<ClassDataItem.EncodedMethod> analyzableMethods = new ArrayList<ClassDataItem.EncodedMethod>();
+
+        for (ClassDataItem.EncodedMethod method: methods) {
+            try {
+                new MethodAnalyzer(method, false, null).analyze();
+            } catch (Exception ex) {
+                continue;
+            }
+            analyzableMethods.add(method);
+        }
+        return analyzableMethods;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.benchmarks;
+
+import org.jf.dexlib.ClassDataItem;
+import org.jf.dexlib.Code.Analysis.AnalyzedInstruction;
+import org.jf.dexlib.Code.Analysis.ClassPath;
+import org.jf.dexlib.Code.Analysis.graphs.CDG;
+import org.jf.dexlib.Code.Analysis.graphs.CFG;
+import org.jf.dexlib.Code.Analysis.ssa.SSA;
+import org.jf.dexlib.Interface.DexMethod;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the graph analyses on the largest methods in framework.jar. The methods are analyzed during setup, so only
+ * the graph construction is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GraphBenchmark {
+    /**
+     * The number of methods to use, starting with the one with the most instructions
+     */
+    @Param({"50"})
+    public int methodCount;
+
+    private List<DexMethod> methods;
+    private List<CFG> controlFlowGraphs;
+    private List<org.jf.dexlib.Code.Analysis.ssa.graphs.CFG> ssaControlFlowGraphs;
+    private List<org.jf.dexlib.Code.Analysis.ssa.dom.Dominators<org.jf.dexlib.Code.Analysis.ssa.graphs.Node,
+            org.jf.dexlib.Code.Analysis.ssa.graphs.Edge>> ssaDominators;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFiles.initializeClassPath();
+
+        List<ClassDataItem.EncodedMethod> encodedMethods = BenchmarkFiles.getAnalyzableMethods(
+                BenchmarkFiles.getMethodsWithCode(BenchmarkFiles.readJar("framework.jar")));
+        Collections.sort(encodedMethods, new Comparator<ClassDataItem.EncodedMethod>() {
+            public int compare(ClassDataItem.EncodedMethod method1, ClassDataItem.EncodedMethod method2) {
+                return method2.codeItem.getInstructions().length - method1.codeItem.getInstructions().length;
+            }
+        });
+
+        methods = new ArrayList<DexMethod>();
+        controlFlowGraphs = new ArrayList<CFG>();
+        ssaControlFlowGraphs = new ArrayList<org.jf.dexlib.Code.Analysis.ssa.graphs.CFG>();
+        ssaDominators = new ArrayList<org.jf.dexlib.Code.Analysis.ssa.dom.Dominators<
+                org.jf.dexlib.Code.Analysis.ssa.graphs.Node, org.jf.dexlib.Code.Analysis.ssa.graphs.Edge>>();
+
+        for (ClassDataItem.EncodedMethod encodedMethod: encodedMethods.subList(0,
+                Math.min(methodCount, encodedMethods.size()))) {
+            DexMethod method = DexMethod.build(encodedMethod);
+            methods.add(method);
+            controlFlowGraphs.add(method.getControlFlowGraph(false));
+
+            org.jf.dexlib.Code.Analysis.ssa.graphs.CFG ssaControlFlowGraph = buildSSAControlFlowGraph(method);
+            ssaControlFlowGraphs.add(ssaControlFlowGraph);
+            ssaDominators.add(org.jf.dexlib.Code.Analysis.ssa.dom.Dominators.compute(ssaControlFlowGraph,
+                    ssaControlFlowGraph.getEntry()));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        ClassPath.clearClassPath();
+    }
+
+    private static org.jf.dexlib.Code.Analysis.ssa.graphs.CFG buildSSAControlFlowGraph(DexMethod method) {
+        List<AnalyzedInstruction> instructions = method.getInstructions();
+        return org.jf.dexlib.Code.Analysis.ssa.graphs.CFG.build(instructions, method.getId().getMethodString());
+    }
+
+    @Benchmark
+    public void controlFlowGraph(Blackhole blackhole) {
+        for (DexMethod method: methods) {
+            blackhole.consume(CFG.build(method.getInstructions(), method.getId().getMethodString(), false));
+        }
+    }
+
+    @Benchmark
+    public void dominators(Blackhole blackhole) {
+        for (DexMethod method: methods) {
+            blackhole.consume(method.getDominators(false));
+        }
+    }
+
+    @Benchmark
+    public void controlDependenceGraph(Blackhole blackhole) {
+        for (CFG controlFlowGraph: controlFlowGraphs) {
+            blackhole.consume(CDG.build(controlFlowGraph));
+        }
+    }
+
+    @Benchmark
+    public void ssa(Blackhole blackhole) {
+        for (int i=0; i<ssaControlFlowGraphs.size(); i++) {
+            blackhole.consume(SSA.compute(ssaControlFlowGraphs.get(i), ssaDominators.get(i)));
+        }
+    }
+}
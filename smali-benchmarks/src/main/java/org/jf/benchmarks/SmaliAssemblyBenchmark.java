@@ -0,0 +1,181 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.benchmarks;
+
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.TokenSource;
+import org.antlr.runtime.tree.CommonTree;
+import org.antlr.runtime.tree.CommonTreeNodeStream;
+import org.jf.dexlib.Code.Opcode;
+import org.jf.dexlib.DexFile;
+import org.jf.dexlib.Util.ByteArrayAnnotatedOutput;
+import org.jf.smali.smaliFlexLexer;
+import org.jf.smali.smaliParser;
+import org.jf.smali.smaliTreeWalker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the assembly of the smali files in the examples directory, from lexing through to writing out the dex
+ * files in memory. Each example directory is assembled into its own dex file, since several examples define the same
+ * classes. The files are read in during setup, and any files that don't assemble are left out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SmaliAssemblyBenchmark {
+    private static final int API_LEVEL = 14;
+
+    //the smali files of each example directory, and their contents
+    private List<List<File>> examples;
+    private List<List<String>> exampleContents;
+
+    @Setup
+    public void setup() throws IOException {
+        Opcode.updateMapsForApiLevel(API_LEVEL);
+
+        examples = new ArrayList<List<File>>();
+        exampleContents = new ArrayList<List<String>>();
+
+        File[] exampleDirectories = BenchmarkFiles.getExamplesDirectory().listFiles();
+        if (exampleDirectories == null) {
+            throw new RuntimeException("Cannot find the examples directory");
+        }
+
+        for (File exampleDirectory: exampleDirectories) {
+            List<File> smaliFiles = new ArrayList<File>();
+            findSmaliFiles(exampleDirectory, smaliFiles);
+
+            List<File> assembledFiles = new ArrayList<File>();
+            List<String> contents = new ArrayList<String>();
+            for (File smaliFile: smaliFiles) {
+                String content = readFile(smaliFile);
+                try {
+                    assembleSmaliFile(smaliFile, content, new DexFile());
+                } catch (Exception ex) {
+                    continue;
+                }
+                assembledFiles.add(smaliFile);
+                contents.add(content);
+            }
+
+            if (assembledFiles.size() > 0) {
+                examples.add(assembledFiles);
+                exampleContents.add(contents);
+            }
+        }
+    }
+
+    private static void findSmaliFiles(File file, List<File> smaliFiles) {
+        if (!file.isDirectory()) {
+            if (file.getName().endsWith(".smali")) {
+                smaliFiles.add(file);
+            }
+            return;
+        }
+
+        File[] files = file.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File child: files) {
+            findSmaliFiles(child, smaliFiles);
+        }
+    }
+
+    private static String readFile(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, count);
+            }
+            return sb.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Benchmark
+    public void assembleExamples(Blackhole blackhole) throws Exception {
+        for (int i=0; i<examples.size(); i++) {
+            List<File> smaliFiles = examples.get(i);
+            List<String> contents = exampleContents.get(i);
+
+            DexFile dexFile = new DexFile();
+            for (int j=0; j<smaliFiles.size(); j++) {
+                assembleSmaliFile(smaliFiles.get(j), contents.get(j), dexFile);
+            }
+
+            dexFile.place();
+            ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+            dexFile.writeTo(out);
+            byte[] bytes = out.toByteArray();
+            DexFile.calcSignature(bytes);
+            DexFile.calcChecksum(bytes);
+            blackhole.consume(bytes);
+        }
+    }
+
+    private static void assembleSmaliFile(File smaliFile, String contents, DexFile dexFile) throws Exception {
+        smaliFlexLexer lexer = new smaliFlexLexer(new StringReader(contents));
+        lexer.setSourceFile(smaliFile);
+        CommonTokenStream tokens = new CommonTokenStream((TokenSource)lexer);
+
+        smaliParser parser = new smaliParser(tokens);
+        parser.setApiLevel(API_LEVEL);
+
+        smaliParser.smali_file_return result = parser.smali_file();
+        if (parser.getNumberOfSyntaxErrors() > 0 || lexer.getNumberOfSyntaxErrors() > 0) {
+            throw new RuntimeException("Syntax errors in " + smaliFile.getPath());
+        }
+
+        CommonTreeNodeStream treeStream = new CommonTreeNodeStream((CommonTree)result.getTree());
+        treeStream.setTokenStream(tokens);
+
+        smaliTreeWalker dexGen = new smaliTreeWalker(treeStream);
+        dexGen.dexFile = dexFile;
+        dexGen.smali_file();
+
+        if (dexGen.getNumberOfSyntaxErrors() > 0) {
+            throw new RuntimeException("Errors while assembling " + smaliFile.getPath());
+        }
+    }
+}
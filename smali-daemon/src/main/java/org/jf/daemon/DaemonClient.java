@@ -0,0 +1,156 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.daemon;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Sends a single request to a running daemon, and copies the output of the request to this process' stdout and
+ * stderr
+ */
+public class DaemonClient {
+    /**
+     * This class is uninstantiable.
+     */
+    private DaemonClient() {
+    }
+
+    /**
+     * Runs the given command in the daemon
+     * @param port the port that the daemon is listening on
+     * @param command the command to run
+     * @param args the arguments of the command. Relative paths are resolved against this process' working directory
+     * @return the exit status of the command
+     * @throws ConnectException if the daemon isn't running
+     * @throws IOException if the daemon can't be reached, or the connection is lost before the command finishes
+     */
+    public static int runCommand(int port, String command, String[] args) throws IOException {
+        File tokenFile = DaemonProtocol.getTokenFile(DaemonProtocol.getDefaultTokenDirectory(), port);
+        if (!tokenFile.exists()) {
+            throw new ConnectException("There is no token file at " + tokenFile);
+        }
+        return runCommand(port, readToken(tokenFile), command, System.getProperty("user.dir"), args, System.out,
+                System.err);
+    }
+
+    /**
+     * @return the token in the given token file
+     */
+    static String readToken(File tokenFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(tokenFile), "UTF-8"));
+        try {
+            String token = reader.readLine();
+            if (token == null) {
+                throw new IOException("The token file " + tokenFile + " is empty");
+            }
+            return token;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Runs the given command in the daemon, and copies its output to the given streams
+     * @return the exit status of the command
+     */
+    static int runCommand(int port, String token, String command, String workingDirectory, String[] args,
+                          OutputStream stdout, OutputStream stderr) throws IOException {
+        Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+        try {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+
+            DaemonProtocol.writeRequest(out, token, command, workingDirectory, args);
+
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            while (readLine(in, line)) {
+                byte[] bytes = line.toByteArray();
+                int start = getPrefixLength(bytes) + 1;
+                String prefix = new String(bytes, 0, start - 1, "US-ASCII");
+
+                if (prefix.equals(DaemonProtocol.LINE_EXIT)) {
+                    try {
+                        return Integer.parseInt(new String(bytes, start, bytes.length - start, "US-ASCII"));
+                    } catch (NumberFormatException ex) {
+                        throw new IOException("Invalid exit status");
+                    }
+                }
+
+                OutputStream stream;
+                if (prefix.equals(DaemonProtocol.LINE_STDOUT)) {
+                    stream = stdout;
+                } else if (prefix.equals(DaemonProtocol.LINE_STDERR)) {
+                    stream = stderr;
+                } else {
+                    throw new IOException(String.format("Unexpected line type %s", prefix));
+                }
+
+                stream.write(bytes, start, bytes.length - start);
+                stream.write('\n');
+                stream.flush();
+            }
+            throw new EOFException("The daemon closed the connection before the command finished");
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Reads the next line, without its terminating newline, into the given buffer
+     * @return false if the end of the stream was reached before a complete line was read
+     */
+    private static boolean readLine(InputStream in, ByteArrayOutputStream line) throws IOException {
+        line.reset();
+        while (true) {
+            int b = in.read();
+            if (b == -1) {
+                return false;
+            }
+            if (b == '\n') {
+                return true;
+            }
+            line.write(b);
+        }
+    }
+
+    /**
+     * @return the length of the part of the line before the first space
+     */
+    private static int getPrefixLength(byte[] line) throws IOException {
+        for (int i=0; i<line.length; i++) {
+            if (line[i] == ' ') {
+                return i;
+            }
+        }
+        throw new IOException("Invalid line from the daemon");
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.daemon;
+
+import java.io.*;
+import java.security.MessageDigest;
+
+/**
+ * The constants and framing used for the conversation between the daemon and its clients. The protocol is simple
+ * enough that the smali and baksmali scripts can speak it from bash.
+ *
+ * A request is a sequence of NUL terminated UTF-8 fields: the protocol version, the daemon's token, the command, the
+ * client's working directory, the number of arguments and then the arguments themselves. The daemon checks the token
+ * before it reads the rest of the request. It answers with a sequence of lines. Each line of the command's output is
+ * sent with an "out " or "err " prefix, and the final line is "exit " followed by the exit status.
+ *
+ * The token is generated when the daemon starts, and is written to a file that only the user running the daemon can
+ * read, so that other users on the same machine can't run commands as that user.
+ */
+class DaemonProtocol {
+    public static final String VERSION = "2";
+
+    public static final int DEFAULT_PORT = 7362;
+
+    public static final String COMMAND_SMALI = "smali";
+    public static final String COMMAND_BAKSMALI = "baksmali";
+    public static final String COMMAND_STOP = "stop";
+
+    public static final String LINE_STDOUT = "out";
+    public static final String LINE_STDERR = "err";
+    public static final String LINE_EXIT = "exit";
+
+    private static final int MAX_FIELD_LENGTH = 0x10000;
+    private static final int MAX_ARG_COUNT = 0x10000;
+
+    /**
+     * This class is uninstantiable.
+     */
+    private DaemonProtocol() {
+    }
+
+    /**
+     * @return the directory that the daemon writes its token file to by default
+     */
+    public static File getDefaultTokenDirectory() {
+        return new File(System.getProperty("user.home"), ".smali-daemon");
+    }
+
+    /**
+     * @param tokenDirectory the directory containing the token files
+     * @param port the port that the daemon is listening on
+     * @return the file containing the token of the daemon listening on the given port
+     */
+    public static File getTokenFile(File tokenDirectory, int port) {
+        return new File(tokenDirectory, "token-" + port);
+    }
+
+    public static void writeRequest(OutputStream out, String token, String command, String workingDirectory,
+                                    String[] args) throws IOException {
+        writeField(out, VERSION);
+        writeField(out, token);
+        writeField(out, command);
+        writeField(out, workingDirectory);
+        writeField(out, Integer.toString(args.length));
+        for (String arg: args) {
+            writeField(out, arg);
+        }
+        out.flush();
+    }
+
+    private static void writeField(OutputStream out, String field) throws IOException {
+        out.write(field.getBytes("UTF-8"));
+        out.write(0);
+    }
+
+    private static String readField(InputStream in) throws IOException {
+        ByteArrayOutputStream field = new ByteArrayOutputStream();
+        while (true) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Unexpected end of request");
+            }
+            if (b == 0) {
+                return field.toString("UTF-8");
+            }
+            if (field.size() == MAX_FIELD_LENGTH) {
+                throw new IOException("Request field is too long");
+            }
+            field.write(b);
+        }
+    }
+
+    /**
+     * Thrown when a request doesn't have the daemon's token
+     */
+    public static class InvalidTokenException extends IOException {
+        public InvalidTokenException() {
+            super("Invalid token");
+        }
+    }
+
+    public static class Request {
+        public final String command;
+        public final String workingDirectory;
+        public final String[] args;
+
+        /**
+         * Reads a request
+         * @param in the stream to read the request from
+         * @param token the daemon's token
+         * @throws InvalidTokenException if the request doesn't have the given token. Nothing after the token is read
+         * in this case
+         */
+        public Request(InputStream in, String token) throws IOException {
+            String version = readField(in);
+            if (!version.equals(VERSION)) {
+                throw new IOException(String.format("Unsupported protocol version %s", version));
+            }
+            //compare the whole token, so the time taken doesn't tell how much of it matched
+            if (!MessageDigest.isEqual(readField(in).getBytes("UTF-8"), token.getBytes("UTF-8"))) {
+                throw new InvalidTokenException();
+            }
+            command = readField(in);
+            workingDirectory = readField(in);
+
+            int argCount;
+            try {
+                argCount = Integer.parseInt(readField(in));
+            } catch (NumberFormatException ex) {
+                throw new IOException("Invalid argument count");
+            }
+            if (argCount < 0 || argCount > MAX_ARG_COUNT) {
+                throw new IOException(String.format("Invalid argument count %d", argCount));
+            }
+            args = new String[argCount];
+            for (int i=0; i<args.length; i++) {
+                args[i] = readField(in);
+            }
+        }
+    }
+
+    /**
+     * An OutputStream that sends everything written to it to the client as lines with the given prefix. A line is
+     * only sent once it is complete, or when the stream is finished.
+     */
+    public static class LineOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] prefix;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        public LineOutputStream(OutputStream out, String prefix) throws UnsupportedEncodingException {
+            this.out = out;
+            this.prefix = (prefix + " ").getBytes("UTF-8");
+        }
+
+        public void write(int b) throws IOException {
+            if (b == '\n') {
+                writeLine();
+            } else {
+                line.write(b);
+            }
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            int end = off + len;
+            for (int i=off; i<end; i++) {
+                if (b[i] == '\n') {
+                    line.write(b, off, i - off);
+                    writeLine();
+                    off = i + 1;
+                }
+            }
+            line.write(b, off, end - off);
+        }
+
+        private void writeLine() throws IOException {
+            synchronized (out) {
+                out.write(prefix);
+                line.writeTo(out);
+                out.write('\n');
+            }
+            line.reset();
+        }
+
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+
+        /**
+         * Sends the last line, if it hasn't been terminated
+         */
+        public void finish() throws IOException {
+            if (line.size() > 0) {
+                writeLine();
+            }
+            flush();
+        }
+    }
+
+    public static void writeExit(OutputStream out, int status) throws IOException {
+        synchronized (out) {
+            out.write((LINE_EXIT + " " + status + "\n").getBytes("UTF-8"));
+            out.flush();
+        }
+    }
+}
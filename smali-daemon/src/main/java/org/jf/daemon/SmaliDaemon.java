@@ -0,0 +1,261 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.daemon;
+
+import org.jf.baksmali.baksmali;
+import org.jf.daemon.DaemonProtocol.InvalidTokenException;
+import org.jf.daemon.DaemonProtocol.LineOutputStream;
+import org.jf.daemon.DaemonProtocol.Request;
+import org.jf.dexlib.Code.Analysis.ClassPath;
+import org.jf.dexlib.Code.Analysis.RegisterType;
+import org.jf.dexlib.Util.Hex;
+import org.jf.dexlib.Util.Metrics;
+
+import javax.management.JMException;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.SecureRandom;
+
+/**
+ * A long running server that runs smali and baksmali requests in the same JVM, so that they can reuse the JIT
+ * compiled code and the boot class path files that were read by earlier requests.
+ *
+ * The server only listens on the loopback interface, and only accepts requests that have the token it generated when
+ * it started. The token is written to a file in a directory that only the user running the daemon can access, so
+ * other users on the same machine can't run commands through it. It handles one request at a time. smali and baksmali keep their
+ * options in static fields, so running requests one after another is what keeps the options of different requests
+ * from interfering with each other. The class path and the other static state that outlives a run is reset after each
+ * request.
+ *
+ * Metrics are collected for all requests, and are exposed through the MBean registered under
+ * <code>Metrics.OBJECT_NAME</code>.
+ */
+public class SmaliDaemon {
+    private final ServerSocket serverSocket;
+    private final PrintStream originalOut;
+    private final PrintStream originalErr;
+    private final String token;
+    private final File tokenFile;
+
+    public SmaliDaemon(int port) throws IOException {
+        this(port, DaemonProtocol.getDefaultTokenDirectory());
+    }
+
+    /**
+     * @param port the port to listen on, or 0 to use any free port
+     * @param tokenDirectory the directory to write the token file to
+     */
+    SmaliDaemon(int port, File tokenDirectory) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+        originalOut = System.out;
+        originalErr = System.err;
+
+        byte[] tokenBytes = new byte[16];
+        new SecureRandom().nextBytes(tokenBytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b: tokenBytes) {
+            sb.append(Hex.u1(b));
+        }
+        token = sb.toString();
+
+        tokenFile = DaemonProtocol.getTokenFile(tokenDirectory, getPort());
+        try {
+            writeTokenFile(tokenDirectory);
+        } catch (IOException ex) {
+            serverSocket.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes the token to the token file. The token directory is made accessible only to the current user before the
+     * token file is created, so that no one else can open the token file, not even while it is being written.
+     */
+    private void writeTokenFile(File tokenDirectory) throws IOException {
+        if (!tokenDirectory.isDirectory() && !tokenDirectory.mkdirs()) {
+            throw new IOException("Unable to create the token directory " + tokenDirectory);
+        }
+        if (!setOwnerOnly(tokenDirectory, true)) {
+            throw new IOException("Unable to make the token directory " + tokenDirectory +
+                    " accessible only to the current user");
+        }
+
+        tokenFile.delete();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tokenFile), "UTF-8");
+        try {
+            if (!setOwnerOnly(tokenFile, false)) {
+                throw new IOException("Unable to make the token file " + tokenFile +
+                        " accessible only to the current user");
+            }
+            writer.write(token);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static boolean setOwnerOnly(File file, boolean executable) {
+        return file.setReadable(false, false) && file.setReadable(true, true) &&
+                file.setWritable(false, false) && file.setWritable(true, true) &&
+                file.setExecutable(false, false) && (!executable || file.setExecutable(true, true));
+    }
+
+    /**
+     * @return the port that the daemon is listening on
+     */
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Handles requests until a stop request is received
+     */
+    public void run() throws IOException {
+        ClassPath.setBootClassPathCaching(true);
+
+        //collect metrics across all requests, so they can be monitored through JMX
+        Metrics.setEnabled(true);
+        try {
+            Metrics.registerMBean();
+        } catch (JMException ex) {
+            originalErr.println("Unable to register the metrics MBean: " + ex.getMessage());
+        }
+
+        originalOut.println("smali daemon listening on " + serverSocket.getLocalSocketAddress());
+
+        try {
+            boolean running = true;
+            while (running) {
+                Socket socket = serverSocket.accept();
+                try {
+                    running = handleConnection(socket);
+                } catch (IOException ex) {
+                    originalErr.println("Error while handling a request: " + ex.getMessage());
+                } finally {
+                    socket.close();
+                }
+            }
+        } finally {
+            serverSocket.close();
+            tokenFile.delete();
+            ClassPath.setBootClassPathCaching(false);
+        }
+    }
+
+    private boolean handleConnection(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+        Request request;
+        try {
+            request = new Request(in, token);
+        } catch (InvalidTokenException ex) {
+            originalErr.println("Rejected a request with an invalid token from " + socket.getRemoteSocketAddress());
+            LineOutputStream stderr = new LineOutputStream(out, DaemonProtocol.LINE_STDERR);
+            stderr.write(("The smali daemon rejected the request, because it doesn't have the token in " + tokenFile)
+                    .getBytes("UTF-8"));
+            stderr.finish();
+            DaemonProtocol.writeExit(out, 1);
+            return true;
+        }
+
+        if (request.command.equals(DaemonProtocol.COMMAND_STOP)) {
+            DaemonProtocol.writeExit(out, 0);
+            return false;
+        }
+
+        DaemonProtocol.writeExit(out, runRequest(request, out));
+        return true;
+    }
+
+    private int runRequest(Request request, OutputStream out) throws IOException {
+        LineOutputStream stdout = new LineOutputStream(out, DaemonProtocol.LINE_STDOUT);
+        LineOutputStream stderr = new LineOutputStream(out, DaemonProtocol.LINE_STDERR);
+        PrintStream requestOut = new PrintStream(stdout, true);
+        PrintStream requestErr = new PrintStream(stderr, true);
+
+        int status;
+
+        System.setOut(requestOut);
+        System.setErr(requestErr);
+        try {
+            File workingDirectory = new File(request.workingDirectory);
+
+            if (request.command.equals(DaemonProtocol.COMMAND_BAKSMALI)) {
+                ToolArguments args = new ToolArguments(org.jf.baksmali.main.getOptions(), workingDirectory,
+                        request.args);
+                if (!args.hasOption("o")) {
+                    args.addPathOption("o", "out");
+                }
+                //baksmali looks for boot class path files in the current directory by default
+                args.addPathOption("d", ".");
+                status = org.jf.baksmali.main.run(args.getArgs());
+            } else if (request.command.equals(DaemonProtocol.COMMAND_SMALI)) {
+                ToolArguments args = new ToolArguments(org.jf.smali.main.getOptions(), workingDirectory,
+                        request.args);
+                if (!args.hasOption("o")) {
+                    args.addPathOption("o", "out.dex");
+                }
+                status = org.jf.smali.main.run(args.getArgs());
+            } else {
+                System.err.println("Unknown command " + request.command);
+                status = 1;
+            }
+        } catch (Throwable ex) {
+            System.err.println("\nUNEXPECTED DAEMON ERROR:");
+            ex.printStackTrace();
+            status = 1;
+        } finally {
+            requestOut.flush();
+            requestErr.flush();
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+
+            resetState();
+        }
+        stdout.finish();
+        stderr.finish();
+        return status;
+    }
+
+    /**
+     * Resets the static state that smali and baksmali leave behind after a run, so that it doesn't affect the next
+     * request, and doesn't keep the last dex file reachable
+     */
+    private static void resetState() {
+        ClassPath.clearClassPath();
+        RegisterType.clearInternedRegisterTypes();
+        baksmali.inlineResolver = null;
+        baksmali.clearDexFileState();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.daemon;
+
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rewrites the arguments of a request so that the file and directory paths in them are resolved against the client's
+ * working directory instead of the daemon's.
+ *
+ * The values of options whose argument name is FILE or DIR are resolved, as are all of the non-option arguments.
+ * Options are recognized the same way that commons-cli's PosixParser recognizes them.
+ */
+class ToolArguments {
+    private final Options options;
+    private final File workingDirectory;
+
+    private final List<String> resolvedArgs = new ArrayList<String>();
+    private final Set<String> seenOptions = new HashSet<String>();
+
+    public ToolArguments(Options options, File workingDirectory, String[] args) {
+        this.options = options;
+        this.workingDirectory = workingDirectory;
+
+        boolean endOfOptions = false;
+        for (int i=0; i<args.length; i++) {
+            String arg = args[i];
+
+            if (endOfOptions || !arg.startsWith("-")) {
+                resolvedArgs.add(resolvePath(arg));
+            } else if (arg.equals("-")) {
+                resolvedArgs.add(arg);
+            } else if (arg.equals("--")) {
+                resolvedArgs.add(arg);
+                endOfOptions = true;
+            } else if (arg.startsWith("--")) {
+                i = processLongOption(args, i);
+            } else {
+                i = processShortOptions(args, i);
+            }
+        }
+    }
+
+    /**
+     * @param opt the short name of an option
+     * @return true if the given option was specified in the arguments
+     */
+    public boolean hasOption(String opt) {
+        return seenOptions.contains(opt);
+    }
+
+    /**
+     * Adds an option and its value before the other arguments
+     * @param opt the short name of the option
+     * @param path the value of the option, which is resolved against the client's working directory
+     */
+    public void addPathOption(String opt, String path) {
+        resolvedArgs.add(0, "-" + opt);
+        resolvedArgs.add(1, resolvePath(path));
+    }
+
+    public String[] getArgs() {
+        return resolvedArgs.toArray(new String[resolvedArgs.size()]);
+    }
+
+    private int processLongOption(String[] args, int index) {
+        String arg = args[index];
+        String name = arg.substring(2);
+        String value = null;
+
+        int equalsIndex = name.indexOf('=');
+        if (equalsIndex != -1) {
+            value = name.substring(equalsIndex+1);
+            name = name.substring(0, equalsIndex);
+        }
+
+        Option option = options.getOption(name);
+        if (option == null) {
+            resolvedArgs.add(arg);
+            return index;
+        }
+        seenOptions.add(option.getOpt());
+
+        if (value != null) {
+            resolvedArgs.add("--" + name + "=" + resolveValue(option, value));
+            return index;
+        }
+
+        resolvedArgs.add(arg);
+        return processSeparateValue(option, args, index);
+    }
+
+    private int processShortOptions(String[] args, int index) {
+        String arg = args[index];
+
+        for (int i=1; i<arg.length(); i++) {
+            Option option = options.getOption(arg.substring(i, i+1));
+            if (option == null) {
+                resolvedArgs.add(arg);
+                return index;
+            }
+            seenOptions.add(option.getOpt());
+
+            if (option.hasArg()) {
+                if (i+1 < arg.length()) {
+                    resolvedArgs.add(arg.substring(0, i+1) + resolveValue(option, arg.substring(i+1)));
+                    return index;
+                }
+                resolvedArgs.add(arg);
+                return processSeparateValue(option, args, index);
+            }
+        }
+
+        resolvedArgs.add(arg);
+        return index;
+    }
+
+    private int processSeparateValue(Option option, String[] args, int index) {
+        if (!option.hasArg()) {
+            return index;
+        }
+
+        int maxValues = option.getArgs();
+        int valueCount = 0;
+
+        while (index+1 < args.length && (maxValues == Option.UNLIMITED_VALUES || valueCount < maxValues)) {
+            String value = args[index+1];
+            if (value.equals("--") || (value.startsWith("-") && options.hasOption(value))) {
+                break;
+            }
+            resolvedArgs.add(resolveValue(option, value));
+            valueCount++;
+            index++;
+        }
+        return index;
+    }
+
+    private String resolveValue(Option option, String value) {
+        String argName = option.getArgName();
+        if ("FILE".equals(argName) || "DIR".equals(argName)) {
+            return resolvePath(value);
+        }
+        return value;
+    }
+
+    private String resolvePath(String path) {
+        if (path.length() == 0 || new File(path).isAbsolute()) {
+            return path;
+        }
+        return new File(workingDirectory, path).getPath();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.daemon;
+
+import java.io.IOException;
+import java.net.ConnectException;
+
+public class main {
+    /**
+     * This class is uninstantiable.
+     */
+    private main() {
+    }
+
+    /**
+     * Run!
+     */
+    public static void main(String[] args) {
+        int port = DaemonProtocol.DEFAULT_PORT;
+        int argIndex = 0;
+
+        if (args.length >= 2 && (args[0].equals("-p") || args[0].equals("--port"))) {
+            try {
+                port = Integer.parseInt(args[1]);
+            } catch (NumberFormatException ex) {
+                usage();
+                System.exit(1);
+            }
+            argIndex = 2;
+        }
+
+        if (argIndex >= args.length) {
+            usage();
+            System.exit(1);
+        }
+
+        String command = args[argIndex];
+        String[] commandArgs = new String[args.length - argIndex - 1];
+        System.arraycopy(args, argIndex + 1, commandArgs, 0, commandArgs.length);
+
+        try {
+            if (command.equals("start")) {
+                new SmaliDaemon(port).run();
+            } else if (command.equals(DaemonProtocol.COMMAND_SMALI) ||
+                    command.equals(DaemonProtocol.COMMAND_BAKSMALI) ||
+                    command.equals(DaemonProtocol.COMMAND_STOP)) {
+                System.exit(DaemonClient.runCommand(port, command, commandArgs));
+            } else {
+                usage();
+                System.exit(1);
+            }
+        } catch (ConnectException ex) {
+            System.err.println(String.format("Cannot connect to the smali daemon on port %d. Start it with " +
+                    "\"start\" first", port));
+            System.exit(1);
+        } catch (IOException ex) {
+            System.err.println("Error while communicating with the smali daemon: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints the usage message.
+     */
+    private static void usage() {
+        System.err.println("usage: java -jar smali-daemon.jar [--port <port>] start");
+        System.err.println("       java -jar smali-daemon.jar [--port <port>] smali [smali options]");
+        System.err.println("       java -jar smali-daemon.jar [--port <port>] baksmali [baksmali options]");
+        System.err.println("       java -jar smali-daemon.jar [--port <port>] stop");
+        System.err.println();
+        System.err.println("start runs the daemon in the foreground, listening on 127.0.0.1. The default port is " +
+                DaemonProtocol.DEFAULT_PORT + ".");
+        System.err.println("smali and baksmali run the tool in the daemon, with paths resolved against the current");
+        System.err.println("directory. The daemon also searches its own working directory for boot class path");
+        System.err.println("files, so it is best started from a directory that doesn't contain any.");
+        System.err.println();
+        System.err.println("The daemon writes a token to ~/.smali-daemon/token-<port>, which only the user running it");
+        System.err.println("can read, and rejects requests that don't include that token. The smali and baksmali");
+        System.err.println("scripts send their commands to the daemon when it is running, and run the jar otherwise.");
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.daemon;
+
+import org.junit.*;
+
+import java.io.*;
+
+public class SmaliDaemonTest {
+    private static final String FOO_THROWABLE =
+            ".class public LFoo;\n" +
+            ".super Ljava/lang/RuntimeException;\n" +
+            "\n" +
+            ".method public constructor <init>()V\n" +
+            "    .registers 1\n" +
+            "    invoke-direct {p0}, Ljava/lang/RuntimeException;-><init>()V\n" +
+            "    return-void\n" +
+            ".end method\n" +
+            "\n" +
+            ".method public static fail()V\n" +
+            "    .registers 1\n" +
+            "    new-instance v0, LFoo;\n" +
+            "    invoke-direct {v0}, LFoo;-><init>()V\n" +
+            "    throw v0\n" +
+            ".end method\n";
+
+    //the same class, except that it no longer extends Throwable, so the throw instruction doesn't verify
+    private static final String FOO_OBJECT =
+            FOO_THROWABLE.replace("Ljava/lang/RuntimeException;", "Ljava/lang/Object;");
+
+    private File tempDirectory;
+    private File tokenFile;
+    private SmaliDaemon daemon;
+    private Thread daemonThread;
+
+    @Before
+    public void startDaemon() throws IOException {
+        tempDirectory = File.createTempFile("smalidaemontest", "");
+        tempDirectory.delete();
+        Assert.assertTrue(tempDirectory.mkdir());
+
+        File tokenDirectory = new File(tempDirectory, "tokens");
+        daemon = new SmaliDaemon(0, tokenDirectory);
+        tokenFile = DaemonProtocol.getTokenFile(tokenDirectory, daemon.getPort());
+        daemonThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    daemon.run();
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+        daemonThread.start();
+    }
+
+    @After
+    public void stopDaemon() throws Exception {
+        runCommand(DaemonProtocol.COMMAND_STOP, new ByteArrayOutputStream());
+        daemonThread.join();
+        Assert.assertFalse(tokenFile.exists());
+        delete(tempDirectory);
+    }
+
+    /**
+     * Analyzing a class in one request must not affect the analysis of a different class with the same name in a
+     * later request
+     */
+    @Test
+    public void conflictingClassDefinitionsTest() throws IOException {
+        File throwableDex = assemble("throwable", FOO_THROWABLE);
+        File objectDex = assemble("object", FOO_OBJECT);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Assert.assertEquals(0, verify(throwableDex, output));
+        Assert.assertFalse(output.toString("UTF-8"), output.toString("UTF-8").contains("Exception"));
+
+        output = new ByteArrayOutputStream();
+        Assert.assertEquals(1, verify(objectDex, output));
+        String errors = output.toString("UTF-8");
+        Assert.assertTrue(errors, errors.contains("opcode: throw"));
+        Assert.assertFalse(errors, errors.contains("which does not extend"));
+
+        //and the first class still verifies after the second one was analyzed
+        output = new ByteArrayOutputStream();
+        Assert.assertEquals(0, verify(throwableDex, output));
+    }
+
+    /**
+     * A request without the daemon's token must be rejected without running the command
+     */
+    @Test
+    public void invalidTokenTest() throws IOException {
+        File smaliDirectory = new File(tempDirectory, "smali");
+        Assert.assertTrue(smaliDirectory.mkdir());
+        File dexFile = new File(tempDirectory, "invalid.dex");
+
+        String token = DaemonClient.readToken(tokenFile);
+        String invalidToken = (token.charAt(0) == '0' ? "1" : "0") + token.substring(1);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int status = DaemonClient.runCommand(daemon.getPort(), invalidToken, DaemonProtocol.COMMAND_SMALI,
+                tempDirectory.getPath(), new String[] {"-o", dexFile.getPath(), smaliDirectory.getPath()}, output,
+                output);
+        Assert.assertEquals(1, status);
+        Assert.assertTrue(output.toString("UTF-8"), output.toString("UTF-8").contains("token"));
+        Assert.assertFalse(dexFile.exists());
+
+        //a stop request without the token doesn't stop the daemon either
+        output = new ByteArrayOutputStream();
+        status = DaemonClient.runCommand(daemon.getPort(), "", DaemonProtocol.COMMAND_STOP, tempDirectory.getPath(),
+                new String[0], output, output);
+        Assert.assertEquals(1, status);
+        Assert.assertTrue(daemonThread.isAlive());
+    }
+
+    private File assemble(String name, String smali) throws IOException {
+        File smaliDirectory = new File(tempDirectory, name);
+        Assert.assertTrue(smaliDirectory.mkdir());
+        Writer writer = new OutputStreamWriter(new FileOutputStream(new File(smaliDirectory, "Foo.smali")), "UTF-8");
+        try {
+            writer.write(smali);
+        } finally {
+            writer.close();
+        }
+
+        File dexFile = new File(tempDirectory, name + ".dex");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int status = runCommand(DaemonProtocol.COMMAND_SMALI, output, "-o", dexFile.getPath(),
+                smaliDirectory.getPath());
+        Assert.assertEquals(output.toString("UTF-8"), 0, status);
+        return dexFile;
+    }
+
+    private int verify(File dexFile, OutputStream output) throws IOException {
+        File libandroid = new File("../libandroid").getCanonicalFile();
+        File outputDirectory = new File(tempDirectory, dexFile.getName() + ".out");
+        return runCommand(DaemonProtocol.COMMAND_BAKSMALI, output, "-V", "-d", libandroid.getPath(),
+                "-c", "core.jar", "-o", outputDirectory.getPath(), dexFile.getPath());
+    }
+
+    /**
+     * Runs a command in the daemon, and collects the output from both stdout and stderr into the given stream
+     * @return the exit status of the command
+     */
+    private int runCommand(String command, OutputStream output, String... args) throws IOException {
+        return DaemonClient.runCommand(daemon.getPort(), DaemonClient.readToken(tokenFile), command,
+                tempDirectory.getPath(), args, output, output);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.jf.smali;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a synthetic corpus of smali files, and optionally assembles it into a dex file, for measuring how smali,
+ * baksmali and the analyses scale with the size of their input.
+ *
+ * The output is fully determined by the settings and the seed. Every class extends the class before it in its
+ * hierarchy, up to the maximum depth, and overrides all of the methods of its superclass. The methods consist of
+ * randomly chosen blocks of arithmetic, field accesses, string constants, virtual calls, conditional branches,
+ * try/catch blocks and packed or sparse switches. The register types are kept the same at every point in a method,
+ * so the generated code also passes baksmali's verification against the android boot class path.
+ *
+ * In each method, v0 holds a copy of "this", v1 holds a string, and the rest of the non-parameter registers hold
+ * ints. The only parameter besides "this" is an int.
+ *
+ * usage: java -cp smali.jar org.jf.smali.CorpusGenerator [--seed N] [--classes N] [--methods N]
+ *            [--fields N] [--instructions N] [--registers N] [--try-density F] [--switch-density F]
+ *            [--depth N] [--strings N] [--dex FILE] DIR
+ *
+ * The smali files are written under DIR. With --dex, they are also assembled into the given dex file, the same way
+ * smali would assemble them, so that the --stats output of smali and baksmali can be compared across corpus sizes.
+ */
+public class CorpusGenerator {
+    private static final int MIN_REGISTERS = 5;
+    private static final int MAX_REGISTERS = 256;
+    private static final int PARAMETER_REGISTERS = 2;
+
+    public int classCount = 1000;
+    public int methodsPerClass = 10;
+    public int fieldsPerClass = 4;
+    public int instructionsPerMethod = 50;
+    public int registersPerMethod = 16;
+    public double tryDensity = 0.1;
+    public double switchDensity = 0.05;
+    public int hierarchyDepth = 5;
+    public int stringPoolSize = 10000;
+    public long seed = 0;
+
+    private Random random;
+    private String[] stringPool;
+
+    //per method state
+    private int labelCount;
+    private StringBuilder handlers;
+    private StringBuilder switchData;
+
+    public static void main(String[] args) throws Exception {
+        CorpusGenerator generator = new CorpusGenerator();
+        File dexFile = null;
+        File outputDirectory = null;
+
+        for (int i=0; i<args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--") && i+1 < args.length) {
+                String value = args[++i];
+                if (arg.equals("--seed")) {
+                    generator.seed = Long.parseLong(value);
+                } else if (arg.equals("--classes")) {
+                    generator.classCount = Integer.parseInt(value);
+                } else if (arg.equals("--methods")) {
+                    generator.methodsPerClass = Integer.parseInt(value);
+                } else if (arg.equals("--fields")) {
+                    generator.fieldsPerClass = Integer.parseInt(value);
+                } else if (arg.equals("--instructions")) {
+                    generator.instructionsPerMethod = Integer.parseInt(value);
+                } else if (arg.equals("--registers")) {
+                    generator.registersPerMethod = Integer.parseInt(value);
+                } else if (arg.equals("--try-density")) {
+                    generator.tryDensity = Double.parseDouble(value);
+                } else if (arg.equals("--switch-density")) {
+                    generator.switchDensity = Double.parseDouble(value);
+                } else if (arg.equals("--depth")) {
+                    generator.hierarchyDepth = Integer.parseInt(value);
+                } else if (arg.equals("--strings")) {
+                    generator.stringPoolSize = Integer.parseInt(value);
+                } else if (arg.equals("--dex")) {
+                    dexFile = new File(value);
+                } else {
+                    usage();
+                    System.exit(1);
+                }
+            } else if (arg.startsWith("-") || outputDirectory != null) {
+                usage();
+                System.exit(1);
+            } else {
+                outputDirectory = new File(arg);
+            }
+        }
+
+        if (outputDirectory == null) {
+            usage();
+            System.exit(1);
+        }
+
+        int fileCount = generator.generate(outputDirectory);
+        System.out.println(String.format("Wrote %d smali files to %s", fileCount, outputDirectory.getPath()));
+
+        if (dexFile != null) {
+            int status = main.run(new String[] {"-o", dexFile.getPath(), outputDirectory.getPath()});
+            if (status != 0) {
+                System.exit(status);
+            }
+            System.out.println(String.format("Assembled %s", dexFile.getPath()));
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: java -cp smali.jar org.jf.smali.CorpusGenerator [--seed N] " +
+                "[--classes N] [--methods N] [--fields N] [--instructions N] [--registers N] [--try-density F] " +
+                "[--switch-density F] [--depth N] [--strings N] [--dex FILE] DIR");
+    }
+
+    /**
+     * Writes the smali files of the corpus under the given directory, in one directory per group of 100 classes
+     * @return the number of files written
+     */
+    public int generate(File outputDirectory) throws IOException {
+        if (registersPerMethod < MIN_REGISTERS || registersPerMethod > MAX_REGISTERS) {
+            throw new IllegalArgumentException(String.format("The register count must be between %d and %d",
+                    MIN_REGISTERS, MAX_REGISTERS));
+        }
+
+        random = new Random(seed);
+        generateStringPool();
+
+        for (int classIndex=0; classIndex<classCount; classIndex++) {
+            File classFile = new File(outputDirectory, getClassName(classIndex) + ".smali");
+            File parentDirectory = classFile.getParentFile();
+            if (!parentDirectory.exists() && !parentDirectory.mkdirs()) {
+                throw new IOException("Cannot create directory " + parentDirectory.getPath());
+            }
+
+            Writer writer = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(classFile)), "UTF-8");
+            try {
+                writer.write(generateClass(classIndex));
+            } finally {
+                writer.close();
+            }
+        }
+        return classCount;
+    }
+
+    private void generateStringPool() {
+        stringPool = new String[Math.max(1, stringPoolSize)];
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<stringPool.length; i++) {
+            sb.setLength(0);
+            sb.append("string_");
+            sb.append(i);
+            sb.append('_');
+            int length = random.nextInt(24);
+            for (int j=0; j<length; j++) {
+                sb.append((char)('a' + random.nextInt(26)));
+            }
+            stringPool[i] = sb.toString();
+        }
+    }
+
+    private static String getClassName(int classIndex) {
+        return String.format("gen/p%d/C%d", classIndex / 100, classIndex);
+    }
+
+    private static String getClassType(int classIndex) {
+        return "L" + getClassName(classIndex) + ";";
+    }
+
+    /**
+     * @return the index of the superclass of the given class, or -1 if it extends java.lang.Object
+     */
+    private int getSuperclassIndex(int classIndex) {
+        if (hierarchyDepth <= 1 || classIndex % hierarchyDepth == 0) {
+            return -1;
+        }
+        return classIndex - 1;
+    }
+
+    private String generateClass(int classIndex) {
+        String classType = getClassType(classIndex);
+        int superclassIndex = getSuperclassIndex(classIndex);
+        String superclassType = superclassIndex==-1?"Ljava/lang/Object;":getClassType(superclassIndex);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(".class public ").append(classType).append('\n');
+        sb.append(".super ").append(superclassType).append('\n');
+        sb.append('\n');
+
+        for (int i=0; i<fieldsPerClass; i++) {
+            sb.append(".field public f").append(i).append(":I\n");
+        }
+        sb.append('\n');
+
+        sb.append(".method public constructor <init>()V\n");
+        sb.append("    .registers 1\n");
+        sb.append("    invoke-direct {p0}, ").append(superclassType).append("-><init>()V\n");
+        sb.append("    return-void\n");
+        sb.append(".end method\n");
+
+        for (int i=0; i<methodsPerClass; i++) {
+            sb.append('\n');
+            generateMethod(sb, classType, i);
+        }
+        return sb.toString();
+    }
+
+    private void generateMethod(StringBuilder sb, String classType, int methodIndex) {
+        labelCount = 0;
+        handlers = new StringBuilder();
+        switchData = new StringBuilder();
+
+        int localRegisters = registersPerMethod - PARAMETER_REGISTERS;
+
+        sb.append(".method public m").append(methodIndex).append("(I)I\n");
+        sb.append("    .registers ").append(registersPerMethod).append('\n');
+        sb.append('\n');
+
+        sb.append("    move-object/from16 v0, p0\n");
+        sb.append("    const-string v1, \"").append(randomString()).append("\"\n");
+        for (int i=2; i<localRegisters; i++) {
+            sb.append(i<16?"    const/4 v":"    const/16 v").append(i).append(", 0x0\n");
+        }
+
+        int instructionCount = 0;
+        while (instructionCount < instructionsPerMethod) {
+            double choice = random.nextDouble();
+            if (choice < tryDensity) {
+                instructionCount += generateTryBlock(sb, classType);
+            } else if (choice < tryDensity + switchDensity) {
+                instructionCount += generateSwitch(sb);
+            } else {
+                instructionCount += generateSimpleBlock(sb, classType);
+            }
+        }
+
+        sb.append('\n');
+        sb.append("    return ").append(intRegister()).append('\n');
+        sb.append(handlers);
+        sb.append(switchData);
+        sb.append(".end method\n");
+    }
+
+    /**
+     * @return an int register that can be used with any instruction format
+     */
+    private String nibbleIntRegister() {
+        int localRegisters = registersPerMethod - PARAMETER_REGISTERS;
+        return "v" + (2 + random.nextInt(Math.min(16, localRegisters) - 2));
+    }
+
+    /**
+     * @return an int register that can be used with the formats that take 8-bit registers
+     */
+    private String intRegister() {
+        int localRegisters = registersPerMethod - PARAMETER_REGISTERS;
+        return "v" + (2 + random.nextInt(localRegisters - 2));
+    }
+
+    private String randomString() {
+        return stringPool[random.nextInt(stringPool.length)];
+    }
+
+    private String newLabel(String prefix) {
+        return ":" + prefix + "_" + (labelCount++);
+    }
+
+    /**
+     * @return the number of instructions that were generated
+     */
+    private int generateSimpleBlock(StringBuilder sb, String classType) {
+        switch (random.nextInt(8)) {
+            case 0:
+                sb.append("    add-int ").append(intRegister()).append(", ").append(intRegister()).append(", ")
+                        .append(intRegister()).append('\n');
+                return 1;
+            case 1:
+                sb.append("    mul-int/lit8 ").append(intRegister()).append(", ").append(intRegister()).append(", ")
+                        .append(random.nextInt(128)).append('\n');
+                return 1;
+            case 2:
+                sb.append("    xor-int/2addr ").append(nibbleIntRegister()).append(", ").append(nibbleIntRegister())
+                        .append('\n');
+                return 1;
+            case 3:
+                sb.append("    const ").append(intRegister()).append(", ").append(random.nextInt()).append('\n');
+                return 1;
+            case 4: {
+                if (fieldsPerClass == 0) {
+                    return 0;
+                }
+                String field = classType + "->f" + random.nextInt(fieldsPerClass) + ":I";
+                if (random.nextBoolean()) {
+                    sb.append("    iget ").append(nibbleIntRegister()).append(", v0, ").append(field).append('\n');
+                } else {
+                    sb.append("    iput ").append(nibbleIntRegister()).append(", v0, ").append(field).append('\n');
+                }
+                return 1;
+            }
+            case 5:
+                sb.append("    const-string v1, \"").append(randomString()).append("\"\n");
+                sb.append("    invoke-virtual {v1}, Ljava/lang/String;->length()I\n");
+                sb.append("    move-result ").append(intRegister()).append('\n');
+                return 3;
+            case 6:
+                sb.append("    invoke-virtual/range {p0 .. p1}, ").append(classType).append("->m")
+                        .append(random.nextInt(methodsPerClass)).append("(I)I\n");
+                sb.append("    move-result ").append(intRegister()).append('\n');
+                return 2;
+            default: {
+                String label = newLabel("cond");
+                if (random.nextBoolean()) {
+                    sb.append("    if-eqz ").append(intRegister()).append(", ").append(label).append('\n');
+                } else {
+                    sb.append("    if-lt ").append(nibbleIntRegister()).append(", ").append(nibbleIntRegister())
+                            .append(", ").append(label).append('\n');
+                }
+                sb.append("    add-int/lit8 ").append(intRegister()).append(", ").append(intRegister())
+                        .append(", 0x1\n");
+                sb.append("    ").append(label).append('\n');
+                return 2;
+            }
+        }
+    }
+
+    private int generateTryBlock(StringBuilder sb, String classType) {
+        String tryStart = newLabel("try_start");
+        String tryEnd = newLabel("try_end");
+        String handler = newLabel("catch");
+        String after = newLabel("after");
+
+        sb.append("    ").append(tryStart).append('\n');
+        int instructionCount = 0;
+        int blocks = 1 + random.nextInt(4);
+        for (int i=0; i<blocks; i++) {
+            instructionCount += generateSimpleBlock(sb, classType);
+        }
+        sb.append("    invoke-virtual/range {p0 .. p1}, ").append(classType).append("->m0(I)I\n");
+        sb.append("    ").append(tryEnd).append('\n');
+        sb.append("    .catch Ljava/lang/Exception; {").append(tryStart).append(" .. ").append(tryEnd).append("} ")
+                .append(handler).append('\n');
+        sb.append("    ").append(after).append('\n');
+
+        handlers.append('\n');
+        handlers.append("    ").append(handler).append('\n');
+        handlers.append("    const/4 ").append(nibbleIntRegister()).append(", 0x1\n");
+        handlers.append("    goto ").append(after).append('\n');
+
+        return instructionCount + 3;
+    }
+
+    private int generateSwitch(StringBuilder sb) {
+        int caseCount = 1 + random.nextInt(8);
+        boolean packed = random.nextBoolean();
+        String data = newLabel(packed?"pswitch_data":"sswitch_data");
+        String end = newLabel("switch_end");
+
+        List<String> caseLabels = new ArrayList<String>(caseCount);
+        for (int i=0; i<caseCount; i++) {
+            caseLabels.add(newLabel("case"));
+        }
+
+        sb.append(packed?"    packed-switch ":"    sparse-switch ").append(intRegister()).append(", ").append(data)
+                .append('\n');
+        sb.append("    goto ").append(end).append('\n');
+        for (String caseLabel: caseLabels) {
+            sb.append("    ").append(caseLabel).append('\n');
+            sb.append("    const/16 ").append(intRegister()).append(", ").append(random.nextInt(Short.MAX_VALUE))
+                    .append('\n');
+            sb.append("    goto ").append(end).append('\n');
+        }
+        sb.append("    ").append(end).append('\n');
+
+        switchData.append('\n');
+        switchData.append("    ").append(data).append('\n');
+        if (packed) {
+            switchData.append("    .packed-switch ").append(random.nextInt(1000)).append('\n');
+            for (String caseLabel: caseLabels) {
+                switchData.append("        ").append(caseLabel).append('\n');
+            }
+            switchData.append("    .end packed-switch\n");
+        } else {
+            switchData.append("    .sparse-switch\n");
+            int key = random.nextInt(1000);
+            for (String caseLabel: caseLabels) {
+                switchData.append("        ").append(key).append(" -> ").append(caseLabel).append('\n');
+                key += 1 + random.nextInt(100);
+            }
+            switchData.append("    .end sparse-switch\n");
+        }
+
+        return 2 + caseCount * 2;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver (JesusFreke)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.smali;
+
+import org.jf.dexlib.ClassDefItem;
+import org.jf.dexlib.CodeItem;
+import org.jf.dexlib.DexFile;
+import org.jf.dexlib.Util.ByteArrayAnnotatedOutput;
+import org.jf.dexlib.Util.ItemCopier;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A cache of assembled smali files, used for incremental assembly.
+ *
+ * Each smali file is assembled into its own single-class dex file, which is stored in the cache directory under
+ * the SHA-1 of the file contents and of the options that affect the assembled output. When the smali file hasn't
+ * changed, the cached dex file is read back and its classes are copied into the output dex file, instead of
+ * lexing, parsing and tree-walking the smali file again.
+ *
+ * Classes are always copied in from their cached dex file (even right after they have been assembled), so that the
+ * output is the same regardless of which files were already in the cache. It isn't byte for byte the same as the
+ * output of a normal assembly of the same files though. The items in the data section are laid out in the order
+ * that they are copied in, rather than the order that they are created in while assembling, so the classes are the
+ * same but the offsets of the data items differ.
+ *
+ * Each cache file is touched when it is used. Once the files have been assembled, <code>prune</code> deletes the
+ * least recently used files that weren't used by the current run, until the cache is within its size limit.
+ */
+public class SmaliCache {
+    /**
+     * This should be incremented whenever a change is made that affects the assembled output, so that existing
+     * cache entries are ignored
+     */
+    private static final int CACHE_VERSION = 1;
+
+    /**
+     * The default size limit of the cache directory, in bytes
+     */
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+    /**
+     * Temporary files that are older than this are left over from a run that was interrupted, and can be deleted
+     */
+    private static final long STALE_TEMP_FILE_AGE = 60L * 60 * 1000;
+
+    private final File cacheDirectory;
+    private final String keyPrefix;
+    private final boolean fixGoto;
+    private final long maxSize;
+
+    //the cache files that have been used by this run, which are never pruned
+    private final Set<File> usedFiles = new HashSet<File>();
+
+    /**
+     * Creates a new <code>SmaliCache</code> with the default size limit
+     * @param cacheDirectory the directory to store the cached dex files in. It will be created if needed
+     * @param apiLevel the api level that files are assembled for
+     * @param allowOdex whether odex instructions are allowed
+     * @param fixGoto whether goto instructions are replaced with a larger version where needed
+     */
+    public SmaliCache(File cacheDirectory, int apiLevel, boolean allowOdex, boolean fixGoto) {
+        this(cacheDirectory, apiLevel, allowOdex, fixGoto, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a new <code>SmaliCache</code>
+     * @param cacheDirectory the directory to store the cached dex files in. It will be created if needed
+     * @param apiLevel the api level that files are assembled for
+     * @param allowOdex whether odex instructions are allowed
+     * @param fixGoto whether goto instructions are replaced with a larger version where needed
+     * @param maxSize the size limit of the cache directory in bytes, which is enforced by <code>prune</code>
+     */
+    public SmaliCache(File cacheDirectory, int apiLevel, boolean allowOdex, boolean fixGoto, long maxSize) {
+        this.cacheDirectory = cacheDirectory;
+        this.fixGoto = fixGoto;
+        this.maxSize = maxSize;
+        this.keyPrefix = CACHE_VERSION + ":" + main.VERSION + ":" + apiLevel + ":" + allowOdex + ":" + fixGoto + ":";
+
+        if (!cacheDirectory.exists() && !cacheDirectory.mkdirs()) {
+            throw new RuntimeException("Could not create cache directory " + cacheDirectory.getPath());
+        }
+    }
+
+    /**
+     * Gets the file that the assembled form of the given smali file is cached in. The returned file doesn't
+     * necessarily exist yet
+     * @param smaliFile the smali file
+     * @return the cache file for the current contents of the given smali file
+     */
+    public File getCacheFile(File smaliFile) throws IOException {
+        InputStream inputStream = new FileInputStream(smaliFile);
+        try {
+            return getCacheFile(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Gets the file that the assembled form of a smali file with the given contents is cached in. The returned file
+     * doesn't necessarily exist yet
+     * @param inputStream an <code>InputStream</code> for the contents of the smali file. It isn't closed
+     * @return the cache file for the given contents
+     */
+    public File getCacheFile(InputStream inputStream) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        md.update(keyPrefix.getBytes("UTF-8"));
+
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) > 0) {
+            md.update(buffer, 0, read);
+        }
+
+        byte[] digest = md.digest();
+        StringBuilder sb = new StringBuilder(digest.length * 2 + 4);
+        for (byte b: digest) {
+            sb.append(Character.forDigit((b >> 4) & 0x0f, 16));
+            sb.append(Character.forDigit(b & 0x0f, 16));
+        }
+        sb.append(".dex");
+
+        return new File(cacheDirectory, sb.toString());
+    }
+
+    /**
+     * Writes the given single-class dex file to the given cache file
+     * @param classDexFile a <code>DexFile</code> containing the class from a single smali file
+     * @param cacheFile the cache file to write to, as returned by <code>getCacheFile</code>
+     */
+    public void store(DexFile classDexFile, File cacheFile) throws IOException {
+        if (fixGoto) {
+            classDexFile.place();
+            for (CodeItem codeItem: classDexFile.CodeItemsSection.getItems()) {
+                codeItem.fixInstructions(false, true);
+            }
+        }
+
+        classDexFile.place();
+
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+        classDexFile.writeTo(out);
+
+        byte[] bytes = out.toByteArray();
+
+        DexFile.calcSignature(bytes);
+        DexFile.calcChecksum(bytes);
+
+        //write to a temporary file first, so that a partially written entry is never picked up
+        File tempFile = new File(cacheDirectory, cacheFile.getName() + ".tmp");
+        FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+        try {
+            fileOutputStream.write(bytes);
+        } finally {
+            fileOutputStream.close();
+        }
+
+        if (!tempFile.renameTo(cacheFile)) {
+            cacheFile.delete();
+            if (!tempFile.renameTo(cacheFile)) {
+                throw new IOException("Could not write cache file " + cacheFile.getPath());
+            }
+        }
+    }
+
+    /**
+     * Copies the classes in the given cache file into the target <code>DexFile</code> of the given copier
+     * @param cacheFile the cache file to copy the classes from
+     * @param itemCopier the <code>ItemCopier</code> for the output dex file
+     */
+    public void copyClasses(File cacheFile, ItemCopier itemCopier) throws IOException {
+        DexFile classDexFile = new DexFile(cacheFile);
+        for (ClassDefItem classDefItem: classDexFile.ClassDefsSection.getItems()) {
+            itemCopier.copyClassDefItem(classDefItem);
+        }
+
+        //the modification time is used as the last use time when pruning
+        cacheFile.setLastModified(System.currentTimeMillis());
+        usedFiles.add(cacheFile);
+    }
+
+    /**
+     * Deletes the least recently used cache files until the total size of the cache is within the size limit. The
+     * files that were used by this run are kept, even if they alone are over the limit. Temporary files that were
+     * left behind by an interrupted run are deleted as well
+     * @return the number of cache files that were deleted
+     */
+    public int prune() {
+        File[] files = cacheDirectory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        long totalSize = 0;
+        List<File> candidates = new ArrayList<File>();
+        final Map<File, Long> lastUsed = new HashMap<File, Long>();
+
+        for (File file: files) {
+            String name = file.getName();
+            if (name.endsWith(".tmp")) {
+                if (now - file.lastModified() > STALE_TEMP_FILE_AGE) {
+                    file.delete();
+                }
+            } else if (name.endsWith(".dex") && file.isFile()) {
+                totalSize += file.length();
+                if (!usedFiles.contains(file)) {
+                    candidates.add(file);
+                    lastUsed.put(file, file.lastModified());
+                }
+            }
+        }
+
+        if (totalSize <= maxSize) {
+            return 0;
+        }
+
+        Collections.sort(candidates, new Comparator<File>() {
+            public int compare(File file1, File file2) {
+                long lastUsed1 = lastUsed.get(file1);
+                long lastUsed2 = lastUsed.get(file2);
+                return lastUsed1 < lastUsed2 ? -1 : (lastUsed1 == lastUsed2 ? 0 : 1);
+            }
+        });
+
+        int deleted = 0;
+        for (File file: candidates) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                totalSize -= length;
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+}
@@ -35,14 +35,21 @@ import org.apache.commons.cli.*;
 import org.jf.dexlib.Code.Opcode;
 import org.jf.dexlib.CodeItem;
 import org.jf.dexlib.DexFile;
+import org.jf.dexlib.InternTable;
 import org.jf.dexlib.Util.ByteArrayAnnotatedOutput;
+import org.jf.dexlib.Util.DexFileSplitter;
+import org.jf.dexlib.Util.ItemCopier;
+import org.jf.dexlib.Util.Metrics;
+import org.jf.util.ArchiveReader;
 import org.jf.util.ConsoleUtil;
 import org.jf.util.SmaliHelpFormatter;
 
 import java.io.*;
-import java.util.LinkedHashSet;
-import java.util.Properties;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Main class for smali. It recognizes enough options to be able to dispatch
@@ -84,6 +91,19 @@ public class main {
      * Run!
      */
     public static void main(String[] args) {
+        int status = run(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Runs smali with the given command line arguments, without exiting the JVM. This can be called more than once
+     * in the same JVM
+     * @param args the command line arguments
+     * @return the exit status
+     */
+    public static int run(String[] args) {
         CommandLineParser parser = new PosixParser();
         CommandLine commandLine;
 
@@ -91,7 +111,7 @@ public class main {
             commandLine = parser.parse(options, args);
         } catch (ParseException ex) {
             usage();
-            return;
+            return 0;
         }
 
         boolean allowOdex = false;
@@ -101,12 +121,19 @@ public class main {
         boolean verboseErrors = false;
         boolean oldLexer = false;
         boolean printTokens = false;
+        boolean printInternStats = false;
+        boolean printStats = false;
+        String statsJsonFile = null;
+        boolean multiDex = false;
+        int maxIdCount = DexFileSplitter.MAX_ID_COUNT;
 
         boolean apiSet = false;
         int apiLevel = 14;
 
         String outputDexFile = "out.dex";
         String dumpFileName = null;
+        String cacheDirectory = null;
+        long maxCacheSize = SmaliCache.DEFAULT_MAX_SIZE;
 
         String[] remainingArgs = commandLine.getArgs();
 
@@ -119,16 +146,16 @@ public class main {
             switch (opt.charAt(0)) {
                 case 'v':
                     version();
-                    return;
+                    return 0;
                 case '?':
                     while (++i < options.length) {
                         if (options[i].getOpt().charAt(0) == '?') {
                             usage(true);
-                            return;
+                            return 0;
                         }
                     }
                     usage(false);
-                    return;
+                    return 0;
                 case 'o':
                     outputDexFile = commandLine.getOptionValue("o");
                     break;
@@ -160,6 +187,27 @@ public class main {
                 case 'T':
                     printTokens = true;
                     break;
+                case 'I':
+                    printInternStats = true;
+                    break;
+                case 'C':
+                    cacheDirectory = commandLine.getOptionValue("C");
+                    break;
+                case 'Y':
+                    maxCacheSize = Long.parseLong(commandLine.getOptionValue("Y")) * 1024 * 1024;
+                    break;
+                case 'M':
+                    multiDex = true;
+                    break;
+                case 'X':
+                    maxIdCount = Integer.parseInt(commandLine.getOptionValue("X"));
+                    break;
+                case 'P':
+                    printStats = true;
+                    break;
+                case 'Q':
+                    statsJsonFile = commandLine.getOptionValue("Q");
+                    break;
                 default:
                     assert false;
             }
@@ -167,11 +215,23 @@ public class main {
 
         if (remainingArgs.length == 0) {
             usage();
-            return;
+            return 0;
         }
 
+        Metrics.Snapshot statsStart = null;
+        if (printStats || statsJsonFile != null) {
+            Metrics.setEnabled(true);
+            statsStart = Metrics.snapshot();
+        }
+
+        //set unconditionally, so that a previous run in the same JVM doesn't leave it enabled
+        InternTable.setCollectStatistics(printInternStats);
+
         try {
             LinkedHashSet<File> filesToProcess = new LinkedHashSet<File>();
+            //the contents of the smali files that were read from an archive, keyed by a file with the path of the
+            //archive entry under the archive file
+            HashMap<File, byte[]> archivedFiles = new HashMap<File, byte[]>();
 
             for (String arg: remainingArgs) {
                     File argFile = new File(arg);
@@ -182,6 +242,8 @@ public class main {
 
                     if (argFile.isDirectory()) {
                         getSmaliFilesInDir(argFile, filesToProcess);
+                    } else if (argFile.isFile() && ArchiveReader.isArchive(argFile)) {
+                        getSmaliFilesInArchive(argFile, filesToProcess, archivedFiles);
                     } else if (argFile.isFile()) {
                         filesToProcess.add(argFile);
                     }
@@ -197,40 +259,185 @@ public class main {
 
             boolean errors = false;
 
-            for (File file: filesToProcess) {
-                if (!assembleSmaliFile(file, dexFile, verboseErrors, oldLexer, printTokens, allowOdex, apiLevel)) {
-                    errors = true;
+            if (cacheDirectory != null) {
+                SmaliCache cache = new SmaliCache(new File(cacheDirectory), apiLevel, allowOdex, fixGoto,
+                        maxCacheSize);
+                ItemCopier itemCopier = new ItemCopier(dexFile);
+
+                for (File file: filesToProcess) {
+                    byte[] contents = archivedFiles.get(file);
+                    File cacheFile;
+                    if (contents != null) {
+                        cacheFile = cache.getCacheFile(new ByteArrayInputStream(contents));
+                    } else {
+                        cacheFile = cache.getCacheFile(file);
+                    }
+
+                    if (!cacheFile.exists()) {
+                        DexFile classDexFile = new DexFile();
+                        if (!assembleSmaliFile(file, contents, classDexFile, verboseErrors, oldLexer, printTokens,
+                                allowOdex, apiLevel)) {
+                            errors = true;
+                            continue;
+                        }
+                        cache.store(classDexFile, cacheFile);
+                    }
+                    if (!errors) {
+                        cache.copyClasses(cacheFile, itemCopier);
+                    }
+                }
+
+                cache.prune();
+            } else {
+                for (File file: filesToProcess) {
+                    if (!assembleSmaliFile(file, archivedFiles.get(file), dexFile, verboseErrors, oldLexer,
+                            printTokens, allowOdex, apiLevel)) {
+                        errors = true;
+                    }
                 }
             }
 
             if (errors) {
-                System.exit(1);
+                return 1;
             }
 
 
-            if (sort) {
-                dexFile.setSortAllItems(true);
+            if (multiDex && DexFileSplitter.exceedsLimits(dexFile, maxIdCount)) {
+                List<DexFile> dexFiles = DexFileSplitter.splitDexFile(dexFile, maxIdCount);
+
+                ExecutorService executor = Executors.newFixedThreadPool(
+                        Math.min(Runtime.getRuntime().availableProcessors(), dexFiles.size()));
+                try {
+                    List<Future<String>> results = new ArrayList<Future<String>>(dexFiles.size());
+
+                    for (int i=0; i<dexFiles.size(); i++) {
+                        final DexFile splitDexFile = dexFiles.get(i);
+                        final String splitOutputDexFile = getMultiDexFileName(outputDexFile, i);
+                        final String splitDumpFileName =
+                                dumpFileName==null?null:getMultiDexFileName(dumpFileName, i);
+                        final boolean finalSort = sort;
+                        final boolean finalFixJumbo = fixJumbo;
+                        final boolean finalFixGoto = fixGoto;
+                        final boolean finalPrintInternStats = printInternStats;
+
+                        if (apiSet && apiLevel >= 14) {
+                            splitDexFile.HeaderItem.setVersion(36);
+                        }
+
+                        results.add(executor.submit(new Callable<String>() {
+                            public String call() throws IOException {
+                                return writeDexFile(splitDexFile, splitOutputDexFile, splitDumpFileName, finalSort,
+                                        finalFixJumbo, finalFixGoto, finalPrintInternStats);
+                            }
+                        }));
+                    }
+
+                    for (int i=0; i<results.size(); i++) {
+                        String internStatistics = results.get(i).get();
+                        if (internStatistics != null) {
+                            System.out.println(getMultiDexFileName(outputDexFile, i) + ":");
+                            System.out.print(internStatistics);
+                        }
+                    }
+                } finally {
+                    executor.shutdown();
+                }
+            } else {
+                String internStatistics = writeDexFile(dexFile, outputDexFile, dumpFileName, sort, fixJumbo, fixGoto,
+                        printInternStats);
+                if (internStatistics != null) {
+                    System.out.print(internStatistics);
+                }
+            }
+
+            if (statsStart != null) {
+                writeStats(Metrics.snapshot().since(statsStart), printStats, statsJsonFile);
             }
+        } catch (RuntimeException ex) {
+            System.err.println("\nUNEXPECTED TOP-LEVEL EXCEPTION:");
+            ex.printStackTrace();
+            return 2;
+        } catch (Throwable ex) {
+            System.err.println("\nUNEXPECTED TOP-LEVEL ERROR:");
+            ex.printStackTrace();
+            return 3;
+        }
+        return 0;
+    }
 
-            if (fixJumbo || fixGoto) {
+    private static void getSmaliFilesInDir(File dir, Set<File> smaliFiles) {
+        for(File file: dir.listFiles()) {
+            if (file.isDirectory()) {
+                getSmaliFilesInDir(file, smaliFiles);
+            } else if (file.getName().endsWith(".smali")) {
+                smaliFiles.add(file);
+            }
+        }
+    }
+
+    private static void getSmaliFilesInArchive(File archiveFile, Set<File> smaliFiles, Map<File, byte[]> archivedFiles)
+            throws IOException {
+        for (Map.Entry<String, byte[]> entry: ArchiveReader.readEntries(archiveFile, ".smali").entrySet()) {
+            File file = new File(archiveFile, entry.getKey());
+            smaliFiles.add(file);
+            archivedFiles.put(file, entry.getValue());
+        }
+    }
+
+    /**
+     * Fixes up, places and writes out the given dex file
+     * @return the intern statistics for the dex file if <code>printInternStats</code> is true, otherwise null
+     */
+    private static String writeDexFile(DexFile dexFile, String outputDexFile, String dumpFileName, boolean sort,
+                                       boolean fixJumbo, boolean fixGoto, boolean printInternStats)
+            throws IOException {
+        if (sort) {
+            dexFile.setSortAllItems(true);
+        }
+
+        if (fixJumbo || fixGoto) {
+            Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.FIX_INSTRUCTIONS);
+            try {
                 fixInstructions(dexFile, fixJumbo, fixGoto);
+            } finally {
+                Metrics.endPhase(timer);
             }
+        }
 
+        Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.PLACE);
+        try {
             dexFile.place();
+        } finally {
+            Metrics.endPhase(timer);
+        }
+        Metrics.count(Metrics.Counter.CLASSES, dexFile.ClassDefsSection.getItems().size());
 
-            ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+        String internStatistics = null;
+        if (printInternStats) {
+            internStatistics = dexFile.getInternStatistics();
+        }
 
-            if (dumpFileName != null) {
-                out.enableAnnotations(120, true);
-            }
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
 
+        if (dumpFileName != null) {
+            out.enableAnnotations(120, true);
+        }
+
+        byte[] bytes;
+        timer = Metrics.startPhase(Metrics.Phase.WRITE);
+        try {
             dexFile.writeTo(out);
 
-            byte[] bytes = out.toByteArray();
+            bytes = out.toByteArray();
 
             DexFile.calcSignature(bytes);
             DexFile.calcChecksum(bytes);
+        } finally {
+            Metrics.endPhase(timer);
+        }
 
+        timer = Metrics.startPhase(Metrics.Phase.FILE_IO);
+        try {
             if (dumpFileName != null) {
                 out.finishAnnotating();
 
@@ -243,25 +450,27 @@ public class main {
 
             fileOutputStream.write(bytes);
             fileOutputStream.close();
-        } catch (RuntimeException ex) {
-            System.err.println("\nUNEXPECTED TOP-LEVEL EXCEPTION:");
-            ex.printStackTrace();
-            System.exit(2);
-        } catch (Throwable ex) {
-            System.err.println("\nUNEXPECTED TOP-LEVEL ERROR:");
-            ex.printStackTrace();
-            System.exit(3);
+        } finally {
+            Metrics.endPhase(timer);
         }
+
+        return internStatistics;
     }
 
-    private static void getSmaliFilesInDir(File dir, Set<File> smaliFiles) {
-        for(File file: dir.listFiles()) {
-            if (file.isDirectory()) {
-                getSmaliFilesInDir(file, smaliFiles);
-            } else if (file.getName().endsWith(".smali")) {
-                smaliFiles.add(file);
-            }
+    /**
+     * Gets the name of the nth file of a multi-dex output, e.g. classes.dex, classes2.dex, classes3.dex, etc.
+     */
+    private static String getMultiDexFileName(String fileName, int index) {
+        if (index == 0) {
+            return fileName;
+        }
+
+        int separatorIndex = fileName.lastIndexOf(File.separatorChar);
+        int extensionIndex = fileName.lastIndexOf('.');
+        if (extensionIndex <= separatorIndex + 1) {
+            return fileName + (index + 1);
         }
+        return fileName.substring(0, extensionIndex) + (index + 1) + fileName.substring(extensionIndex);
     }
 
     private static void fixInstructions(DexFile dexFile, boolean fixJumbo, boolean fixGoto) {
@@ -272,8 +481,12 @@ public class main {
         }
     }
 
-    private static boolean assembleSmaliFile(File smaliFile, DexFile dexFile, boolean verboseErrors, boolean oldLexer,
-                                             boolean printTokens, boolean allowOdex, int apiLevel)
+    /**
+     * @param smaliFile the smali file to assemble. For a file from an archive, this is only used for error messages
+     * @param contents the contents of the smali file if it was read from an archive, or null to read the file
+     */
+    private static boolean assembleSmaliFile(File smaliFile, byte[] contents, DexFile dexFile, boolean verboseErrors,
+                                             boolean oldLexer, boolean printTokens, boolean allowOdex, int apiLevel)
             throws Exception {
         CommonTokenStream tokens;
 
@@ -282,20 +495,45 @@ public class main {
         LexerErrorInterface lexer;
 
         if (oldLexer) {
-            ANTLRFileStream input = new ANTLRFileStream(smaliFile.getAbsolutePath(), "UTF-8");
-            input.name = smaliFile.getAbsolutePath();
+            ANTLRStringStream input;
+            if (contents != null) {
+                ANTLRInputStream inputStream = new ANTLRInputStream(new ByteArrayInputStream(contents), "UTF-8");
+                inputStream.name = smaliFile.getPath();
+                input = inputStream;
+            } else {
+                ANTLRFileStream fileStream = new ANTLRFileStream(smaliFile.getAbsolutePath(), "UTF-8");
+                fileStream.name = smaliFile.getAbsolutePath();
+                input = fileStream;
+            }
 
             lexer = new smaliLexer(input);
             tokens = new CommonTokenStream((TokenSource)lexer);
         } else {
-            FileInputStream fis = new FileInputStream(smaliFile.getAbsolutePath());
-            InputStreamReader reader = new InputStreamReader(fis, "UTF-8");
+            InputStream inputStream;
+            if (contents != null) {
+                inputStream = new ByteArrayInputStream(contents);
+            } else {
+                inputStream = new FileInputStream(smaliFile.getAbsolutePath());
+            }
+            InputStreamReader reader = new InputStreamReader(inputStream, "UTF-8");
 
             lexer = new smaliFlexLexer(reader);
             ((smaliFlexLexer)lexer).setSourceFile(smaliFile);
             tokens = new CommonTokenStream((TokenSource)lexer);
         }
 
+        Metrics.count(Metrics.Counter.SMALI_FILES);
+
+        if (Metrics.isEnabled()) {
+            //read in all of the tokens up front, so that the lexing time can be measured separately from parsing
+            Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.LEXING);
+            try {
+                tokens.getTokens();
+            } finally {
+                Metrics.endPhase(timer);
+            }
+        }
+
         if (printTokens) {
             tokens.getTokens();
             
@@ -314,7 +552,13 @@ public class main {
         parser.setAllowOdex(allowOdex);
         parser.setApiLevel(apiLevel);
 
-        smaliParser.smali_file_return result = parser.smali_file();
+        smaliParser.smali_file_return result;
+        Metrics.PhaseTimer timer = Metrics.startPhase(Metrics.Phase.PARSING);
+        try {
+            result = parser.smali_file();
+        } finally {
+            Metrics.endPhase(timer);
+        }
 
         if (parser.getNumberOfSyntaxErrors() > 0 || lexer.getNumberOfSyntaxErrors() > 0) {
             return false;
@@ -328,7 +572,12 @@ public class main {
         smaliTreeWalker dexGen = new smaliTreeWalker(treeStream);
 
         dexGen.dexFile = dexFile;
-        dexGen.smali_file();
+        timer = Metrics.startPhase(Metrics.Phase.TREE_WALKING);
+        try {
+            dexGen.smali_file();
+        } finally {
+            Metrics.endPhase(timer);
+        }
 
         if (dexGen.getNumberOfSyntaxErrors() > 0) {
             return false;
@@ -338,6 +587,32 @@ public class main {
     }
 
 
+    /**
+     * Prints and/or writes out the statistics collected during the run
+     */
+    private static void writeStats(Metrics.Snapshot stats, boolean printStats, String statsJsonFile)
+            throws IOException {
+        if (printStats) {
+            stats.printSummary(System.out);
+        }
+
+        if (statsJsonFile != null) {
+            FileWriter writer = new FileWriter(statsJsonFile);
+            try {
+                stats.writeJson(writer);
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * @return the command line options that are recognized by smali
+     */
+    public static Options getOptions() {
+        return options;
+    }
+
     /**
      * Prints the usage message.
      */
@@ -351,8 +626,9 @@ public class main {
 
         formatter.setWidth(consoleWidth);
 
-        formatter.printHelp("java -jar smali.jar [options] [--] [<smali-file>|folder]*",
-                "assembles a set of smali files into a dex file", basicOptions, printDebugOptions?debugOptions:null);
+        formatter.printHelp("java -jar smali.jar [options] [--] [<smali-file>|folder|archive]*",
+                "assembles a set of smali files into a dex file. The smali files in .zip, .jar or .tar archives " +
+                "are assembled directly from the archive", basicOptions, printDebugOptions?debugOptions:null);
     }
 
     private static void usage() {
@@ -366,7 +642,6 @@ public class main {
         System.out.println("smali " + VERSION + " (http://smali.googlecode.com)");
         System.out.println("Copyright (C) 2010 Ben Gruver (JesusFreke@JesusFreke.com)");
         System.out.println("BSD license (http://www.opensource.org/licenses/bsd-license.php)");
-        System.exit(0);
     }
 
     private static void buildOptions() {
@@ -397,6 +672,29 @@ public class main {
                 .withArgName("API_LEVEL")
                 .create("a");
 
+        Option cacheDirOption = OptionBuilder.withLongOpt("cache-dir")
+                .withDescription("incrementally assemble, using DIR to cache the assembled form of each smali file." +
+                        " Only the files that have changed since the previous run with the same cache directory are" +
+                        " re-assembled. The classes in the output are the same as without this option, but the data" +
+                        " items are laid out in a different order, so the output isn't byte for byte identical")
+                .hasArg()
+                .withArgName("DIR")
+                .create("C");
+
+        Option cacheSizeOption = OptionBuilder.withLongOpt("cache-size")
+                .withDescription("the size limit of the --cache-dir directory, in MB. The least recently used entries" +
+                        " that weren't used by the current run are deleted to stay within it. Defaults to " +
+                        (SmaliCache.DEFAULT_MAX_SIZE / (1024 * 1024)))
+                .hasArg()
+                .withArgName("MB")
+                .create("Y");
+
+        Option multiDexOption = OptionBuilder.withLongOpt("multi-dex")
+                .withDescription("split the classes across multiple dex files if they reference more methods, fields" +
+                        " or types than fit in a single dex file. The additional files are named after the output" +
+                        " file, e.g. classes.dex, classes2.dex, classes3.dex, etc.")
+                .create("M");
+
         Option dumpOption = OptionBuilder.withLongOpt("dump-to")
                 .withDescription("additionally writes a dump of written dex file to FILE (<dexfile>.dump by default)")
                 .hasOptionalArg()
@@ -427,11 +725,36 @@ public class main {
                 .withDescription("Print the name and text of each token")
                 .create("T");
 
+        Option maxIdCountOption = OptionBuilder.withLongOpt("max-id-count")
+                .withDescription("the maximum number of method, field or type ids in each dex file, when using" +
+                        " --multi-dex. The default is 65536")
+                .hasArg()
+                .withArgName("COUNT")
+                .create("X");
+
+        Option statsOption = OptionBuilder.withLongOpt("stats")
+                .withDescription("print the time and memory spent in each phase of the assembly, along with counts of " +
+                        "the classes, methods and instructions that were processed")
+                .create("P");
+
+        Option statsJsonOption = OptionBuilder.withLongOpt("stats-json")
+                .withDescription("write the same statistics as --stats to FILE, in JSON format")
+                .hasArg()
+                .withArgName("FILE")
+                .create("Q");
+
+        Option printInternStatsOption = OptionBuilder.withLongOpt("print-intern-stats")
+                .withDescription("Print statistics about the intern tables of the dex file that was generated")
+                .create("I");
+
         basicOptions.addOption(versionOption);
         basicOptions.addOption(helpOption);
         basicOptions.addOption(outputOption);
         basicOptions.addOption(allowOdexOption);
         basicOptions.addOption(apiLevelOption);
+        basicOptions.addOption(cacheDirOption);
+        basicOptions.addOption(cacheSizeOption);
+        basicOptions.addOption(multiDexOption);
 
         debugOptions.addOption(dumpOption);
         debugOptions.addOption(sortOption);
@@ -440,6 +763,10 @@ public class main {
         debugOptions.addOption(verboseErrorsOption);
         debugOptions.addOption(oldLexerOption);
         debugOptions.addOption(printTokensOption);
+        debugOptions.addOption(printInternStatsOption);
+        debugOptions.addOption(maxIdCountOption);
+        debugOptions.addOption(statsOption);
+        debugOptions.addOption(statsJsonOption);
 
         for (Object option: basicOptions.getOptions()) {
             options.addOption((Option)option);
@@ -0,0 +1,184 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.jf.dexlib.ClassDataItem;
+import org.jf.dexlib.ClassDefItem;
+import org.jf.dexlib.Code.Analysis.ClassPath;
+import org.jf.dexlib.Code.Analysis.MethodAnalyzer;
+import org.jf.dexlib.Code.Analysis.ValidationException;
+import org.jf.dexlib.DexFile;
+import org.jf.smali.CorpusGenerator;
+import org.jf.smali.main;
+import org.junit.*;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+public class CorpusGeneratorTest {
+    private File tempDirectory;
+
+    @Before
+    public void createTempDirectory() throws IOException {
+        tempDirectory = File.createTempFile("corpusgeneratortest", "");
+        tempDirectory.delete();
+        Assert.assertTrue(tempDirectory.mkdir());
+    }
+
+    @After
+    public void deleteTempDirectory() {
+        ClassPath.clearClassPath();
+        delete(tempDirectory);
+    }
+
+    private static CorpusGenerator getGenerator(long seed) {
+        CorpusGenerator generator = new CorpusGenerator();
+        generator.seed = seed;
+        generator.classCount = 120;
+        generator.methodsPerClass = 4;
+        generator.instructionsPerMethod = 40;
+        generator.stringPoolSize = 200;
+        //make sure that every kind of block shows up in a corpus this small
+        generator.tryDensity = 0.3;
+        generator.switchDensity = 0.2;
+        return generator;
+    }
+
+    @Test
+    public void deterministicTest() throws IOException {
+        File first = new File(tempDirectory, "first");
+        File second = new File(tempDirectory, "second");
+        int fileCount = getGenerator(1234).generate(first);
+        Assert.assertEquals(120, fileCount);
+        Assert.assertEquals(fileCount, getGenerator(1234).generate(second));
+
+        TreeMap<String, byte[]> firstFiles = readFiles(first);
+        TreeMap<String, byte[]> secondFiles = readFiles(second);
+        Assert.assertEquals(fileCount, firstFiles.size());
+        Assert.assertEquals(firstFiles.keySet(), secondFiles.keySet());
+        for (String path: firstFiles.keySet()) {
+            Assert.assertTrue(path, Arrays.equals(firstFiles.get(path), secondFiles.get(path)));
+        }
+
+        //and a different seed gives a different corpus
+        File third = new File(tempDirectory, "third");
+        getGenerator(4321).generate(third);
+        TreeMap<String, byte[]> thirdFiles = readFiles(third);
+        boolean different = false;
+        for (String path: firstFiles.keySet()) {
+            if (!Arrays.equals(firstFiles.get(path), thirdFiles.get(path))) {
+                different = true;
+                break;
+            }
+        }
+        Assert.assertTrue(different);
+    }
+
+    @Test
+    public void assembleAndVerifyTest() throws Exception {
+        File smaliDirectory = new File(tempDirectory, "smali");
+        getGenerator(1234).generate(smaliDirectory);
+
+        File dexFile = new File(tempDirectory, "classes.dex");
+        Assert.assertEquals(0, main.run(new String[] {"-o", dexFile.getPath(), smaliDirectory.getPath()}));
+
+        DexFile dex = new DexFile(dexFile);
+        Assert.assertEquals(120, dex.ClassDefsSection.getItems().size());
+
+        //the generated code only refers to classes in core.jar
+        ClassPath.clearClassPath();
+        ClassPath.InitializeClassPath(new String[] {new File("../libandroid").getCanonicalPath()},
+                new String[] {"core.jar"}, null, dexFile.getPath(), dex, null);
+
+        //analyze and verify each method, the same way that baksmali -V does
+        int methodCount = 0;
+        for (ClassDefItem classDefItem: dex.ClassDefsSection.getItems()) {
+            ClassDataItem classDataItem = classDefItem.getClassData();
+            Assert.assertNotNull(classDataItem);
+            for (int i=0; i<2; i++) {
+                ClassDataItem.EncodedMethod[] encodedMethods =
+                        i==0?classDataItem.getDirectMethods():classDataItem.getVirtualMethods();
+                for (ClassDataItem.EncodedMethod encodedMethod: encodedMethods) {
+                    MethodAnalyzer methodAnalyzer = new MethodAnalyzer(encodedMethod, null);
+                    methodAnalyzer.analyze();
+                    if (methodAnalyzer.getValidationException() == null) {
+                        methodAnalyzer.verify();
+                    }
+                    ValidationException validationException = methodAnalyzer.getValidationException();
+                    if (validationException != null) {
+                        Assert.fail(encodedMethod.method.getMethodString() + ": " +
+                                validationException.getMessage());
+                    }
+                    methodCount++;
+                }
+            }
+        }
+        //4 methods and a constructor in each class
+        Assert.assertEquals(120 * 5, methodCount);
+    }
+
+    private static TreeMap<String, byte[]> readFiles(File directory) throws IOException {
+        TreeMap<String, byte[]> files = new TreeMap<String, byte[]>();
+        readFiles(directory, "", files);
+        return files;
+    }
+
+    private static void readFiles(File directory, String prefix, TreeMap<String, byte[]> files) throws IOException {
+        File[] children = directory.listFiles();
+        Assert.assertNotNull(children);
+        for (File child: children) {
+            String path = prefix + child.getName();
+            if (child.isDirectory()) {
+                readFiles(child, path + "/", files);
+            } else {
+                InputStream in = new FileInputStream(child);
+                try {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                    files.put(path, out.toByteArray());
+                } finally {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
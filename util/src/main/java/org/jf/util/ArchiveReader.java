@@ -0,0 +1,291 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.util;
+
+import java.io.*;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the files in a zip or tar archive into memory
+ */
+public class ArchiveReader {
+    private ArchiveReader() {
+    }
+
+    /**
+     * @param file the file to check
+     * @return true if the given file has the extension of an archive that can be read by this class
+     */
+    public static boolean isArchive(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".zip") || name.endsWith(".jar") || isTarFile(file);
+    }
+
+    static boolean isTarFile(File file) {
+        return file.getName().toLowerCase().endsWith(".tar");
+    }
+
+    /**
+     * Reads the files with the given extension from an archive. A tar archive is read if the file name ends in
+     * .tar, otherwise it is read as a zip archive
+     * @param archiveFile the archive to read
+     * @param extension the extension of the entries to read, e.g. ".smali"
+     * @return a map of the entry names to the entry contents, in the order that the entries appear in the archive
+     */
+    public static Map<String, byte[]> readEntries(File archiveFile, String extension) throws IOException {
+        if (isTarFile(archiveFile)) {
+            InputStream inputStream = new BufferedInputStream(new FileInputStream(archiveFile), 65536);
+            try {
+                return readTarEntries(inputStream, extension);
+            } finally {
+                inputStream.close();
+            }
+        }
+        return readZipEntries(archiveFile, extension);
+    }
+
+    private static Map<String, byte[]> readZipEntries(File archiveFile, String extension) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+
+        ZipFile zipFile = new ZipFile(archiveFile);
+        try {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry zipEntry = zipEntries.nextElement();
+                if (zipEntry.isDirectory() || !zipEntry.getName().endsWith(extension)) {
+                    continue;
+                }
+
+                InputStream inputStream = zipFile.getInputStream(zipEntry);
+                try {
+                    long size = zipEntry.getSize();
+                    if (size >= 0) {
+                        byte[] data = new byte[(int)size];
+                        readFully(inputStream, data);
+                        entries.put(zipEntry.getName(), data);
+                    } else {
+                        entries.put(zipEntry.getName(), readAll(inputStream));
+                    }
+                } finally {
+                    inputStream.close();
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+
+        return entries;
+    }
+
+    static Map<String, byte[]> readTarEntries(InputStream inputStream, String extension) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        byte[] header = new byte[TarFormat.BLOCK_SIZE];
+
+        String longName = null;
+
+        while (true) {
+            if (!readBlock(inputStream, header)) {
+                //some writers omit the end of archive blocks
+                break;
+            }
+
+            if (isEmptyBlock(header)) {
+                break;
+            }
+
+            if (TarFormat.calculateChecksum(getChecksumHeader(header)) != parseOctal(header,
+                    TarFormat.CHECKSUM_OFFSET, 8)) {
+                throw new IOException("Invalid tar header checksum");
+            }
+
+            long size = parseOctal(header, TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH);
+            byte type = header[TarFormat.TYPE_OFFSET];
+
+            String name;
+            if (longName != null) {
+                name = longName;
+                longName = null;
+            } else {
+                name = getName(header);
+            }
+
+            if (type == TarFormat.TYPE_LONG_NAME) {
+                byte[] data = readEntryData(inputStream, size);
+                int length = 0;
+                while (length < data.length && data[length] != 0) {
+                    length++;
+                }
+                longName = new String(data, 0, length, "UTF-8");
+            } else if ((type == TarFormat.TYPE_FILE || type == TarFormat.TYPE_OLD_FILE) && name.endsWith(extension)) {
+                entries.put(name, readEntryData(inputStream, size));
+            } else {
+                skipFully(inputStream, size + TarFormat.getPadding(size));
+            }
+        }
+
+        return entries;
+    }
+
+    private static String getName(byte[] header) throws UnsupportedEncodingException {
+        String name = getString(header, TarFormat.NAME_OFFSET, TarFormat.NAME_LENGTH);
+
+        boolean isUstar = true;
+        for (int i=0; i<5; i++) {
+            if (header[TarFormat.MAGIC_OFFSET + i] != TarFormat.USTAR_MAGIC[i]) {
+                isUstar = false;
+                break;
+            }
+        }
+
+        if (isUstar) {
+            String prefix = getString(header, TarFormat.PREFIX_OFFSET, TarFormat.PREFIX_LENGTH);
+            if (prefix.length() > 0) {
+                return prefix + '/' + name;
+            }
+        }
+        return name;
+    }
+
+    private static String getString(byte[] header, int offset, int maxLength) throws UnsupportedEncodingException {
+        int length = 0;
+        while (length < maxLength && header[offset + length] != 0) {
+            length++;
+        }
+        return new String(header, offset, length, "UTF-8");
+    }
+
+    private static byte[] getChecksumHeader(byte[] header) {
+        byte[] checksumHeader = header.clone();
+        for (int i=0; i<8; i++) {
+            checksumHeader[TarFormat.CHECKSUM_OFFSET + i] = ' ';
+        }
+        return checksumHeader;
+    }
+
+    /**
+     * Parses an octal number, which may be padded with leading spaces or zeros, and is terminated by a null or space
+     */
+    private static long parseOctal(byte[] header, int offset, int length) throws IOException {
+        long value = 0;
+        int end = offset + length;
+        int position = offset;
+
+        while (position < end && header[position] == ' ') {
+            position++;
+        }
+
+        for (; position < end; position++) {
+            byte b = header[position];
+            if (b == 0 || b == ' ') {
+                break;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("Invalid octal number in tar header");
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+    private static boolean isEmptyBlock(byte[] block) {
+        for (byte b: block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] readEntryData(InputStream inputStream, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Tar entry is too large");
+        }
+        byte[] data = new byte[(int)size];
+        readFully(inputStream, data);
+        skipFully(inputStream, TarFormat.getPadding(size));
+        return data;
+    }
+
+    /**
+     * @return false if the end of the stream was reached before reading any of the block
+     */
+    private static boolean readBlock(InputStream inputStream, byte[] block) throws IOException {
+        int read = inputStream.read(block);
+        if (read == -1) {
+            return false;
+        }
+        int position = read;
+        while (position < block.length) {
+            read = inputStream.read(block, position, block.length - position);
+            if (read == -1) {
+                throw new EOFException("Unexpected end of tar archive");
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    private static void readFully(InputStream inputStream, byte[] data) throws IOException {
+        int position = 0;
+        while (position < data.length) {
+            int read = inputStream.read(data, position, data.length - position);
+            if (read == -1) {
+                throw new EOFException("Unexpected end of archive entry");
+            }
+            position += read;
+        }
+    }
+
+    private static void skipFully(InputStream inputStream, long count) throws IOException {
+        while (count > 0) {
+            long skipped = inputStream.skip(count);
+            if (skipped <= 0) {
+                if (inputStream.read() == -1) {
+                    throw new EOFException("Unexpected end of tar archive");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.util;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a set of files into a single zip or tar archive. The files are given as in-memory byte arrays, and the
+ * entry names use '/' as the separator.
+ */
+public abstract class ArchiveWriter implements Closeable {
+    protected final OutputStream outputStream;
+    protected final long time = System.currentTimeMillis();
+
+    protected ArchiveWriter(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * Creates an <code>ArchiveWriter</code> for the given file. A tar archive is written if the file name ends in
+     * .tar, otherwise a zip archive is written
+     * @param archiveFile the archive file to write
+     * @return an <code>ArchiveWriter</code> for the given file
+     */
+    public static ArchiveWriter createArchiveWriter(File archiveFile) throws IOException {
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(archiveFile), 65536);
+        if (ArchiveReader.isTarFile(archiveFile)) {
+            return new TarArchiveWriter(outputStream);
+        }
+        return new ZipArchiveWriter(outputStream);
+    }
+
+    /**
+     * Adds a file to the archive
+     * @param name the name of the entry, using '/' as the separator
+     * @param data an array containing the contents of the file
+     * @param offset the offset in <code>data</code> at which the contents start
+     * @param length the length of the contents
+     */
+    public abstract void writeEntry(String name, byte[] data, int offset, int length) throws IOException;
+
+    public void writeEntry(String name, byte[] data) throws IOException {
+        writeEntry(name, data, 0, data.length);
+    }
+
+    private static class ZipArchiveWriter extends ArchiveWriter {
+        private final ZipOutputStream zipOutputStream;
+
+        public ZipArchiveWriter(OutputStream outputStream) {
+            super(outputStream);
+            zipOutputStream = new ZipOutputStream(outputStream);
+        }
+
+        @Override
+        public void writeEntry(String name, byte[] data, int offset, int length) throws IOException {
+            ZipEntry zipEntry = new ZipEntry(name);
+            zipEntry.setTime(time);
+            zipOutputStream.putNextEntry(zipEntry);
+            zipOutputStream.write(data, offset, length);
+            zipOutputStream.closeEntry();
+        }
+
+        public void close() throws IOException {
+            zipOutputStream.close();
+        }
+    }
+
+    /**
+     * Writes a POSIX ustar archive. Names that don't fit in the ustar name and prefix fields are written with a GNU
+     * long name entry
+     */
+    private static class TarArchiveWriter extends ArchiveWriter {
+        private final byte[] header = new byte[TarFormat.BLOCK_SIZE];
+
+        public TarArchiveWriter(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void writeEntry(String name, byte[] data, int offset, int length) throws IOException {
+            byte[] nameBytes = name.getBytes("UTF-8");
+
+            int prefixLength = 0;
+            if (nameBytes.length > TarFormat.NAME_LENGTH) {
+                prefixLength = getPrefixLength(nameBytes);
+                if (prefixLength == -1) {
+                    byte[] longName = new byte[nameBytes.length + 1];
+                    System.arraycopy(nameBytes, 0, longName, 0, nameBytes.length);
+
+                    writeHeader(TarFormat.LONG_NAME_ENTRY_NAME, 0, TarFormat.LONG_NAME_ENTRY_NAME.length, 0,
+                            longName.length, TarFormat.TYPE_LONG_NAME);
+                    writeData(longName, 0, longName.length);
+
+                    writeHeader(nameBytes, 0, TarFormat.NAME_LENGTH, 0, length, TarFormat.TYPE_FILE);
+                    writeData(data, offset, length);
+                    return;
+                }
+            }
+
+            writeHeader(nameBytes, prefixLength == 0 ? 0 : prefixLength + 1, nameBytes.length, prefixLength, length,
+                    TarFormat.TYPE_FILE);
+            writeData(data, offset, length);
+        }
+
+        /**
+         * Finds where to split a long name into the ustar prefix and name fields
+         * @return the length of the prefix, not including the separating '/', or -1 if the name can't be split
+         */
+        private static int getPrefixLength(byte[] nameBytes) {
+            for (int i=nameBytes.length - TarFormat.NAME_LENGTH - 1; i<nameBytes.length-1; i++) {
+                if (i > TarFormat.PREFIX_LENGTH) {
+                    return -1;
+                }
+                if (i > 0 && nameBytes[i] == '/') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void writeHeader(byte[] nameBytes, int nameStart, int nameEnd, int prefixLength, long size,
+                                 byte type) throws IOException {
+            Arrays.fill(header, (byte)0);
+
+            System.arraycopy(nameBytes, nameStart, header, TarFormat.NAME_OFFSET, nameEnd - nameStart);
+            writeOctal(TarFormat.MODE_OFFSET, 8, 0644);
+            writeOctal(TarFormat.UID_OFFSET, 8, 0);
+            writeOctal(TarFormat.GID_OFFSET, 8, 0);
+            writeOctal(TarFormat.SIZE_OFFSET, 12, size);
+            writeOctal(TarFormat.MTIME_OFFSET, 12, time / 1000);
+            header[TarFormat.TYPE_OFFSET] = type;
+            System.arraycopy(TarFormat.USTAR_MAGIC, 0, header, TarFormat.MAGIC_OFFSET, TarFormat.USTAR_MAGIC.length);
+            System.arraycopy(nameBytes, 0, header, TarFormat.PREFIX_OFFSET, prefixLength);
+
+            //the checksum is calculated with the checksum field set to spaces
+            for (int i=0; i<8; i++) {
+                header[TarFormat.CHECKSUM_OFFSET + i] = ' ';
+            }
+            writeOctal(TarFormat.CHECKSUM_OFFSET, 7, TarFormat.calculateChecksum(header));
+
+            outputStream.write(header);
+        }
+
+        /**
+         * Writes the given value as a zero padded, null terminated octal number
+         */
+        private void writeOctal(int offset, int length, long value) {
+            int position = offset + length - 1;
+            header[position--] = 0;
+            while (position >= offset) {
+                header[position--] = (byte)('0' + (value & 7));
+                value >>>= 3;
+            }
+        }
+
+        private void writeData(byte[] data, int offset, int length) throws IOException {
+            outputStream.write(data, offset, length);
+            int padding = TarFormat.getPadding(length);
+            for (int i=0; i<padding; i++) {
+                outputStream.write(0);
+            }
+        }
+
+        public void close() throws IOException {
+            //the end of the archive is marked by two empty blocks
+            Arrays.fill(header, (byte)0);
+            outputStream.write(header);
+            outputStream.write(header);
+            outputStream.close();
+        }
+    }
+}
@@ -28,11 +28,9 @@
 
 package org.jf.util;
 
-import ds.tree.RadixTree;
-import ds.tree.RadixTreeImpl;
-
 import java.io.*;
 import java.nio.CharBuffer;
+import java.util.HashMap;
 import java.util.regex.Pattern;
 
 /**
@@ -44,6 +42,8 @@ public class ClassFileNameHandler {
     private PackageNameEntry top;
     private String fileExtension;
     private boolean modifyWindowsReservedFilenames;
+    //whether the file system is case sensitive. -1 means that it is tested for each directory where it matters
+    private int caseSensitivity = -1;
 
     public ClassFileNameHandler(File path, String fileExtension) {
         this.top = new PackageNameEntry(path);
@@ -51,6 +51,19 @@ public class ClassFileNameHandler {
         this.modifyWindowsReservedFilenames = testForWindowsReservedFileNames(path);
     }
 
+    /**
+     * Creates a <code>ClassFileNameHandler</code> that generates relative names that aren't tied to a file system,
+     * i.e. for the entries of an archive. The names are generated as if for a case-insensitive file system on which
+     * the windows reserved file names are modified, so that the archive can be extracted anywhere
+     * @param fileExtension the extension of the generated file names
+     */
+    public ClassFileNameHandler(String fileExtension) {
+        this.top = new PackageNameEntry(null);
+        this.fileExtension = fileExtension;
+        this.modifyWindowsReservedFilenames = true;
+        this.caseSensitivity = 0;
+    }
+
     public File getUniqueFilenameForClass(String className) {
         //class names should be passed in the normal dalvik style, with a leading L, a trailing ;, and using
         //'/' as a separator.
@@ -58,7 +71,6 @@ public class ClassFileNameHandler {
             throw new RuntimeException("Not a valid dalvik class name");
         }
 
-        String blah;
         int packageElementCount = 1;
         for (int i=1; i<className.length()-1; i++) {
             if (className.charAt(i) == '/') {
@@ -153,7 +165,7 @@ public class ClassFileNameHandler {
     private class PackageNameEntry extends FileSystemEntry {
         //this contains the FileSystemEntries for all of this package's children
         //the associated keys are all lowercase
-        private RadixTree<FileSystemEntry> children = new RadixTreeImpl<FileSystemEntry>();
+        private HashMap<String, FileSystemEntry> children = new HashMap<String, FileSystemEntry>();
 
         public PackageNameEntry(File parent, String name) {
             super(new File(parent, name));
@@ -182,7 +194,7 @@ public class ClassFileNameHandler {
             }
             elementNameLower = elementName.toLowerCase();
 
-            FileSystemEntry existingEntry = children.find(elementNameLower);
+            FileSystemEntry existingEntry = children.get(elementNameLower);
             if (existingEntry != null) {
                 FileSystemEntry virtualEntry = existingEntry;
                 //if there is already another entry with the same name but different case, we need to
@@ -196,7 +208,7 @@ public class ClassFileNameHandler {
                         }
                     } else {
                         virtualEntry = existingEntry.makeVirtual(file);
-                        children.replace(elementNameLower, virtualEntry);
+                        children.put(elementNameLower, virtualEntry);
                     }
                 }
 
@@ -205,11 +217,11 @@ public class ClassFileNameHandler {
 
             if (pathElementsIndex == pathElements.length - 1) {
                 ClassNameEntry classNameEntry = new ClassNameEntry(file, elementName);
-                children.insert(elementNameLower, classNameEntry);
+                children.put(elementNameLower, classNameEntry);
                 return classNameEntry.file;
             } else {
                 PackageNameEntry packageNameEntry = new PackageNameEntry(file, elementName);
-                children.insert(elementNameLower, packageNameEntry);
+                children.put(elementNameLower, packageNameEntry);
                 return packageNameEntry.addUniqueChild(pathElements, pathElementsIndex + 1);
             }
         }
@@ -221,19 +233,19 @@ public class ClassFileNameHandler {
     private class VirtualGroupEntry extends FileSystemEntry {
         //this contains the FileSystemEntries for all of the files/directories in this group
         //the key is the unmodified name of the entry, before it is modified to be made unique (if needed).
-        private RadixTree<FileSystemEntry> groupEntries = new RadixTreeImpl<FileSystemEntry>();
+        private HashMap<String, FileSystemEntry> groupEntries = new HashMap<String, FileSystemEntry>();
 
         //whether the containing directory is case sensitive or not.
         //-1 = unset
         //0 = false;
         //1 = true;
-        private int isCaseSensitive = -1;
+        private int isCaseSensitive = caseSensitivity;
 
         public VirtualGroupEntry(FileSystemEntry firstChild, File parent) {
             super(parent);
 
             //use the name of the first child in the group as-is
-            groupEntries.insert(firstChild.file.getName(), firstChild);
+            groupEntries.put(firstChild.file.getName(), firstChild);
         }
 
         @Override
@@ -244,7 +256,7 @@ public class ClassFileNameHandler {
                 elementName = elementName + fileExtension;
             }
 
-            FileSystemEntry existingEntry = groupEntries.find(elementName);
+            FileSystemEntry existingEntry = groupEntries.get(elementName);
             if (existingEntry != null) {
                 if (pathElementsIndex == pathElements.length - 1) {
                     return existingEntry.file;
@@ -257,24 +269,24 @@ public class ClassFileNameHandler {
             if (pathElementsIndex == pathElements.length - 1) {
                 String fileName;
                 if (!isCaseSensitive()) {
-                    fileName = pathElements[pathElementsIndex] + "." + (groupEntries.getSize()+1) + fileExtension;
+                    fileName = pathElements[pathElementsIndex] + "." + (groupEntries.size()+1) + fileExtension;
                 } else {
                     fileName = elementName;
                 }
 
                 ClassNameEntry classNameEntry = new ClassNameEntry(file, fileName);
-                groupEntries.insert(elementName, classNameEntry);
+                groupEntries.put(elementName, classNameEntry);
                 return classNameEntry.file;
             } else {
                 String fileName;
                 if (!isCaseSensitive()) {
-                    fileName = pathElements[pathElementsIndex] + "." + (groupEntries.getSize()+1);
+                    fileName = pathElements[pathElementsIndex] + "." + (groupEntries.size()+1);
                 } else {
                     fileName = elementName;
                 }
 
                 PackageNameEntry packageNameEntry = new PackageNameEntry(file, fileName);
-                groupEntries.insert(elementName, packageNameEntry);
+                groupEntries.put(elementName, packageNameEntry);
                 return packageNameEntry.addUniqueChild(pathElements, pathElementsIndex + 1);
             }
         }
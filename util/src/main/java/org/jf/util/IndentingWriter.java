@@ -28,74 +28,149 @@
 
 package org.jf.util;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
+/**
+ * A writer that indents each line by the current indent level.
+ *
+ * Output is collected in an internal buffer, and is handled in runs of characters between newlines, rather than
+ * one character at a time. When constructed with an <code>OutputStream</code>, the buffer is encoded as UTF-8
+ * directly into a reusable byte buffer and written out through a channel, so no additional buffering or encoding
+ * writer is needed.
+ */
 public class IndentingWriter extends Writer {
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String newLine = System.getProperty("line.separator");
+    private static final char[] newLineChars = newLine.toCharArray();
+
+    private static final char[] spaces = new char[64];
+    static {
+        for (int i=0; i<spaces.length; i++) {
+            spaces[i] = ' ';
+        }
+    }
+
     private final Writer writer;
-    private final char[] buffer = new char[16];
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer byteBuffer;
+
+    private final char[] chars = new char[BUFFER_SIZE];
+    private int charCount = 0;
+
+    private final char[] buffer = new char[24];
     private int indentLevel = 0;
     private boolean beginningOfLine;
-    private static final String newLine = System.getProperty("line.separator");
+    private boolean closed = false;
 
     public IndentingWriter(Writer writer) {
         this.writer = writer;
+        this.channel = null;
+        this.encoder = null;
+        this.byteBuffer = null;
+    }
+
+    /**
+     * Creates a new <code>IndentingWriter</code> that writes UTF-8 encoded output to the given stream
+     * @param outputStream the stream to write to
+     */
+    public IndentingWriter(OutputStream outputStream) {
+        this.writer = null;
+        if (outputStream instanceof FileOutputStream) {
+            this.channel = ((FileOutputStream)outputStream).getChannel();
+        } else {
+            this.channel = Channels.newChannel(outputStream);
+        }
+        this.encoder = Charset.forName("UTF-8").newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.byteBuffer = ByteBuffer.allocate(BUFFER_SIZE * 3);
     }
 
     @Override
     public void write(int chr) throws IOException {
-        //synchronized(lock) {
-            if (chr == '\n') {
-                writer.write(newLine);
-                beginningOfLine = true;
-            } else {
-                if (beginningOfLine) {
-                    for (int i=0; i<indentLevel; i++) {
-                       writer.write(' ');
-                    }
-                }
-                beginningOfLine = false;
-                writer.write(chr);
+        if (chr == '\n') {
+            writeNewLine();
+        } else {
+            if (beginningOfLine) {
+                writeIndent();
             }
-        //}
+            if (charCount == chars.length) {
+                flushChars(false);
+            }
+            chars[charCount++] = (char)chr;
+        }
     }
 
     @Override
     public void write(char[] chars) throws IOException {
-        //synchronized(lock) {
-            for (char chr: chars) {
-                write(chr);
-            }
-        //}
+        write(chars, 0, chars.length);
     }
 
     @Override
     public void write(char[] chars, int start, int len) throws IOException {
-        //synchronized(lock) {
-            len = start+len;
-            while (start < len) {
-                write(chars[start++]);
+        int end = start + len;
+        while (start < end) {
+            int lineEnd = start;
+            while (lineEnd < end && chars[lineEnd] != '\n') {
+                lineEnd++;
+            }
+
+            if (lineEnd > start) {
+                if (beginningOfLine) {
+                    writeIndent();
+                }
+                copyChars(chars, start, lineEnd);
             }
-        //}
+
+            if (lineEnd < end) {
+                writeNewLine();
+                lineEnd++;
+            }
+            start = lineEnd;
+        }
     }
 
     @Override
     public void write(String s) throws IOException {
-        //synchronized (lock) {
-            for (int i=0; i<s.length(); i++) {
-                write(s.charAt(i));
-            }
-        //}
+        write(s, 0, s.length());
     }
 
     @Override
     public void write(String str, int start, int len) throws IOException {
-        //synchronized(lock) {
-            len = start+len;
-            while (start < len) {
-                write(str.charAt(start++));
+        int end = start + len;
+        while (start < end) {
+            int lineEnd = str.indexOf('\n', start);
+            if (lineEnd < 0 || lineEnd > end) {
+                lineEnd = end;
             }
-        //}
+
+            if (lineEnd > start) {
+                if (beginningOfLine) {
+                    writeIndent();
+                }
+                copyChars(str, start, lineEnd);
+            }
+
+            if (lineEnd < end) {
+                writeNewLine();
+                lineEnd++;
+            }
+            start = lineEnd;
+        }
     }
 
     @Override
@@ -118,34 +193,39 @@ public class IndentingWriter extends Writer {
 
     @Override
     public void flush() throws IOException {
-        //synchronized(lock) {
+        flushChars(false);
+        if (writer != null) {
             writer.flush();
-        //}
+        }
     }
 
     @Override
     public void close() throws IOException {
-        //synchronized(lock) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        flushChars(true);
+        if (writer != null) {
             writer.close();
-        //}
+        } else {
+            channel.close();
+        }
     }
 
     public void indent(int indentAmount) {
-        //synchronized(lock) {
-            this.indentLevel += indentAmount;
-            if (indentLevel < 0) {
-                indentLevel = 0;
-            }
-        //}
+        this.indentLevel += indentAmount;
+        if (indentLevel < 0) {
+            indentLevel = 0;
+        }
     }
 
     public void deindent(int indentAmount) {
-        //synchronized(lock) {
-            this.indentLevel -= indentAmount;
-            if (indentLevel < 0) {
-                indentLevel = 0;
-            }
-        //}
+        this.indentLevel -= indentAmount;
+        if (indentLevel < 0) {
+            indentLevel = 0;
+        }
     }
 
     public void printUnsignedLongAsHex(long value) throws IOException {
@@ -161,9 +241,7 @@ public class IndentingWriter extends Writer {
             value >>>= 4;
         } while (value != 0);
 
-        while (bufferIndex>0) {
-            write(buffer[--bufferIndex]);
-        }
+        writeReversed(bufferIndex);
     }
 
     public void printSignedIntAsDec(int value) throws IOException {
@@ -181,8 +259,108 @@ public class IndentingWriter extends Writer {
             value = value / 10;
         } while (value != 0);
 
-        while (bufferIndex>0) {
-            write(buffer[--bufferIndex]);
+        writeReversed(bufferIndex);
+    }
+
+    /**
+     * Writes out the first <code>count</code> characters of the number buffer, in reverse order
+     */
+    private void writeReversed(int count) throws IOException {
+        if (beginningOfLine) {
+            writeIndent();
+        }
+        if (chars.length - charCount < count) {
+            flushChars(false);
+        }
+        while (count > 0) {
+            chars[charCount++] = buffer[--count];
+        }
+    }
+
+    private void writeNewLine() throws IOException {
+        copyChars(newLineChars, 0, newLineChars.length);
+        beginningOfLine = true;
+    }
+
+    private void writeIndent() throws IOException {
+        int remaining = indentLevel;
+        while (remaining > 0) {
+            int count = Math.min(remaining, spaces.length);
+            copyChars(spaces, 0, count);
+            remaining -= count;
+        }
+        beginningOfLine = false;
+    }
+
+    private void copyChars(char[] src, int start, int end) throws IOException {
+        while (start < end) {
+            if (charCount == chars.length) {
+                flushChars(false);
+            }
+            int count = Math.min(end - start, chars.length - charCount);
+            System.arraycopy(src, start, chars, charCount, count);
+            charCount += count;
+            start += count;
+        }
+    }
+
+    private void copyChars(String src, int start, int end) throws IOException {
+        while (start < end) {
+            if (charCount == chars.length) {
+                flushChars(false);
+            }
+            int count = Math.min(end - start, chars.length - charCount);
+            src.getChars(start, start + count, chars, charCount);
+            charCount += count;
+            start += count;
+        }
+    }
+
+    /**
+     * Passes the buffered characters on to the underlying writer, or encodes them and writes them to the channel
+     * @param endOfInput whether this is the final flush. If false, an unpaired high surrogate at the end of the
+     * buffer is kept until the next flush, so that it can be encoded together with its low surrogate
+     */
+    private void flushChars(boolean endOfInput) throws IOException {
+        if (writer != null) {
+            if (charCount > 0) {
+                writer.write(chars, 0, charCount);
+                charCount = 0;
+            }
+            return;
+        }
+
+        CharBuffer charBuffer = CharBuffer.wrap(chars, 0, charCount);
+        while (true) {
+            CoderResult result = encoder.encode(charBuffer, byteBuffer, endOfInput);
+            writeBytes();
+            if (result.isUnderflow()) {
+                break;
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+        }
+
+        if (endOfInput) {
+            while (encoder.flush(byteBuffer).isOverflow()) {
+                writeBytes();
+            }
+            writeBytes();
+        }
+
+        int remaining = charBuffer.remaining();
+        if (remaining > 0) {
+            System.arraycopy(chars, charBuffer.position(), chars, 0, remaining);
+        }
+        charCount = remaining;
+    }
+
+    private void writeBytes() throws IOException {
+        byteBuffer.flip();
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
         }
+        byteBuffer.clear();
     }
 }
@@ -0,0 +1,82 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.util;
+
+/**
+ * The constants and helper methods for the ustar archive format that are shared by <code>ArchiveWriter</code> and
+ * <code>ArchiveReader</code>
+ */
+class TarFormat {
+    public static final int BLOCK_SIZE = 512;
+
+    public static final int NAME_OFFSET = 0;
+    public static final int NAME_LENGTH = 100;
+    public static final int MODE_OFFSET = 100;
+    public static final int UID_OFFSET = 108;
+    public static final int GID_OFFSET = 116;
+    public static final int SIZE_OFFSET = 124;
+    public static final int SIZE_LENGTH = 12;
+    public static final int MTIME_OFFSET = 136;
+    public static final int CHECKSUM_OFFSET = 148;
+    public static final int TYPE_OFFSET = 156;
+    public static final int MAGIC_OFFSET = 257;
+    public static final int PREFIX_OFFSET = 345;
+    public static final int PREFIX_LENGTH = 155;
+
+    public static final byte[] USTAR_MAGIC = new byte[] {'u', 's', 't', 'a', 'r', 0, '0', '0'};
+
+    public static final byte TYPE_FILE = '0';
+    public static final byte TYPE_OLD_FILE = 0;
+    public static final byte TYPE_LONG_NAME = 'L';
+
+    public static final byte[] LONG_NAME_ENTRY_NAME = new byte[] {'.', '/', '.', '/', '@', 'L', 'o', 'n', 'g', 'L',
+            'i', 'n', 'k'};
+
+    private TarFormat() {
+    }
+
+    public static int calculateChecksum(byte[] header) {
+        int checksum = 0;
+        for (byte b: header) {
+            checksum += b & 0xFF;
+        }
+        return checksum;
+    }
+
+    /**
+     * @return the number of bytes needed to pad an entry of the given length to a multiple of the block size
+     */
+    public static int getPadding(long length) {
+        int remainder = (int)(length % BLOCK_SIZE);
+        if (remainder == 0) {
+            return 0;
+        }
+        return BLOCK_SIZE - remainder;
+    }
+}
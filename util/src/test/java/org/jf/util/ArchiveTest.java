@@ -0,0 +1,98 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.util;
+
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ArchiveTest {
+    private static Map<String, byte[]> getTestEntries() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("a/b/C.smali", ".class public La/b/C;\n".getBytes("UTF-8"));
+        entries.put("empty.smali", new byte[0]);
+
+        //a name that has to be split between the ustar prefix and name fields
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<12; i++) {
+            sb.append("package").append(i).append('/');
+        }
+        sb.append("SomeClass.smali");
+        entries.put(sb.toString(), new byte[512]);
+
+        //a name with a file name that is too long for the ustar name field
+        sb = new StringBuilder("long/");
+        for (int i=0; i<30; i++) {
+            sb.append("Name");
+        }
+        sb.append(".smali");
+        entries.put(sb.toString(), new byte[] {1, 2, 3});
+
+        entries.put("not-smali.txt", new byte[] {4});
+        return entries;
+    }
+
+    private static void testArchive(String extension) throws IOException {
+        File archiveFile = File.createTempFile("archivetest", extension);
+        try {
+            Map<String, byte[]> entries = getTestEntries();
+
+            ArchiveWriter archiveWriter = ArchiveWriter.createArchiveWriter(archiveFile);
+            for (Map.Entry<String, byte[]> entry: entries.entrySet()) {
+                archiveWriter.writeEntry(entry.getKey(), entry.getValue());
+            }
+            archiveWriter.close();
+
+            Map<String, byte[]> readEntries = ArchiveReader.readEntries(archiveFile, ".smali");
+            entries.remove("not-smali.txt");
+
+            Assert.assertEquals(new ArrayList<String>(entries.keySet()),
+                    new ArrayList<String>(readEntries.keySet()));
+            for (Map.Entry<String, byte[]> entry: entries.entrySet()) {
+                Assert.assertArrayEquals(entry.getValue(), readEntries.get(entry.getKey()));
+            }
+        } finally {
+            archiveFile.delete();
+        }
+    }
+
+    @Test
+    public void zipTest() throws IOException {
+        testArchive(".zip");
+    }
+
+    @Test
+    public void tarTest() throws IOException {
+        testArchive(".tar");
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * [The "BSD licence"]
+ * Copyright (c) 2010 Ben Gruver
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.jf.util;
+
+import org.junit.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+public class IndentingWriterTest {
+    private static final String newLine = System.getProperty("line.separator");
+
+    private static void writeTestOutput(IndentingWriter writer) throws IOException {
+        writer.write("first line\n");
+        writer.indent(4);
+        writer.write("indented ");
+        writer.write("line\n\nafter blank line\n".toCharArray());
+        writer.indent(2);
+        writer.write('x');
+        writer.printSignedIntAsDec(-1234);
+        writer.write(' ');
+        writer.printUnsignedLongAsHex(0xdeadbeefL);
+        writer.write('\n');
+        writer.deindent(6);
+        writer.write("done");
+    }
+
+    private static final String expectedOutput = "first line" + newLine +
+            "    indented line" + newLine +
+            newLine +
+            "    after blank line" + newLine +
+            "      x-1234 deadbeef" + newLine +
+            "done";
+
+    @Test
+    public void writerTest() throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        IndentingWriter writer = new IndentingWriter(stringWriter);
+        writeTestOutput(writer);
+        writer.close();
+
+        Assert.assertEquals(expectedOutput, stringWriter.toString());
+    }
+
+    @Test
+    public void outputStreamTest() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        IndentingWriter writer = new IndentingWriter(outputStream);
+        writeTestOutput(writer);
+        writer.close();
+
+        Assert.assertEquals(expectedOutput, outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void surrogatePairAcrossBufferTest() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        //put a surrogate pair at every possible offset around the internal buffer boundaries
+        for (int i=0; i<20000; i++) {
+            sb.append('a');
+            sb.append("\u00e9\ud83d\ude00");
+        }
+        String str = sb.toString();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        IndentingWriter writer = new IndentingWriter(outputStream);
+        writer.write(str);
+        writer.close();
+
+        Assert.assertArrayEquals(str.getBytes("UTF-8"), outputStream.toByteArray());
+    }
+}